@@ -2,9 +2,11 @@
 package org.jgroups;
 
 
+import org.jgroups.util.AddressIndex;
 import org.jgroups.util.Util;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Represents a membership of a cluster group. Class Membership is not exposed to clients and is
@@ -15,8 +17,12 @@ import java.util.*;
  * @author Bela Ban
  */
 public class Membership {
-    /* holds all addresses */
-    protected final List<Address> members=new LinkedList<>();
+    /* holds all addresses, in the order in which they were added */
+    protected Address[]             members=new Address[8];
+    protected int                   size;
+
+    /* maps addresses to their positions in members; only maintained for large memberships (null otherwise) */
+    protected Map<Address,Integer>  positions;
 
     
    /**
@@ -53,8 +59,8 @@ public class Membership {
     */
     public List<Address> getMembers() {
         /*clone so that this objects members can not be manipulated from the outside*/
-        synchronized(members) {
-            return new ArrayList<>(members);
+        synchronized(this) {
+            return new ArrayList<>(Arrays.asList(members).subList(0, size));
         }
     }
 
@@ -63,9 +69,16 @@ public class Membership {
     * returns true then the member will not be added to the membership
     */
     public Membership add(Address new_member) {
-        synchronized(members) {
-            if(new_member != null && !members.contains(new_member)) {
-                members.add(new_member);
+        synchronized(this) {
+            if(new_member != null && indexOf(new_member) < 0) {
+                if(size == members.length)
+                    members=Arrays.copyOf(members, size * 2);
+                members[size]=new_member;
+                if(positions != null)
+                    positions.put(new_member, size);
+                size++;
+                if(positions == null && size >= AddressIndex.MIN_SIZE)
+                    reindex(0);
             }
         }
         return this;
@@ -98,8 +111,16 @@ public class Membership {
     */
     public Membership remove(Address old_member) {
         if(old_member != null) {
-            synchronized(members) {
-                members.remove(old_member);
+            synchronized(this) {
+                int pos=indexOf(old_member);
+                if(pos >= 0) {
+                    System.arraycopy(members, pos+1, members, pos, size - pos - 1);
+                    members[--size]=null;
+                    if(positions != null) {
+                        positions.remove(old_member);
+                        reindex(pos);
+                    }
+                }
             }
         }
         return this;
@@ -113,8 +134,9 @@ public class Membership {
     */
     public Membership remove(Collection<Address> v) {
         if(v != null) {
-            synchronized(members) {
-                members.removeAll(v);
+            synchronized(this) {
+                Set<Address> to_be_removed=v instanceof Set? (Set<Address>)v : new HashSet<>(v);
+                removeIf(to_be_removed::contains);
             }
         }
         return this;
@@ -123,8 +145,9 @@ public class Membership {
 
     public Membership retainAll(Collection<Address> v) {
         if(v != null) {
-            synchronized(members) {
-                members.retainAll(v);
+            synchronized(this) {
+                Set<Address> to_be_retained=v instanceof Set? (Set<Address>)v : new HashSet<>(v);
+                removeIf(mbr -> !to_be_retained.contains(mbr));
             }
         }
         return this;
@@ -135,8 +158,10 @@ public class Membership {
      * Removes all the members from this membership
      */
     public Membership clear() {
-        synchronized(members) {
-            members.clear();
+        synchronized(this) {
+            Arrays.fill(members, 0, size, null);
+            size=0;
+            positions=null;
         }
         return this;
     }
@@ -193,16 +218,30 @@ public class Membership {
     * @return true if the member belongs to this membership
     */
     public boolean contains(Address member) {
-        if(member == null) return false;
-        synchronized(members) {
-            return members.contains(member);
+        return indexOf(member) >= 0;
+    }
+
+    /** Returns the position of member in this membership, or -1 if not found */
+    public int indexOf(Address member) {
+        if(member == null) return -1;
+        synchronized(this) {
+            if(positions != null) {
+                Integer pos=positions.get(member);
+                return pos != null? pos : -1;
+            }
+            for(int i=0; i < size; i++)
+                if(member.equals(members[i]))
+                    return i;
+            return -1;
         }
     }
 
 
     public Membership sort() {
-        synchronized(members) {
-            Collections.sort(members);
+        synchronized(this) {
+            Arrays.sort(members, 0, size);
+            if(positions != null)
+                reindex(0);
         }
         return this;
     }
@@ -216,7 +255,7 @@ public class Membership {
      * @return an exact copy of this membership
      */
     public Membership copy() {
-        return new Membership(this.members);
+        return new Membership(getMembers());
     }
 
 
@@ -226,8 +265,8 @@ public class Membership {
     * @return the number of addresses in this membership
     */
     public int size() {
-        synchronized(members) {
-            return members.size();
+        synchronized(this) {
+            return size;
         }
     }
 
@@ -241,16 +280,50 @@ public class Membership {
     *            object.
     */
     public Address elementAt(int index) {
-        synchronized(members) {
-            return members.get(index);
+        synchronized(this) {
+            if(index < 0 || index >= size)
+                throw new ArrayIndexOutOfBoundsException(index);
+            return members[index];
         }
     }
 
 
     public String toString() {
-        synchronized(members) {
-            return Util.printListWithDelimiter(members, ",");
+        synchronized(this) {
+            return Util.printListWithDelimiter(Arrays.asList(members).subList(0, size), ",");
+        }
+    }
+
+    /** Removes all members matching the filter, compacting the array in a single pass. Needs to hold the lock */
+    protected void removeIf(Predicate<Address> filter) {
+        int pos=0;
+        for(int i=0; i < size; i++) {
+            Address mbr=members[i];
+            if(!filter.test(mbr))
+                members[pos++]=mbr;
+            else if(positions != null)
+                positions.remove(mbr);
+        }
+        if(pos == size)
+            return;
+        Arrays.fill(members, pos, size, null);
+        size=pos;
+        if(positions != null)
+            reindex(0);
+    }
+
+    /** Updates the positions of all members starting at from, creating the index if needed. Needs to hold the lock */
+    protected void reindex(int from) {
+        if(size < AddressIndex.MIN_SIZE) {
+            positions=null;
+            return;
+        }
+        if(positions == null) {
+            positions=new HashMap<>(size * 2);
+            from=0;
         }
+        for(int i=from; i < size; i++)
+            positions.put(members[i], i);
     }
 
 
@@ -3,6 +3,7 @@ package org.jgroups;
 
 
 import org.jgroups.annotations.Immutable;
+import org.jgroups.util.AddressIndex;
 import org.jgroups.util.ArrayIterator;
 import org.jgroups.util.SizeStreamable;
 import org.jgroups.util.Util;
@@ -40,6 +41,9 @@ public class View implements Comparable<View>, SizeStreamable, Iterable<Address>
     */
     protected Address[] members;
 
+    /** Maps members to their rank, created lazily on the first lookup in large views */
+    protected volatile AddressIndex index;
+
     protected static final boolean suppress_view_size=Boolean.getBoolean(Global.SUPPRESS_VIEW_SIZE);
 
 
@@ -134,12 +138,22 @@ public class View implements Comparable<View>, SizeStreamable, Iterable<Address>
      * @return true if this view contains the member, false if it doesn't
      */
     public boolean containsMember(Address mbr) {
+        return indexOf(mbr) >= 0;
+    }
+
+    /**
+     * Returns the rank of a member in this view (0 for the coordinator), or -1 if the member is not in this view.
+     * Views with {@link AddressIndex#MIN_SIZE} or more members use a hash index, smaller views are scanned linearly
+     */
+    public int indexOf(Address mbr) {
         if(mbr == null || members == null)
-            return false;
-        for(Address member: members)
-            if(Objects.equals(member, mbr))
-                return true;
-        return false;
+            return -1;
+        if(members.length < AddressIndex.MIN_SIZE)
+            return AddressIndex.indexOf(members, mbr);
+        AddressIndex tmp=index;
+        if(tmp == null) // benign race: concurrent callers may create identical indexes
+            index=tmp=new AddressIndex(members);
+        return tmp.indexOf(mbr);
     }
 
     /** Returns true if all mbrs are elements of this view, false otherwise */
@@ -203,6 +217,7 @@ public class View implements Comparable<View>, SizeStreamable, Iterable<Address>
         view_id=new ViewId();
         view_id.readFrom(in);
         members=Util.readAddresses(in);
+        index=null;
     }
 
     public int serializedSize() {
@@ -1,5 +1,7 @@
 package org.jgroups.blocks.atomic;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author Bela Ban
  * @since 3.0.0
@@ -49,5 +51,38 @@ public interface Counter {
      * @return the updated value
      */
     public long addAndGet(long delta);
-}
 
+    /**
+     * Atomically adds the given value to the current value, without blocking. Concurrent additions to the same
+     * counter may be combined into a single request to the coordinator. The default implementation blocks, calling
+     * {@link #addAndGet(long)}, and returns a completed future.
+     *
+     * @param delta the value to add
+     * @return A future which is completed with the updated value
+     */
+    public default CompletableFuture<Long> addAndGetAsync(long delta) {
+        CompletableFuture<Long> retval=new CompletableFuture<>();
+        try {
+            retval.complete(addAndGet(delta));
+        }
+        catch(Throwable t) {
+            retval.completeExceptionally(t);
+        }
+        return retval;
+    }
+
+    /** Gets the current value of the counter, without blocking */
+    public default CompletableFuture<Long> getAsync() {
+        return addAndGetAsync(0);
+    }
+
+    /** Atomically increments the counter, without blocking. The future is completed with the new value */
+    public default CompletableFuture<Long> incrementAndGetAsync() {
+        return addAndGetAsync(1);
+    }
+
+    /** Atomically decrements the counter, without blocking. The future is completed with the new value */
+    public default CompletableFuture<Long> decrementAndGetAsync() {
+        return addAndGetAsync(-1);
+    }
+}
@@ -34,6 +34,18 @@ public class CounterService {
         return counter_prot.getOrCreateCounter(name, initial_value);
     }
 
+    /**
+     * Returns a counter which hands out unique values from ranges (leases) of the counter with the given name, without
+     * contacting the coordinator for every value
+     * @param name Name of the counter. The counter is created if it doesn't exist
+     * @param initial_value The initial value of a new counter if there is no existing counter
+     * @param lease_size The number of values leased at a time
+     * @return The leased counter. If one already exists for the given counter, it is returned
+     */
+    public LeasedCounter getOrCreateLeasedCounter(String name, long initial_value, int lease_size) {
+        return counter_prot.getOrCreateLeasedCounter(name, initial_value, lease_size);
+    }
+
   
     /**
      * Deletes a counter instance (on the coordinator)
@@ -0,0 +1,34 @@
+package org.jgroups.blocks.atomic;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Generates unique values from a cluster-wide counter without a round trip to the coordinator per value: ranges
+ * (leases) of values are taken from the counter and handed out locally. Values are unique across the cluster, but
+ * values of different members are not ordered, and the values of a lease which was not used up are lost, unless the
+ * lease can be returned (see {@link #release()}).
+ * @author agent
+ * @since  4.0.9
+ */
+public interface LeasedCounter {
+
+    String getName();
+
+    /** The number of values leased at a time */
+    int getLeaseSize();
+
+    /**
+     * Returns the next value of the current lease. If the lease is used up, blocks until a new lease has been taken
+     * from the counter (the next lease is usually prefetched before that).
+     */
+    long next();
+
+    /**
+     * Returns the unused values of the current and prefetched leases to the counter, if no other member took a lease
+     * after them. Called automatically when the member leaves the cluster. Calling {@link #next()} afterwards takes
+     * a new lease.
+     * @return A future which is completed with true if the values were returned, or false if they could not be
+     *         returned (or there was nothing to return)
+     */
+    CompletableFuture<Boolean> release();
+}
@@ -113,6 +113,8 @@ public class ExecutionRunner implements Runnable {
                     }
                 }
                 
+                // Tasks queued for this consumer are handed to other consumers (or rejected)
+                ch.down(new ExecutorEvent(ExecutorEvent.CONSUMER_STOPPED, null));
                 _runnables.remove(currentThread);
             }
         };
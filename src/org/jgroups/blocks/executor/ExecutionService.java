@@ -11,6 +11,7 @@ import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.AbstractQueuedSynchronizer;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -45,6 +46,10 @@ public class ExecutionService extends AbstractExecutorService {
     
     protected AtomicBoolean _shutdown = new AtomicBoolean(false);
 
+    protected final LongAdder _submitted = new LongAdder();
+    protected final LongAdder _submittedFutures = new LongAdder();
+    protected volatile long _statsStart = System.nanoTime();
+
     public ExecutionService() {
         
     }
@@ -650,6 +655,56 @@ public class ExecutionService extends AbstractExecutorService {
         }
     }
 
+    /**
+     * @return the number of tasks submitted to this service
+     */
+    public long getNumSubmitted() {
+        return _submitted.sum();
+    }
+
+    /**
+     * @return the number of submitted futures which are not yet done
+     */
+    public int getNumPending() {
+        _unfinishedLock.lock();
+        try {
+            return _unfinishedFutures.size();
+        }
+        finally {
+            _unfinishedLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of submitted futures which are done (completed,
+     *         failed or cancelled)
+     */
+    public long getNumCompleted() {
+        return Math.max(0, _submittedFutures.sum() - getNumPending());
+    }
+
+    /**
+     * @return the number of completed futures per second since the service
+     *         was created or the stats were reset
+     */
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - _statsStart;
+        return elapsed <= 0 ? 0 : getNumCompleted() / (elapsed / 1_000_000_000.0);
+    }
+
+    /**
+     * @return the number of submitted tasks which are waiting for a consumer
+     */
+    public int getQueueDepth() {
+        return _execProt.getNumAwaitingConsumer();
+    }
+
+    public void resetStats() {
+        _submittedFutures.add(-getNumCompleted());
+        _submitted.reset();
+        _statsStart = System.nanoTime();
+    }
+
     // @see java.util.concurrent.Executor#execute(java.lang.Runnable)
     @Override
     public void execute(Runnable command) {
@@ -680,7 +735,9 @@ public class ExecutionService extends AbstractExecutorService {
                     finally {
                         _unfinishedLock.unlock();
                     }
+                    _submittedFutures.increment();
                 }
+                _submitted.increment();
                 ch.down(new ExecutorEvent(ExecutorEvent.TASK_SUBMIT, command));
             }
             else {
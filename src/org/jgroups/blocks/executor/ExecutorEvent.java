@@ -14,6 +14,7 @@ public class ExecutorEvent extends Event {
     public static final int TASK_COMPLETE = 1026;   // arg = [Runnable, Throwable] or Runnable
     public static final int TASK_CANCEL = 1027;     // arg = [Runnable, boolean]
     public static final int ALL_TASK_CANCEL = 1028; // arg = [Set<Runnable>, boolean]
+    public static final int CONSUMER_STOPPED = 1029; // arg = null
 
     /**
      * @param type
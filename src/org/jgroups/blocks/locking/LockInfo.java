@@ -1,5 +1,6 @@
 package org.jgroups.blocks.locking;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -12,6 +13,7 @@ public class LockInfo {
     protected final boolean  use_timeout;
     protected final long     timeout;
     protected final TimeUnit time_unit;
+    protected Collection<String> lock_names; // set when multiple locks are acquired or released together
 
     public LockInfo(String name, boolean is_trylock, boolean lock_interruptibly, boolean use_timeout,
                     long timeout, TimeUnit time_unit) {
@@ -24,6 +26,13 @@ public class LockInfo {
     }
 
 
+    public LockInfo(Collection<String> lock_names, boolean is_trylock, boolean lock_interruptibly, boolean use_timeout,
+                    long timeout, TimeUnit time_unit) {
+        this((String)null, is_trylock, lock_interruptibly, use_timeout, timeout, time_unit);
+        this.lock_names=lock_names;
+    }
+
+
     public boolean isTrylock() {
         return is_trylock;
     }
@@ -40,6 +49,10 @@ public class LockInfo {
         return name;
     }
 
+    public Collection<String> getLockNames() {
+        return lock_names;
+    }
+
     public long getTimeout() {
         return timeout;
     }
@@ -49,7 +62,7 @@ public class LockInfo {
     }
 
     public String toString() {
-        return name + ", trylock=" + is_trylock + ", timeout=" + timeout;
+        return (lock_names != null? lock_names.toString() : name) + ", trylock=" + is_trylock + ", timeout=" + timeout;
     }
 }
 
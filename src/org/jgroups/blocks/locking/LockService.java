@@ -4,6 +4,7 @@ import org.jgroups.Event;
 import org.jgroups.JChannel;
 import org.jgroups.protocols.Locking;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -61,6 +62,14 @@ public class LockService {
         return new LockImpl(lock_name);
     }
 
+    /**
+     * Returns a lock which acquires (or releases) all of the given locks together, in a single request to the
+     * lock server, rather than sending a request for every lock. Conditions are not supported by the returned lock.
+     */
+    public Lock getMultiLock(Collection<String> lock_names) {
+        return new MultiLockImpl(lock_names);
+    }
+
     public void unlockAll() {
         ch.down(new Event(Event.UNLOCK_ALL));
     }
@@ -178,6 +187,63 @@ public class LockService {
         }
     }
     
+    /**
+     * Acquires or releases a number of locks together, with the semantics of {@link LockImpl}. A tryLock() without
+     * timeout acquires either all locks or none. A tryLock() with a timeout (or an interrupted lockInterruptibly())
+     * which fails to acquire all locks releases the ones which were acquired.
+     */
+    protected class MultiLockImpl implements Lock {
+        protected final Collection<String>      names;
+        protected final AtomicReference<Thread> holder=new AtomicReference<>();
+
+        public MultiLockImpl(Collection<String> names) {
+            this.names=names;
+        }
+
+        public void lock() {
+            ch.down(new Event(Event.LOCK, new LockInfo(names, false, false, false, 0, TimeUnit.MILLISECONDS)));
+            holder.set(Thread.currentThread());
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            ch.down(new Event(Event.LOCK, new LockInfo(names, false, true, false, 0, TimeUnit.MILLISECONDS)));
+            Thread currentThread = Thread.currentThread();
+            if(currentThread.isInterrupted())
+                throw new InterruptedException();
+            else
+                holder.set(currentThread);
+        }
+
+        public boolean tryLock() {
+            Boolean retval=(Boolean)ch.down(new Event(Event.LOCK, new LockInfo(names, true, false, false, 0, TimeUnit.MILLISECONDS)));
+            if(retval != null && retval)
+                holder.set(Thread.currentThread());
+            return retval == null ? false : retval;
+        }
+
+        public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+            Boolean retval=(Boolean)ch.down(new Event(Event.LOCK, new LockInfo(names, true, true, true, time, unit)));
+            if(Thread.currentThread().isInterrupted())
+                throw new InterruptedException();
+            if(retval != null && retval)
+                holder.set(Thread.currentThread());
+            return retval == null ? false : retval;
+        }
+
+        public void unlock() {
+            ch.down(new Event(Event.UNLOCK, new LockInfo(names, false, false, false, 0, TimeUnit.MILLISECONDS)));
+            holder.compareAndSet(Thread.currentThread(), null);
+        }
+
+        public Condition newCondition() {
+            throw new UnsupportedOperationException("conditions are not supported by multi-locks");
+        }
+
+        public String toString() {
+            return names + (holder.get() == null? " [unlocked]" : " [held by " + holder.get() + "]");
+        }
+    }
+    
     private class ConditionImpl implements Condition {
         protected final String name;
         protected final AtomicReference<Thread> holder;
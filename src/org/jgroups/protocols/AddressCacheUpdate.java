@@ -0,0 +1,131 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.ViewId;
+import org.jgroups.util.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A versioned snapshot of, or delta to, the logical-physical address cache, sent by the coordinator of a cluster
+ * using a static discovery protocol (e.g. {@link TCPPING}). The version is the {@link ViewId} of the view the cache
+ * corresponds to. A snapshot has no base version; a delta contains only the entries which were added between its base
+ * version ({@link #from()}) and {@link #to()}, and can only be applied by members whose cache has the base version.
+ * <p>
+ * Updates are sent compressed, as a single message.
+ * @author agent
+ * @since  4.0.9
+ */
+public class AddressCacheUpdate implements SizeStreamable {
+    /** Max size of an uncompressed update; larger sizes are rejected rather than allocated */
+    public static final int  MAX_UNCOMPRESSED_LENGTH=1 << 24;
+
+    protected ViewId         from; // the base version, null for a snapshot
+    protected ViewId         to;   // the version after applying this update, null if not versioned
+    protected List<PingData> entries;
+
+    public AddressCacheUpdate() {
+    }
+
+    public AddressCacheUpdate(ViewId from, ViewId to, List<PingData> entries) {
+        this.from=from;
+        this.to=to;
+        this.entries=entries;
+    }
+
+    public ViewId         from()       {return from;}
+    public ViewId         to()         {return to;}
+    public List<PingData> entries()    {return entries;}
+    public boolean        isSnapshot() {return from == null;}
+
+    /** Returns a buffer with the compressed serialized form of this update */
+    public Buffer compress() throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(serializedSize());
+        writeTo(out);
+        int length=out.position();
+        byte[] compressed=new byte[length + 64];
+        Deflater deflater=new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(out.buffer(), 0, length);
+            deflater.finish();
+            ByteArrayDataOutputStream retval=new ByteArrayDataOutputStream(Global.INT_SIZE + length / 2);
+            Bits.writeInt(length, retval);
+            while(!deflater.finished()) {
+                int num=deflater.deflate(compressed);
+                retval.write(compressed, 0, num);
+            }
+            return retval.getBuffer();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    /** Reads an update from a buffer created by {@link #compress()} */
+    public static AddressCacheUpdate uncompress(byte[] buf, int offset, int length) throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+        int uncompressed_length=Bits.readInt(in);
+        if(uncompressed_length < 0 || uncompressed_length > MAX_UNCOMPRESSED_LENGTH)
+            throw new DataFormatException(String.format("invalid uncompressed length %d (max: %d)",
+                                                        uncompressed_length, MAX_UNCOMPRESSED_LENGTH));
+        byte[] uncompressed=new byte[uncompressed_length];
+        Inflater inflater=new Inflater();
+        try {
+            inflater.setInput(buf, in.position(), length - (in.position() - offset));
+            int num=0;
+            while(num < uncompressed_length && !inflater.finished()) {
+                int n=inflater.inflate(uncompressed, num, uncompressed_length - num);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("compressed address cache update is truncated");
+                num+=n;
+            }
+        }
+        finally {
+            inflater.end();
+        }
+        AddressCacheUpdate retval=new AddressCacheUpdate();
+        retval.readFrom(new ByteArrayDataInputStream(uncompressed));
+        return retval;
+    }
+
+    public int serializedSize() {
+        int retval=Util.size(from) + Util.size(to) + Global.INT_SIZE;
+        if(entries != null)
+            for(PingData data: entries)
+                retval+=data.serializedSize();
+        return retval;
+    }
+
+    public void writeTo(DataOutput out) throws Exception {
+        Util.writeStreamable(from, out);
+        Util.writeStreamable(to, out);
+        int size=entries != null? entries.size() : 0;
+        Bits.writeInt(size, out);
+        if(size > 0)
+            for(PingData data: entries)
+                data.writeTo(out);
+    }
+
+    public void readFrom(DataInput in) throws Exception {
+        from=Util.readStreamable(ViewId.class, in);
+        to=Util.readStreamable(ViewId.class, in);
+        int size=Bits.readInt(in);
+        entries=new ArrayList<>(size);
+        for(int i=0; i < size; i++) {
+            PingData data=new PingData();
+            data.readFrom(in);
+            entries.add(data);
+        }
+    }
+
+    public String toString() {
+        return String.format("%s %s -> %s (%d entries)", isSnapshot()? "snapshot" : "delta", from, to,
+                             entries != null? entries.size() : 0);
+    }
+}
@@ -22,7 +22,11 @@ import java.util.*;
  * Say we have a cluster of {A,B,C,D,E} and num_backups=1. A is the coordinator, and A updates all locks (and released
  * locks) in B as well. When A crashes, everybody falls over to B for sending lock and unlock requests.
  * B in turn copies all existing locks over to C and - when locks are acquired or released - forwards this
- * information to C as well.
+ * information to C as well.<p/>
+ * Multiple locks can be acquired or released with a single request to the coordinator (see
+ * {@link org.jgroups.blocks.locking.LockService#getMultiLock(Collection)}). With use_lock_affinity=true, unlocking
+ * an uncontended lock keeps it with its owner until the coordinator revokes it, so that it can be re-acquired by the
+ * same owner locally.
  * @author Bela Ban
  * @since 2.12
  * @see Locking
@@ -93,6 +97,20 @@ public class CENTRAL_LOCK extends Locking implements LockNotification {
         sendRequest(dest, Type.RELEASE_LOCK, lock_name, owner, 0, false);
     }
 
+    protected void sendGrantLocksRequest(List<ClientLock> locks, Owner owner, long timeout, boolean is_trylock) {
+        Address dest=coord;
+        if(dest == null)
+            throw new IllegalStateException("No coordinator available, cannot send GRANT-LOCKS request");
+        sendRequest(dest, Type.GRANT_LOCKS, locks, owner, timeout, is_trylock);
+    }
+
+    protected void sendReleaseLocksRequest(List<ClientLock> locks, Owner owner) {
+        Address dest=coord;
+        if(dest == null)
+            throw new IllegalStateException("No coordinator available, cannot send RELEASE-LOCKS request");
+        sendRequest(dest, Type.RELEASE_LOCKS, locks, owner, 0, false);
+    }
+
     protected void sendCreateLockRequest(Address dest, String lock_name, Owner owner) {
         sendRequest(dest, Type.CREATE_LOCK, lock_name, owner, 0, false);
     }
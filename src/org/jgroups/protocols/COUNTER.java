@@ -3,12 +3,16 @@ package org.jgroups.protocols;
 import org.jgroups.*;
 import org.jgroups.annotations.*;
 import org.jgroups.blocks.atomic.Counter;
+import org.jgroups.blocks.atomic.LeasedCounter;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.*;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 
 
@@ -32,6 +36,22 @@ public class COUNTER extends Protocol {
     @Property(description="Number of backup coordinators. Modifications are asynchronously sent to all backup coordinators")
     protected int num_backups=1;
 
+    @Property(description="Combines concurrent additions to the same counter into a single request to the coordinator")
+    protected boolean combine_requests=true;
+
+    @Property(description="Max number of counter updates sent to a backup coordinator in a single message. " +
+      "0 disables batching: every update is sent in its own message. Members running a version without batching " +
+      "cannot read batches, so this needs to be enabled in all members")
+    protected int max_update_batch_size;
+
+    @Property(description="A leased counter takes the next lease when the number of unused values of its current " +
+      "lease falls below this fraction of the lease size")
+    protected double lease_prefetch_threshold=0.25;
+
+    @Property(description="Max time (in ms) to wait on DISCONNECT for the coordinator to take back the unused values " +
+      "of the leases of leased counters")
+    protected long lease_release_timeout=5000;
+
     protected Address local_addr;
 
     /** Set to true during reconciliation process, will cause all requests to be discarded */
@@ -52,8 +72,26 @@ public class COUNTER extends Protocol {
     // server side counters
     protected final ConcurrentMap<String,VersionedValue> counters=Util.createConcurrentMap(20);
 
+    // (client side) counters, one per name, so that the additions made through all references to a counter are combined
+    protected final ConcurrentMap<String,CounterImpl> client_counters=Util.createConcurrentMap(20);
+
+    // (client side) leased counters, at most one per counter
+    protected final ConcurrentMap<String,LeasedCounterImpl> leased_counters=Util.createConcurrentMap(20);
+
     // (client side) pending requests
-    protected final Map<Owner,Tuple<Request,Promise>> pending_requests=Util.createConcurrentMap(20);
+    protected final Map<Owner,Tuple<Request,CompletableFuture<Object>>> pending_requests=Util.createConcurrentMap(20);
+
+    /** Generates the IDs of requests (used instead of thread IDs in {@link Owner}) */
+    protected final AtomicLong request_ids=new AtomicLong();
+
+    // (server side) latest value and version per counter, to be sent to the backup coordinators
+    protected final ConcurrentMap<String,long[]> pending_updates=Util.createConcurrentMap(20);
+
+    /** Number of calls to {@link #updateBackups(String,long,long)}; the caller which increments it from 0 sends */
+    protected final AtomicInteger pending_updates_size=new AtomicInteger();
+
+    protected final LongAdder     num_combined=new LongAdder(), num_add_requests=new LongAdder(),
+                                  num_update_batches=new LongAdder();
 
     protected static final byte REQUEST  = 1;
     protected static final byte RESPONSE = 2;
@@ -67,7 +105,8 @@ public class COUNTER extends Protocol {
         ADD_AND_GET,
         UPDATE,
         RECONCILE,
-        RESEND_PENDING_REQUESTS
+        RESEND_PENDING_REQUESTS,
+        UPDATE_BATCH
     }
 
     protected enum ResponseType {
@@ -88,6 +127,7 @@ public class COUNTER extends Protocol {
         if(req instanceof CompareAndSetRequest)  return RequestType.COMPARE_AND_SET;
         if(req instanceof ReconcileRequest)      return RequestType.RECONCILE;
         if(req instanceof ResendPendingRequests) return RequestType.RESEND_PENDING_REQUESTS;
+        if(req instanceof UpdateBatchRequest)    return RequestType.UPDATE_BATCH;
         throw new IllegalStateException("request " + req + " cannot be mapped to request type");
     }
 
@@ -126,30 +166,62 @@ public class COUNTER extends Protocol {
         return backup_coords != null? backup_coords.toString() : "null";
     }
 
+    @ManagedAttribute(description="Number of additions which were combined into the next request, as a request " +
+      "for the same counter was in flight")
+    public long getNumCombined() {
+        return num_combined.sum();
+    }
+
+    @ManagedAttribute(description="Number of (possibly combined) add requests sent to the coordinator")
+    public long getNumAddRequests() {
+        return num_add_requests.sum();
+    }
+
+    @ManagedAttribute(description="Number of messages with counter updates sent to backup coordinators")
+    public long getNumUpdateBatches() {
+        return num_update_batches.sum();
+    }
+
+    @ManagedOperation(description="Resets all statistics")
+    public void resetStats() {
+        super.resetStats();
+        num_combined.reset();
+        num_add_requests.reset();
+        num_update_batches.reset();
+    }
+
 
     public Counter getOrCreateCounter(String name, long initial_value) {
         if(local_addr == null)
             throw new IllegalArgumentException("the channel needs to be connected before creating or getting a counter");
         Owner owner=getOwner();
         GetOrCreateRequest req=new GetOrCreateRequest(owner, name, initial_value);
-        Promise<long[]> promise=new Promise<>();
-        pending_requests.put(owner, new Tuple<>(req, promise));
-        sendRequest(coord, req);
-        long[] result=new long[0];
-        try {
-            result=promise.getResultWithTimeout(timeout);
-            long value=result[0], version=result[1];
-            if(!coord.equals(local_addr))
-                counters.put(name, new VersionedValue(value, version));
-            return new CounterImpl(name);
-        }
-        catch(TimeoutException e) {
-            throw new RuntimeException(e);
-        }
+        long[] result=(long[])waitForResponse(sendToCoord(owner, req));
+        long value=result[0], version=result[1];
+        if(!coord.equals(local_addr))
+            counters.put(name, new VersionedValue(value, version));
+        return client_counters.computeIfAbsent(name, CounterImpl::new);
+    }
+
+    /**
+     * Returns a counter which hands out values from ranges of lease_size values taken from the counter with the given
+     * name. If a leased counter for this counter already exists, it is returned (and lease_size is ignored)
+     */
+    public LeasedCounter getOrCreateLeasedCounter(String name, long initial_value, int lease_size) {
+        if(lease_size < 1)
+            throw new IllegalArgumentException("lease_size (" + lease_size + ") needs to be positive");
+        LeasedCounterImpl retval=leased_counters.get(name);
+        if(retval != null)
+            return retval;
+        retval=new LeasedCounterImpl((CounterImpl)getOrCreateCounter(name, initial_value), lease_size);
+        LeasedCounterImpl existing=leased_counters.putIfAbsent(name, retval);
+        return existing != null? existing : retval;
     }
 
     /** Sent asynchronously - we don't wait for an ack */
     public void deleteCounter(String name) {
+        leased_counters.remove(name);
+        client_counters.remove(name);
         Owner owner=getOwner();
         Request req=new DeleteRequest(owner, name);
         sendRequest(coord, req);
@@ -164,6 +236,9 @@ public class COUNTER extends Protocol {
             case Event.SET_LOCAL_ADDRESS:
                 local_addr=evt.getArg();
                 break;
+            case Event.DISCONNECT:
+                releaseLeases();
+                break;
             case Event.VIEW_CHANGE:
                 handleView(evt.arg());
                 break;
@@ -273,14 +348,13 @@ public class COUNTER extends Protocol {
                     updateBackups(((SimpleRequest)req).name, result[0], result[1]);
                 break;
             case UPDATE:
-                String counter_name=((UpdateRequest)req).name;
-                long new_value=((UpdateRequest)req).value, new_version=((UpdateRequest)req).version;
-                VersionedValue current=counters.get(counter_name);
-                if(current == null)
-                    counters.put(counter_name, new VersionedValue(new_value, new_version));
-                else {
-                    current.updateIfBigger(new_value, new_version);
-                }
+                UpdateRequest update=(UpdateRequest)req;
+                update(update.name, update.value, update.version);
+                break;
+            case UPDATE_BATCH:
+                UpdateBatchRequest batch=(UpdateBatchRequest)req;
+                for(int i=0; i < batch.names.length; i++)
+                    update(batch.names[i], batch.values[i], batch.versions[i]);
                 break;
             case RECONCILE:
                 if(sender.equals(local_addr)) // we don't need to reply to our own reconciliation request
@@ -288,6 +362,7 @@ public class COUNTER extends Protocol {
 
                 // return all values except those with lower or same versions than the ones in the ReconcileRequest
                 ReconcileRequest reconcile_req=(ReconcileRequest)req;
+                String counter_name;
                 Map<String,VersionedValue> map=new HashMap<>(counters);
                 if(reconcile_req.names !=  null) {
                     for(int i=0; i < reconcile_req.names.length; i++) {
@@ -315,7 +390,7 @@ public class COUNTER extends Protocol {
                 sendResponse(sender, rsp);
                 break;
             case RESEND_PENDING_REQUESTS:
-                for(Tuple<Request,Promise> tuple: pending_requests.values()) {
+                for(Tuple<Request,CompletableFuture<Object>> tuple: pending_requests.values()) {
                     Request request=tuple.getVal1();
                     if(log.isTraceEnabled())
                         log.trace("[" + local_addr + "] --> [" + coord + "] resending " + request);
@@ -329,6 +404,16 @@ public class COUNTER extends Protocol {
     }
 
 
+    /** Sets the value of a counter on a backup coordinator, unless the version is lower than the current version */
+    protected void update(String name, long value, long version) {
+        VersionedValue current=counters.get(name);
+        if(current == null)
+            counters.put(name, new VersionedValue(value, version));
+        else
+            current.updateIfBigger(value, version);
+    }
+
+
     protected VersionedValue getCounter(String name) {
         VersionedValue val=counters.get(name);
         if(val == null)
@@ -347,28 +432,27 @@ public class COUNTER extends Protocol {
             return;
         }
 
-        Tuple<Request,Promise> tuple=pending_requests.remove(((SimpleResponse)rsp).owner);
+        Tuple<Request,CompletableFuture<Object>> tuple=pending_requests.remove(((SimpleResponse)rsp).owner);
         if(tuple == null) {
             log.warn("response for " + ((SimpleResponse)rsp).owner + " didn't have an entry");
             return;
         }
-        Promise promise=tuple.getVal2();
+        CompletableFuture<Object> future=tuple.getVal2();
         if(rsp instanceof ValueResponse) {
             ValueResponse tmp=(ValueResponse)rsp;
             if(tmp.result == -1 && tmp.version == -1)
-                promise.setResult(null);
+                future.complete(null);
             else {
                 long[] result={tmp.result,tmp.version};
-                promise.setResult(result);
+                future.complete(result);
             }
         }
         else if(rsp instanceof BooleanResponse)
-            promise.setResult(((BooleanResponse)rsp).result);
-        else if(rsp instanceof ExceptionResponse) {
-            promise.setResult(new Throwable(((ExceptionResponse)rsp).error_message));
-        }
+            future.complete(((BooleanResponse)rsp).result);
+        else if(rsp instanceof ExceptionResponse)
+            future.completeExceptionally(new IllegalStateException(((ExceptionResponse)rsp).error_message));
         else
-            promise.setResult(null);
+            future.complete(null);
     }
 
 
@@ -384,10 +468,18 @@ public class COUNTER extends Protocol {
         return sb.toString();
     }
 
+    @ManagedOperation(description="Dumps the current and prefetched leases of all leased counters")
+    public String printLeases() {
+        StringBuilder sb=new StringBuilder();
+        for(LeasedCounterImpl counter: leased_counters.values())
+            sb.append(counter).append("\n");
+        return sb.toString();
+    }
+
     @ManagedOperation(description="Dumps all pending requests")
     public String dumpPendingRequests() {
         StringBuilder sb=new StringBuilder();
-        for(Tuple<Request,Promise> tuple: pending_requests.values()) {
+        for(Tuple<Request,CompletableFuture<Object>> tuple: pending_requests.values()) {
             Request tmp=tuple.getVal1();
             sb.append(tmp + " (" + tmp.getClass().getCanonicalName() + ") ");
         }
@@ -409,11 +501,12 @@ public class COUNTER extends Protocol {
 
             // send the current values to all *new* backups
             List<Address> new_backups=Util.newElements(old_backups,backup_coords);
-            for(Address new_backup: new_backups) {
-                for(Map.Entry<String,VersionedValue> entry: counters.entrySet()) {
-                    UpdateRequest update=new UpdateRequest(entry.getKey(), entry.getValue().value, entry.getValue().version);
-                    sendRequest(new_backup, update);
-                }
+            if(!new_backups.isEmpty()) {
+                Map<String,long[]> values=new HashMap<>();
+                for(Map.Entry<String,VersionedValue> entry: counters.entrySet())
+                    values.put(entry.getKey(), entry.getValue().get());
+                for(Address new_backup: new_backups)
+                    sendUpdates(new_backup, values);
             }
         }
         else
@@ -426,8 +519,61 @@ public class COUNTER extends Protocol {
     }
 
 
+    /** Returns a new owner for a request; its thread ID is a unique request ID, as requests can be asynchronous */
     protected Owner getOwner() {
-        return new Owner(local_addr, Thread.currentThread().getId());
+        return new Owner(local_addr, request_ids.incrementAndGet());
+    }
+
+    /** Sends a request to the coordinator. The returned future is completed when the response is received */
+    protected CompletableFuture<Object> sendToCoord(Owner owner, Request req) {
+        CompletableFuture<Object> future=new CompletableFuture<>();
+        pending_requests.put(owner, new Tuple<>(req, future));
+        sendRequest(coord, req);
+        return future;
+    }
+
+    /**
+     * Returns the unused parts of the leases of all leased counters while we're still a member, waiting for at most
+     * lease_release_timeout ms for the coordinator to take them back
+     */
+    protected void releaseLeases() {
+        Map<String,CompletableFuture<Boolean>> futures=new HashMap<>();
+        for(LeasedCounterImpl counter: leased_counters.values())
+            futures.put(counter.getName(), counter.release());
+        long target_time=System.currentTimeMillis() + lease_release_timeout;
+        for(Map.Entry<String,CompletableFuture<Boolean>> entry: futures.entrySet()) {
+            try {
+                entry.getValue().get(Math.max(0, target_time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+            catch(TimeoutException e) {
+                log.warn("%s: leases of %s were not returned within %d ms", local_addr, entry.getKey(), lease_release_timeout);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch(ExecutionException e) {
+                log.warn("%s: failed returning leases of %s: %s", local_addr, entry.getKey(), e.getCause());
+            }
+        }
+    }
+
+    /** Waits for the response to a request, for at most timeout ms */
+    protected <T> T waitForResponse(CompletableFuture<T> future) {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch(ExecutionException e) {
+            Throwable cause=e.getCause();
+            throw cause instanceof RuntimeException? (RuntimeException)cause : new RuntimeException(cause);
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch(TimeoutException e) {
+            throw new RuntimeException(e);
+        }
     }
 
 
@@ -465,17 +611,67 @@ public class COUNTER extends Protocol {
         }
     }
 
+    /**
+     * Sends the new value of a counter to the backup coordinators. If max_update_batch_size is greater than 0,
+     * updates which are added while another thread is sending are sent by that thread, in batches of up to
+     * max_update_batch_size counters. As a backup only needs the latest value of a counter, consecutive updates to the
+     * same counter are sent as one.
+     */
     protected void updateBackups(String name, long value, long version) {
-        Request req=new UpdateRequest(name, value, version);
-        try {
-            Buffer buffer=requestToBuffer(req);
-            if(backup_coords != null && !backup_coords.isEmpty()) {
-                for(Address backup_coord: backup_coords)
-                    send(backup_coord, buffer);
+        if(max_update_batch_size <= 0) {
+            List<Address> targets=backup_coords;
+            if(targets != null)
+                for(Address backup_coord: targets)
+                    sendUpdates(backup_coord, Collections.singletonMap(name, new long[]{value, version}));
+            return;
+        }
+        pending_updates.merge(name, new long[]{value, version}, (old, upd) -> upd[1] > old[1]? upd : old);
+        if(pending_updates_size.getAndIncrement() != 0) // another thread is sending; it will also send this update
+            return;
+        int num=1;
+        do {
+            List<Address> targets=backup_coords;
+            Map<String,long[]> updates=new HashMap<>();
+            for(Iterator<String> it=pending_updates.keySet().iterator(); it.hasNext();) {
+                String key=it.next();
+                long[] val=pending_updates.remove(key);
+                if(val != null)
+                    updates.put(key, val);
             }
+            if(targets != null && !updates.isEmpty())
+                for(Address backup_coord: targets)
+                    sendUpdates(backup_coord, updates);
         }
-        catch(Exception ex) {
-            log.error(Util.getMessage("FailedSending") + req + " to backup coordinator(s):" + ex);
+        while((num=pending_updates_size.addAndGet(-num)) != 0);
+    }
+
+    /**
+     * Sends the values and versions of the given counters to dest, in batches of max_update_batch_size counters.
+     * A single update is sent as an {@link UpdateRequest}
+     */
+    protected void sendUpdates(Address dest, Map<String,long[]> updates) {
+        int size=Math.min(updates.size(), Math.max(1, max_update_batch_size)), index=0;
+        String[] names=new String[size];
+        long[] values=new long[size], versions=new long[size];
+        int remaining=updates.size();
+        for(Map.Entry<String,long[]> entry: updates.entrySet()) {
+            names[index]=entry.getKey();
+            values[index]=entry.getValue()[0];
+            versions[index]=entry.getValue()[1];
+            remaining--;
+            if(++index == names.length || remaining == 0) {
+                Request req=index == 1? new UpdateRequest(names[0], values[0], versions[0])
+                  : new UpdateBatchRequest(Arrays.copyOf(names, index), Arrays.copyOf(values, index),
+                                           Arrays.copyOf(versions, index));
+                try {
+                    send(dest, requestToBuffer(req));
+                    num_update_batches.increment();
+                }
+                catch(Exception ex) {
+                    log.error(Util.getMessage("FailedSending") + req + " to backup coordinator " + dest + ": " + ex);
+                }
+                index=0;
+            }
         }
     }
 
@@ -544,6 +740,7 @@ public class COUNTER extends Protocol {
             case SET:                     return new SetRequest();
             case RECONCILE:               return new ReconcileRequest();
             case RESEND_PENDING_REQUESTS: return new ResendPendingRequests();
+            case UPDATE_BATCH:            return new UpdateBatchRequest();
             default:                      throw new IllegalArgumentException("failed creating a request from " + type);
         }
     }
@@ -629,6 +826,10 @@ public class COUNTER extends Protocol {
     protected class CounterImpl implements Counter {
         protected final String  name;
 
+        // additions which are waiting for the response to the request in flight, to be sent as one request
+        @GuardedBy("this") protected List<Tuple<Long,CompletableFuture<Long>>> combined=new ArrayList<>();
+        @GuardedBy("this") protected boolean                                     in_flight;
+
         protected CounterImpl(String name) {
             this.name = name;
         }
@@ -646,61 +847,37 @@ public class COUNTER extends Protocol {
         public void set(long new_value) {
             if(local_addr.equals(coord)) {
                 VersionedValue val=getCounter(name);
-                val.set(new_value);
+                long[] result=val.set(new_value);
                 if(backup_coords != null)
-                    updateBackups(name, val.value, val.version);
+                    updateBackups(name, result[0], result[1]);
                 return;
             }
             Owner owner=getOwner();
             Request req=new SetRequest(owner, name, new_value);
-            Promise<long[]> promise=new Promise<>();
-            pending_requests.put(owner, new Tuple<>(req, promise));
-            sendRequest(coord, req);
-            Object obj=null;
-            try {
-                obj=promise.getResultWithTimeout(timeout);
-                if(obj instanceof Throwable)
-                    throw new IllegalStateException((Throwable)obj);
-                long[] result=(long[])obj;
-                long value=result[0], version=result[1];
-                if(!coord.equals(local_addr))
-                    counters.put(name, new VersionedValue(value, version));
-            }
-            catch(TimeoutException e) {
-                throw new RuntimeException(e);
-            }
+            long[] result=(long[])waitForResponse(sendToCoord(owner, req));
+            long value=result[0], version=result[1];
+            if(!coord.equals(local_addr))
+                counters.put(name, new VersionedValue(value, version));
         }
 
         @Override
         public boolean compareAndSet(long expect, long update) {
             if(local_addr.equals(coord)) {
                 VersionedValue val=getCounter(name);
-                boolean retval=val.compareAndSet(expect, update) != null;
-                if(backup_coords != null)
-                    updateBackups(name, val.value, val.version);
-                return retval;
+                long[] result=val.compareAndSet(expect, update);
+                if(result != null && backup_coords != null)
+                    updateBackups(name, result[0], result[1]);
+                return result != null;
             }
             Owner owner=getOwner();
             Request req=new CompareAndSetRequest(owner, name, expect, update);
-            Promise<long[]> promise=new Promise<>();
-            pending_requests.put(owner, new Tuple<>(req, promise));
-            sendRequest(coord, req);
-            Object obj=null;
-            try {
-                obj=promise.getResultWithTimeout(timeout);
-                if(obj instanceof Throwable)
-                    throw new IllegalStateException((Throwable)obj);
-                if(obj == null)
-                    return false;
-                long[] result=(long[])obj;
-                long value=result[0], version=result[1];
-                if(!coord.equals(local_addr))
-                    counters.put(name, new VersionedValue(value, version));
-                return true;
-            }
-            catch(TimeoutException e) {
-                throw new RuntimeException(e);
-            }
+            long[] result=(long[])waitForResponse(sendToCoord(owner, req));
+            if(result == null)
+                return false;
+            long value=result[0], version=result[1];
+            if(!coord.equals(local_addr))
+                counters.put(name, new VersionedValue(value, version));
+            return true;
         }
 
         @Override
@@ -715,32 +892,104 @@ public class COUNTER extends Protocol {
 
         @Override
         public long addAndGet(long delta) {
+            return waitForResponse(addAndGetAsync(delta));
+        }
+
+        /**
+         * Adds delta to the counter. If a request of this counter is in flight, delta is added to the next request,
+         * which is sent when the response is received, so there is at most one add request per counter in flight
+         */
+        @Override
+        public CompletableFuture<Long> addAndGetAsync(long delta) {
             if(local_addr.equals(coord)) {
-                VersionedValue val=getCounter(name);
-                long retval=val.addAndGet(delta)[0];
-                if(backup_coords != null)
-                    updateBackups(name, val.value, val.version);
+                CompletableFuture<Long> retval=new CompletableFuture<>();
+                try {
+                    long[] result=getCounter(name).addAndGet(delta);
+                    if(delta != 0 && backup_coords != null)
+                        updateBackups(name, result[0], result[1]);
+                    retval.complete(result[0]);
+                }
+                catch(Throwable t) {
+                    retval.completeExceptionally(t);
+                }
                 return retval;
             }
+            CompletableFuture<Long> future=new CompletableFuture<>();
+            List<Tuple<Long,CompletableFuture<Long>>> adds;
+            synchronized(this) {
+                combined.add(new Tuple<>(delta, future));
+                if(!combine_requests)
+                    adds=combined;
+                else {
+                    if(in_flight) {
+                        num_combined.increment();
+                        return future;
+                    }
+                    in_flight=true;
+                    adds=combined;
+                }
+                combined=new ArrayList<>();
+            }
+            sendAdds(adds);
+            return future;
+        }
+
+        /** Sends the sum of the deltas of the given additions to the coordinator */
+        protected void sendAdds(List<Tuple<Long,CompletableFuture<Long>>> adds) {
+            long sum=0;
+            for(Tuple<Long,CompletableFuture<Long>> add: adds)
+                sum+=add.getVal1();
             Owner owner=getOwner();
-            Request req=new AddAndGetRequest(owner, name, delta);
-            Promise<long[]> promise=new Promise<>();
-            pending_requests.put(owner, new Tuple<>(req, promise));
-            sendRequest(coord, req);
-            Object obj=null;
-            try {
-                obj=promise.getResultWithTimeout(timeout);
-                if(obj instanceof Throwable)
-                    throw new IllegalStateException((Throwable)obj);
-                long[] result=(long[])obj;
-                long value=result[0], version=result[1];
-                if(!coord.equals(local_addr))
-                    counters.put(name, new VersionedValue(value, version));
-                return value;
+            num_add_requests.increment();
+            final long total=sum;
+            sendToCoord(owner, new AddAndGetRequest(owner, name, sum))
+              .whenComplete((rsp,ex) -> {
+                  if(ex != null)
+                      adds.forEach(add -> add.getVal2().completeExceptionally(ex));
+                  else
+                      complete(adds, total, (long[])rsp);
+                  if(combine_requests)
+                      sendNext();
+              });
+        }
+
+        /**
+         * Completes the futures of combined additions: the additions are applied in the order in which they were
+         * added, so each one sees the value of the counter after all additions before it (and itself) were applied
+         */
+        protected void complete(List<Tuple<Long,CompletableFuture<Long>>> adds, long sum, long[] result) {
+            long value=result[0], version=result[1];
+            if(!local_addr.equals(coord))
+                update(name, value, version);
+            long current=value - sum;
+            for(Tuple<Long,CompletableFuture<Long>> add: adds) {
+                current+=add.getVal1();
+                add.getVal2().complete(current);
             }
-            catch(TimeoutException e) {
-                throw new RuntimeException(e);
+        }
+
+        /** Like {@link #compareAndSet(long,long)}, but doesn't wait for the response of the coordinator */
+        protected CompletableFuture<Boolean> compareAndSetAsync(long expect, long update) {
+            if(local_addr.equals(coord)) {
+                boolean success=compareAndSet(expect, update);
+                return CompletableFuture.completedFuture(success);
             }
+            Owner owner=getOwner();
+            return sendToCoord(owner, new CompareAndSetRequest(owner, name, expect, update)).thenApply(Objects::nonNull);
+        }
+
+        /** Sends the additions combined while the previous request was in flight */
+        protected void sendNext() {
+            List<Tuple<Long,CompletableFuture<Long>>> adds;
+            synchronized(this) {
+                if(combined.isEmpty()) {
+                    in_flight=false;
+                    return;
+                }
+                adds=combined;
+                combined=new ArrayList<>();
+            }
+            sendAdds(adds);
         }
 
         @Override
@@ -753,6 +1002,117 @@ public class COUNTER extends Protocol {
 
 
 
+    /**
+     * Hands out the values of a lease [next .. end] taken from a counter. Leases are taken by adding lease_size to the
+     * counter, so they are handled like any other addition on a coordinator change: a lease request which was not
+     * answered is resent to the new coordinator, and the value and version of the last lease taken by a member is in
+     * its local copy of the counter, which is returned to the new coordinator by the {@link ReconciliationTask}, so
+     * the new coordinator never hands out a range which was already leased.
+     */
+    protected class LeasedCounterImpl implements LeasedCounter {
+        protected final CounterImpl                   counter;
+        protected final int                           lease_size;
+        @GuardedBy("this") protected long             next=1, end;  // the current lease; used up if next > end
+        @GuardedBy("this") protected CompletableFuture<Long> prefetch; // completed with the end of the next lease
+        @GuardedBy("this") protected long             num_leases;
+
+        protected LeasedCounterImpl(CounterImpl counter, int lease_size) {
+            this.counter=counter;
+            this.lease_size=lease_size;
+        }
+
+        public String getName()      {return counter.getName();}
+        public int    getLeaseSize() {return lease_size;}
+
+        public long next() {
+            for(;;) {
+                CompletableFuture<Long> lease;
+                synchronized(this) {
+                    if(next <= end) {
+                        long retval=next++;
+                        if(prefetch == null && end - retval < lease_size * lease_prefetch_threshold)
+                            prefetch=counter.addAndGetAsync(lease_size);
+                        return retval;
+                    }
+                    if(prefetch == null)
+                        prefetch=counter.addAndGetAsync(lease_size);
+                    lease=prefetch;
+                }
+                long lease_end;
+                try {
+                    lease_end=waitForResponse(lease);
+                }
+                catch(RuntimeException ex) {
+                    synchronized(this) {
+                        if(prefetch == lease)
+                            prefetch=null;
+                    }
+                    throw ex;
+                }
+                synchronized(this) {
+                    if(prefetch == lease && next > end) {
+                        next=lease_end - lease_size + 1;
+                        end=lease_end;
+                        prefetch=null;
+                        num_leases++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets the counter back to the last value handed out, if the counter's value is still the end of the last
+         * lease (no other member took a lease after it). The unused values of the current lease can only be returned
+         * if the prefetched lease (if any) directly follows it. The returned future is completed with true if the
+         * values were returned.
+         */
+        public CompletableFuture<Boolean> release() {
+            long expect, update;
+            synchronized(this) {
+                Long prefetched_end=leaseEnd(prefetch);
+                boolean prefetch_in_flight=prefetch != null && !prefetch.isDone();
+                if(prefetched_end != null) {
+                    long prefetched_start=prefetched_end - lease_size + 1;
+                    expect=prefetched_end;
+                    update=prefetched_start == end + 1? next - 1 : prefetched_start - 1;
+                }
+                else {
+                    expect=end;
+                    update=next - 1;
+                }
+                next=1;
+                end=0;
+                prefetch=null;
+                if(prefetch_in_flight || expect == update)  // the lease in flight will be the last one, or there's nothing to return
+                    return CompletableFuture.completedFuture(false);
+            }
+            try {
+                return counter.compareAndSetAsync(expect, update);
+            }
+            catch(Throwable t) {
+                log.warn("%s: failed returning leased range [%d .. %d] of %s: %s",
+                         local_addr, update + 1, expect, getName(), t);
+                CompletableFuture<Boolean> retval=new CompletableFuture<>();
+                retval.completeExceptionally(t);
+                return retval;
+            }
+        }
+
+        public synchronized String toString() {
+            Long prefetched_end=leaseEnd(prefetch);
+            return String.format("%s: lease=[%d .. %d], prefetched lease: %s, leases: %d", getName(), next, end,
+                                 prefetched_end != null? String.format("[%d .. %d]", prefetched_end - lease_size + 1, prefetched_end)
+                                   : prefetch != null && !prefetch.isDone()? "in flight" : "none", num_leases);
+        }
+
+        /** Returns the end of a lease, or null if the lease was not (successfully) taken */
+        protected Long leaseEnd(CompletableFuture<Long> lease) {
+            return lease != null && lease.isDone() && !lease.isCompletedExceptionally()? lease.join() : null;
+        }
+    }
+
+
+
     protected interface Request extends Streamable {
 
     }
@@ -918,6 +1278,35 @@ public class COUNTER extends Protocol {
     }
 
 
+    /** Sets the values of multiple counters on a backup coordinator */
+    protected static class UpdateBatchRequest implements Request {
+        protected String[] names;
+        protected long[]   values;
+        protected long[]   versions;
+
+        protected UpdateBatchRequest() {}
+
+        protected UpdateBatchRequest(String[] names, long[] values, long[] versions) {
+            this.names=names;
+            this.values=values;
+            this.versions=versions;
+        }
+
+        public void writeTo(DataOutput out) throws Exception {
+            writeReconciliation(out, names, values, versions);
+        }
+
+        public void readFrom(DataInput in) throws Exception {
+            int len=in.readInt();
+            names=readReconciliationNames(in, len);
+            values=readReconciliationLongs(in, len);
+            versions=readReconciliationLongs(in,len);
+        }
+
+        public String toString() {return "UpdateBatchRequest (" + names.length + " entries)";}
+    }
+
+
     protected static class UpdateRequest implements Request {
         protected String name;
         protected long   value;
@@ -1115,6 +1504,10 @@ public class COUNTER extends Protocol {
             this.version=version;
         }
 
+        protected synchronized long[] get() {
+            return new long[]{value, version};
+        }
+
         /** num == 0 --> GET */
         protected synchronized long[] addAndGet(long num) {
             return num == 0? new long[]{value, version} : new long[]{value+=num, ++version};
@@ -77,11 +77,28 @@ public abstract class Discovery extends Protocol {
       "everybody will reply. This attribute is ignored if TP.use_ip_addrs is false.")
     protected int                        max_rank_to_reply;
 
+    @Property(description="If true, the address cache is sent as a single compressed message: the coordinator sends a " +
+      "snapshot of the cache to new members and the new entries (delta) to existing members on a view change " +
+      "(send_cache_on_join), and a discovery request is answered with a single message (return_entire_cache). " +
+      "If false, a discovery response is sent for every entry and member. Members running a version without " +
+      "this option drop the snapshots and deltas, so it needs to be enabled in all members")
+    protected boolean                    bulk_cache_dissemination;
+
+    @Property(description="Max number of deltas kept by the coordinator, to send members whose address cache is " +
+      "behind the missing entries rather than a snapshot")
+    protected int                        max_cache_deltas=10;
+
     /* ---------------------------------------------   JMX      ------------------------------------------------------ */
 
     @ManagedAttribute(description="Total number of discovery requests sent ")
     protected int                        num_discovery_requests;
 
+    @ManagedAttribute(description="Number of snapshots of the address cache sent")
+    protected int                        num_cache_snapshots_sent;
+
+    @ManagedAttribute(description="Number of deltas of the address cache sent")
+    protected int                        num_cache_deltas_sent;
+
     /* --------------------------------------------- Fields ------------------------------------------------------ */
 
     protected volatile boolean           is_server;
@@ -101,6 +118,11 @@ public abstract class Discovery extends Protocol {
     protected boolean                    sends_can_block=true;
     protected static final byte[]        WHITESPACE=" \t".getBytes();
 
+    @ManagedAttribute(description="The version of the address cache (the view in which entries were last added)")
+    protected volatile ViewId            cache_version;
+    protected final Deque<AddressCacheUpdate> cache_deltas=new ArrayDeque<>(); // most recent deltas (coord only)
+    protected Buffer                     cache_snapshot; // compressed snapshot of the current view, or null
+
 
 
     public void init() throws Exception {
@@ -138,6 +160,11 @@ public abstract class Discovery extends Protocol {
     public boolean   useDiskCache()                     {return use_disk_cache;}
     public Discovery useDiskCache(boolean flag)         {use_disk_cache=flag; return this;}
     public Discovery discoveryRspExpiryTime(long t)     {this.discovery_rsp_expiry_time=t; return this;}
+    public boolean   bulkCacheDissemination()           {return bulk_cache_dissemination;}
+    public Discovery bulkCacheDissemination(boolean b)  {bulk_cache_dissemination=b; return this;}
+    public int       getNumCacheSnapshotsSent()         {return num_cache_snapshots_sent;}
+    public int       getNumCacheDeltasSent()            {return num_cache_deltas_sent;}
+    public ViewId    getCacheVersion()                  {return cache_version;}
 
 
 
@@ -158,6 +185,10 @@ public abstract class Discovery extends Protocol {
 
     @ManagedOperation(description="Sends information about my cache to everyone but myself")
     public void sendCacheInformation() {
+        if(bulk_cache_dissemination) {
+            sendCacheUpdate(null, getCacheSnapshot(), true);
+            return;
+        }
         List<Address> current_members=new ArrayList<>(view.getMembers());
         disseminateDiscoveryInformation(current_members, null, current_members);
     }
@@ -168,7 +199,7 @@ public abstract class Discovery extends Protocol {
 
     public void resetStats() {
         super.resetStats();
-        num_discovery_requests=0;
+        num_discovery_requests=num_cache_snapshots_sent=num_cache_deltas_sent=0;
     }
 
     public void start() throws Exception {
@@ -269,6 +300,17 @@ public abstract class Discovery extends Protocol {
         if(is_leaving)
             return null; // prevents merging back a leaving member (https://issues.jboss.org/browse/JGRP-1336)
 
+        if(hdr.type == PingHeader.CACHE_RSP || hdr.type == PingHeader.CACHE_REQ) {
+            if(!Objects.equals(cluster_name, hdr.cluster_name)) {
+                log.warn("%s: discarding %s for cluster '%s' from %s; our cluster name is '%s'. " +
+                           "Please separate your clusters properly",
+                         local_addr, PingHeader.type2Str(hdr.type), hdr.cluster_name, msg.src(), cluster_name);
+                return null;
+            }
+            handleCacheMessage(hdr.type, msg);
+            return null;
+        }
+
         PingData data=readPingData(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
         Address logical_addr=data != null? data.getAddress() : msg.src();
 
@@ -295,6 +337,10 @@ public abstract class Discovery extends Protocol {
                     addResponse(data, false);
                 }
 
+                if(return_entire_cache && bulk_cache_dissemination) {
+                    sendCache(msg.getSrc());
+                    return null;
+                }
                 if(return_entire_cache) {
                     Map<Address,PhysicalAddress> cache=(Map<Address,PhysicalAddress>)down(new Event(Event.GET_LOGICAL_PHYSICAL_MAPPINGS));
                     if(cache != null) {
@@ -357,8 +403,15 @@ public abstract class Discovery extends Protocol {
                 view=evt.getArg();
                 current_coord=view.getCoord();
                 is_coord=current_coord != null && local_addr != null && current_coord.equals(local_addr);
+                synchronized(cache_deltas) {
+                    cache_snapshot=null;
+                }
                 Object retval=down_prot.down(evt);
-                if(send_cache_on_join && !isDynamic() && is_coord) {
+                if(send_cache_on_join && !isDynamic() && is_coord && bulk_cache_dissemination) {
+                    View new_view=view;
+                    timer.execute(() -> disseminateCache(old_view, new_view), sends_can_block);
+                }
+                else if(send_cache_on_join && !isDynamic() && is_coord) {
                     List<Address> curr_mbrs, left_mbrs, new_mbrs;
                     curr_mbrs=new ArrayList<>(view.getMembers());
                     left_mbrs=View.leftMembers(old_view, view);
@@ -619,6 +672,178 @@ public abstract class Discovery extends Protocol {
     }
 
 
+    /**
+     * Sends a snapshot of the address cache to new members and the new entries to existing members (as a single
+     * multicast), or a snapshot to all members on a merge. The cache version is only changed when members were added
+     */
+    protected void disseminateCache(View old_view, View new_view) {
+        List<Address> new_mbrs=View.newMembers(old_view, new_view);
+        if(new_mbrs == null) { // first view
+            synchronized(cache_deltas) {
+                cache_deltas.clear();
+                cache_version=new_view.getViewId();
+            }
+            return;
+        }
+        if(new_mbrs.isEmpty())
+            return;
+        boolean send_snapshot_to_all=new_view instanceof MergeView || cache_version == null;
+        AddressCacheUpdate delta=new AddressCacheUpdate(cache_version, new_view.getViewId(), createCacheEntries(new_mbrs, null));
+        synchronized(cache_deltas) {
+            if(send_snapshot_to_all)
+                cache_deltas.clear();
+            else {
+                cache_deltas.add(delta);
+                while(cache_deltas.size() > max_cache_deltas)
+                    cache_deltas.removeFirst();
+            }
+            cache_version=new_view.getViewId();
+        }
+        Buffer snapshot=getCacheSnapshot();
+        if(send_snapshot_to_all) {
+            sendCacheUpdate(null, snapshot, true);
+            return;
+        }
+        for(Address mbr: new_mbrs)
+            if(!Objects.equals(mbr, local_addr))
+                sendCacheUpdate(mbr, snapshot, true);
+        if(new_view.size() > new_mbrs.size() + 1) // existing members other than self
+            sendCacheUpdate(null, marshal(delta), false);
+    }
+
+    /** Sends a snapshot (if coord) or our own and the coord's address (if not) as response to a discovery request */
+    protected void sendCache(Address target) {
+        if(is_coord || view == null || current_coord == null) {
+            sendCacheUpdate(target, getCacheSnapshot(), true);
+            return;
+        }
+        List<Address> mbrs=Arrays.asList(local_addr, current_coord);
+        sendCacheUpdate(target, marshal(new AddressCacheUpdate(null, null, createCacheEntries(mbrs, null))), true);
+    }
+
+    /** Returns the compressed snapshot of the address cache for the current view */
+    protected Buffer getCacheSnapshot() {
+        synchronized(cache_deltas) {
+            if(cache_snapshot != null)
+                return cache_snapshot;
+            View v=view;
+            Collection<Address> mbrs=v != null? v.getMembers() : Collections.singletonList(local_addr);
+            boolean[] complete={true};
+            Buffer snapshot=marshal(new AddressCacheUpdate(null, cache_version, createCacheEntries(mbrs, complete)));
+            if(complete[0] && v == view) // don't cache snapshots with missing physical addresses
+                cache_snapshot=snapshot;
+            return snapshot;
+        }
+    }
+
+    /** Returns a delta containing all entries added since version, or null if the deltas don't go back that far */
+    protected AddressCacheUpdate getCacheDelta(ViewId version) {
+        synchronized(cache_deltas) {
+            Map<Address,PingData> entries=null;
+            for(AddressCacheUpdate delta: cache_deltas) {
+                if(entries == null && delta.from().equals(version))
+                    entries=new LinkedHashMap<>();
+                if(entries != null)
+                    for(PingData data: delta.entries())
+                        entries.put(data.getAddress(), data);
+            }
+            if(entries == null)
+                return null;
+            View v=view;
+            if(v != null)
+                entries.keySet().removeIf(mbr -> !v.containsMember(mbr));
+            return new AddressCacheUpdate(version, cache_version, new ArrayList<>(entries.values()));
+        }
+    }
+
+    protected List<PingData> createCacheEntries(Collection<Address> mbrs, boolean[] complete) {
+        List<PingData> retval=new ArrayList<>(mbrs.size());
+        for(Address addr: mbrs) {
+            PhysicalAddress phys_addr=(PhysicalAddress)down_prot.down(new Event(Event.GET_PHYSICAL_ADDRESS, addr));
+            if(phys_addr == null) {
+                if(complete != null)
+                    complete[0]=false;
+                continue;
+            }
+            retval.add(new PingData(addr, is_server, NameCache.get(addr), phys_addr).coord(isCoord(addr)));
+        }
+        return retval;
+    }
+
+    protected void handleCacheMessage(byte type, Message msg) {
+        try {
+            if(type == PingHeader.CACHE_REQ) {
+                ViewId version=msg.getLength() > 0?
+                  Util.streamableFromBuffer(ViewId.class, msg.getRawBuffer(), msg.getOffset(), msg.getLength()) : null;
+                AddressCacheUpdate delta=version != null? getCacheDelta(version) : null;
+                log.trace("%s: received CACHE_REQ(version=%s) from %s, sending %s", local_addr, version, msg.src(),
+                          delta != null? delta : "snapshot");
+                sendCacheUpdate(msg.src(), delta != null? marshal(delta) : getCacheSnapshot(), delta == null);
+                return;
+            }
+            AddressCacheUpdate update=AddressCacheUpdate.uncompress(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+            log.trace("%s: received CACHE_RSP from %s: %s", local_addr, msg.src(), update);
+            handleCacheUpdate(update, msg.src());
+        }
+        catch(Exception ex) {
+            log.error("%s: failed handling %s from %s: %s", local_addr, PingHeader.type2Str(type), msg.src(), ex);
+        }
+    }
+
+    /**
+     * Adds the entries of a snapshot or delta to the caches. If a delta doesn't apply to our cache version (e.g.
+     * because we missed a previous delta), the missing entries are requested from the sender
+     */
+    protected void handleCacheUpdate(AddressCacheUpdate update, Address sender) {
+        for(PingData data: update.entries())
+            handleDiscoveryResponse(data, sender);
+        if(update.to() == null) // not versioned
+            return;
+        boolean request_cache=false;
+        synchronized(cache_deltas) {
+            ViewId version=cache_version;
+            if(update.isSnapshot() || update.from().equals(version)) {
+                if(version == null || version.compareToIDs(update.to()) < 0)
+                    cache_version=update.to();
+            }
+            else // a member without a cache version (joiner) will get a snapshot, unless it is already a member
+                request_cache=version == null? is_server : version.compareToIDs(update.to()) < 0;
+        }
+        if(request_cache) {
+            ViewId version=cache_version;
+            log.trace("%s: cache version %s doesn't match %s; requesting cache from %s", local_addr, version, update, sender);
+            Message req=new Message(sender).setFlag(Message.Flag.INTERNAL, Message.Flag.OOB, Message.Flag.DONT_BUNDLE)
+              .putHeader(this.id, new PingHeader(PingHeader.CACHE_REQ).clusterName(cluster_name));
+            if(version != null)
+                req.setBuffer(Util.streamableToBuffer(version));
+            down_prot.down(req);
+        }
+    }
+
+    /** Sends a compressed {@link AddressCacheUpdate} to target (all members if null) */
+    protected void sendCacheUpdate(Address target, Buffer update, boolean snapshot) {
+        if(update == null)
+            return;
+        if(snapshot)
+            num_cache_snapshots_sent++;
+        else
+            num_cache_deltas_sent++;
+        Message msg=new Message(target).setFlag(Message.Flag.INTERNAL, Message.Flag.OOB, Message.Flag.DONT_BUNDLE)
+          .putHeader(this.id, new PingHeader(PingHeader.CACHE_RSP).clusterName(cluster_name)).setBuffer(update);
+        down_prot.down(msg);
+    }
+
+    protected Buffer marshal(AddressCacheUpdate update) {
+        try {
+            return update.compress();
+        }
+        catch(Exception e) {
+            log.error("%s: failed marshalling %s: %s", local_addr, update, e);
+            return null;
+        }
+    }
+
+
     protected class DiscoveryCacheDisseminationTask implements Runnable {
         protected final List<Address> curr_mbrs, left_mbrs, new_mbrs;
 
@@ -3,12 +3,14 @@ package org.jgroups.protocols;
 import org.jgroups.*;
 import org.jgroups.annotations.MBean;
 import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.blocks.executor.ExecutionService.DistributedFuture;
 import org.jgroups.blocks.executor.ExecutorEvent;
 import org.jgroups.blocks.executor.ExecutorNotification;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.Streamable;
+import org.jgroups.util.Tuple;
 import org.jgroups.util.Util;
 
 import java.io.*;
@@ -17,7 +19,9 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
@@ -26,6 +30,12 @@ import static org.jgroups.protocols.Executing.Type.RUN_REQUEST;
 
 /**
  * This is the base protocol used for executions.
+ * <p>
+ * With use_batching, the requests to the same member (e.g. run requests, tasks
+ * and results) are sent in batches, and consumers request tasks ahead of time:
+ * every consumer thread keeps a small local queue of tasks, and an idle
+ * consumer steals tasks from the queues of the other consumers of the same
+ * member, so that fine-grained tasks don't cost a round trip each.
  * @author wburns
  * @see org.jgroups.protocols.CENTRAL_EXECUTOR
  */
@@ -35,6 +45,21 @@ abstract public class Executing extends Protocol {
     @Property(description="bypasses message bundling if set")
     protected boolean bypass_bundling=true;
 
+    @Property(description="If true, requests to the same member are sent in batches, and every consumer thread " +
+      "requests consumer_queue_size tasks ahead of time, which can be stolen by idle consumers of the same member. " +
+      "Needs to be the same on all members")
+    protected boolean use_batching;
+
+    @Property(description="Max number of requests sent in a single message (use_batching)")
+    protected int     max_batch_size=100;
+
+    @Property(description="Number of tasks requested ahead of time by every consumer thread (use_batching)")
+    protected int     consumer_queue_size=4;
+
+    protected final LongAdder num_submitted=new LongAdder(), num_results=new LongAdder(),
+                              num_executed=new LongAdder(), num_stolen=new LongAdder(),
+                              num_batches=new LongAdder(), num_batched_requests=new LongAdder();
+
 
     protected Address local_addr;
 
@@ -123,6 +148,37 @@ abstract public class Executing extends Protocol {
      * elements the run request queue must be empty.
      */
     protected Queue<Owner> _consumersAvailable = new ArrayDeque<>();
+
+    /**
+     * The requests to be sent (use_batching).  Whichever thread increments
+     * _pendingRequestsSize from 0 sends all pending requests, grouped by
+     * destination
+     */
+    protected final Queue<Tuple<Address, Request>> _pendingRequests = 
+        new ConcurrentLinkedQueue<>();
+
+    protected final AtomicInteger _pendingRequestsSize = new AtomicInteger();
+
+    /**
+     * The local task queues of the consumer threads on this member
+     * (use_batching)
+     */
+    protected final ConcurrentMap<Thread, ConsumerQueue> _consumerQueues = 
+        new ConcurrentHashMap<>();
+
+    /**
+     * The consumer slots requested from the coordinator which have not yet
+     * received a task, mapped to the queue of the consumer which requested
+     * them (use_batching)
+     */
+    protected final ConcurrentMap<Long, ConsumerQueue> _slots = 
+        new ConcurrentHashMap<>();
+
+    /**
+     * Number of tasks in all consumer queues: a consumer acquires a permit
+     * before taking a task from its own queue or stealing one (use_batching)
+     */
+    protected final Semaphore _queuedTasks = new Semaphore(0);
     
     protected enum Type {
         RUN_REQUEST,            // request to coordinator from client to tell of a new task request
@@ -137,7 +193,8 @@ abstract public class Executing extends Protocol {
         CREATE_RUN_REQUEST,     // request to backups from coordinator to create a new task request. Used by CENTRAL_LOCKING
         CREATE_CONSUMER_READY,  // request to backups from coordinator to create a new consumer ready. Used by CENTRAL_LOCKING
         DELETE_RUN_REQUEST,     // request to backups from coordinator to delete a task request. Used by CENTRAL_LOCKING
-        DELETE_CONSUMER_READY   // request to backups from coordinator to delete a consumer ready. Used by CENTRAL_LOCKING
+        DELETE_CONSUMER_READY,  // request to backups from coordinator to delete a consumer ready. Used by CENTRAL_LOCKING
+        BATCH                   // a number of requests to the same member (use_batching)
     }
     
     public Executing() {
@@ -154,6 +211,98 @@ abstract public class Executing extends Protocol {
         this.bypass_bundling=bypass_bundling;
     }
 
+    public boolean getUseBatching() {
+        return use_batching;
+    }
+
+    public Executing setUseBatching(boolean use_batching) {
+        this.use_batching=use_batching;
+        return this;
+    }
+
+    @ManagedAttribute(description="Number of tasks submitted by this member")
+    public long getNumSubmitted() {
+        return num_submitted.sum();
+    }
+
+    @ManagedAttribute(description="Number of results (values or exceptions) received for tasks submitted by this member")
+    public long getNumResults() {
+        return num_results.sum();
+    }
+
+    @ManagedAttribute(description="Number of tasks executed by the consumers of this member")
+    public long getNumExecuted() {
+        return num_executed.sum();
+    }
+
+    @ManagedAttribute(description="Number of tasks taken by a consumer from the queue of another consumer (use_batching)")
+    public long getNumStolen() {
+        return num_stolen.sum();
+    }
+
+    @ManagedAttribute(description="Number of messages containing multiple requests (use_batching)")
+    public long getNumBatches() {
+        return num_batches.sum();
+    }
+
+    @ManagedAttribute(description="Average number of requests per batch (use_batching)")
+    public double getAverageBatchSize() {
+        long batches = num_batches.sum();
+        return batches == 0 ? 0 : num_batched_requests.sum() / (double)batches;
+    }
+
+    @ManagedAttribute(description="Number of tasks submitted by this member which are waiting for a consumer")
+    public int getNumAwaitingConsumer() {
+        return _awaitingConsumer.size();
+    }
+
+    @ManagedAttribute(description="Number of tasks submitted by this member which are waiting for a result")
+    public int getNumAwaitingResult() {
+        return _awaitingReturn.size();
+    }
+
+    @ManagedAttribute(description="Number of tasks in the local queues of the consumers of this member (use_batching)")
+    public int getNumQueuedTasks() {
+        int retval = 0;
+        for (ConsumerQueue queue : _consumerQueues.values()) {
+            retval += queue.tasks.size();
+        }
+        return retval;
+    }
+
+    @ManagedAttribute(description="Number of tasks waiting for a consumer (coordinator only)")
+    public int getNumRunRequests() {
+        _consumerLock.lock();
+        try {
+            return _runRequests.size();
+        }
+        finally {
+            _consumerLock.unlock();
+        }
+    }
+
+    @ManagedAttribute(description="Number of consumers waiting for a task (coordinator only)")
+    public int getNumConsumersAvailable() {
+        _consumerLock.lock();
+        try {
+            return _consumersAvailable.size();
+        }
+        finally {
+            _consumerLock.unlock();
+        }
+    }
+
+    @ManagedOperation(description="Resets all statistics")
+    public void resetStats() {
+        super.resetStats();
+        num_submitted.reset();
+        num_results.reset();
+        num_executed.reset();
+        num_stolen.reset();
+        num_batches.reset();
+        num_batched_requests.reset();
+    }
+
     public void addExecutorListener(Future<?> future,
                                     ExecutorNotification listener) {
         if(listener != null)
@@ -193,10 +342,14 @@ abstract public class Executing extends Protocol {
                 _requestId.put(runnable, requestId);
 
                 _awaitingConsumer.add(runnable);
+                num_submitted.increment();
 
                 sendToCoordinator(RUN_REQUEST, requestId, local_addr);
                 break;
             case ExecutorEvent.CONSUMER_READY:
+                if (use_batching) {
+                    return takeTask();
+                }
                 Thread currentThread = Thread.currentThread();
                 long threadId = currentThread.getId();
                 _consumerId.put(threadId, PRESENT);
@@ -254,6 +407,7 @@ abstract public class Executing extends Protocol {
                 Owner owner = _running.remove(runnable);
                 // This won't remove anything if owner doesn't come back
                 _runnableThreads.remove(runnable);
+                num_executed.increment();
 
                 Object value = null;
                 boolean exception = false;
@@ -428,6 +582,11 @@ abstract public class Executing extends Protocol {
                     }
                 }
                 return notRan;
+            case ExecutorEvent.CONSUMER_STOPPED:
+                if (use_batching) {
+                    stopConsumer(Thread.currentThread());
+                }
+                break;
             case Event.SET_LOCAL_ADDRESS:
                 local_addr=evt.getArg();
                 break;
@@ -439,6 +598,18 @@ abstract public class Executing extends Protocol {
         return down_prot.down(evt);
     }
     
+    protected static <V, K> V getKeyForValue(Map<V, K> map, K value) {
+        synchronized (map) {
+            for (Entry<V, K> entry : map.entrySet()) {
+                if (entry.getValue().equals(value)) {
+                    return entry.getKey();
+                }
+            }
+        }
+        
+        return null;
+    }
+
     protected static <V, K> V removeKeyForValue(Map<V, K> map, K value) {
         synchronized (map) {
             Iterator<Entry<V, K>> iter = 
@@ -472,6 +643,11 @@ abstract public class Executing extends Protocol {
         Request req=msg.getObject();
         if(log.isTraceEnabled())
             log.trace("[" + local_addr + "] <-- [" + msg.getSrc() + "] " + req);
+        handleRequest(msg.getSrc(), req);
+        return null;
+    }
+
+    protected void handleRequest(Address src, Request req) {
         switch(req.type) {
             case RUN_REQUEST:
                 handleTaskRequest(req.request, (Address)req.object);
@@ -503,23 +679,23 @@ abstract public class Executing extends Protocol {
                     break;
                 }
                         
-                handleTaskSubmittedRequest(runnable, msg.getSrc(),
+                handleTaskSubmittedRequest(runnable, src,
                                            req.request, reqWT.threadId);
                 break;
             case RUN_REJECTED:
                 // We could make requests local for this, but is it really worth it
-                handleTaskRejectedResponse(msg.getSrc(), req.request);
+                handleTaskRejectedResponse(src, req.request);
                 break;
             case RESULT_SUCCESS:
-                handleValueResponse(msg.getSrc(), req.request, req.object);
+                handleValueResponse(src, req.request, req.object);
                 break;
             case RESULT_EXCEPTION:
-                handleExceptionResponse(msg.getSrc(), req.request,
+                handleExceptionResponse(src, req.request,
                                         (Throwable)req.object);
                 break;
             case INTERRUPT_RUN:
                 // We could make requests local for this, but is it really worth it
-                handleInterruptRequest(msg.getSrc(), req.request);
+                handleInterruptRequest(src, req.request);
                 break;
             case CREATE_CONSUMER_READY:
                 Owner owner = new Owner((Address)req.object, req.request);
@@ -537,11 +713,15 @@ abstract public class Executing extends Protocol {
                 owner = new Owner((Address)req.object, req.request);
                 handleRemoveRunRequest(owner);
                 break;
+            case BATCH:
+                for (Request request : ((Requests)req).requests) {
+                    handleRequest(src, request);
+                }
+                break;
             default:
                 log.error(Util.getMessage("RequestOfType") + req.type + " not known");
                 break;
         }
-        return null;
     }
 
     protected void handleView(View view) {
@@ -718,6 +898,10 @@ abstract public class Executing extends Protocol {
 
     protected void handleTaskSubmittedRequest(Runnable runnable, Address source, 
                                               long requestId, long threadId) {
+        if (use_batching) {
+            queueTask(runnable, source, requestId, threadId);
+            return;
+        }
         // We store in our map so that when that task is
         // finished so that we can send back to the owner
         // with the results
@@ -772,6 +956,133 @@ abstract public class Executing extends Protocol {
         }
     }
     
+    /**
+     * Takes the next task for the calling consumer thread (use_batching): the
+     * task is taken from the front of the consumer's own queue or, if that
+     * is empty, stolen from the back of the queue of another consumer
+     * @return the task to run or null if the consumer was interrupted
+     */
+    protected Runnable takeTask() {
+        Thread currentThread = Thread.currentThread();
+        ConsumerQueue queue = _consumerQueues.computeIfAbsent(currentThread, ConsumerQueue::new);
+        try {
+            for (;;) {
+                requestTasks(queue);
+                _queuedTasks.acquire();
+                QueuedTask task = queue.tasks.pollFirst();
+                if (task == null) {
+                    for (ConsumerQueue other : _consumerQueues.values()) {
+                        if (other != queue && (task = other.tasks.pollLast()) != null) {
+                            num_stolen.increment();
+                            break;
+                        }
+                    }
+                }
+                // The task might have been removed by an interrupt
+                if (task == null) {
+                    continue;
+                }
+                _runnableThreads.put(task.runnable, currentThread);
+                return task.runnable;
+            }
+        }
+        catch (InterruptedException e) {
+            if (log.isDebugEnabled()) 
+                log.debug("Consumer " + currentThread.getId() + 
+                    " stopped via interrupt");
+            stopConsumer(currentThread);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Tells the coordinator that the consumer is ready for as many tasks as
+     * needed to have consumer_queue_size tasks queued or requested
+     */
+    protected void requestTasks(ConsumerQueue queue) {
+        while (queue.slots.size() + queue.tasks.size() < consumer_queue_size) {
+            long slot = Math.abs(counter.getAndIncrement());
+            queue.slots.add(slot);
+            _slots.put(slot, queue);
+            _consumerId.put(slot, PRESENT);
+            sendToCoordinator(Type.CONSUMER_READY, slot, local_addr);
+        }
+    }
+
+    /**
+     * Adds a task to the queue of the consumer which requested the slot, or to
+     * the queue of any other consumer if that one was stopped in the meantime
+     */
+    protected void queueTask(Runnable runnable, Address source, long requestId, long slot) {
+        ConsumerQueue queue = _slots.remove(slot);
+        _consumerId.remove(slot);
+        if (queue != null) {
+            queue.slots.remove(slot);
+        }
+        QueuedTask task = new QueuedTask(runnable);
+        _running.put(runnable, new Owner(source, requestId));
+        if ((queue == null || !queue.add(task)) && !addToAnyQueue(task)) {
+            if (log.isDebugEnabled())
+                log.debug("Run rejected as there are no consumers");
+            _running.remove(runnable);
+            sendRequest(source, Type.RUN_REJECTED, requestId, null);
+            return;
+        }
+        _queuedTasks.release();
+    }
+
+    protected boolean addToAnyQueue(QueuedTask task) {
+        for (ConsumerQueue queue : _consumerQueues.values()) {
+            if (queue.add(task)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the queue of a stopped consumer: its outstanding slots are
+     * removed from the coordinator and its queued tasks are handed to other
+     * consumers, or rejected if there are none
+     */
+    protected void stopConsumer(Thread thread) {
+        ConsumerQueue queue = _consumerQueues.remove(thread);
+        if (queue == null) {
+            return;
+        }
+        List<QueuedTask> tasks = queue.stop();
+        for (Long slot : queue.slots) {
+            _slots.remove(slot);
+            _consumerId.remove(slot);
+            sendToCoordinator(Type.CONSUMER_UNREADY, slot, local_addr);
+        }
+        for (QueuedTask task : tasks) {
+            if (addToAnyQueue(task)) {
+                continue;
+            }
+            _queuedTasks.tryAcquire();
+            Owner owner = _running.remove(task.runnable);
+            if (owner != null) {
+                if (log.isDebugEnabled())
+                    log.debug("Run rejected as consumer was stopped");
+                sendRequest(owner.getAddress(), Type.RUN_REJECTED, owner.getRequestId(), null);
+            }
+        }
+    }
+
+    protected boolean removeQueuedTask(Runnable runnable) {
+        for (ConsumerQueue queue : _consumerQueues.values()) {
+            for (QueuedTask task : queue.tasks) {
+                if (task.runnable == runnable && queue.tasks.remove(task)) {
+                    _queuedTasks.tryAcquire();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     protected void handleTaskRejectedResponse(Address source, long requestId) {
         Runnable runnable = _awaitingReturn.remove(new Owner(
             source, requestId));
@@ -789,6 +1100,7 @@ abstract public class Executing extends Protocol {
     }
 
     protected void handleValueResponse(Address source, long requestId, Object value) {
+        num_results.increment();
         Runnable runnable = _awaitingReturn.remove(
             new Owner(source, requestId));
         
@@ -809,6 +1121,7 @@ abstract public class Executing extends Protocol {
     }
 
     protected void handleExceptionResponse(Address source, long requestId, Throwable throwable) {
+        num_results.increment();
         Runnable runnable = _awaitingReturn.remove(
             new Owner(source, requestId));
         
@@ -833,16 +1146,28 @@ abstract public class Executing extends Protocol {
 
     protected void handleInterruptRequest(Address source, long requestId) {
         Owner owner = new Owner(source, requestId);
-        Runnable runnable = removeKeyForValue(_running, owner);
+        Runnable runnable = getKeyForValue(_running, owner);
         Thread thread = null;
         if (runnable != null) {
             thread = _runnableThreads.remove(runnable);
         }
         if (thread != null) {
+            _running.remove(runnable);
             thread.interrupt();
         }
-        else if (log.isTraceEnabled())
-            log.trace("Message could not be interrupted due to it already returned");
+        else if (use_batching && runnable != null && removeQueuedTask(runnable)) {
+            // The task never ran, so there won't be a TASK_COMPLETE removing it
+            _running.remove(runnable);
+            if (log.isTraceEnabled())
+                log.trace("Removed queued task " + runnable);
+        }
+        else {
+            if (runnable != null) {
+                _running.remove(runnable);
+            }
+            if (log.isTraceEnabled())
+                log.trace("Message could not be interrupted due to it already returned");
+        }
     }
 
     protected void handleNewRunRequest(Owner sender) {
@@ -890,23 +1215,54 @@ abstract public class Executing extends Protocol {
     }
     
     protected void sendRequest(Address dest, Type type, long requestId, Object object) {
-        Request req=new Request(type, object, requestId);
-        Message msg=new Message(dest, req).putHeader(id, new ExecutorHeader());
-        if(bypass_bundling)
-            msg.setFlag(Message.Flag.DONT_BUNDLE);
-        if(log.isTraceEnabled())
-            log.trace("[" + local_addr + "] --> [" + (dest == null? "ALL" : dest) + "] " + req);
-        try {
-            down_prot.down(msg);
-        }
-        catch(Exception ex) {
-            log.error(Util.getMessage("FailedSending") + type + " request: " + ex);
-        }  
+        send(dest, new Request(type, object, requestId));
     }
     
     protected void sendThreadRequest(Address dest, long threadId, Type type, long requestId, 
         Object object) {
-        RequestWithThread req=new RequestWithThread(type, object, requestId, threadId);
+        send(dest, new RequestWithThread(type, object, requestId, threadId));
+    }
+
+    /**
+     * Sends a request. With use_batching, the request is added to the pending
+     * requests, and the thread which added the first one sends all pending
+     * requests to the same destination in a single message
+     */
+    protected void send(Address dest, Request req) {
+        if (!use_batching) {
+            sendMessage(dest, req);
+            return;
+        }
+        _pendingRequests.add(new Tuple<>(dest, req));
+        if (_pendingRequestsSize.getAndIncrement() != 0) {
+            return;
+        }
+        int num = 1;
+        do {
+            Map<Address, List<Request>> map = new LinkedHashMap<>();
+            for (int i = 0; i < num; i++) {
+                Tuple<Address, Request> tuple = _pendingRequests.poll();
+                map.computeIfAbsent(tuple.getVal1(), k -> new ArrayList<>()).add(tuple.getVal2());
+            }
+            for (Entry<Address, List<Request>> entry : map.entrySet()) {
+                List<Request> list = entry.getValue();
+                for (int i = 0; i < list.size(); i += max_batch_size) {
+                    List<Request> batch = list.subList(i, Math.min(i + max_batch_size, list.size()));
+                    if (batch.size() == 1) {
+                        sendMessage(entry.getKey(), batch.get(0));
+                    }
+                    else {
+                        num_batches.increment();
+                        num_batched_requests.add(batch.size());
+                        sendMessage(entry.getKey(), new Requests(new ArrayList<>(batch)));
+                    }
+                }
+            }
+        }
+        while ((num = _pendingRequestsSize.addAndGet(-num)) > 0);
+    }
+
+    protected void sendMessage(Address dest, Request req) {
         Message msg=new Message(dest, req).putHeader(id, new ExecutorHeader());
         if(bypass_bundling)
             msg.setFlag(Message.Flag.DONT_BUNDLE);
@@ -916,7 +1272,7 @@ abstract public class Executing extends Protocol {
             down_prot.down(msg);
         }
         catch(Exception ex) {
-            log.error(Util.getMessage("FailedSending") + type + " request: " + ex);
+            log.error(Util.getMessage("FailedSending") + req.type + " request: " + ex);
         }  
     }
     
@@ -1042,6 +1398,97 @@ abstract public class Executing extends Protocol {
     }
 
 
+    /** A number of requests to the same member, sent in a single message (use_batching) */
+    protected static class Requests extends Request {
+        protected List<Request> requests;
+
+        public Requests() {
+        }
+
+        public Requests(List<Request> requests) {
+            super(Type.BATCH, null, -1);
+            this.requests = requests;
+        }
+
+        public Supplier<? extends Request> create() {
+            return Requests::new;
+        }
+
+        @Override
+        public void writeTo(DataOutput out) throws Exception {
+            out.writeByte(type.ordinal());
+            out.writeInt(requests.size());
+            for (Request req : requests) {
+                out.writeBoolean(req instanceof RequestWithThread);
+                req.writeTo(out);
+            }
+        }
+
+        @Override
+        public void readFrom(DataInput in) throws Exception {
+            type=Type.values()[in.readByte()];
+            int size = in.readInt();
+            requests = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Request req = in.readBoolean() ? new RequestWithThread() : new Request();
+                req.readFrom(in);
+                requests.add(req);
+            }
+        }
+
+        public String toString() {
+            return type.name() + " " + requests;
+        }
+    }
+
+    /** The local task queue of a consumer thread (use_batching) */
+    protected static class ConsumerQueue {
+        protected final Thread           thread;
+        protected final Deque<QueuedTask> tasks = new ConcurrentLinkedDeque<>();
+        protected final Set<Long>        slots = ConcurrentHashMap.newKeySet();
+        protected boolean                stopped;
+
+        public ConsumerQueue(Thread thread) {
+            this.thread = thread;
+        }
+
+        /** Adds a task, unless the consumer was stopped */
+        public synchronized boolean add(QueuedTask task) {
+            if (stopped) {
+                return false;
+            }
+            tasks.add(task);
+            return true;
+        }
+
+        /** Marks the consumer as stopped and returns its queued tasks */
+        public synchronized List<QueuedTask> stop() {
+            stopped = true;
+            List<QueuedTask> retval = new ArrayList<>();
+            QueuedTask task;
+            while ((task = tasks.pollFirst()) != null) {
+                retval.add(task);
+            }
+            return retval;
+        }
+
+        public String toString() {
+            return thread.getName() + ": " + tasks.size() + " tasks, " + slots.size() + " slots";
+        }
+    }
+
+    /**
+     * Wraps a task in a consumer queue, so that the same runnable can be
+     * queued more than once and be removed by identity
+     */
+    protected static class QueuedTask {
+        protected final Runnable runnable;
+
+        public QueuedTask(Runnable runnable) {
+            this.runnable = runnable;
+        }
+    }
+
     public static class ExecutorHeader extends Header {
 
         public ExecutorHeader() {
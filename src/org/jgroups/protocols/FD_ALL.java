@@ -47,6 +47,23 @@ public class FD_ALL extends Protocol {
       "removed soon, don't use !")
     protected boolean                                use_time_service=true;
 
+    @Property(description="Suspects a member when its phi (suspicion level computed from the distribution of the " +
+      "inter-arrival times of its heartbeats) exceeds phi_threshold, rather than after a fixed timeout. " +
+      "timeout is ignored when enabled")
+    protected boolean                                use_phi_accrual;
+
+    @Property(description="The phi value above which a member is suspected (use_phi_accrual only). A phi of 8 " +
+      "corresponds to a 10^-8 probability of a false suspicion")
+    protected double                                 phi_threshold=8;
+
+    @Property(description="Number of heartbeat inter-arrival times kept per member (use_phi_accrual only)")
+    protected int                                    phi_window_size=100;
+
+    @Property(description="The minimum standard deviation (ms) of the heartbeat inter-arrival times, so that very " +
+      "regular heartbeats don't make the detector overly sensitive, e.g. to a single GC pause (use_phi_accrual only). " +
+      "0 uses interval/4")
+    protected long                                   phi_min_std_deviation;
+
     /* ---------------------------------------------   JMX      ------------------------------------------------------ */
     @ManagedAttribute(description="Number of heartbeats sent")
     protected int                                    num_heartbeats_sent;
@@ -62,6 +79,9 @@ public class FD_ALL extends Protocol {
     // Map of addresses and timestamps of last updates (ns)
     protected final ConcurrentMap<Address, Long>     timestamps=Util.createConcurrentMap();
 
+    // Heartbeat inter-arrival times per member, used instead of timestamps when use_phi_accrual is true
+    protected final ConcurrentMap<Address,ArrivalWindow> arrival_windows=Util.createConcurrentMap();
+
     protected Address                                local_addr;
     
     protected final List<Address>                    members=new ArrayList<>();
@@ -108,6 +128,28 @@ public class FD_ALL extends Protocol {
     public void setTimeoutCheckInterval(long timeout_check_interval) {this.timeout_check_interval=timeout_check_interval;}
     public long getInterval() {return interval;}
     public void setInterval(long interval) {this.interval=interval;}
+    public boolean usePhiAccrual() {return use_phi_accrual;}
+    public FD_ALL usePhiAccrual(boolean b) {use_phi_accrual=b; return this;}
+    public double getPhiThreshold() {return phi_threshold;}
+    public FD_ALL setPhiThreshold(double t) {phi_threshold=t; return this;}
+
+    /** Returns the current phi of mbr, or -1 if not known (or use_phi_accrual is false) */
+    public double phi(Address mbr) {
+        ArrivalWindow win=arrival_windows.get(mbr);
+        return win != null? win.phi(getTimestamp()) : -1;
+    }
+
+    @ManagedAttribute(description="The current phi value of each member (use_phi_accrual only)")
+    public String getPhiValues() {
+        long now=getTimestamp();
+        StringBuilder sb=new StringBuilder();
+        for(Entry<Address,ArrivalWindow> entry: arrival_windows.entrySet()) {
+            if(sb.length() > 0)
+                sb.append(", ");
+            sb.append(String.format("%s: %.2f", entry.getKey(), entry.getValue().phi(now)));
+        }
+        return sb.toString();
+    }
 
     @ManagedAttribute(description="Are heartbeat tasks running")
     public boolean isRunning() {
@@ -134,6 +176,15 @@ public class FD_ALL extends Protocol {
         return _printTimestamps();
     }
 
+    @ManagedOperation(description="Prints the phi value and heartbeat inter-arrival statistics of each member")
+    public String printPhiValues() {
+        long now=getTimestamp();
+        StringBuilder sb=new StringBuilder();
+        for(Entry<Address,ArrivalWindow> entry: arrival_windows.entrySet())
+            sb.append(String.format("%s: phi=%.2f (%s)\n", entry.getKey(), entry.getValue().phi(now), entry.getValue()));
+        return sb.toString();
+    }
+
     @ManagedOperation(description="Stops checking for crashed members")
     public void stopFailureDetection() {
         stopTimeoutChecker();
@@ -165,8 +216,10 @@ public class FD_ALL extends Protocol {
                 use_time_service=false;
             }
         }
-        if(interval > timeout)
+        if(interval > timeout && !use_phi_accrual)
             log.warn("interval (%d) is bigger than timeout (%d); this will lead to false suspicions", interval, timeout);
+        if(use_phi_accrual && (phi_threshold <= 0 || phi_window_size <= 0))
+            throw new IllegalArgumentException("phi_threshold and phi_window_size need to be positive");
         suspected_mbrs.clear();
         has_suspected_mbrs=false;
     }
@@ -185,14 +238,14 @@ public class FD_ALL extends Protocol {
 
         Header hdr=msg.getHeader(this.id);
         if(hdr != null) {
-            update(sender); // updates the heartbeat entry for 'sender'
+            update(sender, true); // updates the heartbeat entry for 'sender'
             num_heartbeats_received++;
             unsuspect(sender);
             return null; // consume heartbeat message, do not pass to the layer above
         }
         else if(msg_counts_as_heartbeat) {
             // message did not originate from FD_ALL layer, but still count as heartbeat
-            update(sender); // update when data is received too ? maybe a bit costly
+            update(sender, false); // update when data is received too ? maybe a bit costly
             if(has_suspected_mbrs)
                 unsuspect(sender);
         }
@@ -203,7 +256,7 @@ public class FD_ALL extends Protocol {
     public void up(MessageBatch batch) {
         int matching_msgs=batch.replaceIf(HAS_HEADER, null, true);
         if(matching_msgs > 0 || msg_counts_as_heartbeat) {
-            update(batch.sender());
+            update(batch.sender(), matching_msgs > 0);
             num_heartbeats_received++;
             if(has_suspected_mbrs)
                 unsuspect(batch.sender());
@@ -226,7 +279,7 @@ public class FD_ALL extends Protocol {
             case Event.UNSUSPECT:
                 Address mbr=evt.getArg();
                 unsuspect(mbr);
-                update(mbr);
+                update(mbr, false);
                 break;
         }
         return down_prot.down(evt);
@@ -292,13 +345,41 @@ public class FD_ALL extends Protocol {
     }
 
 
-    protected void update(Address sender) {
-        if(sender != null && !sender.equals(local_addr))
+    /**
+     * Updates the timestamp of sender. In phi accrual mode, only heartbeats add a sample to the inter-arrival times;
+     * other messages merely postpone suspicion
+     */
+    protected void update(Address sender, boolean heartbeat) {
+        if(sender == null || sender.equals(local_addr))
+            return;
+        if(!use_phi_accrual) {
             timestamps.put(sender, getTimestamp());
+            return;
+        }
+        ArrivalWindow win=arrival_windows.get(sender);
+        if(win == null) {
+            addIfAbsent(sender);
+            return;
+        }
+        if(heartbeat)
+            win.add(getTimestamp());
+        else
+            win.touch(getTimestamp());
+    }
+
+    /** The minimum standard deviation (ms) of the inter-arrival times: phi_min_std_deviation, or interval/4 if 0 */
+    protected long minStdDeviation() {
+        return phi_min_std_deviation > 0? phi_min_std_deviation : interval / 4;
     }
 
     protected void addIfAbsent(Address mbr) {
-        if(mbr != null && !mbr.equals(local_addr))
+        if(mbr == null || mbr.equals(local_addr))
+            return;
+        if(use_phi_accrual)
+            arrival_windows.computeIfAbsent(mbr, k -> new ArrivalWindow(phi_window_size, TimeUnit.MILLISECONDS.toNanos(interval),
+                                                                        TimeUnit.MILLISECONDS.toNanos(minStdDeviation()),
+                                                                        getTimestamp()));
+        else
             timestamps.putIfAbsent(mbr, getTimestamp());
     }
 
@@ -316,6 +397,7 @@ public class FD_ALL extends Protocol {
             if(suspected_mbrs.retainAll(mbrs))
                 has_suspected_mbrs=!suspected_mbrs.isEmpty();
             timestamps.keySet().retainAll(mbrs);
+            arrival_windows.keySet().retainAll(mbrs);
         }
 
         mbrs.forEach(this::addIfAbsent);
@@ -421,6 +503,21 @@ public class FD_ALL extends Protocol {
         public void run() {                        
             List<Address> suspects=new LinkedList<>();
             long current_time=getTimestamp(), diff;
+            if(use_phi_accrual) {
+                for(Entry<Address,ArrivalWindow> entry: arrival_windows.entrySet()) {
+                    ArrivalWindow win=entry.getValue();
+                    double phi=win.phi(current_time);
+                    if(phi > phi_threshold) {
+                        log.debug("%s: phi of %s is %.2f (threshold: %.2f, last heard from %d ms ago), adding it to suspect list",
+                                  local_addr, entry.getKey(), phi, phi_threshold,
+                                  TimeUnit.NANOSECONDS.toMillis(win.elapsed(current_time)));
+                        suspects.add(entry.getKey());
+                    }
+                }
+                if(!suspects.isEmpty())
+                    suspect(suspects);
+                return;
+            }
             for(Iterator<Entry<Address,Long>> it=timestamps.entrySet().iterator(); it.hasNext();) {
                 Entry<Address,Long> entry=it.next();
                 Address key=entry.getKey();
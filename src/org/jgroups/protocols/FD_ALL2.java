@@ -43,6 +43,22 @@ public class FD_ALL2 extends Protocol {
             "a value in a hashmap every time a message is passing up the stack through FD_ALL2, which is costly. Default is false")
     protected boolean                          msg_counts_as_heartbeat;
 
+    @Property(description="Suspects a member when its phi (suspicion level computed from the distribution of the " +
+      "inter-arrival times of its heartbeats) exceeds phi_threshold, rather than when no heartbeat was received " +
+      "within timeout ms. The suspicion level is then checked every interval ms")
+    protected boolean                          use_phi_accrual;
+
+    @Property(description="The phi value above which a member is suspected (use_phi_accrual only)")
+    protected double                           phi_threshold=8;
+
+    @Property(description="Number of heartbeat inter-arrival times kept per member (use_phi_accrual only)")
+    protected int                              phi_window_size=100;
+
+    @Property(description="The minimum standard deviation (ms) of the heartbeat inter-arrival times, so that very " +
+      "regular heartbeats don't make the detector overly sensitive, e.g. to a single GC pause (use_phi_accrual only). " +
+      "0 uses interval/4")
+    protected long                             phi_min_std_deviation;
+
     /* ---------------------------------------------   JMX      ------------------------------------------------------ */
     @ManagedAttribute(description="Number of heartbeats sent")
     protected int                              num_heartbeats_sent;
@@ -59,6 +75,9 @@ public class FD_ALL2 extends Protocol {
     // Map of addresses and timestamps of last updates
     protected final ConcurrentMap<Address,AtomicBoolean> timestamps=Util.createConcurrentMap();
 
+    // Heartbeat inter-arrival times per member, used instead of timestamps when use_phi_accrual is true
+    protected final ConcurrentMap<Address,ArrivalWindow> arrival_windows=Util.createConcurrentMap();
+
     protected Address                          local_addr;
     
     protected final List<Address>              members=new ArrayList<>();
@@ -103,6 +122,26 @@ public class FD_ALL2 extends Protocol {
     public void setTimeout(long timeout) {this.timeout=timeout;}
     public long getInterval() {return interval;}
     public void setInterval(long interval) {this.interval=interval;}
+    public boolean usePhiAccrual() {return use_phi_accrual;}
+    public FD_ALL2 usePhiAccrual(boolean b) {use_phi_accrual=b; return this;}
+
+    /** Returns the current phi of mbr, or -1 if not known (or use_phi_accrual is false) */
+    public double phi(Address mbr) {
+        ArrivalWindow win=arrival_windows.get(mbr);
+        return win != null? win.phi(System.nanoTime()) : -1;
+    }
+
+    @ManagedAttribute(description="The current phi value of each member (use_phi_accrual only)")
+    public String getPhiValues() {
+        long now=System.nanoTime();
+        StringBuilder sb=new StringBuilder();
+        for(Entry<Address,ArrivalWindow> entry: arrival_windows.entrySet()) {
+            if(sb.length() > 0)
+                sb.append(", ");
+            sb.append(String.format("%s: %.2f", entry.getKey(), entry.getValue().phi(now)));
+        }
+        return sb.toString();
+    }
 
     @ManagedAttribute(description="Are heartbeat tasks running")
     public boolean isRunning() {
@@ -150,6 +189,8 @@ public class FD_ALL2 extends Protocol {
         timer=getTransport().getTimer();
         if(timer == null)
             throw new Exception("timer not set");
+        if(use_phi_accrual && (phi_threshold <= 0 || phi_window_size <= 0))
+            throw new IllegalArgumentException("phi_threshold and phi_window_size need to be positive");
         suspected_mbrs.clear();
         has_suspected_mbrs=false;
     }
@@ -167,14 +208,14 @@ public class FD_ALL2 extends Protocol {
         Address sender=msg.getSrc();
         Header hdr=msg.getHeader(this.id);
         if(hdr != null) {
-            update(sender); // updates the heartbeat entry for 'sender'
+            update(sender, true); // updates the heartbeat entry for 'sender'
             num_heartbeats_received++;
             unsuspect(sender);
             return null; // consume heartbeat message, do not pass to the layer above
         }
         else if(msg_counts_as_heartbeat) {
             // message did not originate from FD_ALL2 layer, but still count as heartbeat
-            update(sender); // update when data is received too ? maybe a bit costly
+            update(sender, false); // update when data is received too ? maybe a bit costly
             if(has_suspected_mbrs)
                 unsuspect(sender);
         }
@@ -185,7 +226,7 @@ public class FD_ALL2 extends Protocol {
     public void up(MessageBatch batch) {
         int matched_msgs=batch.replaceIf(HAS_HEADER, null, true);
         if(matched_msgs > 0 || msg_counts_as_heartbeat) {
-            update(batch.sender());
+            update(batch.sender(), matched_msgs > 0);
             num_heartbeats_received++;
             if(has_suspected_mbrs)
                 unsuspect(batch.sender());
@@ -208,7 +249,7 @@ public class FD_ALL2 extends Protocol {
             case Event.UNSUSPECT:
                 Address mbr=evt.getArg();
                 unsuspect(mbr);
-                update(mbr);
+                update(mbr, false);
                 break;
         }
         return down_prot.down(evt);
@@ -218,7 +259,9 @@ public class FD_ALL2 extends Protocol {
         lock.lock();
         try {
             if(!isTimeoutCheckerRunning()) {
-                timeout_checker_future=timer.scheduleWithFixedDelay(new TimeoutChecker(), timeout, timeout, TimeUnit.MILLISECONDS, false);
+                long check_interval=use_phi_accrual? interval : timeout;
+                timeout_checker_future=timer.scheduleWithFixedDelay(new TimeoutChecker(), check_interval, check_interval,
+                                                                    TimeUnit.MILLISECONDS, false);
             }
         }
         finally {
@@ -275,14 +318,32 @@ public class FD_ALL2 extends Protocol {
     }
 
 
-    protected void update(Address sender) {
-        if(sender != null && !sender.equals(local_addr)) {
-            AtomicBoolean heartbeat_received=timestamps.get(sender);
-            if(heartbeat_received != null)
-                heartbeat_received.compareAndSet(false, true);
+    /** In phi accrual mode, only heartbeats add a sample to the inter-arrival times of sender */
+    /** The minimum standard deviation (ms) of the inter-arrival times: phi_min_std_deviation, or interval/4 if 0 */
+    protected long minStdDeviation() {
+        return phi_min_std_deviation > 0? phi_min_std_deviation : interval / 4;
+    }
+
+    protected void update(Address sender, boolean heartbeat) {
+        if(sender == null || sender.equals(local_addr))
+            return;
+        if(use_phi_accrual) {
+            long now=System.nanoTime();
+            ArrivalWindow win=arrival_windows.get(sender);
+            if(win == null)
+                arrival_windows.putIfAbsent(sender, new ArrivalWindow(phi_window_size, TimeUnit.MILLISECONDS.toNanos(interval),
+                                                                      TimeUnit.MILLISECONDS.toNanos(minStdDeviation()), now));
+            else if(heartbeat)
+                win.add(now);
             else
-                timestamps.putIfAbsent(sender, new AtomicBoolean(true));
+                win.touch(now);
+            return;
         }
+        AtomicBoolean heartbeat_received=timestamps.get(sender);
+        if(heartbeat_received != null)
+            heartbeat_received.compareAndSet(false, true);
+        else
+            timestamps.putIfAbsent(sender, new AtomicBoolean(true));
     }
 
 
@@ -295,9 +356,10 @@ public class FD_ALL2 extends Protocol {
             if(suspected_mbrs.retainAll(mbrs))
                 has_suspected_mbrs=!suspected_mbrs.isEmpty();
             timestamps.keySet().retainAll(mbrs);
+            arrival_windows.keySet().retainAll(mbrs);
         }
 
-        mbrs.forEach(this::update);
+        mbrs.forEach(mbr -> update(mbr, false));
 
         if(mbrs.size() > 1) {
             startHeartbeatSender();
@@ -397,6 +459,20 @@ public class FD_ALL2 extends Protocol {
 
         public void run() {                        
             List<Address> suspects=new LinkedList<>();
+            if(use_phi_accrual) {
+                long now=System.nanoTime();
+                for(Entry<Address,ArrivalWindow> entry: arrival_windows.entrySet()) {
+                    double phi=entry.getValue().phi(now);
+                    if(phi > phi_threshold) {
+                        log.debug("%s: phi of %s is %.2f (threshold: %.2f), adding it to suspect list",
+                                  local_addr, entry.getKey(), phi, phi_threshold);
+                        suspects.add(entry.getKey());
+                    }
+                }
+                if(!suspects.isEmpty())
+                    suspect(suspects);
+                return;
+            }
             for(Iterator<Entry<Address,AtomicBoolean>> it=timestamps.entrySet().iterator(); it.hasNext();) {
                 Entry<Address,AtomicBoolean> entry=it.next();
                 Address key=entry.getKey();
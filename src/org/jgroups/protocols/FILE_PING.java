@@ -14,7 +14,11 @@ import org.jgroups.util.Util;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 
@@ -51,18 +55,33 @@ public class FILE_PING extends Discovery {
       + "from the store. Default is true", writable = false)
     protected boolean register_shutdown_hook = true;
 
+    @Property(description="Time (in ms) for which the contents of the store are cached. Concurrent discovery " +
+      "requests share a single read of the store, and subsequent requests within this time are served from the " +
+      "cache. The cache is invalidated when this member writes to the store. FILE_PING also skips files which " +
+      "have not changed since they were last read. 0 disables caching")
+    protected long    read_cache_ttl;
+
     @ManagedAttribute(description="Number of writes to the file system or cloud store")
     protected int     writes;
 
     @ManagedAttribute(description="Number of reads from the file system or cloud store")
     protected int     reads;
 
+    @ManagedAttribute(description="Number of discovery requests served from the read cache, without reading the store")
+    protected int     read_cache_hits;
+
 
     /* --------------------------------------------- Fields ------------------------------------------------------ */
     protected File                        root_dir=null;
     protected static final FilenameFilter filter=(dir, name1) -> name1.endsWith(SUFFIX);
     protected Future<?>                   info_writer;
 
+    // read cache: the contents of the store at read_cache_time (ns); null if not yet read or invalidated
+    protected volatile List<PingData>     read_cache;
+    protected volatile long               read_cache_time;
+    protected final Lock                  read_lock=new ReentrantLock(); // only 1 thread reads the store at a time
+    protected final Map<String,CachedFile> file_cache=new ConcurrentHashMap<>(); // file name -> contents
+
     public boolean isDynamic() {return true;}
 
     @ManagedAttribute(description="Whether the InfoWriter task is running")
@@ -91,7 +110,23 @@ public class FILE_PING extends Discovery {
 
     public void resetStats() {
         super.resetStats();
-        reads=writes=0;
+        reads=writes=read_cache_hits=0;
+    }
+
+    public long      getReadCacheTtl()       {return read_cache_ttl;}
+    public FILE_PING setReadCacheTtl(long t) {read_cache_ttl=t; return this;}
+    public int       getReads()              {return reads;}
+    public int       getReadCacheHits()      {return read_cache_hits;}
+
+    @ManagedOperation(description="Invalidates the read cache, so that the next discovery request reads the store")
+    public void invalidateReadCache() {
+        read_cache=null;
+    }
+
+    public void handleConnect() {
+        super.handleConnect();
+        invalidateReadCache();
+        file_cache.clear();
     }
 
     public Object down(Event evt) {
@@ -109,11 +144,15 @@ public class FILE_PING extends Discovery {
 
     public void findMembers(final List<Address> members, final boolean initial_discovery, Responses responses) {
         try {
-            readAll(members, cluster_name, responses);
+            if(read_cache_ttl > 0)
+                readAllCached(members, cluster_name, responses);
+            else
+                readAll(members, cluster_name, responses);
             if(responses.isEmpty()) {
                 PhysicalAddress physical_addr=(PhysicalAddress)down(new Event(Event.GET_PHYSICAL_ADDRESS,local_addr));
                 PingData coord_data=new PingData(local_addr, true, NameCache.get(local_addr), physical_addr).coord(is_coord);
                 write(Collections.singletonList(coord_data), cluster_name);
+                invalidateReadCache();
                 return;
             }
 
@@ -166,8 +205,53 @@ public class FILE_PING extends Discovery {
 
     }
 
+    /**
+     * Adds the contents of the store to responses, reading the store only if the read cache is empty or older than
+     * read_cache_ttl. If another thread is already reading the store, we wait for its result rather than reading
+     * the store again
+     */
+    protected void readAllCached(List<Address> members, String clustername, Responses responses) {
+        for(PingData data: readCache(clustername)) {
+            if(members == null || members.contains(data.getAddress()))
+                responses.addResponse(data, true);
+        }
+    }
+
+    protected List<PingData> readCache(String clustername) {
+        List<PingData> list=read_cache;
+        if(list != null && !readCacheExpired()) {
+            read_cache_hits++;
+            return list;
+        }
+        read_lock.lock();
+        try {
+            list=read_cache; // the store may have been read by a different thread while we were blocked on the lock
+            if(list != null && !readCacheExpired()) {
+                read_cache_hits++;
+                return list;
+            }
+            Responses tmp=new Responses(false);
+            readAll(null, clustername, tmp);
+            list=new ArrayList<>(tmp.size());
+            for(PingData data: tmp)
+                list.add(data);
+            read_cache_time=System.nanoTime();
+            read_cache=list;
+            return list;
+        }
+        finally {
+            read_lock.unlock();
+        }
+    }
+
+    protected boolean readCacheExpired() {
+        return System.nanoTime() - read_cache_time >= TimeUnit.MILLISECONDS.toNanos(read_cache_ttl);
+    }
+
     // remove all files which are not from the current members
     protected void handleView(View new_view, View old_view, boolean coord_changed) {
+        invalidateReadCache();
+        file_cache.clear(); // the coordinator (and its coord flag) might have changed
         if(is_coord) {
             if(coord_changed) {
                 if(remove_all_data_on_view_change)
@@ -223,7 +307,22 @@ public class FILE_PING extends Discovery {
             dir.mkdir();
 
         File[] files=dir.listFiles(filter); // finds all files ending with '.list'
+        if(read_cache_ttl > 0 && files != null && files.length < file_cache.size()) { // prune the removed files
+            Set<String> names=new HashSet<>(files.length);
+            for(File file: files)
+                names.add(file.getName());
+            file_cache.keySet().retainAll(names);
+        }
         for(File file: files) {
+            CachedFile cached=read_cache_ttl > 0? file_cache.get(file.getName()) : null;
+            if(cached != null && cached.sameAs(file)) { // unchanged since the last read; the caches are already up to date
+                for(PingData data: cached.list)
+                    if(members == null || members.contains(data.getAddress()))
+                        responses.addResponse(data, true);
+                continue;
+            }
+            // before reading, so we never miss a change
+            long read_time=System.currentTimeMillis(), last_modified=file.lastModified(), length=file.length();
             List<PingData> list=null;
             // implementing a simple spin lock doing a few attempts to read the file
             // this is done since the file may be written in concurrency and may therefore not be readable
@@ -243,6 +342,8 @@ public class FILE_PING extends Discovery {
                 log.warn("failed reading " + file.getAbsolutePath());
                 continue;
             }
+            if(read_cache_ttl > 0)
+                file_cache.put(file.getName(), new CachedFile(last_modified, length, read_time, list));
             for(PingData data: list) {
                 if(members == null || members.contains(data.getAddress()))
                     responses.addResponse(data, true);
@@ -270,6 +371,7 @@ public class FILE_PING extends Discovery {
 
     /** Write information about all of the member to file (only if I'm the coord) */
     protected void writeAll() {
+        invalidateReadCache();
         Map<Address,PhysicalAddress> cache_contents=
           (Map<Address,PhysicalAddress>)down_prot.down(new Event(Event.GET_LOGICAL_PHYSICAL_MAPPINGS, false));
 
@@ -329,6 +431,29 @@ public class FILE_PING extends Discovery {
         return result;
     }
 
+    /**
+     * The contents of a file, plus its modification time and length when it was read. A file which was modified less
+     * than {@link #MTIME_GRANULARITY} ms before it was read might be rewritten with the same length (e.g. a flipped
+     * coord flag) and the same modification time, so it is always read again
+     */
+    protected static class CachedFile {
+        protected static final long    MTIME_GRANULARITY=2000; // the coarsest granularity of common file systems
+        protected final long           last_modified, length, read_time;
+        protected final List<PingData> list;
+
+        protected CachedFile(long last_modified, long length, long read_time, List<PingData> list) {
+            this.last_modified=last_modified;
+            this.length=length;
+            this.read_time=read_time;
+            this.list=list;
+        }
+
+        protected boolean sameAs(File file) {
+            return last_modified != 0 && read_time - last_modified >= MTIME_GRANULARITY
+              && file.lastModified() == last_modified && file.length() == length;
+        }
+    }
+
     protected synchronized void startInfoWriter() {
         if(info_writer == null || info_writer.isDone())
             info_writer=timer.scheduleWithDynamicInterval(new InfoWriter(info_writer_max_writes_after_view, info_writer_sleep_time));
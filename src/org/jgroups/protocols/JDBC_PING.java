@@ -9,7 +9,12 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>Discovery protocol using a JDBC connection to a shared database.
@@ -27,6 +32,12 @@ import java.util.List;
  * operation are not considered critical. Set the {@code initialize_sql}
  * to an empty value to prevent this initial table creation, or change it to
  * create a customized table.</p>
+ *
+ * <p>When {@code connection_pool_size} is set, connections opened via the
+ * DriverManager are kept open and reused, together with their prepared
+ * statements. The entries of all members are written with batch updates in a
+ * single transaction. To avoid querying the table on every discovery request,
+ * set {@code read_cache_ttl}.</p>
  * 
  * @author Sanne Grinovero
  * @since 2.12
@@ -82,10 +93,21 @@ public class JDBC_PING extends FILE_PING {
         "properties must be empty.")
     protected String datasource_jndi_name;
 
+    @Property(description="Max number of idle connections kept open for reuse, together with their prepared statements. " +
+      "0 opens a new connection for every access to the database. Ignored if a DataSource is used, as DataSources " +
+      "typically pool connections themselves")
+    protected int connection_pool_size;
+
     /* --------------------------------------------- Fields ------------------------------------------------------ */
 
     protected DataSource dataSource;
 
+    // idle connections for reuse; null if connection pooling is disabled
+    protected BlockingQueue<Connection> idle_connections;
+
+    // prepared statements of the pooled connections, keyed by SQL, result set type and concurrency
+    protected final Map<Connection,Map<String,PreparedStatement>> statements=new ConcurrentHashMap<>();
+
 
     @Override protected void createRootDir() {
         ; // do *not* create root file system (don't remove !)
@@ -107,9 +129,23 @@ public class JDBC_PING extends FILE_PING {
                 dataSource = getDataSourceFromJNDI(datasource_jndi_name.trim());
             }
         }
+        if(connection_pool_size > 0 && dataSource == null)
+            idle_connections=new ArrayBlockingQueue<>(connection_pool_size);
         attemptSchemaInitialization();
     }
 
+    @Override
+    public void destroy() {
+        super.destroy();
+        BlockingQueue<Connection> tmp=idle_connections;
+        Connection conn;
+        while(tmp != null && (conn=tmp.poll()) != null)
+            discardConnection(conn);
+    }
+
+    public int       getConnectionPoolSize()       {return connection_pool_size;}
+    public JDBC_PING setConnectionPoolSize(int s)  {connection_pool_size=s; return this;}
+
 
     @Override
     public void stop() {
@@ -120,8 +156,73 @@ public class JDBC_PING extends FILE_PING {
 
 
     protected void write(List<PingData> list, String clustername) {
-        for(PingData data: list)
-            writeToDB(data, clustername, true);
+        if(list.isEmpty())
+            return;
+        if(list.size() == 1)
+            writeToDB(list.get(0), clustername, true);
+        else
+            writeToDB(list, clustername);
+    }
+
+    /**
+     * Replaces the rows of all members in list with batch updates (1 batch of deletes and 1 batch of inserts) in a
+     * single transaction, instead of a delete and an insert per member
+     */
+    protected synchronized void writeToDB(List<PingData> list, String clustername) {
+        final Connection connection=getConnection();
+        if(connection == null) {
+            log.error(Util.getMessage("FailedToStorePingDataInDatabase"));
+            return;
+        }
+        boolean failed=false;
+        try {
+            boolean auto_commit=connection.getAutoCommit();
+            if(auto_commit)
+                connection.setAutoCommit(false);
+            try {
+                PreparedStatement delete_ps=prepare(connection, delete_single_sql);
+                try {
+                    PreparedStatement insert_ps=prepare(connection, insert_single_sql);
+                    try {
+                        for(PingData data: list) {
+                            String address=addressAsString(data.getAddress());
+                            delete_ps.setString(1, address);
+                            delete_ps.setString(2, clustername);
+                            delete_ps.addBatch();
+                            insert_ps.setString(1, address);
+                            insert_ps.setString(2, clustername);
+                            insert_ps.setBytes(3, serializeWithoutView(data));
+                            insert_ps.addBatch();
+                        }
+                        delete_ps.executeBatch();
+                        insert_ps.executeBatch();
+                    }
+                    finally {
+                        release(insert_ps);
+                    }
+                }
+                finally {
+                    release(delete_ps);
+                }
+                connection.commit();
+                log.debug("Registered %d members for clustername %s into database", list.size(), clustername);
+            }
+            catch(SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            finally {
+                if(auto_commit)
+                    connection.setAutoCommit(true);
+            }
+        }
+        catch(SQLException e) {
+            failed=true;
+            log.error(Util.getMessage("ErrorUpdatingJDBCPINGTable"), e);
+        }
+        finally {
+            closeConnection(connection, failed);
+        }
     }
 
    /* *//** Contrary to the superclass' method, we only write our own address *//*
@@ -146,6 +247,7 @@ public class JDBC_PING extends FILE_PING {
         final String ownAddress = addressAsString(data.getAddress());
         final Connection connection = getConnection();
         if (connection != null) {
+            boolean failed=false;
             try {
                 if(overwrite)
                     delete(connection, clustername, ownAddress);
@@ -155,9 +257,10 @@ public class JDBC_PING extends FILE_PING {
                 }
                 insert(connection, data, clustername, ownAddress);
             } catch (SQLException e) {
+                failed=true;
                 log.error(Util.getMessage("ErrorUpdatingJDBCPINGTable"), e);
             } finally {
-                closeConnection(connection);
+                closeConnection(connection, failed);
             }
         }
         else {
@@ -168,8 +271,13 @@ public class JDBC_PING extends FILE_PING {
 
     protected boolean contains(String cluster_name, Address addr) {
         final String addressAsString = addressAsString(addr);
-        try(Connection conn=getConnection()) {
-            try (PreparedStatement ps=conn.prepareStatement(contains_sql)) {
+        final Connection conn=getConnection();
+        if(conn == null)
+            return false;
+        boolean failed=false;
+        try {
+            PreparedStatement ps=prepare(conn, contains_sql);
+            try {
                 ps.setString(1, cluster_name);
                 ps.setString(2, addressAsString);
                 try (ResultSet resultSet=ps.executeQuery()) {
@@ -179,10 +287,17 @@ public class JDBC_PING extends FILE_PING {
                 	return count > 0;
                 }
             }
+            finally {
+                release(ps);
+            }
         }
         catch(SQLException e) {
+            failed=true;
             log.error(Util.getMessage("ErrorReadingTable"), e);
         }
+        finally {
+            closeConnection(conn, failed);
+        }
         return false;
     }
 
@@ -202,12 +317,14 @@ public class JDBC_PING extends FILE_PING {
     protected void readAll(List<Address> members, String clustername, Responses responses) {
         final Connection connection = getConnection();
         if (connection != null) {
+            boolean failed=false;
             try {
                 readAll(connection, members, clustername, responses);
             } catch (SQLException e) {
+                failed=true;
                 log.error(Util.getMessage("ErrorReadingJDBCPINGTable"), e);
             } finally {
-                closeConnection(connection);
+                closeConnection(connection, failed);
             }
         }
     }
@@ -227,7 +344,8 @@ public class JDBC_PING extends FILE_PING {
 	}
 
     protected void readAll(Connection connection, List<Address> members, String clustername, Responses rsps) throws SQLException {
-        try (PreparedStatement ps=prepareStatement(connection, select_all_pingdata_sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE)) {
+        PreparedStatement ps=prepare(connection, select_all_pingdata_sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+        try {
             ps.setString(1, clustername);
             try (ResultSet resultSet=ps.executeQuery()) {
 	            while(resultSet.next()) {
@@ -254,6 +372,9 @@ public class JDBC_PING extends FILE_PING {
 	            }
             }
         }
+        finally {
+            release(ps);
+        }
     }
 
 
@@ -275,12 +396,7 @@ public class JDBC_PING extends FILE_PING {
                         "To suppress this message, set initialize_sql to an empty value. Cause: %s", e.getMessage());
         }
         finally {
-            try {
-                connection.close();
-            }
-            catch(SQLException e) {
-                log.error(Util.getMessage("ErrorClosingConnection"), e);
-            }
+            closeConnection(connection);
         }
     }
 
@@ -297,6 +413,12 @@ public class JDBC_PING extends FILE_PING {
     }
 
     protected Connection getConnection() {
+        Connection pooled;
+        while(idle_connections != null && (pooled=idle_connections.poll()) != null) {
+            if(isOpen(pooled))
+                return pooled;
+            discardConnection(pooled);
+        }
         if (dataSource == null) {
             Connection connection;
             try {
@@ -324,33 +446,43 @@ public class JDBC_PING extends FILE_PING {
 
     protected synchronized void insert(Connection connection, PingData data, String clustername, String address) throws SQLException {
         final byte[] serializedPingData = serializeWithoutView(data);
-        try (PreparedStatement ps=connection.prepareStatement(insert_single_sql)) {
+        PreparedStatement ps=prepare(connection, insert_single_sql);
+        try {
             ps.setString(1, address);
             ps.setString(2, clustername);
             ps.setBytes(3, serializedPingData);
             ps.executeUpdate();
             log.debug("Registered %s for clustername %s into database", address, clustername);
         }
+        finally {
+            release(ps);
+        }
     }
 
     protected synchronized void delete(Connection connection, String clustername, String addressToDelete) throws SQLException {
-        try(PreparedStatement ps=connection.prepareStatement(delete_single_sql)) {
+        PreparedStatement ps=prepare(connection, delete_single_sql);
+        try {
             ps.setString(1, addressToDelete);
             ps.setString(2, clustername);
             ps.executeUpdate();
             log.debug("Removed %s for clustername %s from database", addressToDelete, clustername);
         }
+        finally {
+            release(ps);
+        }
     }
     
     protected void delete(String clustername, String addressToDelete) throws SQLException {
         final Connection connection = getConnection();
         if (connection != null) {
+            boolean failed=false;
             try {
                 delete(connection, clustername, addressToDelete);
             } catch (SQLException e) {
+                failed=true;
                 log.error(Util.getMessage("ErrorUpdatingJDBCPINGTable"), e);
             } finally {
-                closeConnection(connection);
+                closeConnection(connection, failed);
             }
         } else {
             log.error(Util.getMessage("FailedToDeletePingDataInDatabase"));
@@ -359,8 +491,13 @@ public class JDBC_PING extends FILE_PING {
 
 
     protected void clearTable(String clustername) {
-        try(Connection conn=getConnection()) {
-            try (PreparedStatement ps=conn.prepareStatement(clear_sql)) {
+        final Connection conn=getConnection();
+        if(conn == null)
+            return;
+        boolean failed=false;
+        try {
+            PreparedStatement ps=prepare(conn, clear_sql);
+            try {
 				// check presence of cluster_name parameter for backwards compatibility
 				if (clear_sql.indexOf('?') >= 0) {
 					ps.setString(1, clustername);
@@ -369,20 +506,90 @@ public class JDBC_PING extends FILE_PING {
 				}
                 ps.execute();
             }
+            finally {
+                release(ps);
+            }
         }
         catch(SQLException e) {
+            failed=true;
             log.error(Util.getMessage("ErrorClearingTable"), e);
         }
+        finally {
+            closeConnection(conn, failed);
+        }
     }
 
     
     protected void closeConnection(final Connection connection) {
+        closeConnection(connection, false);
+    }
+
+    /** Returns the connection to the pool, or closes it if pooling is disabled, the pool is full or the connection failed */
+    protected void closeConnection(final Connection connection, boolean failed) {
+        if(!failed && idle_connections != null && isOpen(connection) && idle_connections.offer(connection))
+            return;
+        discardConnection(connection);
+    }
+
+    protected void discardConnection(final Connection connection) {
+        Map<String,PreparedStatement> stmts=statements.remove(connection);
+        if(stmts != null)
+            stmts.values().forEach(JDBC_PING::closeStatement);
         try {
             connection.close();
         } catch (SQLException e) {
             log.error(Util.getMessage("ErrorClosingConnectionToJDBCPINGDatabase"), e);
         }
     }
+
+    protected static void closeStatement(PreparedStatement ps) {
+        try {
+            ps.close();
+        }
+        catch(SQLException e) {
+        }
+    }
+
+    protected static boolean isOpen(Connection connection) {
+        try {
+            return !connection.isClosed();
+        }
+        catch(SQLException e) {
+            return false;
+        }
+    }
+
+    protected PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return prepare(connection, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * Returns a prepared statement for sql. If connection pooling is enabled, the statement is cached with its
+     * connection and reused; it must be released with {@link #release(PreparedStatement)}, not closed
+     */
+    protected PreparedStatement prepare(Connection connection, String sql, int type, int concurrency) throws SQLException {
+        if(idle_connections == null)
+            return prepareStatement(connection, sql, type, concurrency);
+        Map<String,PreparedStatement> stmts=statements.computeIfAbsent(connection, c -> new HashMap<>());
+        String key=type + ":" + concurrency + ":" + sql;
+        PreparedStatement ps=stmts.get(key); // a connection is used by only 1 thread at a time
+        if(ps == null || ps.isClosed())
+            stmts.put(key, ps=prepareStatement(connection, sql, type, concurrency));
+        return ps;
+    }
+
+    /** Closes a statement returned by {@link #prepare(Connection,String)}, unless it is cached */
+    protected void release(PreparedStatement ps) {
+        if(idle_connections == null)
+            closeStatement(ps);
+        else {
+            try {
+                ps.clearParameters();
+            }
+            catch(SQLException e) {
+            }
+        }
+    }
     
     protected DataSource getDataSourceFromJNDI(String name) {
         final DataSource data_source;
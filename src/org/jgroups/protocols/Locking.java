@@ -23,6 +23,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
@@ -47,6 +48,12 @@ abstract public class Locking extends Protocol {
     @Property(description="Number of locks to be used for lock striping (for synchronized access to the server_lock entries)")
     protected int     lock_striping_size=10;
 
+    @Property(description="If true, a lock released by unlock() stays with its owner until a different owner " +
+      "requests it, and the lock server revokes it. Re-acquiring an uncontended lock by the same owner (the same " +
+      "thread, or the same member if the owner doesn't include the thread-id) therefore doesn't send a message. " +
+      "Needs to be the same on all members")
+    protected boolean use_lock_affinity;
+
 
     protected Address local_addr;
 
@@ -64,6 +71,9 @@ abstract public class Locking extends Protocol {
     protected final Set<LockNotification> lock_listeners=new CopyOnWriteArraySet<>();
 
     protected final static AtomicInteger  current_lock_id=new AtomicInteger(1);
+
+    protected final LongAdder             num_local_acquisitions=new LongAdder(), num_revoked=new LongAdder(),
+                                          num_multi_lock_requests=new LongAdder();
     
 
 
@@ -80,7 +90,12 @@ abstract public class Locking extends Protocol {
         SIG_RET,           // response to alert of signal
         DELETE_LOCK_AWAIT, // request to delete a waiter
         CREATE_AWAITER,    // request to create a server lock await (sent by coordinator to backups). Used by CentralLockService
-        DELETE_AWAITER     // request to delete a server lock await (sent by coordinator to backups). Used by CentralLockService
+        DELETE_AWAITER,    // request to delete a server lock await (sent by coordinator to backups). Used by CentralLockService
+        GRANT_LOCKS,       // request to acquire multiple locks of the same owner
+        RELEASE_LOCKS,     // request to release multiple locks of the same owner
+        LOCKS_GRANTED,     // response to sender of GRANT_LOCKS, listing the locks granted immediately
+        LOCKS_DENIED,      // response to sender of GRANT_LOCKS on unsuccessful acquisition (tryLock() acquires all locks or none)
+        REVOKE_LOCK        // request to the owner of a lock to release it when unlocked (sent by the lock server if use_lock_affinity is true)
     }
 
 
@@ -97,6 +112,38 @@ abstract public class Locking extends Protocol {
         this.bypass_bundling=bypass_bundling;
     }
 
+    public boolean getUseLockAffinity() {
+        return use_lock_affinity;
+    }
+
+    public Locking setUseLockAffinity(boolean use_lock_affinity) {
+        this.use_lock_affinity=use_lock_affinity;
+        return this;
+    }
+
+    @ManagedAttribute(description="Number of locks acquired without a request to the lock server (use_lock_affinity)")
+    public long getNumLocalAcquisitions() {
+        return num_local_acquisitions.sum();
+    }
+
+    @ManagedAttribute(description="Number of REVOKE_LOCK requests received from the lock server (use_lock_affinity)")
+    public long getNumRevoked() {
+        return num_revoked.sum();
+    }
+
+    @ManagedAttribute(description="Number of GRANT_LOCKS and RELEASE_LOCKS requests sent for multiple locks")
+    public long getNumMultiLockRequests() {
+        return num_multi_lock_requests.sum();
+    }
+
+    @ManagedOperation(description="Resets all statistics")
+    public void resetStats() {
+        super.resetStats();
+        num_local_acquisitions.reset();
+        num_revoked.reset();
+        num_multi_lock_requests.reset();
+    }
+
     public void addLockListener(LockNotification listener) {
         if(listener != null)
             lock_listeners.add(listener);
@@ -128,6 +175,8 @@ abstract public class Locking extends Protocol {
         switch(evt.getType()) {
             case Event.LOCK:
                 LockInfo info=evt.getArg();
+                if(info.getLockNames() != null)
+                    return lockAll(info);
                 ClientLock lock=getLock(info.getName());
                 if(!info.isTrylock()) {
                     if(info.isLockInterruptibly()) {
@@ -158,6 +207,10 @@ abstract public class Locking extends Protocol {
 
             case Event.UNLOCK:
                 info=evt.getArg();
+                if(info.getLockNames() != null) {
+                    unlockAll(info.getLockNames());
+                    return null;
+                }
                 lock=getLock(info.getName(), false);
                 if(lock != null)
                     lock.unlock();
@@ -277,6 +330,21 @@ abstract public class Locking extends Protocol {
             case DELETE_AWAITER:
                 handleDeleteAwaitingRequest(req.lock_name, req.owner);
                 break;
+            case GRANT_LOCKS:
+            case RELEASE_LOCKS:
+                handleLockRequests(req);
+                break;
+            case LOCKS_GRANTED:
+                for(int i=0; i < req.lock_names.length; i++)
+                    handleLockGrantedResponse(req.lock_names[i], req.lock_ids[i], req.owner);
+                break;
+            case LOCKS_DENIED:
+                for(int i=0; i < req.lock_names.length; i++)
+                    handleLockDeniedResponse(req.lock_names[i], req.lock_ids[i], req.owner);
+                break;
+            case REVOKE_LOCK:
+                handleRevokeLockRequest(req.lock_name, req.owner);
+                break;
             default:
                 log.error("Request of type %s not known", req.type);
                 break;
@@ -297,6 +365,101 @@ abstract public class Locking extends Protocol {
         client_lock_table.unlockAll();
     }
 
+    /** Acquires all locks of a {@link LockInfo} with multiple lock names */
+    protected Object lockAll(LockInfo info) {
+        long timeout=info.isUseTimeout()? TimeUnit.MILLISECONDS.convert(info.getTimeout(), info.getTimeUnit()) : 0;
+        try {
+            boolean acquired=acquireAll(info.getLockNames(), info.isTrylock(), timeout, info.isUseTimeout(),
+                                        info.isLockInterruptibly() && !info.isTrylock());
+            return info.isTrylock()? acquired : null;
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt(); // has to be checked by caller who has to rethrow ...
+            return info.isTrylock()? false : null;
+        }
+    }
+
+    /**
+     * Acquires a number of locks with a single GRANT_LOCKS request. The locks are requested in the order of their
+     * names, and the lock server processes all locks of a request atomically with respect to other multi-lock
+     * requests, so that concurrent multi-lock requests for overlapping locks cannot deadlock.<p/>
+     * If not all locks could be acquired (trylock, timeout or interrupt), the locks acquired by this call are released.
+     * @param is_trylock If true and use_timeout is false, either all locks are acquired, or none
+     * @param interruptibly If true, an interrupt while waiting for the locks throws an InterruptedException
+     * @return True if all locks were acquired
+     */
+    protected boolean acquireAll(Collection<String> lock_names, boolean is_trylock, long timeout, boolean use_timeout,
+                                 boolean interruptibly) throws InterruptedException {
+        if((interruptibly || use_timeout) && Thread.interrupted())
+            throw new InterruptedException();
+        Owner owner=getOwner();
+        List<ClientLock> locks=new ArrayList<>(lock_names.size()), pending=new ArrayList<>(lock_names.size());
+        for(String name: new TreeSet<>(lock_names)) {
+            ClientLock lock=client_lock_table.getLock(name, owner, true);
+            boolean held=lock.acquired;
+            if(lock.acquireLocally()) {
+                if(!held)
+                    locks.add(lock); // taken from the locks kept by lock affinity
+            }
+            else {
+                lock.prepareRequest(owner, timeout, is_trylock);
+                pending.add(lock);
+            }
+        }
+        if(pending.isEmpty())
+            return true;
+
+        boolean acquired=false;
+        try {
+            sendGrantLocksRequest(pending, owner, timeout, is_trylock);
+            long deadline=use_timeout? System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeout, TimeUnit.MILLISECONDS) : 0;
+            for(ClientLock lock: pending)
+                if(!lock.waitForResponse(deadline, interruptibly))
+                    return false;
+            return acquired=true;
+        }
+        finally {
+            if(!acquired) {
+                releaseAll(pending, true, false);
+                locks.forEach(ClientLock::unlock);
+            }
+        }
+    }
+
+    /** Releases the locks of the current owner with a single RELEASE_LOCKS request */
+    protected void unlockAll(Collection<String> lock_names) {
+        Owner owner=getOwner();
+        List<ClientLock> locks=new ArrayList<>(lock_names.size());
+        for(String name: new TreeSet<>(lock_names)) {
+            ClientLock lock=client_lock_table.getLock(name, owner, false);
+            if(lock != null)
+                locks.add(lock);
+        }
+        releaseAll(locks, false, use_lock_affinity);
+    }
+
+    /**
+     * Releases a list of locks of the same owner, sorted by lock name. See {@link ClientLock#_unlock(boolean,boolean)}.
+     * The locks which need to be released by the lock server are released with a single RELEASE_LOCKS request. No
+     * monitor is held while the request is sent: the owner can only request one of the locks again after this call has
+     * returned, so a new GRANT_LOCK request cannot overtake the RELEASE_LOCKS request
+     */
+    protected void releaseAll(List<ClientLock> locks, boolean force, boolean keep) {
+        List<ClientLock> to_release=new ArrayList<>(locks.size());
+        for(ClientLock lock: locks) {
+            synchronized(lock) {
+                if(lock.needsReleaseRequest(force, keep))
+                    to_release.add(lock);
+                else
+                    lock._unlock(force, keep);
+            }
+        }
+        if(!to_release.isEmpty()) {
+            sendReleaseLocksRequest(to_release, to_release.get(0).owner);
+            to_release.forEach(ClientLock::released);
+        }
+    }
+
 
     @ManagedOperation(description="Dumps all locks")
     public String printLocks() {
@@ -323,6 +486,8 @@ abstract public class Locking extends Protocol {
                 Response rsp=server_lock.handleView(members);
                 if(rsp != null)
                     responses.add(rsp);
+                if((rsp=revoke(server_lock, rsp)) != null)
+                    responses.add(rsp);
                 if(server_lock.isEmpty() && server_lock.current_owner == null && server_lock.condition.queue.isEmpty())
                     server_locks.remove(lock_name);
             }
@@ -344,8 +509,23 @@ abstract public class Locking extends Protocol {
 
     /** Gets a lock from locks based on the hash of the lock name */
     protected Lock _getLock(String lock_name) {
-        int index=lock_name != null? Math.abs(lock_name.hashCode() % lock_stripes.length) : 0;
-        return lock_stripes[index];
+        return lock_stripes[stripe(lock_name)];
+    }
+
+    protected int stripe(String lock_name) {
+        return lock_name != null? Math.abs(lock_name.hashCode() % lock_stripes.length) : 0;
+    }
+
+    /** Returns the (distinct) locks protecting the given server locks, in the order of their index in lock_stripes */
+    protected List<Lock> _getLocks(String[] lock_names) {
+        boolean[] stripes=new boolean[lock_stripes.length];
+        for(String lock_name: lock_names)
+            stripes[stripe(lock_name)]=true;
+        List<Lock> retval=new ArrayList<>(Math.min(lock_names.length, stripes.length));
+        for(int i=0; i < stripes.length; i++)
+            if(stripes[i])
+                retval.add(lock_stripes[i]);
+        return retval;
     }
 
     protected Owner getOwner() {
@@ -359,6 +539,22 @@ abstract public class Locking extends Protocol {
     abstract protected void sendDeleteAwaitConditionRequest(String lock_name, Owner owner);
 
 
+    /**
+     * Sends the GRANT_LOCK requests for a number of locks of the same owner (sorted by name). This implementation sends
+     * a request per lock; subclasses which send all lock requests to the same member should override it to send a
+     * single GRANT_LOCKS request (only then is a tryLock() of multiple locks all-or-nothing)
+     */
+    protected void sendGrantLocksRequest(List<ClientLock> locks, Owner owner, long timeout, boolean is_trylock) {
+        for(ClientLock lock: locks)
+            sendGrantLockRequest(lock.name, lock.lock_id, owner, timeout, is_trylock);
+    }
+
+    /** Sends the RELEASE_LOCK requests for a number of locks of the same owner, see {@link #sendGrantLocksRequest} */
+    protected void sendReleaseLocksRequest(List<ClientLock> locks, Owner owner) {
+        for(ClientLock lock: locks)
+            sendReleaseLockRequest(lock.name, owner);
+    }
+
     protected void sendRequest(Address dest, Type type, String lock_name, Owner owner, long timeout, boolean is_trylock) {
         send(dest, new Request(type, lock_name, owner, timeout, is_trylock));
     }
@@ -367,6 +563,18 @@ abstract public class Locking extends Protocol {
         send(dest, new Request(type, lock_name, owner, timeout, is_trylock).lockId(lock_id));
     }
 
+    protected void sendRequest(Address dest, Type type, List<ClientLock> locks, Owner owner, long timeout, boolean is_trylock) {
+        String[] lock_names=new String[locks.size()];
+        int[] lock_ids=new int[lock_names.length];
+        for(int i=0; i < lock_names.length; i++) {
+            ClientLock lock=locks.get(i);
+            lock_names[i]=lock.name;
+            lock_ids[i]=lock.lock_id;
+        }
+        num_multi_lock_requests.increment();
+        send(dest, new Request(type, null, owner, timeout, is_trylock).lockNames(lock_names, lock_ids));
+    }
+
     protected void sendLockResponse(Type type, Owner dest, String lock_name, int lock_id) {
         send(dest.getAddress(), new Request(type, lock_name, dest, 0).lockId(lock_id));
     }
@@ -390,32 +598,113 @@ abstract public class Locking extends Protocol {
 
 
     protected void handleLockRequest(Request req) {
-        Response rsp=null;
+        List<Response> rsps=new ArrayList<>(2);
         Lock lock=_getLock(req.lock_name);
         lock.lock();
         try {
-            ServerLock server_lock=server_locks.get(req.lock_name);
-            if(server_lock == null) {
-                server_lock=new ServerLock(req.lock_name);
-                ServerLock tmp=server_locks.putIfAbsent(req.lock_name, server_lock);
-                if(tmp != null)
-                    server_lock=tmp;
-                else
-                    notifyLockCreated(req.lock_name);
-            }
-            rsp=server_lock.handleRequest(req);
-            if(server_lock.isEmpty() && server_lock.current_owner == null && server_lock.condition.queue.isEmpty())
-                server_locks.remove(req.lock_name);
+            handleLockRequest(req, rsps);
         }
         finally {
             lock.unlock();
         }
 
         // moved outside the lock scope
-        if(rsp != null)
+        for(Response rsp: rsps)
             sendLockResponse(rsp.type, rsp.owner, rsp.lock_name, rsp.lock_id);
     }
 
+    /** Handles a request for a single lock and adds the responses to rsps. The lock's stripe has to be held */
+    protected void handleLockRequest(Request req, List<Response> rsps) {
+        ServerLock server_lock=server_locks.get(req.lock_name);
+        if(server_lock == null) {
+            server_lock=new ServerLock(req.lock_name);
+            ServerLock tmp=server_locks.putIfAbsent(req.lock_name, server_lock);
+            if(tmp != null)
+                server_lock=tmp;
+            else
+                notifyLockCreated(req.lock_name);
+        }
+        Response rsp=server_lock.handleRequest(req);
+        if(rsp != null)
+            rsps.add(rsp);
+        if((rsp=revoke(server_lock, rsp)) != null)
+            rsps.add(rsp);
+        if(server_lock.isEmpty() && server_lock.current_owner == null && server_lock.condition.queue.isEmpty())
+            server_locks.remove(req.lock_name);
+    }
+
+    /**
+     * Handles a GRANT_LOCKS or RELEASE_LOCKS request. The stripes of all locks are held while the request is processed,
+     * so a multi-lock request is atomic with respect to other requests for the same locks: when two multi-lock
+     * requests contend for the same locks, the first one is ahead of the second in the queues of all of these locks
+     */
+    protected void handleLockRequests(Request req) {
+        List<Response> rsps=new ArrayList<>(req.lock_names.length);
+        boolean denied=false;
+        List<Lock> locks=_getLocks(req.lock_names);
+        locks.forEach(Lock::lock);
+        try {
+            if(req.type == Type.GRANT_LOCKS && req.is_trylock && req.timeout <= 0) {
+                for(String lock_name: req.lock_names) {
+                    ServerLock server_lock=server_locks.get(lock_name);
+                    if(server_lock != null && server_lock.current_owner != null && !server_lock.current_owner.equals(req.owner)) {
+                        denied=true;
+                        Response rsp=revoke(server_lock, new Response(Type.LOCK_DENIED, req.owner, lock_name, 0));
+                        if(rsp != null)
+                            rsps.add(rsp);
+                    }
+                }
+            }
+            if(!denied) {
+                Type type=req.type == Type.GRANT_LOCKS? Type.GRANT_LOCK : Type.RELEASE_LOCK;
+                for(int i=0; i < req.lock_names.length; i++) {
+                    Request r=new Request(type, req.lock_names[i], req.owner, req.timeout, req.is_trylock).lockId(req.lock_ids[i]);
+                    handleLockRequest(r, rsps);
+                }
+            }
+        }
+        finally {
+            for(int i=locks.size()-1; i >= 0; i--)
+                locks.get(i).unlock();
+        }
+
+        // moved outside the lock scope; the locks granted to the requester are sent back in a single response
+        if(denied)
+            send(req.owner.getAddress(), new Request(Type.LOCKS_DENIED, null, req.owner, 0).lockNames(req.lock_names, req.lock_ids));
+        List<Response> granted=null;
+        for(Response rsp: rsps) {
+            if(rsp.type == Type.LOCK_GRANTED && rsp.owner.equals(req.owner)) {
+                if(granted == null)
+                    granted=new ArrayList<>(req.lock_names.length);
+                granted.add(rsp);
+            }
+            else
+                sendLockResponse(rsp.type, rsp.owner, rsp.lock_name, rsp.lock_id);
+        }
+        if(granted != null && granted.size() == 1)
+            sendLockResponse(Type.LOCK_GRANTED, req.owner, granted.get(0).lock_name, granted.get(0).lock_id);
+        else if(granted != null) {
+            String[] lock_names=new String[granted.size()];
+            int[] lock_ids=new int[lock_names.length];
+            for(int i=0; i < lock_names.length; i++) {
+                lock_names[i]=granted.get(i).lock_name;
+                lock_ids[i]=granted.get(i).lock_id;
+            }
+            send(req.owner.getAddress(), new Request(Type.LOCKS_GRANTED, null, req.owner, 0).lockNames(lock_names, lock_ids));
+        }
+    }
+
+    /**
+     * With lock affinity, the owner of a lock which others are waiting for (or were denied) is asked to release it
+     * as soon as it is unlocked. Returns the REVOKE_LOCK response to be sent, or null
+     */
+    protected Response revoke(ServerLock server_lock, Response rsp) {
+        if(!use_lock_affinity || server_lock.current_owner == null)
+            return null;
+        boolean contended=!server_lock.isEmpty() || (rsp != null && rsp.type == Type.LOCK_DENIED);
+        return contended? new Response(Type.REVOKE_LOCK, server_lock.current_owner, server_lock.lock_name, 0) : null;
+    }
+
 
     protected void handleLockGrantedResponse(String lock_name, int lock_id, Owner owner) {
         ClientLock lock=client_lock_table.getLock(lock_name,owner,false);
@@ -428,6 +717,14 @@ abstract public class Locking extends Protocol {
          if(lock != null)
              lock.lockDenied(lock_id);
     }
+
+    protected void handleRevokeLockRequest(String lock_name, Owner owner) {
+        ClientLock lock=client_lock_table.getLock(lock_name,owner,false);
+        if(lock != null) {
+            num_revoked.increment();
+            lock.revoke();
+        }
+    }
     
     protected void handleAwaitRequest(String lock_name, Owner owner) {
         Lock lock=_getLock(lock_name);
@@ -864,6 +1161,8 @@ abstract public class Locking extends Protocol {
         protected volatile boolean      is_trylock;
         protected long                  timeout;
         protected final ClientCondition condition;
+        protected volatile boolean      cached;  // unlocked, but still owned at the lock server (use_lock_affinity)
+        protected volatile boolean      revoked; // the lock server asked for the lock (use_lock_affinity)
 
         // unique for locks for the same name:owner, can wrap around (that's ok)
         protected final int             lock_id=current_lock_id.getAndIncrement();
@@ -908,7 +1207,7 @@ abstract public class Locking extends Protocol {
         }
 
         public synchronized void unlock() {
-            _unlock(false);
+            _unlock(false, use_lock_affinity);
         }
 
         public Condition newCondition() {
@@ -917,7 +1216,7 @@ abstract public class Locking extends Protocol {
         }
 
         public String toString() {
-            return name + " (id=" + lock_id + ", locked=" + acquired + ")";
+            return name + " (id=" + lock_id + ", locked=" + acquired + (cached? ", cached" : "") + ")";
         }
 
         protected synchronized void lockGranted(int lock_id) {
@@ -942,8 +1241,65 @@ abstract public class Locking extends Protocol {
             lockGranted(lock_id);
         }
 
-        protected synchronized void acquire(boolean throwInterrupt) throws InterruptedException {
+        /** Returns true if the lock is held, or was acquired without a request to the lock server (lock affinity) */
+        protected synchronized boolean acquireLocally() {
             if(acquired)
+                return true;
+            if(!cached)
+                return false;
+            cached=false;
+            acquired=true;
+            num_local_acquisitions.increment();
+            return true;
+        }
+
+        protected synchronized void prepareRequest(Owner owner, long timeout, boolean is_trylock) {
+            this.owner=owner;
+            this.timeout=timeout;
+            this.is_trylock=is_trylock;
+        }
+
+        /**
+         * Waits until the lock was granted or denied, or until the deadline (System.nanoTime(), 0 waits forever)
+         * @return True if the lock was acquired
+         */
+        protected synchronized boolean waitForResponse(long deadline, boolean interruptibly) throws InterruptedException {
+            boolean interrupted=false;
+            try {
+                while(!acquired && !denied) {
+                    long wait_time=deadline > 0? deadline - System.nanoTime() : 0;
+                    if(deadline > 0 && wait_time <= 0)
+                        break;
+                    try {
+                        if(deadline > 0)
+                            this.wait(TimeUnit.MILLISECONDS.convert(wait_time, TimeUnit.NANOSECONDS) + 1);
+                        else
+                            this.wait();
+                    }
+                    catch(InterruptedException e) {
+                        if(interruptibly)
+                            throw e;
+                        interrupted=true;
+                    }
+                }
+                return acquired && !denied;
+            }
+            finally {
+                if(interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Called when the lock server wants the lock back: a kept lock is released, a held lock is released on unlock */
+        protected synchronized void revoke() {
+            if(cached)
+                _unlock(true, false);
+            else
+                revoked=true;
+        }
+
+        protected synchronized void acquire(boolean throwInterrupt) throws InterruptedException {
+            if(acquireLocally())
                 return;
             if(throwInterrupt && Thread.interrupted())
                 throw new InterruptedException();
@@ -956,7 +1312,7 @@ abstract public class Locking extends Protocol {
                 }
                 catch(InterruptedException e) {
                     if(throwInterrupt && !acquired) {
-                        _unlock(true);
+                        _unlock(true, false);
                         throw e;
                     }
                     // If we don't throw exceptions then we just set the interrupt flag and let it loop around
@@ -967,14 +1323,36 @@ abstract public class Locking extends Protocol {
                 Thread.currentThread().interrupt();
         }
 
-        protected synchronized void _unlock(boolean force) {
+        /**
+         * Releases the lock
+         * @param force Releases the lock even if it is not held (e.g. a pending lock request, or a kept lock)
+         * @param keep If true (lock affinity), an acquired lock which was not revoked is kept: it is only released
+         *             locally, and can be acquired again by the same owner without a request to the lock server
+         */
+        protected synchronized void _unlock(boolean force, boolean keep) {
             if(!acquired && !denied && !force)
                 return;
-            this.timeout=0;
-            this.is_trylock=false;
+            if(keep && acquired && !revoked) {
+                acquired=false;
+                cached=true;
+                notifyAll();
+                return;
+            }
             if(!denied)
                 sendReleaseLockRequest(name, owner);
-            acquired=denied=false;
+            released();
+        }
+
+        /** Returns true if {@link #_unlock(boolean,boolean)} would send a RELEASE_LOCK request */
+        protected synchronized boolean needsReleaseRequest(boolean force, boolean keep) {
+            return (acquired || force) && !denied && !(keep && acquired && !revoked);
+        }
+
+        /** Resets the state after the lock was released and removes it from the client lock table */
+        protected synchronized void released() {
+            this.timeout=0;
+            this.is_trylock=false;
+            acquired=denied=cached=revoked=false;
             notifyAll();
 
             client_lock_table.removeClientLock(name,owner);
@@ -985,7 +1363,7 @@ abstract public class Locking extends Protocol {
         protected synchronized boolean acquireTryLock(long timeout, boolean use_timeout) throws InterruptedException {
             if(denied)
                 return false;
-            if(!acquired) {
+            if(!acquireLocally()) {
                 if(use_timeout && Thread.interrupted())
                     throw new InterruptedException();
                 is_trylock=true;
@@ -1032,7 +1410,7 @@ abstract public class Locking extends Protocol {
             }
             boolean retval=acquired && !denied;
             if(!acquired || denied)
-                _unlock(true);
+                _unlock(true, false);
             return retval;
         }
     }
@@ -1076,12 +1454,12 @@ abstract public class Locking extends Protocol {
             synchronized(this) {
                 table.values().forEach(map -> lock_list.addAll(map.values()));
             }
-            lock_list.forEach(ClientLock::unlock);
+            lock_list.forEach(lock -> lock._unlock(lock.cached, false)); // kept locks are released, too
         }
 
         protected void resendPendingLockRequests() {
             if(!table.isEmpty())
-                table.values().forEach(map -> map.values().stream().filter(lock -> !lock.acquired && !lock.denied)
+                table.values().forEach(map -> map.values().stream().filter(lock -> !lock.acquired && !lock.denied && !lock.cached)
                   .forEach(lock -> sendGrantLockRequest(lock.name, lock.lock_id, lock.owner, lock.timeout, lock.is_trylock)));
         }
 
@@ -1108,7 +1486,9 @@ abstract public class Locking extends Protocol {
                         sb.append(", ");
                     sb.append(entry2.getKey());
                     ClientLock cl=entry2.getValue();
-                    if(!cl.acquired || cl.denied)
+                    if(cl.cached)
+                        sb.append(", cached");
+                    else if(!cl.acquired || cl.denied)
                         sb.append(", unlocked");
                 }
                 sb.append(")");
@@ -1313,6 +1693,8 @@ abstract public class Locking extends Protocol {
         protected Owner   owner;
         protected long    timeout;
         protected boolean is_trylock;
+        protected String[] lock_names; // GRANT_LOCKS, RELEASE_LOCKS, LOCKS_GRANTED and LOCKS_DENIED
+        protected int[]    lock_ids;
 
 
         public Request() {
@@ -1332,6 +1714,18 @@ abstract public class Locking extends Protocol {
 
         public Request lockId(int lock_id) {this.lock_id=lock_id; return this;}
         public int lockId()                {return lock_id;}
+        public Request lockNames(String[] lock_names, int[] lock_ids) {
+            this.lock_names=lock_names; this.lock_ids=lock_ids; return this;
+        }
+
+        protected boolean hasLockNames() {
+            switch(type) {
+                case GRANT_LOCKS: case RELEASE_LOCKS: case LOCKS_GRANTED: case LOCKS_DENIED:
+                    return true;
+                default:
+                    return false;
+            }
+        }
 
         public void writeTo(DataOutput out) throws Exception {
             out.writeByte(type.ordinal());
@@ -1340,6 +1734,13 @@ abstract public class Locking extends Protocol {
             Util.writeStreamable(owner, out);
             out.writeLong(timeout);
             out.writeBoolean(is_trylock);
+            if(hasLockNames()) {
+                out.writeInt(lock_names.length);
+                for(int i=0; i < lock_names.length; i++) {
+                    Bits.writeString(lock_names[i], out);
+                    out.writeInt(lock_ids[i]);
+                }
+            }
         }
 
         public void readFrom(DataInput in) throws Exception {
@@ -1349,10 +1750,20 @@ abstract public class Locking extends Protocol {
             owner=Util.readStreamable(Owner.class, in);
             timeout=in.readLong();
             is_trylock=in.readBoolean();
+            if(hasLockNames()) {
+                int len=in.readInt();
+                lock_names=new String[len];
+                lock_ids=new int[len];
+                for(int i=0; i < len; i++) {
+                    lock_names[i]=Bits.readString(in);
+                    lock_ids[i]=in.readInt();
+                }
+            }
         }
 
         public String toString() {
-            return type.name() + " [" + lock_name + ", lock_id=" + lock_id + ", owner=" + owner + (is_trylock? ", trylock " : " ") +
+            return type.name() + " [" + (lock_names != null? Arrays.toString(lock_names) : lock_name) +
+              ", lock_id=" + (lock_ids != null? Arrays.toString(lock_ids) : lock_id) + ", owner=" + owner + (is_trylock? ", trylock " : " ") +
               (timeout > 0? "(timeout=" + timeout + ")" : "" + "]");
         }
 
@@ -2,9 +2,11 @@ package org.jgroups.protocols;
 
 import org.jgroups.Address;
 import org.jgroups.Event;
+import org.jgroups.Global;
 import org.jgroups.PhysicalAddress;
 import org.jgroups.View;
 import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.stack.Protocol;
@@ -12,7 +14,14 @@ import org.jgroups.util.*;
 import org.jgroups.util.UUID;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -21,7 +30,18 @@ import java.util.concurrent.ConcurrentMap;
  * Persistent Discovery Cache. Caches mapping between logical and physical addresses on disk, merges them with the
  * results of the get physical address(es) events.
  * This is done by intercepting the get and set physical address(es) event. Needs to be placed between the transport and
- * the discovery protocol. The disk cache stores each mapping in a separate file, named by the logical address.
+ * the discovery protocol.
+ * <p>
+ * The disk cache is a single append-only log file in cache_dir: every added or removed mapping appends a record
+ * to the log, and on startup the log is read into memory and replayed with a single sequential read. When the log
+ * contains more than compaction_ratio times as many records as there are live mappings, it is compacted by writing
+ * the live mappings to a new log, which then atomically replaces the old one. Mappings stored as individual files
+ * by previous versions are imported into the log on startup, and the files removed.
+ * <p>
+ * The log may be shared by multiple processes (e.g. with the default cache_dir). All accesses to the log are
+ * therefore done while holding a {@link FileLock} on a lock file next to it, and compaction merges the records of
+ * the log on disk (rather than writing only the mappings of this process). A member only removes mappings from the
+ * log which it learned itself, so that a view change doesn't remove the mappings of other processes or clusters.
  *
  * @author Bela Ban
  * @since  3.3
@@ -31,20 +51,44 @@ public class PDC extends Protocol {
     protected final ConcurrentMap<Address,PhysicalAddress> cache=new ConcurrentHashMap<>();
 
     /* -----------------------------------------    Properties     ----------------------------------------------- */
-    @Property(description="The absolute path of the directory for the disk cache. The mappings will be stored as " +
-      "individual files in this directory")
+    @Property(description="The absolute path of the directory for the disk cache. The mappings will be stored in " +
+      "a log file in this directory")
     protected String              cache_dir=File.separator + "tmp" + File.separator + "jgroups";
 
+    @Property(description="Name of the log file in cache_dir")
+    protected String              log_name="pdc.log";
+
+    @Property(description="The log is compacted when it has more than compaction_ratio times as many records as " +
+      "there are mappings in the cache (and at least min_compaction_size records)")
+    protected double              compaction_ratio=2.0;
+
+    @Property(description="Min number of records in the log before it is compacted")
+    protected int                 min_compaction_size=1000;
 
 
     /* --------------------------------------------- Fields ------------------------------------------------------ */
-    protected static final String SUFFIX=".node";
+    protected static final String SUFFIX=".node"; // files of the previous (file-per-mapping) disk cache
+    protected static final byte   ADD=1, REMOVE=2;
+    protected static final int    RECORD_HEADER_SIZE=Global.BYTE_SIZE + Global.INT_SIZE; // type and length
     protected File                root_dir;
     protected FilenameFilter      filter;
     protected Address             local_addr;
+    protected Path                log_file;
+    protected FileChannel         log_ch;      // appends records to log_file
+    protected Object              log_key;     // file key of log_file when log was opened (changes on compaction)
+    protected int                 num_records; // number of records in the log
+    protected int                 num_live;    // number of mappings in the log after it was last read or compacted
+    protected FileChannel         lock_ch;     // the file locked while the log is accessed
+    protected final Set<Address>  learned=ConcurrentHashMap.newKeySet(); // mappings learned (not read from disk)
 
+    // the PDCs of this JVM which share a log: a FileLock is held by the JVM, so it doesn't exclude them
+    protected static final ConcurrentMap<Path,Object> log_monitors=new ConcurrentHashMap<>();
 
+    @ManagedAttribute(description="Number of records appended to the log")
+    protected int                 num_appends;
 
+    @ManagedAttribute(description="Number of times the log was compacted")
+    protected int                 num_compactions;
 
 
     @ManagedOperation(description="Prints the contents of the address-physical address mappings")
@@ -56,6 +100,18 @@ public class PDC extends Protocol {
         return sb.toString();
     }
 
+    @ManagedAttribute(description="Number of records in the log")
+    public synchronized int getNumRecords() {return num_records;}
+
+    public int getNumAppends()     {return num_appends;}
+    public int getNumCompactions() {return num_compactions;}
+    public PDC setCacheDir(String dir) {cache_dir=dir; return this;}
+
+    public void resetStats() {
+        super.resetStats();
+        num_appends=num_compactions=0;
+    }
+
 
     public void init() throws Exception {
         super.init();
@@ -63,6 +119,12 @@ public class PDC extends Protocol {
         readCacheFromDisk(); // populates the cache from disk (if the file is present found)
     }
 
+    public void destroy() {
+        super.destroy();
+        closeLog();
+        Util.close(lock_ch);
+    }
+
 
     public Object down(Event evt) {
         switch(evt.getType()) {
@@ -86,8 +148,10 @@ public class PDC extends Protocol {
             case Event.ADD_PHYSICAL_ADDRESS:
                 Tuple<Address,PhysicalAddress> new_val=evt.getArg();
                 if(new_val != null) {
-                    cache.put(new_val.getVal1(), new_val.getVal2());
-                    writeNodeToDisk(new_val.getVal1(), new_val.getVal2());
+                    learned.add(new_val.getVal1());
+                    PhysicalAddress old_val=cache.put(new_val.getVal1(), new_val.getVal2());
+                    if(!new_val.getVal2().equals(old_val))
+                        writeNodeToDisk(new_val.getVal1(), new_val.getVal2());
                 }
                 break;
             case Event.REMOVE_ADDRESS:
@@ -99,8 +163,8 @@ public class PDC extends Protocol {
                 local_addr=evt.getArg();
                 break;
             case Event.VIEW_CHANGE:
-                List<Address> members=((View)evt.getArg()).getMembers();
-                cache.keySet().stream().filter(mbr -> !members.contains(mbr)).forEach(mbr -> {
+                View view=evt.getArg();
+                cache.keySet().stream().filter(mbr -> !view.containsMember(mbr)).forEach(mbr -> {
                     cache.remove(mbr);
                     removeNodeFromDisk(mbr);
                 });
@@ -124,41 +188,124 @@ public class PDC extends Protocol {
             throw new IllegalArgumentException("location " + root_dir.getPath() + " could not be accessed");
 
         filter=(dir, name1) -> name1.endsWith(SUFFIX);
+        log_file=new File(root_dir, log_name).toPath().toAbsolutePath().normalize();
+        lock_ch=FileChannel.open(new File(root_dir, log_name + ".lock").toPath(),
+                                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
     }
 
-    /** Reads all mappings from disk */
-    protected synchronized void readCacheFromDisk() {
-        if(log.isDebugEnabled())
-            log.debug("reading all mappings from disk cache " + root_dir);
-        File[] files=root_dir.listFiles(filter);
-        if(files == null)
-            return;
-
-        for(File file: files) {
-            // implementing a simple spin lock doing a few attempts to read the file
-            // this is done since the file may be written in concurrency and may therefore not be readable
-            Mapping data=null;
-            for(int i=0; i < 3; i++) {
-                data=null;
-                if(file.exists())
-                    data=readAddressMapping(file);
-                if(data != null)
-                    break;
-                else
-                    Util.sleep(100);
+    /** Runs op while holding the lock on the log, which excludes other processes and other PDCs of this JVM */
+    protected void locked(LogOperation op) throws Exception {
+        synchronized(log_monitors.computeIfAbsent(log_file, p -> new Object())) {
+            FileLock lock=lock_ch.lock();
+            try {
+                op.run();
+            }
+            finally {
+                lock.release();
             }
+        }
+    }
 
-            if(data == null) {
-                log.warn("failed parsing content in " + file.getAbsolutePath() + ": removing it ");
-                deleteFile(file);
+    /**
+     * Reads all mappings from disk: the log is read into memory and replayed in a single pass. A truncated record at
+     * the end of the log (e.g. from a crash during an append) is discarded. Mappings from a previous version's
+     * individual files are then added to the log
+     */
+    protected synchronized void readCacheFromDisk() throws Exception {
+        log.debug("%s: reading all mappings from disk cache %s", local_addr, log_file);
+        locked(() -> {
+            Map<Address,Mapping> mappings=new LinkedHashMap<>();
+            num_records=0;
+            long valid_length=0;
+            ByteBuffer buf=readLog();
+            if(buf != null) {
+                Tuple<Long,Integer> result=replay(buf, mappings);
+                valid_length=result.getVal1();
+                num_records=result.getVal2();
+                if(valid_length < buf.limit())
+                    log.warn("%s: discarding %d bytes of truncated or corrupt records at the end of %s",
+                             local_addr, buf.limit() - valid_length, log_file);
+            }
+            num_live=mappings.size();
+            for(Mapping data: mappings.values()) {
+                cache.put(data.getLogicalAddr(), (PhysicalAddress)data.getPhysicalAddr());
+                if(data.getLogicalName() != null && NameCache.get(data.getLogicalAddr()) == null)
+                    NameCache.add(data.getLogicalAddr(), data.getLogicalName());
             }
-            else {
-                if(data != null && data.getLogicalAddr() != null && data.getPhysicalAddr() != null) {
-                    cache.put(data.getLogicalAddr(), (PhysicalAddress)data.getPhysicalAddr());
-                    if(data.getLogicalName() != null && NameCache.get(data.getLogicalAddr()) == null)
-                        NameCache.add(data.getLogicalAddr(), data.getLogicalName());
+            openLog(valid_length);
+            importMappingFiles();
+        });
+        if(needsCompaction())
+            compact();
+    }
+
+    /**
+     * Reads the log into a heap buffer, or returns null if there is no log. The log is not memory-mapped, as a mapping
+     * is only released when its buffer is garbage collected, and would prevent truncation or replacement of the log
+     * on some platforms (e.g. Windows)
+     */
+    protected ByteBuffer readLog() throws IOException {
+        if(!Files.exists(log_file))
+            return null;
+        try(FileChannel ch=FileChannel.open(log_file, StandardOpenOption.READ)) {
+            ByteBuffer buf=ByteBuffer.allocate((int)ch.size());
+            while(buf.hasRemaining() && ch.read(buf) >= 0)
+                ;
+            buf.flip();
+            return buf;
+        }
+    }
+
+    /**
+     * Applies the records in buf to mappings. Returns the position after the last valid record and the number of
+     * valid records
+     */
+    protected Tuple<Long,Integer> replay(ByteBuffer buf, Map<Address,Mapping> mappings) {
+        int pos=0, records=0;
+        ByteBufferInputStream in=new ByteBufferInputStream(buf);
+        while(buf.remaining() >= RECORD_HEADER_SIZE) {
+            byte type=buf.get();
+            int length=buf.getInt();
+            if(length < 0 || length > buf.remaining() || (type != ADD && type != REMOVE))
+                break;
+            int end=buf.position() + length;
+            try {
+                if(type == ADD) {
+                    Mapping data=new Mapping();
+                    data.readFrom(in);
+                    if(data.getLogicalAddr() != null && data.getPhysicalAddr() != null)
+                        mappings.put(data.getLogicalAddr(), data);
                 }
+                else
+                    mappings.remove(Util.readAddress(in));
+            }
+            catch(Exception e) {
+                log.debug("%s: failed reading record at position %d: %s", local_addr, pos, e);
+                break;
             }
+            if(buf.position() != end)
+                break;
+            pos=end;
+            records++;
+        }
+        return new Tuple<>((long)pos, records);
+    }
+
+    /** Adds the mappings of the previous file-per-mapping disk cache to the log, and removes the files */
+    protected void importMappingFiles() {
+        File[] files=root_dir.listFiles(filter);
+        if(files == null)
+            return;
+        for(File file: files) {
+            Mapping data=readAddressMapping(file);
+            if(data != null && data.getLogicalAddr() != null && data.getPhysicalAddr() != null
+              && !cache.containsKey(data.getLogicalAddr())) {
+                cache.put(data.getLogicalAddr(), (PhysicalAddress)data.getPhysicalAddr());
+                if(data.getLogicalName() != null && NameCache.get(data.getLogicalAddr()) == null)
+                    NameCache.add(data.getLogicalAddr(), data.getLogicalName());
+                append(ADD, data);
+            }
+            deleteFile(file);
         }
     }
 
@@ -181,72 +328,128 @@ public class PDC extends Protocol {
 
 
     protected synchronized void writeNodeToDisk(Address logical_addr, PhysicalAddress physical_addr) {
-        String filename=addressAsString(logical_addr);
+        append(ADD, new Mapping(logical_addr, physical_addr, NameCache.get(logical_addr)));
+        if(needsCompaction())
+            compact();
+    }
+
+    /** Appends a REMOVE record, unless the mapping was only read from disk (it might be used by other processes) */
+    protected synchronized void removeNodeFromDisk(Address logical_addr) {
+        if(!learned.remove(logical_addr))
+            return;
+        append(REMOVE, logical_addr);
+        if(needsCompaction())
+            compact();
+    }
 
-        // first write all data to a temporary file
-        // this is because the writing can be very slow under some circumstances
-        File tmpFile=null, destination=null;
+    /** Appends a record with a single write. The payload is an {@link Address} (REMOVE) or a {@link Mapping} (ADD) */
+    protected synchronized void append(byte type, Object payload) {
         try {
-            tmpFile=writeToTempFile(root_dir, logical_addr, physical_addr, NameCache.get(logical_addr));
-            if(tmpFile == null)
-                return;
-
-            destination=new File(root_dir, filename + SUFFIX);
-
-            //do a file move, this is much faster and could be considered atomic on most operating systems
-            FileChannel src_ch=new FileInputStream(tmpFile).getChannel();
-            FileChannel dest_ch=new FileOutputStream(destination).getChannel();
-            src_ch.transferTo(0,src_ch.size(),dest_ch);
-            src_ch.close();
-            dest_ch.close();
-            if(log.isTraceEnabled())
-                log.trace("Moved: " + tmpFile.getName() + "->" + destination.getName());
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(64);
+            out.writeByte(type);
+            out.writeInt(0); // length, set below
+            if(type == ADD)
+                ((Mapping)payload).writeTo(out);
+            else
+                Util.writeAddress((Address)payload, out);
+            int length=out.position() - RECORD_HEADER_SIZE;
+            out.position(Global.BYTE_SIZE).writeInt(length);
+            ByteBuffer buf=ByteBuffer.wrap(out.buffer(), 0, RECORD_HEADER_SIZE + length);
+            locked(() -> {
+                if(log_ch == null || !Objects.equals(log_key, fileKey(log_file))) // the log was compacted by a different PDC
+                    openLog(-1);
+                while(buf.hasRemaining())
+                    log_ch.write(buf);
+            });
+            num_records++;
+            num_appends++;
         }
-        catch(Exception ioe) {
-            log.error(Util.getMessage("AttemptToMoveFailedAt") + tmpFile.getName() + "->" + destination.getName(), ioe);
-        }
-        finally {
-            deleteFile(tmpFile);
+        catch(Exception e) {
+            log.error("%s: failed appending to %s: %s", local_addr, log_file, e);
         }
     }
 
+    protected boolean needsCompaction() {
+        return num_records >= min_compaction_size && num_records > Math.max(num_live, cache.size()) * compaction_ratio;
+    }
+
     /**
-     * Writes the data to a temporary file.<br>
-     * The file is stored in the same directory as the other cluster files but is given the <tt>.tmp</tmp> suffix
-     * @param dir The disk cache root dir
-     * @param logical_addr The logical address
-     * @param physical_addr The physical address
-     * @return
+     * Writes the live mappings of the log to a temp file, which then atomically replaces the log. The log is read
+     * (rather than the cache used) as it may contain mappings of other processes
      */
-    protected File writeToTempFile(File dir, Address logical_addr, Address physical_addr, String logical_name) throws Exception {
-        DataOutputStream out=null;
-
-        File file=null;
-        String filename=null;
+    @ManagedOperation(description="Compacts the log, so that it contains only the current mappings")
+    public synchronized void compact() {
+        Path[] tmp={null};
         try {
-            file=File.createTempFile("temp", null, dir);
-            filename=file.getName();
-            out=new DataOutputStream(new FileOutputStream(file));
-            Util.writeAddress(logical_addr, out);
-            Util.writeAddress(physical_addr, out);
-            Bits.writeString(logical_name,out);
-            Util.close(out);
-            if(log.isTraceEnabled())
-                log.trace("Stored temporary file: " + file.getAbsolutePath());
+            locked(() -> {
+                Map<Address,Mapping> mappings=new LinkedHashMap<>();
+                ByteBuffer log_buf=readLog();
+                if(log_buf != null)
+                    replay(log_buf, mappings);
+                tmp[0]=Files.createTempFile(root_dir.toPath(), log_name, ".tmp");
+                ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(Math.max(64, mappings.size() * 64));
+                for(Mapping mapping: mappings.values()) {
+                    int start=out.position();
+                    out.writeByte(ADD);
+                    out.writeInt(0);
+                    mapping.writeTo(out);
+                    int end=out.position();
+                    out.position(start + Global.BYTE_SIZE).writeInt(end - start - RECORD_HEADER_SIZE);
+                    out.position(end);
+                }
+                try(FileChannel ch=FileChannel.open(tmp[0], StandardOpenOption.WRITE)) {
+                    ByteBuffer buf=out.getByteBuffer();
+                    while(buf.hasRemaining())
+                        ch.write(buf);
+                    ch.force(false);
+                }
+                closeLog();
+                Files.move(tmp[0], log_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                openLog(-1);
+                num_records=num_live=mappings.size();
+            });
+            num_compactions++;
         }
         catch(Exception e) {
-            Util.close(out);
-            log.error(Util.getMessage("FailedToWriteTemporaryFile") + filename, e);
-            deleteFile(file);
-            return null;
+            log.error("%s: failed compacting %s: %s", local_addr, log_file, e);
+            if(tmp[0] != null)
+                deleteFile(tmp[0].toFile());
+            if(log_ch == null) {
+                try {
+                    openLog(-1);
+                }
+                catch(IOException ex) {
+                    log.error("%s: failed reopening %s: %s", local_addr, log_file, ex);
+                }
+            }
+        }
+    }
+
+    /** Opens the log for appending. If valid_length is >= 0, the log is truncated to valid_length first */
+    protected void openLog(long valid_length) throws IOException {
+        closeLog();
+        if(valid_length >= 0 && Files.exists(log_file)) {
+            try(FileChannel ch=FileChannel.open(log_file, StandardOpenOption.WRITE)) {
+                if(ch.size() > valid_length)
+                    ch.truncate(valid_length);
+            }
         }
-        return file;
+        log_ch=FileChannel.open(log_file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        log_key=fileKey(log_file);
     }
 
+    protected synchronized void closeLog() {
+        Util.close(log_ch);
+        log_ch=null;
+    }
 
-    protected synchronized void removeNodeFromDisk(Address logical_addr) {
-        String filename=addressAsString(logical_addr);
-        deleteFile(new File(root_dir, filename + SUFFIX));
+    protected static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        }
+        catch(IOException e) {
+            return null;
+        }
     }
 
 
@@ -282,6 +485,11 @@ public class PDC extends Protocol {
     }
 
 
+    protected interface LogOperation {
+        void run() throws Exception;
+    }
+
+
     protected static class Mapping implements Streamable {
         protected Address         logical_addr;
         protected Address         physical_addr;
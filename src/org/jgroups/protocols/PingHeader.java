@@ -17,6 +17,8 @@ import java.util.function.Supplier;
 public class PingHeader extends Header {
     public static final byte GET_MBRS_REQ=1;
     public static final byte GET_MBRS_RSP=2;
+    public static final byte CACHE_RSP=3; // AddressCacheUpdate (snapshot or delta)
+    public static final byte CACHE_REQ=4; // request for the address cache, the payload is the version (ViewId) we have
 
     protected byte    type;
     protected String  cluster_name;
@@ -50,6 +52,8 @@ public class PingHeader extends Header {
         switch(t) {
             case GET_MBRS_REQ: return "GET_MBRS_REQ";
             case GET_MBRS_RSP: return "GET_MBRS_RSP";
+            case CACHE_RSP:    return "CACHE_RSP";
+            case CACHE_REQ:    return "CACHE_REQ";
             default:           return "<unkown type (" + t + ")>";
         }
     }
@@ -0,0 +1,283 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.ManagedOperation;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Bits;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.Util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Total order protocol with a sequencer per shard. A message is assigned to a shard by its shard key (see
+ * {@link #setShardKey(Message,Object)}); messages without a shard key are assigned to shard 0. Messages of the same
+ * shard are delivered in the same order by all members, but there is no ordering between messages of different shards.
+ * <p>
+ * Every shard is a {@link SEQUENCER}, whose sequencer is picked from the view by rendezvous hashing of the shard's
+ * index over the members, so the load of sequencing is spread over the cluster, and a view change only changes the
+ * sequencers of the shards whose sequencer left or which are picked by a new member. When the sequencer of a shard
+ * changes, the messages of that shard which have not yet been delivered are resent to the new sequencer, as done by
+ * SEQUENCER on a coordinator change; the other shards are not affected.
+ * <p>
+ * The number of shards needs to be the same in all members.
+ * @author agent
+ * @since  4.0.9
+ */
+@MBean(description="Total order protocol with a sequencer per shard")
+public class SHARDED_SEQUENCER extends Protocol {
+
+    @Property(description="Number of shards. Needs to be the same in all members",writable=false)
+    protected int     num_shards=8;
+
+    @Property(description="Max number of bytes of messages forwarded to a sequencer as a single message. " +
+      "0 disables batching")
+    protected int     max_batch_size=64000;
+
+    @Property(description="Number of acks needed before going from ack-mode to normal mode. " +
+      "0 disables this, which means that ack-mode is always on")
+    protected int     threshold=10;
+
+    @Property(description="Max number of seqnos above the highest contiguous seqno received from a given sender " +
+      "which are stored (per shard) for duplicate checking")
+    protected int     delivery_table_max_size=2000;
+
+    protected Shard[] shards;
+
+
+    public int               getNumShards()          {return num_shards;}
+    public SHARDED_SEQUENCER setNumShards(int num)   {this.num_shards=num; return this;}
+    public Shard             getShard(int index)     {return shards[index];}
+
+    @ManagedAttribute(description="Number of shards for which this member is the sequencer")
+    public int getNumShardsSequenced() {
+        return shards == null? 0 : (int)Stream.of(shards).filter(SEQUENCER::isCoordinator).count();
+    }
+
+    @ManagedAttribute(description="Number of messages in the forward-tables of all shards")
+    public int getForwardTableSize() {
+        return shards == null? 0 : Stream.of(shards).mapToInt(SEQUENCER::getForwardTableSize).sum();
+    }
+
+    @ManagedAttribute(description="Number of messages forwarded to the sequencers of all shards")
+    public long getForwardedMessages() {
+        return shards == null? 0 : Stream.of(shards).mapToLong(s -> s.forwarded_msgs).sum();
+    }
+
+    @ManagedAttribute(description="Number of messages delivered in all shards")
+    public long getDeliveredMessages() {
+        return shards == null? 0 : Stream.of(shards).mapToLong(s -> s.delivered_bcasts).sum();
+    }
+
+    /**
+     * Sets the key which determines the shard of a message. Messages with the same key (and messages with different
+     * keys which map to the same shard) are delivered in total order.
+     */
+    public static Message setShardKey(Message msg, Object key) {
+        return msg.putHeader(ClassConfigurator.getProtocolId(SHARDED_SEQUENCER.class), new ShardHeader(key.hashCode()));
+    }
+
+    /** Returns the index of the shard for the given shard key */
+    public int shardOf(Object key) {
+        return Math.floorMod(key.hashCode(), num_shards);
+    }
+
+    @ManagedOperation(description="Prints the sequencer and forward-table size of each shard")
+    public String printShards() {
+        StringBuilder sb=new StringBuilder();
+        for(Shard shard: shards)
+            sb.append(String.format("%d: sequencer=%s, forward-table=%d, forwarded=%d, broadcast=%d, delivered=%d\n",
+                                    shard.index, shard.getCoordinator(), shard.getForwardTableSize(), shard.forwarded_msgs,
+                                    shard.bcast_msgs, shard.delivered_bcasts));
+        return sb.toString();
+    }
+
+    @ManagedOperation
+    public void resetStats() {
+        super.resetStats();
+        for(Shard shard: shards)
+            shard.resetStats();
+    }
+
+    public void init() throws Exception {
+        super.init();
+        if(num_shards < 1)
+            throw new IllegalArgumentException("num_shards (" + num_shards + ") needs to be positive");
+        shards=new Shard[num_shards];
+        for(int i=0; i < shards.length; i++) {
+            shards[i]=new Shard(i);
+            shards[i].setThreshold(threshold);
+            shards[i].setDeliveryTableMaxSize(delivery_table_max_size);
+            shards[i].setMaxBatchSize(max_batch_size);
+        }
+    }
+
+    public void start() throws Exception {
+        super.start();
+        for(Shard shard: shards) {
+            shard.setUpProtocol(up_prot);
+            shard.setDownProtocol(shard.tagger);
+            shard.start();
+        }
+    }
+
+    public void stop() {
+        for(Shard shard: shards)
+            shard.stop();
+        super.stop();
+    }
+
+    public Object down(Event evt) {
+        switch(evt.getType()) {
+            case Event.VIEW_CHANGE:
+                for(Shard shard: shards)
+                    shard.handleViewChange(evt.getArg());
+                break;
+
+            case Event.TMP_VIEW:
+                for(Shard shard: shards)
+                    shard.handleTmpView(evt.getArg());
+                break;
+
+            case Event.SET_LOCAL_ADDRESS:
+                for(Shard shard: shards)
+                    shard.local_addr=evt.getArg();
+                break;
+        }
+        return down_prot.down(evt);
+    }
+
+    public Object down(Message msg) {
+        if(msg.getDest() != null || msg.isFlagSet(Message.Flag.NO_TOTAL_ORDER) || msg.isFlagSet(Message.Flag.OOB))
+            return down_prot.down(msg);
+        ShardHeader hdr=msg.getHeader(id);
+        Shard shard=shards[hdr != null? Math.floorMod(hdr.shard, shards.length) : 0];
+        msg.putHeader(id, new ShardHeader(shard.index));
+        return shard.down(msg);
+    }
+
+    public Object up(Event evt) {
+        switch(evt.getType()) {
+            case Event.VIEW_CHANGE:
+                Object retval=up_prot.up(evt);
+                for(Shard shard: shards)
+                    shard.handleViewChange(evt.getArg());
+                return retval;
+
+            case Event.TMP_VIEW:
+                for(Shard shard: shards)
+                    shard.handleTmpView(evt.getArg());
+                break;
+        }
+        return up_prot.up(evt);
+    }
+
+    public Object up(Message msg) {
+        ShardHeader hdr;
+        if(msg.isFlagSet(Message.Flag.NO_TOTAL_ORDER) || msg.isFlagSet(Message.Flag.OOB) || (hdr=msg.getHeader(id)) == null)
+            return up_prot.up(msg);
+        return shards[Math.floorMod(hdr.shard, shards.length)].up(msg);
+    }
+
+    public void up(MessageBatch batch) {
+        for(Message msg: batch) {
+            ShardHeader hdr;
+            if(msg.isFlagSet(Message.Flag.NO_TOTAL_ORDER) || msg.isFlagSet(Message.Flag.OOB) || (hdr=msg.getHeader(id)) == null)
+                continue;
+            batch.remove(msg);
+            try {
+                shards[Math.floorMod(hdr.shard, shards.length)].up(msg);
+            }
+            catch(Throwable t) {
+                log.error(Util.getMessage("FailedPassingUpMessage"), t);
+            }
+        }
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+    }
+
+
+
+    /**
+     * A SEQUENCER for a single shard. The sequencer is the member with the highest weight for the shard's index.
+     * All messages sent by a shard are tagged with the shard's index. Shards have their own protocol ID, so that
+     * their headers don't collide with those of a SEQUENCER in the same stack
+     */
+    public class Shard extends SEQUENCER {
+        protected final int      index;
+        protected final Protocol tagger=new Protocol() {
+            public Object down(Message msg) {
+                msg.putHeader(SHARDED_SEQUENCER.this.id, new ShardHeader(index));
+                return SHARDED_SEQUENCER.this.down_prot.down(msg);
+            }
+
+            public Object down(Event evt) {
+                return SHARDED_SEQUENCER.this.down_prot.down(evt);
+            }
+        };
+
+        public Shard(int index) {
+            this.index=index;
+        }
+
+        public int index() {return index;}
+
+        protected Address pickCoord(View v) {
+            long shard_hash=Util.mix(index);
+            Address retval=null;
+            long max=0;
+            for(Address mbr: v.getMembersRaw()) {
+                long weight=Util.mix(shard_hash ^ Util.hash(mbr));
+                if(retval == null || weight > max) {
+                    retval=mbr;
+                    max=weight;
+                }
+            }
+            return retval;
+        }
+
+        public String toString() {
+            return String.format("shard %d (sequencer: %s)", index, coord);
+        }
+    }
+
+
+    public static class ShardHeader extends Header {
+        /** The hash of the shard key when set by the application; the index of the shard when sent */
+        protected int shard;
+
+        public ShardHeader() {
+        }
+
+        public ShardHeader(int shard) {
+            this.shard=shard;
+        }
+
+        public short                      getMagicId() {return 94;}
+        public int                        shard()      {return shard;}
+        public Supplier<? extends Header> create()     {return ShardHeader::new;}
+
+        public void writeTo(DataOutput out) throws Exception {
+            Bits.writeInt(shard, out);
+        }
+
+        public void readFrom(DataInput in) throws Exception {
+            shard=Bits.readInt(in);
+        }
+
+        public int serializedSize() {
+            return Bits.size(shard);
+        }
+
+        public String toString() {
+            return "shard=" + shard;
+        }
+    }
+}
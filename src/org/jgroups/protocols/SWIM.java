@@ -0,0 +1,692 @@
+package org.jgroups.protocols;
+
+import org.jgroups.*;
+import org.jgroups.annotations.*;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Failure detection based on SWIM (Das, Gupta, Motivala: "SWIM: Scalable Weakly-consistent Infection-style Process
+ * Group Membership Protocol"). Every interval ms, a member pings the next member of a randomly shuffled list of all
+ * members (round-robin). If no ACK is received within ping_timeout ms, {@link #indirect_probes} other members are
+ * asked to ping the target on our behalf (PING-REQ). If the target was not acked directly or indirectly by the end
+ * of the interval, it is suspected.
+ * <p>
+ * Suspicions, refutations and confirmations are disseminated infection-style by piggybacking them on the PING,
+ * PING-REQ and ACK messages of this protocol; no additional messages are sent. A suspected member which learns about
+ * its suspicion refutes it by incrementing its incarnation number and disseminating an ALIVE update. If a suspicion
+ * is not refuted within suspect_timeout ms, the member is confirmed and a SUSPECT event is passed up the stack (to
+ * VERIFY_SUSPECT or GMS), by every member which learns about the confirmation.
+ * <p>
+ * Contrary to {@link FD_ALL}, the number of messages sent and received by a member per interval is constant and
+ * independent of the cluster size.
+ * @author agent
+ * @since  4.0.9
+ */
+@Experimental
+@MBean(description="SWIM-style failure detection based on randomized probing and gossiping of suspicions")
+public class SWIM extends Protocol {
+
+    /* -----------------------------------------    Properties     -------------------------------------------------- */
+
+    @Property(description="Protocol period (ms): one member is probed every interval ms")
+    protected long    interval=1000;
+
+    @Property(description="Time (ms) to wait for an ACK to a direct PING before asking other members to probe " +
+      "the target. Needs to be smaller than interval")
+    protected long    ping_timeout=300;
+
+    @Property(description="Number of members asked to probe a target indirectly when a direct PING was not acked")
+    protected int     indirect_probes=3;
+
+    @Property(description="Time (ms) after which a suspected member which did not refute the suspicion is " +
+      "confirmed and a SUSPECT event is emitted")
+    protected long    suspect_timeout=5000;
+
+    @Property(description="An update is piggybacked on retransmit_multiplier * log2(cluster size) messages " +
+      "before it is discarded")
+    protected int     retransmit_multiplier=3;
+
+    @Property(description="Max number of updates piggybacked on a single message")
+    protected int     max_gossip=8;
+
+    @Property(description="Treat any message received from the currently probed member as an ACK")
+    protected boolean msg_counts_as_ack;
+
+    /* ---------------------------------------------   JMX      ------------------------------------------------------ */
+
+    @ManagedAttribute(description="Number of PINGs sent (direct and on behalf of other members)")
+    protected int     num_pings_sent;
+
+    @ManagedAttribute(description="Number of PING-REQs sent")
+    protected int     num_ping_reqs_sent;
+
+    @ManagedAttribute(description="Number of ACKs sent (including forwarded ACKs)")
+    protected int     num_acks_sent;
+
+    @ManagedAttribute(description="Number of probes which were acked only indirectly")
+    protected int     num_indirect_acks;
+
+    @ManagedAttribute(description="Number of suspicions raised by this member")
+    protected int     num_suspicions;
+
+    @ManagedAttribute(description="Number of suspicions about other members which were refuted")
+    protected int     num_refutations;
+
+    @ManagedAttribute(description="Number of times this member refuted a suspicion about itself")
+    protected int     num_self_refutations;
+
+    @ManagedAttribute(description="Number of SUSPECT events emitted")
+    protected int     num_suspect_events;
+
+    /* --------------------------------------------- Fields ------------------------------------------------------ */
+
+    protected Address                            local_addr;
+
+    protected TimeScheduler                      timer;
+
+    // the incarnation of this member; incremented when refuting a suspicion
+    @ManagedAttribute(description="Incarnation of this member")
+    protected volatile int                       incarnation;
+
+    @GuardedBy("this")
+    protected final List<Address>                members=new ArrayList<>();
+
+    // the members (minus self) in random order, probed round-robin; reshuffled after every round
+    @GuardedBy("this")
+    protected final List<Address>                probe_list=new ArrayList<>();
+
+    @GuardedBy("this")
+    protected int                                probe_index;
+
+    // the highest incarnation seen for each member
+    protected final ConcurrentMap<Address,Integer> incarnations=Util.createConcurrentMap();
+
+    @GuardedBy("this")
+    protected final Map<Address,Suspicion>       suspects=new HashMap<>();
+
+    // pending updates to be piggybacked, at most one per member
+    @GuardedBy("this")
+    protected final Map<Address,Update>          updates=new LinkedHashMap<>();
+
+    protected volatile Probe                     current_probe;
+
+    protected long                               probe_seqno;
+
+    @GuardedBy("this")
+    protected Future<?>                          prober_future;
+
+    protected final BoundedList<Tuple<Address,Long>> suspect_history=new BoundedList<>(20);
+
+
+    public SWIM() {}
+
+    public long getInterval()                  {return interval;}
+    public SWIM setInterval(long i)            {this.interval=i; return this;}
+    public long getPingTimeout()               {return ping_timeout;}
+    public SWIM setPingTimeout(long t)         {this.ping_timeout=t; return this;}
+    public long getSuspectTimeout()            {return suspect_timeout;}
+    public SWIM setSuspectTimeout(long t)      {this.suspect_timeout=t; return this;}
+    public int  getIncarnation()               {return incarnation;}
+    public int  getNumSuspicions()             {return num_suspicions;}
+    public int  getNumRefutations()            {return num_refutations;}
+    public int  getNumSelfRefutations()        {return num_self_refutations;}
+    public int  getNumSuspectEvents()          {return num_suspect_events;}
+    public int  getNumIndirectAcks()           {return num_indirect_acks;}
+    public int  getNumPingsSent()              {return num_pings_sent;}
+
+    @ManagedAttribute(description="Currently suspected members")
+    public synchronized String getSuspectedMembers() {return suspects.keySet().toString();}
+
+    @ManagedAttribute(description="Number of updates waiting to be piggybacked")
+    public synchronized int getNumPendingUpdates() {return updates.size();}
+
+    @ManagedAttribute(description="Whether the prober task is running")
+    public synchronized boolean isRunning() {return prober_future != null && !prober_future.isDone();}
+
+    @ManagedOperation(description="Prints suspect history")
+    public String printSuspectHistory() {
+        StringBuilder sb=new StringBuilder();
+        for(Tuple<Address,Long> tmp: suspect_history)
+            sb.append(new Date(tmp.getVal2())).append(": ").append(tmp.getVal1()).append("\n");
+        return sb.toString();
+    }
+
+    @ManagedOperation(description="Prints the pending updates")
+    public synchronized String printUpdates() {
+        return updates.values().toString();
+    }
+
+    /** Suspects mbr as if a probe had failed. Used mainly for testing */
+    @ManagedOperation(description="Suspects the given member")
+    public void suspect(Address mbr) {
+        startSuspicion(mbr);
+    }
+
+    public void resetStats() {
+        num_pings_sent=num_ping_reqs_sent=num_acks_sent=num_indirect_acks=num_suspicions=num_refutations=0;
+        num_self_refutations=num_suspect_events=0;
+        suspect_history.clear();
+    }
+
+    public void init() throws Exception {
+        timer=getTransport().getTimer();
+        if(timer == null)
+            throw new Exception("timer not set");
+        if(ping_timeout >= interval)
+            throw new IllegalArgumentException("ping_timeout (" + ping_timeout + ") needs to be smaller than interval (" + interval + ")");
+        if(retransmit_multiplier < 1 || max_gossip < 1)
+            throw new IllegalArgumentException("retransmit_multiplier and max_gossip need to be > 0");
+    }
+
+    public synchronized void stop() {
+        stopProber();
+        suspects.clear();
+        updates.clear();
+        current_probe=null;
+    }
+
+
+    public Object down(Event evt) {
+        switch(evt.getType()) {
+            case Event.VIEW_CHANGE:
+                Object retval=down_prot.down(evt);
+                handleViewChange(evt.getArg());
+                return retval;
+            case Event.SET_LOCAL_ADDRESS:
+                local_addr=evt.getArg();
+                break;
+            case Event.UNSUSPECT:
+                unsuspect(evt.getArg());
+                break;
+        }
+        return down_prot.down(evt);
+    }
+
+    public Object up(Message msg) {
+        SwimHeader hdr=msg.getHeader(this.id);
+        if(hdr != null) {
+            handle(msg.getSrc(), hdr);
+            return null;
+        }
+        if(msg_counts_as_ack)
+            ackCurrentProbe(msg.getSrc());
+        return up_prot.up(msg);
+    }
+
+    public void up(MessageBatch batch) {
+        for(Message msg: batch) {
+            SwimHeader hdr=msg.getHeader(this.id);
+            if(hdr != null) {
+                batch.remove(msg);
+                handle(batch.sender(), hdr);
+            }
+        }
+        if(msg_counts_as_ack)
+            ackCurrentProbe(batch.sender());
+        if(!batch.isEmpty())
+            up_prot.up(batch);
+    }
+
+
+    protected void handle(Address sender, SwimHeader hdr) {
+        handleIncarnation(sender, hdr.incarnation);
+        if(hdr.updates != null) {
+            for(Update u: hdr.updates)
+                handleUpdate(u);
+        }
+        switch(hdr.type) {
+            case SwimHeader.PING:
+                send(sender, SwimHeader.ACK, hdr.seqno, local_addr, hdr.origin);
+                num_acks_sent++;
+                break;
+            case SwimHeader.PING_REQ:
+                if(hdr.target != null && !hdr.target.equals(local_addr)) {
+                    send(hdr.target, SwimHeader.PING, hdr.seqno, null, sender);
+                    num_pings_sent++;
+                }
+                break;
+            case SwimHeader.ACK:
+                if(hdr.origin != null && !hdr.origin.equals(local_addr)) { // we pinged on behalf of origin: forward
+                    send(hdr.origin, SwimHeader.ACK, hdr.seqno, hdr.target, null);
+                    num_acks_sent++;
+                    break;
+                }
+                Probe probe=current_probe;
+                if(probe != null && probe.seqno == hdr.seqno && probe.target.equals(hdr.target) && !probe.acked) {
+                    probe.acked=true;
+                    if(!sender.equals(hdr.target))
+                        num_indirect_acks++;
+                }
+                break;
+        }
+    }
+
+    /** A member's own incarnation is authoritative: if it is higher than the one it was suspected with, the
+     * suspicion is refuted */
+    protected void handleIncarnation(Address mbr, int inc) {
+        if(mbr == null || mbr.equals(local_addr))
+            return;
+        Integer existing=incarnations.get(mbr);
+        if(existing == null || existing < inc)
+            handleUpdate(new Update(mbr, Update.ALIVE, inc));
+    }
+
+    protected void handleUpdate(Update u) {
+        if(u.mbr.equals(local_addr)) {
+            if(u.type != Update.ALIVE)
+                refute(u.incarnation);
+            return;
+        }
+        boolean emit_suspect=false;
+        synchronized(this) {
+            if(!members.contains(u.mbr))
+                return;
+            Integer known=incarnations.get(u.mbr);
+            int known_inc=known != null? known : 0;
+            Suspicion s=suspects.get(u.mbr);
+            switch(u.type) {
+                case Update.ALIVE:
+                    if(known != null && u.incarnation <= known_inc && s == null)
+                        return;
+                    if(s != null && u.incarnation <= s.incarnation)
+                        return;
+                    incarnations.put(u.mbr, Math.max(known_inc, u.incarnation));
+                    if(s != null) {
+                        suspects.remove(u.mbr);
+                        num_refutations++;
+                        log.debug("%s: suspicion of %s was refuted (incarnation=%d)", local_addr, u.mbr, u.incarnation);
+                        addUpdate(u);
+                    }
+                    break;
+                case Update.SUSPECT:
+                    if(u.incarnation < known_inc || (s != null && (s.confirmed || u.incarnation <= s.incarnation)))
+                        return;
+                    suspects.put(u.mbr, new Suspicion(u.incarnation));
+                    addUpdate(u);
+                    break;
+                case Update.CONFIRM:
+                    if(s != null && s.confirmed)
+                        return;
+                    if(s == null)
+                        suspects.put(u.mbr, s=new Suspicion(u.incarnation));
+                    s.confirmed=true;
+                    addUpdate(u);
+                    emit_suspect=true;
+                    break;
+            }
+        }
+        if(emit_suspect)
+            emitSuspect(u.mbr);
+    }
+
+    /** Someone suspected us with the given incarnation: increment our incarnation and disseminate an ALIVE update */
+    protected void refute(int suspected_incarnation) {
+        synchronized(this) {
+            if(suspected_incarnation < incarnation)
+                return; // already refuted
+            incarnation=suspected_incarnation + 1;
+            addUpdate(new Update(local_addr, Update.ALIVE, incarnation));
+        }
+        num_self_refutations++;
+        log.debug("%s: refuting suspicion, new incarnation is %d", local_addr, incarnation);
+    }
+
+    protected void startSuspicion(Address mbr) {
+        if(mbr == null || mbr.equals(local_addr))
+            return;
+        synchronized(this) {
+            if(!members.contains(mbr) || suspects.containsKey(mbr))
+                return;
+            Integer known=incarnations.get(mbr);
+            Update u=new Update(mbr, Update.SUSPECT, known != null? known : 0);
+            suspects.put(mbr, new Suspicion(u.incarnation));
+            addUpdate(u);
+        }
+        num_suspicions++;
+        suspect_history.add(new Tuple<>(mbr, System.currentTimeMillis()));
+        log.debug("%s: suspecting %s", local_addr, mbr);
+    }
+
+    /** Confirms suspected members whose suspicion was not refuted within suspect_timeout ms */
+    protected void checkSuspicions() {
+        List<Address> confirmed=null;
+        synchronized(this) {
+            if(suspects.isEmpty())
+                return;
+            long now=System.nanoTime();
+            for(Map.Entry<Address,Suspicion> e: suspects.entrySet()) {
+                Suspicion s=e.getValue();
+                if(s.confirmed || TimeUnit.NANOSECONDS.toMillis(now - s.start) < suspect_timeout)
+                    continue;
+                s.confirmed=true;
+                addUpdate(new Update(e.getKey(), Update.CONFIRM, s.incarnation));
+                if(confirmed == null)
+                    confirmed=new ArrayList<>();
+                confirmed.add(e.getKey());
+            }
+        }
+        if(confirmed != null)
+            confirmed.forEach(this::emitSuspect);
+    }
+
+    protected void emitSuspect(Address mbr) {
+        num_suspect_events++;
+        log.debug("%s: %s is confirmed dead, passing up SUSPECT event", local_addr, mbr);
+        List<Address> suspected=Collections.singletonList(mbr);
+        up_prot.up(new Event(Event.SUSPECT, suspected));
+        down_prot.down(new Event(Event.SUSPECT, suspected));
+    }
+
+    protected void unsuspect(Address mbr) {
+        if(mbr == null)
+            return;
+        synchronized(this) {
+            suspects.remove(mbr);
+            Update u=updates.get(mbr);
+            if(u != null && u.type != Update.ALIVE)
+                updates.remove(mbr);
+        }
+    }
+
+    protected void ackCurrentProbe(Address sender) {
+        Probe probe=current_probe;
+        if(probe != null && !probe.acked && probe.target.equals(sender))
+            probe.acked=true;
+    }
+
+    @GuardedBy("this")
+    protected void addUpdate(Update u) {
+        Update copy=new Update(u.mbr, u.type, u.incarnation);
+        copy.remaining=retransmit_multiplier * log2(members.size() + 1);
+        updates.remove(u.mbr); // re-inserts at the tail, so that older updates are piggybacked first
+        updates.put(u.mbr, copy);
+    }
+
+    /** Returns up to max_gossip updates to piggyback, and removes updates which have been sent often enough */
+    protected synchronized Update[] nextUpdates() {
+        if(updates.isEmpty())
+            return null;
+        Update[] retval=new Update[Math.min(max_gossip, updates.size())];
+        int index=0;
+        for(Iterator<Update> it=updates.values().iterator(); it.hasNext() && index < retval.length;) {
+            Update u=it.next();
+            retval[index++]=u;
+            if(--u.remaining <= 0)
+                it.remove();
+        }
+        return retval;
+    }
+
+    protected void send(Address dest, byte type, long seqno, Address target, Address origin) {
+        SwimHeader hdr=new SwimHeader(type, incarnation, seqno, target, origin).updates(nextUpdates());
+        Message msg=new Message(dest).setFlag(Message.Flag.INTERNAL, Message.Flag.NO_RELIABILITY, Message.Flag.OOB)
+          .putHeader(id, hdr);
+        down_prot.down(msg);
+    }
+
+
+    protected void handleViewChange(View v) {
+        List<Address> mbrs=v.getMembers();
+        synchronized(this) {
+            members.clear();
+            members.addAll(mbrs);
+            suspects.keySet().retainAll(mbrs);
+            updates.keySet().retainAll(mbrs);
+            incarnations.keySet().retainAll(mbrs);
+            probe_list.retainAll(mbrs);
+            for(Address mbr: mbrs) // new members are inserted at random positions
+                if(!mbr.equals(local_addr) && !probe_list.contains(mbr))
+                    probe_list.add(ThreadLocalRandom.current().nextInt(probe_list.size() + 1), mbr);
+            if(probe_index > probe_list.size())
+                probe_index=0;
+            if(mbrs.size() > 1)
+                startProber();
+            else
+                stopProber();
+        }
+    }
+
+    /** Returns the next member to be probed; the probe list is reshuffled after every round */
+    protected synchronized Address nextTarget() {
+        if(probe_list.isEmpty())
+            return null;
+        if(probe_index >= probe_list.size()) {
+            Collections.shuffle(probe_list);
+            probe_index=0;
+        }
+        return probe_list.get(probe_index++);
+    }
+
+    /** Picks up to num random members, excluding ourself and target */
+    protected synchronized List<Address> pickRandomMembers(Address target, int num) {
+        List<Address> candidates=new ArrayList<>(probe_list);
+        candidates.remove(target);
+        candidates.removeAll(suspects.keySet());
+        Collections.shuffle(candidates);
+        return candidates.size() > num? candidates.subList(0, num) : candidates;
+    }
+
+    protected synchronized void startProber() {
+        if(prober_future == null || prober_future.isDone())
+            prober_future=timer.scheduleWithFixedDelay(new Prober(), interval, interval, TimeUnit.MILLISECONDS,
+                                                       getTransport() instanceof TCP);
+    }
+
+    protected synchronized void stopProber() {
+        if(prober_future != null) {
+            prober_future.cancel(true);
+            prober_future=null;
+        }
+    }
+
+    protected static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+    }
+
+
+    /** Runs once every protocol period */
+    protected class Prober implements Runnable {
+        public void run() {
+            Probe probe=current_probe;
+            if(probe != null && !probe.acked) {
+                log.trace("%s: probe %d of %s was not acked", local_addr, probe.seqno, probe.target);
+                startSuspicion(probe.target);
+            }
+            checkSuspicions();
+
+            Address target=nextTarget();
+            if(target == null) {
+                current_probe=null;
+                return;
+            }
+            final Probe p=current_probe=new Probe(target, ++probe_seqno);
+            send(target, SwimHeader.PING, p.seqno, null, null);
+            num_pings_sent++;
+            timer.schedule(() -> sendIndirectProbes(p), ping_timeout, TimeUnit.MILLISECONDS, false);
+        }
+
+        public String toString() {
+            return SWIM.class.getSimpleName() + ": " + getClass().getSimpleName() + " (interval=" + interval + " ms)";
+        }
+    }
+
+    protected void sendIndirectProbes(Probe probe) {
+        if(probe.acked || probe != current_probe)
+            return;
+        for(Address mbr: pickRandomMembers(probe.target, indirect_probes)) {
+            send(mbr, SwimHeader.PING_REQ, probe.seqno, probe.target, null);
+            num_ping_reqs_sent++;
+        }
+    }
+
+
+    protected static class Probe {
+        protected final Address  target;
+        protected final long     seqno;
+        protected volatile boolean acked;
+
+        protected Probe(Address target, long seqno) {
+            this.target=target;
+            this.seqno=seqno;
+        }
+    }
+
+    protected static class Suspicion {
+        protected final int  incarnation;
+        protected final long start=System.nanoTime();
+        protected boolean    confirmed;
+
+        protected Suspicion(int incarnation) {
+            this.incarnation=incarnation;
+        }
+    }
+
+    /** A membership update (ALIVE, SUSPECT or CONFIRM) about a member, disseminated by piggybacking */
+    public static class Update implements SizeStreamable {
+        public static final byte ALIVE=1, SUSPECT=2, CONFIRM=3;
+
+        protected Address mbr;
+        protected byte    type;
+        protected int     incarnation;
+        protected int     remaining; // number of times this update is still going to be piggybacked; not marshalled
+
+        public Update() {}
+
+        public Update(Address mbr, byte type, int incarnation) {
+            this.mbr=mbr;
+            this.type=type;
+            this.incarnation=incarnation;
+        }
+
+        public Address mbr()         {return mbr;}
+        public byte    type()        {return type;}
+        public int     incarnation() {return incarnation;}
+
+        public int serializedSize() {
+            return Global.BYTE_SIZE + Util.size(mbr) + Bits.size(incarnation);
+        }
+
+        public void writeTo(DataOutput out) throws Exception {
+            out.writeByte(type);
+            Util.writeAddress(mbr, out);
+            Bits.writeInt(incarnation, out);
+        }
+
+        public void readFrom(DataInput in) throws Exception {
+            type=in.readByte();
+            mbr=Util.readAddress(in);
+            incarnation=Bits.readInt(in);
+        }
+
+        public String toString() {
+            return String.format("%s(%s, inc=%d)", typeToString(type), mbr, incarnation);
+        }
+
+        public static String typeToString(byte type) {
+            switch(type) {
+                case ALIVE:   return "ALIVE";
+                case SUSPECT: return "SUSPECT";
+                case CONFIRM: return "CONFIRM";
+                default:      return "n/a";
+            }
+        }
+    }
+
+    public static class SwimHeader extends Header {
+        public static final byte PING=1, PING_REQ=2, ACK=3;
+
+        protected byte     type;
+        protected int      incarnation; // the sender's incarnation
+        protected long     seqno;       // the seqno of the probe
+        protected Address  target;      // PING_REQ: the member to be probed, ACK: the member which was probed
+        protected Address  origin;      // the member which sent the PING_REQ (null for direct probes)
+        protected Update[] updates;     // piggybacked updates
+
+        public SwimHeader() {}
+
+        public SwimHeader(byte type, int incarnation, long seqno, Address target, Address origin) {
+            this.type=type;
+            this.incarnation=incarnation;
+            this.seqno=seqno;
+            this.target=target;
+            this.origin=origin;
+        }
+
+        public SwimHeader updates(Update[] u) {this.updates=u; return this;}
+        public Update[]   updates()           {return updates;}
+        public byte       type()              {return type;}
+        public long       seqno()             {return seqno;}
+
+        public short getMagicId() {return 93;}
+
+        public Supplier<? extends Header> create() {return SwimHeader::new;}
+
+        public int serializedSize() {
+            int retval=Global.BYTE_SIZE + Bits.size(incarnation) + Bits.size(seqno) + Util.size(target) + Util.size(origin)
+              + Global.SHORT_SIZE;
+            if(updates != null)
+                for(Update u: updates)
+                    retval+=u.serializedSize();
+            return retval;
+        }
+
+        public void writeTo(DataOutput out) throws Exception {
+            out.writeByte(type);
+            Bits.writeInt(incarnation, out);
+            Bits.writeLong(seqno, out);
+            Util.writeAddress(target, out);
+            Util.writeAddress(origin, out);
+            out.writeShort(updates != null? updates.length : 0);
+            if(updates != null)
+                for(Update u: updates)
+                    u.writeTo(out);
+        }
+
+        public void readFrom(DataInput in) throws Exception {
+            type=in.readByte();
+            incarnation=Bits.readInt(in);
+            seqno=Bits.readLong(in);
+            target=Util.readAddress(in);
+            origin=Util.readAddress(in);
+            int len=in.readShort();
+            if(len > 0) {
+                updates=new Update[len];
+                for(int i=0; i < len; i++) {
+                    updates[i]=new Update();
+                    updates[i].readFrom(in);
+                }
+            }
+        }
+
+        public String toString() {
+            StringBuilder sb=new StringBuilder(typeToString(type)).append(": seqno=").append(seqno)
+              .append(", inc=").append(incarnation);
+            if(target != null)
+                sb.append(", target=").append(target);
+            if(origin != null)
+                sb.append(", origin=").append(origin);
+            if(updates != null)
+                sb.append(", updates=").append(Arrays.toString(updates));
+            return sb.toString();
+        }
+
+        public static String typeToString(byte type) {
+            switch(type) {
+                case PING:     return "PING";
+                case PING_REQ: return "PING-REQ";
+                case ACK:      return "ACK";
+                default:       return "n/a";
+            }
+        }
+    }
+}
@@ -9,13 +9,14 @@ import org.jgroups.stack.Protocol;
 import org.jgroups.util.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
@@ -69,6 +70,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
       "Otherwise send delayed acks. If 1, ack single messages (similar to UNICAST)")
     protected int     ack_threshold=5;
 
+    @Property(description="Max time (in ms) an ACK is delayed, waiting to be piggybacked on a DATA message to the " +
+      "same member (similar to TCP's delayed ACK). If no message is sent to that member within ack_delay ms, a " +
+      "standalone ACK is sent. Batches of ack_threshold or more messages are still acked immediately. 0 disables this")
+    protected long    ack_delay;
+
     @Property(description="Min time (in ms) to elapse for successive SEND_FIRST_SEQNO messages to be sent to the same sender")
     protected long    sync_min_interval=2000;
 
@@ -91,6 +97,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     @ManagedAttribute(description="Number of retransmit responses sent")
     protected final LongAdder  xmit_rsps_sent=new LongAdder();
 
+    @ManagedAttribute(description="Number of ACKs piggybacked on outgoing DATA messages")
+    protected final LongAdder  piggybacked_acks_sent=new LongAdder();
+
+    @ManagedAttribute(description="Number of ACKs received piggybacked on DATA messages")
+    protected final LongAdder  piggybacked_acks_received=new LongAdder();
+
     protected final AverageMinMax avg_delivery_batch_size=new AverageMinMax();
 
     @ManagedAttribute(description="True if sending a message can block at the transport level")
@@ -105,7 +117,14 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     protected final ConcurrentMap<Address, SenderEntry>   send_table=Util.createConcurrentMap();
     protected final ConcurrentMap<Address, ReceiverEntry> recv_table=Util.createConcurrentMap();
 
-    protected final ReentrantLock          recv_table_lock=new ReentrantLock();
+    /** Send connections with unacked messages: only these are visited by the retransmit task */
+    protected final Set<Address>           dirty_send_conns=ConcurrentHashMap.newKeySet();
+
+    /** Receive connections with pending ACKs or missing messages: only these are visited by the retransmit task */
+    protected final Set<Address>           dirty_recv_conns=ConcurrentHashMap.newKeySet();
+
+    /** Time (ns) of the last scan for idle and expired connections by the retransmit task */
+    protected long                         last_conn_reaping;
 
     /** Used by the retransmit task to keep the last retransmitted seqno per sender (https://issues.jboss.org/browse/JGRP-1539) */
     protected final Map<Address,Long>      xmit_task_map=new HashMap<>();
@@ -163,6 +182,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         return getNumReceiveConnections() + getNumSendConnections();
     }
 
+    @ManagedAttribute(description="Number of send and receive connections which have unacked or missing messages " +
+      "(or pending ACKs) and will be visited by the next run of the retransmit task")
+    public int getNumDirtyConnections() {
+        return dirty_send_conns.size() + dirty_recv_conns.size();
+    }
+
     @ManagedAttribute(description="Next seqno issued by the timestamper")
     public int getTimestamper() {return timestamper.get();}
 
@@ -203,7 +228,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     public long getNumMessagesReceived() {return num_msgs_received;}
 
 
-    @ManagedAttribute
+    @ManagedAttribute(description="Number of standalone ACKs sent (excludes piggybacked ACKs)")
     public long getNumAcksSent() {return num_acks_sent;}
 
     @ManagedAttribute
@@ -312,7 +337,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     public void resetStats() {
         num_msgs_sent=num_msgs_received=num_acks_sent=num_acks_received=num_xmits=0;
         avg_delivery_batch_size.clear();
-        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent).forEach(LongAdder::reset);
+        Stream.of(xmit_reqs_received, xmit_reqs_sent, xmit_rsps_sent, piggybacked_acks_sent, piggybacked_acks_received)
+          .forEach(LongAdder::reset);
     }
 
 
@@ -353,6 +379,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         if(max_retransmit_time > 0)
             cache=new AgeOutCache<>(timer, max_retransmit_time, this);
         running=true;
+        last_conn_reaping=getTimestamp();
         startRetransmitTask();
     }
 
@@ -377,6 +404,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             case UnicastHeader3.DATA:      // received regular message
                 if(is_trace)
                     log.trace("%s <-- DATA(%s: #%d, conn_id=%d%s)", local_addr, sender, hdr.seqno, hdr.conn_id, hdr.first? ", first" : "");
+                if(hdr.ack)
+                    handlePiggybackedAck(sender, hdr);
                 if(Objects.equals(local_addr, sender))
                     handleDataReceivedFromSelf(sender, hdr.seqno, msg);
                 else
@@ -451,6 +480,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
                 handleUpEvent(msg.getSrc(), msg, hdr);
                 continue;
             }
+            if(hdr.ack)
+                handlePiggybackedAck(batch.sender(), hdr);
 
             List<LongTuple<Message>> list=msgs.computeIfAbsent(hdr.conn_id, k -> new ArrayList<>(size));
             list.add(new LongTuple<>(hdr.seqno(), msg));
@@ -585,16 +616,23 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
           && dst.equals(local_addr);
         short send_conn_id=entry.connId();
         long seqno=entry.sent_msgs_seqno.getAndIncrement();
+        UnicastHeader3 hdr=UnicastHeader3.createDataHeader(seqno, send_conn_id, seqno == DEFAULT_FIRST_SEQNO);
+        ReceiverEntry recv_entry;
+        if(ack_delay > 0 && (recv_entry=recv_table.get(dst)) != null && recv_entry.sendAck()) { // resets send_ack
+            hdr.piggybackAck(recv_entry.msgs.getHighestDeliverable(), recv_entry.connId(), timestamper.incrementAndGet());
+            piggybacked_acks_sent.increment();
+        }
         long sleep=10;
         do {
             try {
-                msg.putHeader(this.id,UnicastHeader3.createDataHeader(seqno,send_conn_id,seqno == DEFAULT_FIRST_SEQNO));
+                msg.putHeader(this.id, hdr);
                 // add *including* UnicastHeader, adds to retransmitter
                 entry.msgs.add(seqno, msg, dont_loopback_set? dont_loopback_filter : null);
                 if(conn_expiry_timeout > 0)
                     entry.update();
                 if(dont_loopback_set)
                     entry.msgs.purge(entry.msgs.getHighestDeliverable());
+                markDirty(dirty_send_conns, dst);
                 break;
             }
             catch(Throwable t) {
@@ -611,6 +649,7 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             sb.append(local_addr).append(" --> DATA(").append(dst).append(": #").append(seqno).
               append(", conn_id=").append(send_conn_id);
             if(seqno == DEFAULT_FIRST_SEQNO) sb.append(", first");
+            if(hdr.ack) sb.append(", ack=#").append(hdr.ack_seqno);
             sb.append(')');
             log.trace(sb);
         }
@@ -665,6 +704,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     public void removeAllConnections() {
         send_table.clear();
         recv_table.clear();
+        dirty_send_conns.clear();
+        dirty_recv_conns.clear();
     }
 
 
@@ -715,12 +756,17 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         boolean oob=msg.isFlagSet(Message.Flag.OOB);
         final Table<Message> win=entry.msgs;
         boolean added=win.add(seqno, oob? DUMMY_OOB_MSG : msg); // adding the same dummy OOB msg saves space (we won't remove it)
-
-        if(ack_threshold <= 1)
+        if(ack_delay > 0)
+            delayAck(sender, entry); // piggybacked on the next message to sender, or sent after ack_delay ms
+        else if(ack_threshold <= 1)
             sendAck(sender, win.getHighestDeliverable(), entry.connId());
         else
             entry.sendAck(true); // will be sent delayed (on the next xmit_interval)
 
+        // pending ACK or missing messages are checked by the retransmit task. Marked *after* the ACK was flagged as
+        // pending, or a concurrent retransmit task might remove the connection from the dirty set without sending it
+        markDirty(dirty_recv_conns, sender);
+
         // An OOB message is passed up immediately. Later, when remove() is called, we discard it. This affects ordering !
         // http://jira.jboss.com/jira/browse/JGRP-377
         if(oob) {
@@ -785,8 +831,11 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         update(entry, batch_size);
         if(batch_size >= ack_threshold)
             sendAck(sender, win.getHighestDeliverable(), entry.connId());
+        else if(ack_delay > 0)
+            delayAck(sender, entry);
         else
             entry.sendAck(true);
+        markDirty(dirty_recv_conns, sender); // after flagging the ACK as pending (see handleDataReceived())
 
         // OOB msg is passed up. When removed, we discard it. Affects ordering: http://jira.jboss.com/jira/browse/JGRP-379
         if(added && oob) {
@@ -855,38 +904,37 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         return sb.toString();
     }
 
+    /**
+     * Returns the receiver entry for sender, creating or replacing it if first is true. Creation is lock-free: a new
+     * entry is installed via putIfAbsent() or replace(), and if another thread won the race, we retry with its entry
+     */
     protected ReceiverEntry getReceiverEntry(Address sender, long seqno, boolean first, short conn_id) {
-        ReceiverEntry entry=recv_table.get(sender);
-        if(entry != null && entry.connId() == conn_id)
-            return entry;
+        for(;;) {
+            ReceiverEntry entry=recv_table.get(sender);
+            if(entry != null && entry.connId() == conn_id)
+                return entry;
+
+            // entry == null OR entry.conn_id != conn_id
+            if(!first) {
+                sendRequestForFirstSeqno(sender); // drops the message and returns (see below)
+                return null;
+            }
 
-        recv_table_lock.lock();
-        try {
-            entry=recv_table.get(sender);
-            if(first) {
-                if(entry == null) {
-                    entry=createReceiverEntry(sender,seqno,conn_id);
-                }
-                else {  // entry != null && win != null
-                    if(conn_id != entry.connId()) {
-                        log.trace("%s: conn_id=%d != %d; resetting receiver window", local_addr, conn_id, entry.connId());
-                        recv_table.remove(sender);
-                        entry=createReceiverEntry(sender,seqno,conn_id);
-                    }
+            ReceiverEntry new_entry=createReceiverEntry(seqno, conn_id);
+            if(entry == null) {
+                if(recv_table.putIfAbsent(sender, new_entry) == null) {
+                    log.trace("%s: created receiver window for %s at seqno=#%d for conn-id=%d", local_addr, sender, seqno, conn_id);
+                    return new_entry;
                 }
             }
-            else { // entry == null && win == null OR entry != null && win == null OR entry != null && win != null
-                if(entry == null || entry.connId() != conn_id) {
-                    recv_table_lock.unlock();
-                    sendRequestForFirstSeqno(sender); // drops the message and returns (see below)
-                    return null;
+            else {
+                log.trace("%s: conn_id=%d != %d; resetting receiver window", local_addr, conn_id, entry.connId());
+                if(recv_table.replace(sender, entry, new_entry)) {
+                    log.trace("%s: created receiver window for %s at seqno=#%d for conn-id=%d", local_addr, sender, seqno, conn_id);
+                    return new_entry;
                 }
             }
-            return entry;
-        }
-        finally {
-            if(recv_table_lock.isHeldByCurrentThread())
-                recv_table_lock.unlock();
+            // another thread changed the entry for sender concurrently: try again
         }
     }
 
@@ -912,15 +960,35 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
 
-    protected ReceiverEntry createReceiverEntry(Address sender, long seqno, short conn_id) {
+    protected ReceiverEntry createReceiverEntry(long seqno, short conn_id) {
         Table<Message> table=new Table<>(xmit_table_num_rows, xmit_table_msgs_per_row, seqno-1,
                                                 xmit_table_resize_factor, xmit_table_max_compaction_time);
-        ReceiverEntry entry=new ReceiverEntry(table, conn_id);
-        ReceiverEntry entry2=recv_table.putIfAbsent(sender, entry);
-        if(entry2 != null)
-            return entry2;
-        log.trace("%s: created receiver window for %s at seqno=#%d for conn-id=%d", local_addr, sender, seqno, conn_id);
-        return entry;
+        return new ReceiverEntry(table, conn_id);
+    }
+
+    protected void handlePiggybackedAck(Address sender, UnicastHeader3 hdr) {
+        piggybacked_acks_received.increment();
+        handleAckReceived(sender, hdr.ack_seqno, hdr.ack_conn_id, hdr.timestamp());
+    }
+
+    /**
+     * Marks an ACK as pending for sender and schedules a task which sends a standalone ACK after ack_delay ms, unless
+     * the ACK has been piggybacked on a DATA message to sender in the meantime (which clears the pending flag)
+     */
+    protected void delayAck(Address sender, ReceiverEntry entry) {
+        entry.sendAck(true);
+        if(entry.ack_scheduled.compareAndSet(false, true)) {
+            try {
+                timer.schedule(() -> {
+                    entry.ack_scheduled.set(false);
+                    if(entry.sendAck()) // resets send_ack to false
+                        sendAck(sender, entry.msgs.getHighestDeliverable(), entry.connId());
+                }, ack_delay, TimeUnit.MILLISECONDS, false);
+            }
+            catch(Throwable t) { // e.g. timer has been stopped: the ACK will be sent by the retransmit task
+                entry.ack_scheduled.set(false);
+            }
+        }
     }
 
     /** Add the ACK to hashtable.sender.sent_msgs */
@@ -1193,6 +1261,12 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         num_msgs_received+=num_received;
     }
 
+    /** Adds addr to the given dirty set; the contains() check avoids locking in the (common) case of addr being present */
+    protected void markDirty(Set<Address> dirty_set, Address addr) {
+        if(!dirty_set.contains(addr))
+            dirty_set.add(addr);
+    }
+
     /** Compares 2 timestamps, handles numeric overflow */
     protected static int compare(int ts1, int ts2) {
         int diff=ts1 - ts2;
@@ -1269,7 +1343,8 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
     }
 
     protected final class ReceiverEntry extends Entry {
-        protected volatile boolean  send_ack;
+        protected volatile boolean     send_ack;
+        protected final AtomicBoolean  ack_scheduled=new AtomicBoolean(); // a delayed ACK task is pending (ack_delay > 0)
 
         public ReceiverEntry(Table<Message> received_msgs, short recv_conn_id) {
             super(recv_conn_id, received_msgs);
@@ -1313,21 +1388,32 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         }
     }
 
+    /**
+     * Visits only the connections in the dirty sets: a connection is removed from its set <em>before</em> it is
+     * checked, and re-added if it still has pending ACKs, missing or unacked messages. This way, a concurrent
+     * {@link #markDirty(Set,Address)} can never be lost, and idle connections are not visited at all
+     */
     @ManagedOperation(description="Triggers the retransmission task")
     public void triggerXmit() {
         SeqnoList missing;
 
-        for(Map.Entry<Address,ReceiverEntry> entry: recv_table.entrySet()) {
-            Address        target=entry.getKey(); // target to send retransmit requests to
-            ReceiverEntry  val=entry.getValue();
+        for(Iterator<Address> it=dirty_recv_conns.iterator(); it.hasNext();) {
+            Address        target=it.next(); // target to send retransmit requests to
+            it.remove();
+            ReceiverEntry  val=recv_table.get(target);
             Table<Message> win=val != null? val.msgs : null;
+            if(win == null) {
+                xmit_task_map.remove(target);
+                continue;
+            }
 
             // receiver: send ack for received messages if needed
-            if(win != null && val.sendAck()) // sendAck() resets send_ack to false
+            if(val.sendAck()) // sendAck() resets send_ack to false
                 sendAck(target, win.getHighestDeliverable(), val.connId());
 
             // receiver: retransmit missing messages (getNumMissing() is fast)
-            if(win != null && win.getNumMissing() > 0 && (missing=win.getMissing(max_xmit_req_size)) != null) {
+            if(win.getNumMissing() > 0 && (missing=win.getMissing(max_xmit_req_size)) != null) {
+                markDirty(dirty_recv_conns, target); // still has gaps: check again on the next run
                 long highest=missing.getLast();
                 Long prev_seqno=xmit_task_map.get(target);
                 if(prev_seqno == null)
@@ -1345,13 +1431,19 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
         }
 
         // sender: only send the *highest sent* message if HA < HS and HA/HS didn't change from the prev run
-        for(SenderEntry val: send_table.values()) {
+        for(Iterator<Address> it=dirty_send_conns.iterator(); it.hasNext();) {
+            Address        target=it.next();
+            it.remove();
+            SenderEntry    val=send_table.get(target);
             Table<Message> win=val != null? val.msgs : null;
             if(win != null) {
                 long highest_acked=win.getHighestDelivered(); // highest delivered == highest ack (sender win)
                 long highest_sent=win.getHighestReceived();   // we use table as a *sender* win, so it's highest *sent*...
+                if(highest_acked >= highest_sent)
+                    continue; // all messages have been acked: the connection is clean
 
-                if(highest_acked < highest_sent && val.watermark[0] == highest_acked && val.watermark[1] == highest_sent) {
+                markDirty(dirty_send_conns, target);
+                if(val.watermark[0] == highest_acked && val.watermark[1] == highest_sent) {
                     // highest acked and sent hasn't moved up - let's resend the HS
                     Message highest_sent_msg=win.get(highest_sent);
                     if(highest_sent_msg != null)
@@ -1362,13 +1454,30 @@ public class UNICAST3 extends Protocol implements AgeOutCache.Handler<Address> {
             }
         }
 
+        // scanning all connections for idle or expired ones is O(n), so we don't do this on every run
+        if(conn_expiry_timeout > 0 || conn_close_timeout > 0) {
+            long now=getTimestamp();
+            if(now - last_conn_reaping >= TimeUnit.NANOSECONDS.convert(connReapingInterval(), TimeUnit.MILLISECONDS)) {
+                last_conn_reaping=now;
 
-        // close idle connections
-        if(conn_expiry_timeout > 0)
-            closeIdleConnections();
+                // close idle connections
+                if(conn_expiry_timeout > 0)
+                    closeIdleConnections();
 
+                if(conn_close_timeout > 0)
+                    removeExpiredConnections();
+            }
+        }
+    }
+
+    /** Interval (ms) at which connections are checked for expiry: a tenth of the smallest timeout, but at least xmit_interval */
+    protected long connReapingInterval() {
+        long min_timeout=Long.MAX_VALUE;
+        if(conn_expiry_timeout > 0)
+            min_timeout=conn_expiry_timeout;
         if(conn_close_timeout > 0)
-            removeExpiredConnections();
+            min_timeout=Math.min(min_timeout, conn_close_timeout);
+        return Math.max(xmit_interval, min_timeout / 10);
     }
 
 
@@ -20,11 +20,17 @@ public class UnicastHeader3 extends Header {
     public static final byte XMIT_REQ         = 3; // SeqnoList of missing message is in the message's payload
     public static final byte CLOSE            = 4;
 
+    public static final byte FIRST = 1;      // flag: DATA is the first message of a connection
+    public static final byte PIGGYBACKED_ACK = 1 << 1; // flag: DATA carries an ACK for the reverse connection
+
     byte    type;
-    long    seqno;     // DATA and ACK
-    short   conn_id;   // DATA and CLOSE
-    boolean first;     // DATA
-    int     timestamp; // SEND_FIRST_SEQNO and ACK
+    long    seqno;       // DATA and ACK
+    short   conn_id;     // DATA and CLOSE
+    boolean first;       // DATA
+    int     timestamp;   // SEND_FIRST_SEQNO, ACK and DATA (with piggybacked ACK)
+    boolean ack;         // DATA: true if an ACK is piggybacked
+    long    ack_seqno;   // DATA: the seqno of the piggybacked ACK
+    short   ack_conn_id; // DATA: the conn_id of the piggybacked ACK
 
 
     public UnicastHeader3() {} // used for externalization
@@ -73,12 +79,28 @@ public class UnicastHeader3 extends Header {
     public boolean        first()            {return first;}
     public int            timestamp()        {return timestamp;}
     public UnicastHeader3 timestamp(int ts) {timestamp=ts; return this;}
+    public boolean        hasAck()           {return ack;}
+    public long           ackSeqno()         {return ack_seqno;}
+    public short          ackConnId()        {return ack_conn_id;}
+
+    /** Adds an ACK for the reverse connection to a DATA header */
+    public UnicastHeader3 piggybackAck(long ack_seqno, short ack_conn_id, int timestamp) {
+        this.ack=true;
+        this.ack_seqno=ack_seqno;
+        this.ack_conn_id=ack_conn_id;
+        this.timestamp=timestamp;
+        return this;
+    }
 
     public String toString() {
         StringBuilder sb=new StringBuilder();
         sb.append(type2Str(type)).append(", seqno=").append(seqno);
         if(conn_id != 0) sb.append(", conn_id=").append(conn_id);
         if(first) sb.append(", first");
+        if(ack) {
+            sb.append(", ack=").append(ack_seqno);
+            if(ack_conn_id != 0) sb.append(", ack_conn_id=").append(ack_conn_id);
+        }
         if(timestamp != 0)
             sb.append(", ts=").append(timestamp);
         return sb.toString();
@@ -101,7 +123,11 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 retval+=Bits.size(seqno) // seqno
                   + Global.SHORT_SIZE    // conn_id
-                  + Global.BYTE_SIZE;    // first
+                  + Global.BYTE_SIZE;    // flags (first, piggybacked ACK)
+                if(ack)
+                    retval+=Bits.size(ack_seqno)
+                      + Global.SHORT_SIZE // ack_conn_id
+                      + Bits.size(timestamp);
                 break;
             case ACK:
                 retval+=Bits.size(seqno)
@@ -127,7 +153,7 @@ public class UnicastHeader3 extends Header {
     /**
      * The following types and fields are serialized:
      * <pre>
-     * | DATA | seqno | conn_id | first |
+     * | DATA | seqno | conn_id | flags | [ack_seqno | ack_conn_id | timestamp] |
      * | ACK  | seqno | timestamp |
      * | SEND_FIRST_SEQNO | timestamp |
      * | CLOSE | conn_id |
@@ -139,7 +165,12 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 Bits.writeLong(seqno, out);
                 out.writeShort(conn_id);
-                out.writeBoolean(first);
+                out.writeByte((first? FIRST : 0) | (ack? PIGGYBACKED_ACK : 0));
+                if(ack) {
+                    Bits.writeLong(ack_seqno, out);
+                    out.writeShort(ack_conn_id);
+                    Bits.writeInt(timestamp, out);
+                }
                 break;
             case ACK:
                 Bits.writeLong(seqno, out);
@@ -163,7 +194,14 @@ public class UnicastHeader3 extends Header {
             case DATA:
                 seqno=Bits.readLong(in);
                 conn_id=in.readShort();
-                first=in.readBoolean();
+                byte flags=in.readByte();
+                first=(flags & FIRST) == FIRST;
+                ack=(flags & PIGGYBACKED_ACK) == PIGGYBACKED_ACK;
+                if(ack) {
+                    ack_seqno=Bits.readLong(in);
+                    ack_conn_id=in.readShort();
+                    timestamp=Bits.readInt(in);
+                }
                 break;
             case ACK:
                 seqno=Bits.readLong(in);
@@ -2,6 +2,7 @@ package org.jgroups.protocols.pbcast;
 
 
 import org.jgroups.*;
+import org.jgroups.annotations.GuardedBy;
 import org.jgroups.annotations.MBean;
 import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
@@ -18,6 +19,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
@@ -110,11 +112,41 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
     @Deprecated
     protected boolean install_view_locally_first=true; // https://issues.jboss.org/browse/JGRP-1751
 
+    @Property(description="Rate of JOIN and LEAVE requests (per second) above which the coordinator switches to " +
+      "join-storm mode: requests are then accumulated until no new request has been received for twice the " +
+      "average interval between requests (or max_join_window ms have elapsed), and the accumulated joiners and " +
+      "leavers are handled with a single view and a single (shared) JoinRsp. 0 disables join-storm mode")
+    protected int join_storm_threshold;
+
+    @Property(description="Max time (ms) to accumulate JOIN and LEAVE requests in join-storm mode. Capped at " +
+      "join_timeout/2, or else joiners would resend their JOIN requests while they are being accumulated")
+    protected long max_join_window=1000;
+
+    @Property(description="Max time (ms) the merge leader waits for the remaining subgroup coordinators once a " +
+      "majority of them has responded. Subgroups which haven't responded by then are excluded from the merge (and " +
+      "merged incrementally as soon as they respond), instead of delaying the merge until merge_timeout. Subgroup coordinators " +
+      "wait half of this time for the digests of their remaining members. 0 waits for up to merge_timeout")
+    protected long merge_straggler_timeout;
+
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
 
     protected int num_views;
 
+    @ManagedAttribute(description="Number of times JOIN and LEAVE requests were accumulated in join-storm mode")
+    protected int num_join_storms;
+
+    /** Number of requests handled by a single view in join-storm mode */
+    protected final AverageMinMax join_storm_sizes=new AverageMinMax();
+
+    // EWMA of the interval (ns) between JOIN and LEAVE requests, used to detect join storms
+    @GuardedBy("mbr_req_lock")
+    protected double avg_mbr_req_interval=TimeUnit.SECONDS.toNanos(1);
+    @GuardedBy("mbr_req_lock")
+    protected long   last_mbr_req;
+    protected final Object mbr_req_lock=new Object();
+    protected boolean join_storm_in_progress; // only accessed by the ViewHandler's processing thread
+
     /** Stores the last 20 views */
     protected BoundedList<String> prev_views;
 
@@ -156,7 +188,7 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
 
     /** Class to process JOIN, LEAVE and MERGE requests */
     protected final ViewHandler<Request> view_handler=
-      new ViewHandler<>(this, this::process, Request::canBeProcessedTogether);
+      new ViewHandler<>(this, this::process, Request::canBeProcessedTogether).accumulator(new JoinStormAccumulator());
 
     /** To collect VIEW_ACKs from all members */
     protected final AckCollector        ack_collector=new AckCollector();
@@ -227,6 +259,10 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
     @ManagedAttribute(description="Is a merge currently running")
     public boolean isMergeInProgress() {return merger.isMergeInProgress();}
 
+    @ManagedAttribute(description="Number of subgroup coordinators excluded from merges because they didn't respond " +
+      "in time")
+    public int getNumMergeStragglers() {return merger.getNumStragglers();}
+
     /** Only used for internal testing, don't use this method ! */
     public Merger getMerger() {return merger;}
 
@@ -293,6 +329,24 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
     }
 
     @ManagedOperation public void suspendViewHandler() {view_handler.suspend();}
+    public int  getJoinStormThreshold()            {return join_storm_threshold;}
+    public GMS  setJoinStormThreshold(int t)       {join_storm_threshold=t; return this;}
+    public long getMaxJoinWindow()                 {return max_join_window;}
+    public GMS  setMaxJoinWindow(long w)           {max_join_window=w; return this;}
+    public long getMergeStragglerTimeout()         {return merge_straggler_timeout;}
+    public GMS  setMergeStragglerTimeout(long t)   {merge_straggler_timeout=t; return this;}
+    public int  getNumJoinStorms()                 {return num_join_storms;}
+    public AverageMinMax getJoinStormSizes()       {return join_storm_sizes;}
+
+    @ManagedAttribute(description="Number of requests handled by a single view in join-storm mode (avg/min/max)")
+    public String getJoinStormSize() {return join_storm_sizes.toString();}
+
+    @ManagedAttribute(description="Current rate of JOIN and LEAVE requests per second (exponentially weighted)")
+    public double getMembershipRequestRate() {
+        synchronized(mbr_req_lock) {
+            return TimeUnit.SECONDS.toNanos(1) / avg_mbr_req_interval;
+        }
+    }
     @ManagedOperation public void resumeViewHandler() {view_handler.resume();}
 
 
@@ -340,7 +394,8 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
 
     public void resetStats() {
         super.resetStats();
-        num_views=0;
+        num_views=num_join_storms=0;
+        join_storm_sizes.clear();
         prev_views.clear();
     }
 
@@ -373,6 +428,16 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
             throw new IllegalArgumentException("view_ack_collection_timeout has to be greater than 0");
         if(merge_timeout <= 0)
             throw new IllegalArgumentException("merge_timeout has to be greater than 0");
+        if(join_storm_threshold > 0 && max_join_window > join_timeout / 2) {
+            log.warn("%s: max_join_window (%d) needs to be at most half of join_timeout (%d); setting it to %d",
+                     local_addr, max_join_window, join_timeout, join_timeout / 2);
+            max_join_window=join_timeout / 2;
+        }
+        if(merge_straggler_timeout >= merge_timeout) {
+            log.warn("%s: merge_straggler_timeout (%d) needs to be smaller than merge_timeout (%d); setting it to %d",
+                     local_addr, merge_straggler_timeout, merge_timeout, merge_timeout / 2);
+            merge_straggler_timeout=merge_timeout / 2;
+        }
         prev_members=new BoundedList<>(num_prev_mbrs);
         prev_views=new BoundedList<>(num_prev_views);
         TP transport=getTransport();
@@ -865,9 +930,11 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
 
         switch(hdr.type) {
             case GmsHeader.JOIN_REQ:
+                updateMembershipRequestRate();
                 view_handler.add(new Request(Request.JOIN, hdr.mbr, null, hdr.useFlushIfPresent));
                 break;
             case GmsHeader.JOIN_REQ_WITH_STATE_TRANSFER:
+                updateMembershipRequestRate();
                 view_handler.add(new Request(Request.JOIN_WITH_STATE_TRANSFER, hdr.mbr, null, hdr.useFlushIfPresent));
                 break;
             case GmsHeader.JOIN_RSP:
@@ -878,6 +945,7 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
             case GmsHeader.LEAVE_REQ:
                 if(hdr.mbr == null)
                     return null;
+                updateMembershipRequestRate();
                 view_handler.add(new Request(Request.LEAVE, hdr.mbr));
                 break;
             case GmsHeader.LEAVE_RSP:
@@ -1288,6 +1356,11 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
     protected void process(Collection<Request> requests) {
         if(requests.isEmpty())
             return;
+        if(join_storm_in_progress) {
+            join_storm_in_progress=false;
+            join_storm_sizes.add(requests.size());
+            log.debug("%s: handling %d accumulated requests in join-storm mode", local_addr, requests.size());
+        }
         Request firstReq=requests.iterator().next();
         switch(firstReq.type) {
             case Request.JOIN:
@@ -1305,8 +1378,43 @@ public class GMS extends Protocol implements DiagnosticsHandler.ProbeHandler {
     }
 
 
+    /** Updates the average interval between JOIN and LEAVE requests. Intervals are capped at 1s, so that a long
+     * quiet period doesn't delay the detection of a join storm */
+    protected void updateMembershipRequestRate() {
+        if(join_storm_threshold <= 0)
+            return;
+        long now=System.nanoTime(), max=TimeUnit.SECONDS.toNanos(1);
+        synchronized(mbr_req_lock) {
+            long interval=last_mbr_req == 0? max : Math.min(now - last_mbr_req, max);
+            last_mbr_req=now;
+            avg_mbr_req_interval=0.3 * interval + 0.7 * avg_mbr_req_interval;
+        }
+    }
+
     /* --------------------------- End of Private Methods ------------------------------- */
 
+
+    /** Accumulates JOIN and LEAVE requests at the coordinator when the rate of requests exceeds join_storm_threshold */
+    protected class JoinStormAccumulator implements ViewHandler.Accumulator<Request> {
+        public long maxWait(Request first) {
+            if(join_storm_threshold <= 0 || !isCoord())
+                return 0;
+            if(first.type != Request.JOIN && first.type != Request.LEAVE)
+                return 0;
+            if(getMembershipRequestRate() < join_storm_threshold)
+                return 0;
+            join_storm_in_progress=true;
+            num_join_storms++;
+            return max_join_window;
+        }
+
+        public long quietPeriod() {
+            synchronized(mbr_req_lock) {
+                return TimeUnit.NANOSECONDS.toMillis((long)(avg_mbr_req_interval * 2));
+            }
+        }
+    }
+
     public static class DefaultMembershipPolicy implements MembershipChangePolicy {
 
         /**
@@ -5,6 +5,7 @@ import org.jgroups.logging.Log;
 import org.jgroups.util.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +33,15 @@ public class Merger {
 
     protected Future<?>                          merge_killer=null;
 
+    /** Number of subgroup coordinators which were excluded from a merge because they didn't respond in time */
+    protected int                                num_stragglers;
+
+    /** Subgroup coordinators excluded from a merge (stragglers), and the merge id of the merge they were excluded from */
+    protected final Map<Address,MergeId>         stragglers=new ConcurrentHashMap<>();
+
+    /** Views of stragglers which responded after they were excluded, to be merged incrementally */
+    protected final Map<Address,View>            late_subgroups=new HashMap<>();
+
 
 
     public Merger(GMS gms) {
@@ -43,6 +53,7 @@ public class Merger {
     public String               getMergeIdHistory()        {return merge_id_history.toString();}
     public boolean              isMergeTaskRunning()       {return merge_task.isRunning();}
     public boolean              isMergeKillerTaskRunning() {return merge_killer != null && !merge_killer.isDone();}
+    public int                  getNumStragglers()         {return num_stragglers;}
     public synchronized MergeId getMergeId()               {return merge_id;} // only used for testing; do not use
     public synchronized boolean isMergeInProgress()        {return merge_id != null;}
     public synchronized boolean matchMergeId(MergeId id)   {return Util.match(this.merge_id, id);}
@@ -94,6 +105,7 @@ public class Merger {
 
         if(merge_leader.equals(gms.local_addr)) {
             log.debug("%s: I will be the merge leader. Starting the merge task. Views: %s", gms.local_addr, views);
+            stragglers.clear();
             merge_task.start(views);
         }
         else
@@ -120,6 +132,11 @@ public class Merger {
     }
 
     public void handleMergeResponse(MergeData data, MergeId merge_id) {
+        Address sender=data.getSender();
+        if(merge_id != null && stragglers.remove(sender, merge_id)) {
+            handleLateMergeResponse(data, merge_id);
+            return;
+        }
         if(!matchMergeId(merge_id)) {
             log.trace("%s: this.merge_id (%s) is different from merge_id %s sent by %s as merge response, discarding it",
                       gms.local_addr, this.merge_id, merge_id, data.getSender());
@@ -128,6 +145,55 @@ public class Merger {
         merge_rsps.add(data.getSender(), data);
     }
 
+    /**
+     * Handles the merge response of a subgroup coordinator which was excluded from the merge because it didn't respond
+     * in time: its (stale) merge is cancelled and its subgroup is merged into our view as soon as no other merge is
+     * in progress, rather than waiting for the next merge round
+     */
+    protected void handleLateMergeResponse(MergeData data, MergeId merge_id) {
+        Address sender=data.getSender();
+        sendMergeCancelledMessage(Collections.singletonList(sender), merge_id);
+        if(data.merge_rejected || data.getView() == null)
+            return;
+        log.debug("%s: got late merge response from %s (merge_id=%s), merging its subgroup incrementally",
+                  gms.local_addr, sender, merge_id);
+        synchronized(late_subgroups) {
+            late_subgroups.put(sender, data.getView());
+        }
+        // the CANCEL_MERGE needs to be processed by the straggler before it accepts a new MERGE_REQ
+        scheduleLateMerge();
+    }
+
+    protected void scheduleLateMerge() {
+        long delay=gms.merge_straggler_timeout > 0? gms.merge_straggler_timeout : gms.merge_timeout / 10;
+        gms.timer.schedule(this::mergeLateSubgroups, delay, TimeUnit.MILLISECONDS, false);
+    }
+
+    /** Merges the subgroups of stragglers which responded late with our view (run by the merge leader) */
+    protected void mergeLateSubgroups() {
+        if(isMergeInProgress() || merge_task.isRunning()) { // try again when the current merge is done
+            scheduleLateMerge();
+            return;
+        }
+        Map<Address,View> views;
+        synchronized(late_subgroups) {
+            if(late_subgroups.isEmpty())
+                return;
+            views=new HashMap<>(late_subgroups);
+            late_subgroups.clear();
+        }
+        if(!gms.isCoord()) {
+            log.debug("%s: not coordinator anymore; subgroups of %s will be merged by the next merge",
+                      gms.local_addr, views.keySet());
+            return;
+        }
+        views.put(gms.local_addr, gms.view());
+        if(View.sameViews(views.values()))
+            return;
+        log.debug("%s: merging the subgroups of late subgroup coordinators %s", gms.local_addr, views.keySet());
+        merge_task.start(views);
+    }
+
 
     /**
      * If merge_id is not equal to this.merge_id then discard. Else cast the view/digest to all members of this group.
@@ -269,22 +335,22 @@ public class Merger {
         // gms.getViewHandler().suspend();
         log.trace("%s: got merge request from %s, merge_id=%s, mbrs=%s", gms.local_addr, sender, merge_id, mbrs);
 
-        // merge the membership of the current view with mbrs
-        List<Address> members=new ArrayList<>(mbrs != null? mbrs.size() : 32);
-        if(mbrs != null) // didn't use a set because we didn't want to change the membership order at this time (although not incorrect)
-            mbrs.stream().filter(mbr -> !members.contains(mbr)).forEach(members::add);
+        // merge the membership of the current view with mbrs (a linked set doesn't change the membership order)
+        Set<Address> members=new LinkedHashSet<>(mbrs != null? mbrs.size() : 32);
+        if(mbrs != null)
+            members.addAll(mbrs);
 
         // Now remove members that are not in our current view:
-        members.retainAll(gms.view().getMembers());
+        View current_view=gms.view();
+        members.removeIf(mbr -> !current_view.containsMember(mbr));
 
         // Add myself if not present
-        if(!members.contains(gms.local_addr))
-            members.add(gms.local_addr);
+        members.add(gms.local_addr);
 
         ViewId tmp_vid=gms.getViewId();
         if(tmp_vid == null)
             throw new Exception("view ID is null; cannot return merge response");
-        View view=new View(tmp_vid, members);
+        View view=new View(tmp_vid, new ArrayList<>(members));
 
         if(gms.flushProtocolInStack && !gms.startFlush(view)) // if flush is in stack, let this coord flush its subcluster
             throw new Exception("flush failed");
@@ -390,7 +456,7 @@ public class Merger {
         // we have that message in our digest !
         Digest digest=(Digest)gms.getDownProtocol().down(new Event(Event.GET_DIGEST, gms.local_addr));
         digest_collector.add(gms.local_addr, digest);
-        digest_collector.waitForAllResponses(max_wait_time);
+        waitForResponses(digest_collector, max_wait_time, gms.merge_straggler_timeout / 2);
         if(log.isTraceEnabled()) {
             if(digest_collector.hasAllResponses())
                 log.trace("%s: fetched all digests for %s", gms.local_addr, current_mbrs);
@@ -400,7 +466,7 @@ public class Merger {
         }
 
         List<Address> valid_rsps=new ArrayList<>(current_mbrs);
-        valid_rsps.removeAll(digest_collector.getMissing());
+        valid_rsps.removeAll(new HashSet<>(digest_collector.getMissing()));
 
         Address[] tmp=new Address[valid_rsps.size()];
         valid_rsps.toArray(tmp);
@@ -410,6 +476,22 @@ public class Merger {
         return retval;
     }
 
+    /**
+     * Waits for all responses if straggler_timeout is 0. Otherwise waits for a majority of the responses and then for
+     * at most straggler_timeout ms for the remaining responses, so that a few slow or unreachable members don't
+     * delay the merge until timeout. Returns true if all responses were received
+     */
+    protected static <T> boolean waitForResponses(ResponseCollector<T> collector, long timeout, long straggler_timeout) {
+        if(straggler_timeout <= 0)
+            return collector.waitForAllResponses(timeout);
+        long start=System.currentTimeMillis();
+        collector.waitForResponses(collector.size() / 2 + 1, timeout);
+        if(collector.hasAllResponses())
+            return true;
+        long remaining=timeout - (System.currentTimeMillis() - start);
+        return remaining > 0 && collector.waitForAllResponses(Math.min(remaining, straggler_timeout));
+    }
+
     /**
      * Fetches the digests from all members and installs them again. Used only for diagnosis and support; don't
      * use this otherwise !
@@ -563,6 +645,8 @@ public class Merger {
                             "missing responses from %d members, removing them from the merge",
                           gms.local_addr, gms.local_addr, coords.keySet().size(), missing.size());
                 merge_rsps.remove(missing);
+                num_stragglers+=missing.size();
+                missing.forEach(mbr -> stragglers.put(mbr, new_merge_id)); // merged incrementally when they respond
             }
 
             // Remove null or rejected merge responses from merge_rsp and coords (so we'll send the new view
@@ -629,8 +713,8 @@ public class Merger {
                 gms.getDownProtocol().down(msg);
             }
 
-            // wait until num_rsps_expected >= num_rsps or timeout elapsed
-            merge_rsps.waitForAllResponses(timeout);
+            // wait until num_rsps_expected >= num_rsps or timeout elapsed (or stragglers are excluded)
+            waitForResponses(merge_rsps, timeout, gms.merge_straggler_timeout);
             gotAllResponses=merge_rsps.hasAllResponses();
             long time=System.currentTimeMillis() - start;
             log.trace("%s: collected %d merge response(s) in %d ms", gms.local_addr, merge_rsps.numberOfValidResponses(), time);
@@ -708,11 +792,12 @@ public class Merger {
                 return null;
 
             // Remove views from subviews whose creator are not in the new membership
+            Set<Address> new_mbrs=new HashSet<>(merged_mbrs);
             for(Iterator<View> it=subviews.iterator(); it.hasNext();) {
                 View v=it.next();
                 logical_time=Math.max(logical_time, v.getViewId().getId());
                 Address creator=v.getCreator();
-                if(creator != null && !merged_mbrs.contains(creator))
+                if(creator != null && !new_mbrs.contains(creator))
                     it.remove();
             }
 
@@ -33,6 +33,11 @@ import java.util.function.Supplier;
  * <p>
  * When send_stable_msgs_to_coord_only is true, far fewer messages are exchanged, as members don't multicast
  * STABLE messages, but instead send them only to the coordinator.
+ * <p>
+ * When tree_fanout is > 0, the members are organized in a tree derived from the view (the member at rank r has the
+ * members at ranks r*tree_fanout+1 .. r*tree_fanout+tree_fanout as children, the coordinator is the root). A member
+ * merges its own digest with the digests of its children and sends the result to its parent only. The root
+ * therefore merges tree_fanout digests instead of N, and multicasts the STABILITY message.
  * @author Bela Ban
  */
 @MBean(description="Computes the broadcast messages that are stable")
@@ -70,6 +75,27 @@ public class STABLE extends Protocol {
       "on the coordinator")
     protected boolean send_stable_msgs_to_coord_only=true;
 
+    @Property(description="If > 0, STABLE digests are aggregated along a tree derived from the view, in which every " +
+      "member has up to tree_fanout children. Members send the merged digests of their subtree to their parent " +
+      "and only the coordinator (root) merges its children's digests and multicasts STABILITY. This reduces the " +
+      "work on the coordinator in large clusters. Overrides send_stable_msgs_to_coord_only. 0 disables this")
+    protected int     tree_fanout;
+
+    @Property(description="If true, a STABLE message only contains the entries which changed since the last STABLE " +
+      "message sent in the same view (delta). A full digest is sent every full_digest_interval messages, and after " +
+      "a view change. Recipients keep the last digest of each sender to apply deltas to, so this needs to be set " +
+      "on all members")
+    protected boolean use_delta_digests;
+
+    @Property(description="Number of delta STABLE messages after which a full digest is sent (if use_delta_digests is true)")
+    protected int     full_digest_interval=10;
+
+    @Property(description="If true, the members of the digests in STABLE and STABILITY messages are marshalled as " +
+      "indexes into the current view (see MemberIndex). This changes the wire format, so it needs to be set on all " +
+      "members. Only STABLE uses member indexes; the digests and views of other protocols (e.g. GMS, MERGE3, FD) " +
+      "are marshalled as before")
+    protected boolean use_member_index;
+
     
     /* --------------------------------------------- JMX  ---------------------------------------------- */
 
@@ -77,6 +103,8 @@ public class STABLE extends Protocol {
     protected int    num_stable_msgs_received;
     protected int    num_stability_msgs_sent;
     protected int    num_stability_msgs_received;
+    protected int    num_delta_stable_msgs_sent;
+    protected int    num_delta_stable_msgs_received;
 
     
     /* --------------------------------------------- Fields ------------------------------------------------------ */
@@ -85,6 +113,9 @@ public class STABLE extends Protocol {
     protected Address             local_addr;
     protected volatile View       view;
 
+    // Used to marshal the members of digests as indexes into the current view
+    protected volatile MemberIndex member_index;
+
     @GuardedBy("lock")
     protected volatile MutableDigest digest; // keeps track of the highest seqnos from all members
 
@@ -95,6 +126,14 @@ public class STABLE extends Protocol {
     @GuardedBy("lock")
     protected FixedSizeBitSet     votes;
 
+    /** Number of votes needed for the digest to be complete: all members, or self plus children (tree_fanout > 0) */
+    @GuardedBy("lock")
+    protected int                 required_votes;
+
+    /** My rank in the current view and the address of my parent in the tree (null if root or tree_fanout == 0) */
+    protected volatile int        my_rank=-1;
+    protected volatile Address    parent;
+
     protected final Lock          lock=new ReentrantLock();
 
     @GuardedBy("stability_lock")
@@ -127,6 +166,21 @@ public class STABLE extends Protocol {
 
     protected volatile Address    coordinator;
 
+    /** The last digest received from each member (by rank) in the current view; deltas are applied to it */
+    @GuardedBy("lock")
+    protected MutableDigest[]     received_digests;
+
+    /** The last digest sent in the current view: deltas are computed against it */
+    @GuardedBy("lock")
+    protected Digest              last_sent_digest;
+
+    @GuardedBy("lock")
+    protected ViewId              last_sent_view_id;
+
+    /** Number of deltas sent since the last full digest */
+    @GuardedBy("lock")
+    protected int                 num_deltas_since_full;
+
     
     
     public STABLE() {             
@@ -158,6 +212,10 @@ public class STABLE extends Protocol {
     public int getStabilitySent() {return num_stability_msgs_sent;}
     @ManagedAttribute
     public int getStabilityReceived() {return num_stability_msgs_received;}
+    @ManagedAttribute(description="Number of STABLE messages sent as deltas")
+    public int getDeltaStableSent() {return num_delta_stable_msgs_sent;}
+    @ManagedAttribute(description="Number of STABLE messages received as deltas")
+    public int getDeltaStableReceived() {return num_delta_stable_msgs_received;}
 
     @ManagedAttribute
     public boolean getStableTaskRunning() {
@@ -173,6 +231,7 @@ public class STABLE extends Protocol {
     public void resetStats() {
         super.resetStats();
         num_stability_msgs_received=num_stability_msgs_sent=num_stable_msgs_sent=num_stable_msgs_received=0;
+        num_delta_stable_msgs_sent=num_delta_stable_msgs_received=0;
     }
 
 
@@ -214,7 +273,7 @@ public class STABLE extends Protocol {
             startStableTask();
 
         // we're the only one who sends out STABILITY messages; no need to wait for others to send it (as they won't)
-        if(send_stable_msgs_to_coord_only)
+        if(send_stable_msgs_to_coord_only || tree_fanout > 0)
             stability_delay=0;
     }
 
@@ -240,13 +299,25 @@ public class STABLE extends Protocol {
             return up_prot.up(msg);
         }
 
-        handleUpEvent(hdr, msg.getSrc(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+        handleUpEvent(hdr, msg.getSrc(), msg.getRawBuffer(), msg.getOffset(), msg.getLength());
         return null;  // don't pass STABLE or STABILITY messages up the stack
     }
 
+    protected void handleUpEvent(StableHeader hdr, Address sender, byte[] buf, int offset, int length) {
+        if(hdr.type == StableHeader.STABLE_GOSSIP_DELTA)
+            handleStableDelta(buf, offset, length, sender, hdr.view_id);
+        else {
+            Digest d=readDigest(buf, offset, length, hdr.view_id);
+            if(d != null)
+                handleUpEvent(hdr, sender, d);
+        }
+    }
+
     protected void handleUpEvent(StableHeader hdr, Address sender, Digest digest) {
         switch(hdr.type) {
             case StableHeader.STABLE_GOSSIP:
+                if(use_delta_digests)
+                    storeReceivedDigest(digest, sender, hdr.view_id);
                 handleStableMessage(digest, sender, hdr.view_id);
                 break;
             case StableHeader.STABILITY:
@@ -264,7 +335,7 @@ public class STABLE extends Protocol {
         for(Message msg: batch) { // remove and handle messages with flow control headers (STABLE_GOSSIP, STABILITY)
             if((hdr=msg.getHeader(id)) != null) {
                 batch.remove(msg);
-                handleUpEvent(hdr, batch.sender(), readDigest(msg.getRawBuffer(), msg.getOffset(), msg.getLength()));
+                handleUpEvent(hdr, batch.sender(), msg.getRawBuffer(), msg.getOffset(), msg.getLength());
             }
         }
 
@@ -361,8 +432,12 @@ public class STABLE extends Protocol {
         lock.lock();
         try {
             this.view=v;
+            member_index=new MemberIndex(v);
             coordinator=v.getCoord();
+            my_rank=getRank(local_addr, v);
+            parent=tree_fanout > 0 && my_rank > 0? v.getMembersRaw()[parentRank(my_rank, tree_fanout)] : null;
             resetDigest();
+            resetDeltaState();
             if(!initialized)
                 initialized=true;
         }
@@ -383,24 +458,9 @@ public class STABLE extends Protocol {
             sb=new StringBuilder().append(local_addr).append(": handling digest from ").append(sender).append(":\nmine:   ")
               .append(printDigest(digest)).append("\nother:  ").append(printDigest(d));
 
-        for(Digest.Entry entry: d) {
-            Address mbr=entry.getMember();
-            long hd=entry.getHighestDeliveredSeqno(), hr=entry.getHighestReceivedSeqno();
-
-            // compute the minimum of the highest seqnos deliverable (for garbage collection)
-            long[] seqnos=digest.get(mbr);
-            if(seqnos == null)
-                continue;
-            long my_hd=seqnos[0];
-            long my_hr=seqnos[1]; // (for retransmission of last missing message)
-
-            if(my_hd == -1) // -1 means the seqno hasn't been set yet
-                my_hd=hd;
-
-            long new_hd=Math.min(my_hd, hd);
-            long new_hr=Math.max(my_hr, hr);
-            digest.set(mbr, new_hd, new_hr);
-        }
+        // computes the minimum of the highest seqnos deliverable (for garbage collection) and the maximum of the
+        // highest seqnos received (for retransmission of last missing message)
+        digest.mergeMin(d);
         if(sb != null) // implies log.isTraceEnabled() == true
             log.trace(sb.append("\nresult: ").append(printDigest(digest)).append("\n"));
     }
@@ -412,6 +472,15 @@ public class STABLE extends Protocol {
             return;
         digest=new MutableDigest(view.getMembersRaw()); // .set(getDigest());
         votes=new FixedSizeBitSet(view.size()); // all 0's initially
+        required_votes=tree_fanout > 0 && my_rank >= 0? 1 + numChildren(my_rank, tree_fanout, view.size()) : view.size();
+    }
+
+    @GuardedBy("lock")
+    protected void resetDeltaState() {
+        received_digests=use_delta_digests && view != null? new MutableDigest[view.size()] : null;
+        last_sent_digest=null;
+        last_sent_view_id=null;
+        num_deltas_since_full=0;
     }
 
     /**
@@ -421,7 +490,7 @@ public class STABLE extends Protocol {
     @GuardedBy("lock")
     protected boolean addVote(int rank) {
         try {
-            return votes.set(rank) && allVotesReceived(votes);
+            return votes.set(rank) && votes.cardinality() == required_votes;
         }
         catch(Throwable t) {
             return false;
@@ -434,6 +503,17 @@ public class STABLE extends Protocol {
         return votes.cardinality() == votes.size();
     }
 
+    /** Returns the rank of the parent of the member at rank in a tree with the given fanout (rank has to be > 0) */
+    protected static int parentRank(int rank, int fanout) {
+        return (rank - 1) / fanout;
+    }
+
+    /** Returns the number of children of the member at rank, in a tree of size members with the given fanout */
+    protected static int numChildren(int rank, int fanout, int size) {
+        long first=(long)rank * fanout + 1, last=Math.min((long)rank * fanout + fanout, size - 1);
+        return (int)Math.max(0, last - first + 1);
+    }
+
     protected static int getRank(Address member, View v) {
         if(v == null || member == null)
             return -1;
@@ -561,6 +641,10 @@ public class STABLE extends Protocol {
             int rank=getRank(sender, view);
             if(rank < 0 || votes.get(rank))  // already received gossip from sender; discard it
                 return;
+            if(tree_fanout > 0 && rank != my_rank && (rank == 0 || parentRank(rank, tree_fanout) != my_rank)) {
+                log.trace("%s: discarded STABLE message from %s as it is not my child", local_addr, sender);
+                return;
+            }
             num_stable_msgs_received++;
             updateLocalDigest(d, sender);
             if(addVote(rank)) {       // votes from all members have been received
@@ -578,6 +662,11 @@ public class STABLE extends Protocol {
 
         // we don't yet reset digest: new STABLE messages will be discarded anyway as we have already
         // received votes from their senders
+        Address dest=parent;
+        if(stable_digest != null && dest != null) { // tree_fanout > 0: the digest of my subtree is complete
+            sendStableDigest(dest, stable_digest, stable_view_id, false);
+            return;
+        }
         if(stable_digest != null) {
             resetNumBytes();
             sendStabilityMessage(stable_digest, stable_view_id);
@@ -586,6 +675,59 @@ public class STABLE extends Protocol {
         }
     }
 
+    /** Keeps a copy of a full digest received from sender, so that subsequent deltas from sender can be applied to it */
+    protected void storeReceivedDigest(Digest d, Address sender, ViewId view_id) {
+        if(d == null || sender == null)
+            return;
+        lock.lock();
+        try {
+            int rank;
+            if(received_digests == null || view == null || !view_id.equals(view.getViewId())
+              || (rank=getRank(sender, view)) < 0 || d.capacity() != view.size())
+                return;
+            received_digests[rank]=new MutableDigest(d);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies a delta received from sender to the last digest received from sender, and handles the result like a
+     * full STABLE message. If we don't have a digest from sender to apply the delta to (e.g. the full digest was
+     * lost), the delta is discarded: sender will send a full digest after at most full_digest_interval deltas.<p/>
+     * Since seqnos only increase within a view, a digest missing a lost delta has lower seqnos than the sender's
+     * actual digest, so it can only make the computed stability vector more conservative.
+     */
+    protected void handleStableDelta(byte[] buf, int offset, int length, Address sender, ViewId view_id) {
+        if(buf == null || sender == null)
+            return;
+        Digest d;
+        lock.lock();
+        try {
+            int rank;
+            if(received_digests == null || view == null || !view_id.equals(view.getViewId())
+              || (rank=getRank(sender, view)) < 0)
+                return;
+            MutableDigest base=received_digests[rank];
+            if(base == null) {
+                log.trace("%s: discarded delta STABLE message from %s as no full digest has been received yet", local_addr, sender);
+                return;
+            }
+            // base is updated by the next delta from sender, so it is copied before being used outside the lock
+            d=new MutableDigest(base.readDeltaFrom(new ByteArrayDataInputStream(buf, offset, length)));
+            num_delta_stable_msgs_received++;
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading delta digest from %s: %s", local_addr, sender, ex);
+            return;
+        }
+        finally {
+            lock.unlock();
+        }
+        handleStableMessage(d, sender, view_id);
+    }
+
     protected void resetNumBytes() {
         received.lock();
         try {
@@ -652,17 +794,30 @@ public class STABLE extends Protocol {
         Address dest=send_stable_msgs_to_coord_only? coordinator : null;
 
         if(d.allSet() || d.set(getDigest()).allSet()) // try once more if the first digest didn't match
-            log.trace("%s: sending stable msg to %s: %s",
-                      local_addr, (send_stable_msgs_to_coord_only? coordinator : "cluster"), printDigest(d));
+            log.trace("%s: sending stable msg to %s: %s", local_addr,
+                      tree_fanout > 0? "self" : send_stable_msgs_to_coord_only? coordinator : "cluster", printDigest(d));
         else {
             log.trace("%s: could not find matching digest for view %s, missing members: %s", local_addr, current_view, d.getNonSetMembers());
             return;
         }
 
+        if(tree_fanout > 0) { // my own digest is a vote, merged with my children's digests
+            handleStableMessage(d, local_addr, current_view.getViewId());
+            return;
+        }
+        sendStableDigest(dest, d, current_view.getViewId(), send_in_background);
+    }
+
+    /** Sends a STABLE message with digest d (or a delta, if use_delta_digests is true) to dest (null: all members) */
+    protected void sendStableDigest(Address dest, Digest d, ViewId view_id, boolean send_in_background) {
+        Buffer delta=use_delta_digests? createDelta(d, view_id) : null;
         final Message msg=new Message(dest)
           .setFlag(Message.Flag.OOB,Message.Flag.INTERNAL,Message.Flag.NO_RELIABILITY)
-          .putHeader(this.id, new StableHeader(StableHeader.STABLE_GOSSIP, current_view.getViewId()))
-          .setBuffer(marshal(d));
+          .putHeader(this.id, new StableHeader(delta != null? StableHeader.STABLE_GOSSIP_DELTA : StableHeader.STABLE_GOSSIP,
+                                               view_id))
+          .setBuffer(delta != null? delta : marshal(d, view_id));
+        if(delta != null)
+            num_delta_stable_msgs_sent++;
         try {
             if(!send_in_background) {
                 down_prot.down(msg);
@@ -689,9 +844,87 @@ public class STABLE extends Protocol {
         return Util.streamableToBuffer(digest);
     }
 
+    /**
+     * Marshals a digest whose members are written as indexes into the current view, if use_member_index is true and
+     * view_id is the current view. Receivers drop STABLE and STABILITY messages from a different view, so they'll
+     * always be able to resolve the indexes. Falls back to full addresses if view_id is not the current view
+     */
+    protected Buffer marshal(Digest digest, ViewId view_id) {
+        if(!use_member_index)
+            return marshal(digest);
+        MemberIndex index=member_index;
+        if(index != null && !index.matches(view_id))
+            index=null;
+        try {
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.serializedSize(index));
+            digest.writeTo(out, index);
+            return out.getBuffer();
+        }
+        catch(Exception ex) {
+            log.error("%s: failed marshalling digest: %s", local_addr, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the delta between d and the last digest sent in the same view, or null if a full digest needs to be
+     * sent (first message in a view, or full_digest_interval deltas have been sent since the last full digest).
+     * Records d as the last digest sent in either case.
+     */
+    protected Buffer createDelta(Digest d, ViewId view_id) {
+        lock.lock();
+        try {
+            Digest base=last_sent_digest;
+            boolean send_full=base == null || !view_id.equals(last_sent_view_id) || base.capacity() != d.capacity()
+              || num_deltas_since_full >= full_digest_interval;
+            last_sent_digest=d;
+            last_sent_view_id=view_id;
+            if(send_full) {
+                num_deltas_since_full=0;
+                return null;
+            }
+            num_deltas_since_full++;
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(d.deltaSize(base));
+            d.writeDeltaTo(out, base);
+            return out.getBuffer();
+        }
+        catch(Exception ex) {
+            log.error("%s: failed creating delta digest: %s", local_addr, ex);
+            last_sent_digest=null; // forces a full digest next time
+            return null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     protected Digest readDigest(byte[] buffer, int offset, int length) {
         try {
-            return buffer != null? Util.streamableFromBuffer(Digest.class, buffer, offset, length) : null;
+            return Util.streamableFromBuffer(Digest.class, buffer, offset, length);
+        }
+        catch(Exception ex) {
+            log.error("%s: failed reading Digest from message: %s", local_addr, ex);
+            return null;
+        }
+    }
+
+    /** Reads a digest written by {@link #marshal(Digest,ViewId)}; returns null if it was sent in a different view */
+    protected Digest readDigest(byte[] buffer, int offset, int length, ViewId view_id) {
+        if(buffer == null)
+            return null;
+        if(!use_member_index)
+            return readDigest(buffer, offset, length);
+        MemberIndex index=member_index;
+        if(index != null && !index.matches(view_id))
+            index=null; // the digest can only be read if its members were written in full
+        try {
+            Digest d=new Digest();
+            d.readFrom(new ByteArrayDataInputStream(buffer, offset, length), index);
+            return d;
+        }
+        catch(IllegalStateException ex) {
+            log.trace("%s: discarded digest from view %s (my view: %s): %s", local_addr, view_id, view, ex.getMessage());
+            return null;
         }
         catch(Exception ex) {
             log.error("%s: failed reading Digest from message: %s", local_addr, ex);
@@ -730,7 +963,7 @@ public class STABLE extends Protocol {
         try {
             Message msg=new Message().setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.NO_RELIABILITY)
               .putHeader(id, new StableHeader(StableHeader.STABILITY, view_id))
-              .setBuffer(marshal(stability_digest));
+              .setBuffer(marshal(stability_digest, view_id));
             log.trace("%s: sending stability msg %s", local_addr, printDigest(stability_digest));
             num_stability_msgs_sent++;
             down_prot.down(msg);
@@ -761,6 +994,7 @@ public class STABLE extends Protocol {
     public static class StableHeader extends Header {
         public static final byte STABLE_GOSSIP=1;
         public static final byte STABILITY=2;
+        public static final byte STABLE_GOSSIP_DELTA=3; // payload: entries changed since the last STABLE_GOSSIP
 
         protected byte   type;
         protected ViewId view_id;
@@ -781,6 +1015,7 @@ public class STABLE extends Protocol {
             switch(t) {
                 case STABLE_GOSSIP: return "STABLE_GOSSIP";
                 case STABILITY:     return "STABILITY";
+                case STABLE_GOSSIP_DELTA: return "STABLE_GOSSIP_DELTA";
                 default:            return "<unknown>";
             }
         }
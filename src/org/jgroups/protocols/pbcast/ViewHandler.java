@@ -34,10 +34,22 @@ public class ViewHandler<R> {
     @GuardedBy("lock")
     protected boolean                       processing;
     protected final Condition               processing_done=lock.newCondition();
+    protected final Condition               request_added=lock.newCondition();
     protected final GMS                     gms;
     protected final Consumer<Collection<R>> req_processor;
     protected final BiPredicate<R,R>        req_matcher;
     protected final BoundedList<String>     history=new BoundedList<>(20); // maintains a list of the last 20 requests
+    protected volatile Accumulator<R>       accumulator;
+
+    /** Determines whether, and for how long, requests are accumulated before they are processed */
+    public interface Accumulator<R> {
+        /** Returns the max time (ms) to wait for more requests before processing first (and the requests following
+         * it), or 0 to process them right away */
+        long maxWait(R first);
+
+        /** Returns the time (ms) after which accumulation ends if no new request has been added */
+        long quietPeriod();
+    }
 
 
     /**
@@ -56,6 +68,7 @@ public class ViewHandler<R> {
 
     public boolean suspended() {return suspended.get();}
     public int     size()      {return requests.size();}
+    public ViewHandler<R> accumulator(Accumulator<R> a) {this.accumulator=a; return this;}
 
     public ViewHandler<R> add(R req) {
         if(_add(req))
@@ -165,6 +178,7 @@ public class ViewHandler<R> {
             if(!requests.contains(req)) {
                 requests.add(req);
                 history.add(log);
+                request_added.signalAll();
             }
             return count.decrementAndGet() == 0 && !processing && setProcessing(true);
         }
@@ -189,6 +203,7 @@ public class ViewHandler<R> {
                     history.add(new Date() + ": " + req.toString());
                 }
             }
+            request_added.signalAll();
             return count.decrementAndGet() == 0 && !processing && setProcessing(true);
         }
         finally {
@@ -200,6 +215,7 @@ public class ViewHandler<R> {
     protected void process(Collection<R> requests) {
         for(;;) {
             while(!requests.isEmpty()) {
+                waitForMoreRequests(requests);
                 removeAndProcess(requests); // remove matching requests and process them
             }
             lock.lock();
@@ -215,6 +231,42 @@ public class ViewHandler<R> {
         }
     }
 
+    /**
+     * If an accumulator is set, waits for more requests to be added before the current requests are processed. The
+     * wait ends when no request has been added for the accumulator's quiet period, or after its max wait time
+     */
+    protected void waitForMoreRequests(Collection<R> requests) {
+        Accumulator<R> acc=accumulator;
+        if(acc == null)
+            return;
+        try {
+            Iterator<R> it=requests.iterator();
+            long max_wait=it.hasNext()? acc.maxWait(it.next()) : 0;
+            if(max_wait <= 0)
+                return;
+            long deadline=System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(max_wait);
+            lock.lock();
+            try {
+                for(;;) {
+                    long remaining=deadline - System.nanoTime();
+                    if(remaining <= 0 || suspended.get())
+                        break;
+                    long quiet=TimeUnit.MILLISECONDS.toNanos(Math.max(1, acc.quietPeriod()));
+                    if(request_added.awaitNanos(Math.min(quiet, remaining)) <= 0) // no new request in quiet period
+                        break;
+                }
+            }
+            catch(InterruptedException e) {
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+        catch(Throwable t) {
+            log().error("failed waiting for more requests", t);
+        }
+    }
+
     /**
      * Removes requests as long as they match - breaks at the first non-matching request or when requests is empty
      * This method must catch all exceptions; or else process() might return without setting processing to true again!
@@ -0,0 +1,244 @@
+package org.jgroups.protocols.relay;
+
+import org.jgroups.Message;
+import org.jgroups.util.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes batches of relayed messages sent over a bridge connection (from a site master to a remote site master) into
+ * compressed frames, and decodes them on the remote side.
+ * <p>
+ * Frames of the same connection form a stream: the compressor keeps its dictionary across frames, so that data
+ * repeated in different messages (e.g. identical headers or similar payloads) is compressed even if the messages are
+ * not in the same batch. In addition, a payload identical to one of the last {@link #NUM_PAYLOADS} payloads sent on the
+ * stream is replaced with a reference to it. This requires frames to be decoded in the order in which they were
+ * encoded, which is the case for regular messages sent over a bridge. Each frame carries the stream's ID and a
+ * sequence number, so that a decoder can detect a missing frame; in this case, the sender is asked to start a new
+ * stream.
+ * <p>
+ * Frame format: stream ID | seqno | uncompressed length | compressed data. The uncompressed data is the number of
+ * messages, followed by the messages (without addresses) and, for messages whose payload was replaced, the index of
+ * the payload.
+ * @author agent
+ * @since  4.0.9
+ */
+public class BridgeCodec {
+    /** Max number of recent payloads a payload is compared to */
+    public static final int  NUM_PAYLOADS=64;
+    /** Payloads smaller than this are always sent in full */
+    public static final int  MIN_PAYLOAD_SIZE=64;
+    /** Max ratio of uncompressed to compressed length of a frame (the max compression ratio of deflate is ~1032:1) */
+    public static final int  MAX_COMPRESSION_RATIO=1032;
+    protected static final byte FULL=0, REF=1;
+
+    protected final Buffer[] payloads=new Buffer[NUM_PAYLOADS]; // ring of recent payloads
+    protected final int[]    hashes=new int[NUM_PAYLOADS];
+    protected int            next;                              // next index into payloads to be written
+    protected long           stream_id;
+    protected long           seqno;                             // seqno of the next frame
+    protected boolean        ended;                             // end() was called; the codec cannot be used anymore
+
+
+    /** Adds a payload to the ring, overwriting the oldest one */
+    protected void add(Buffer payload, int hash) {
+        payloads[next]=payload;
+        hashes[next]=hash;
+        next=(next + 1) % payloads.length;
+    }
+
+    protected void clear(long new_stream_id) {
+        Arrays.fill(payloads, null);
+        next=0;
+        stream_id=new_stream_id;
+        seqno=0;
+    }
+
+    protected static int hash(byte[] buf, int offset, int length) {
+        int h=1;
+        for(int i=offset; i < offset + length; i++)
+            h=31 * h + buf[i];
+        return h;
+    }
+
+
+
+    /**
+     * Encodes batches into frames. Used by a single sender at a time; {@link #end()} may be called concurrently
+     */
+    public static class Encoder extends BridgeCodec {
+        protected final Deflater deflater;
+        protected byte[]         output=new byte[1024];
+        protected int            dedup_hits;
+        protected long           dedup_bytes;
+
+        public Encoder(int compression_level) {
+            deflater=new Deflater(compression_level, false);
+            reset();
+        }
+
+        public int  dedupHits()  {return dedup_hits;}
+        public long dedupBytes() {return dedup_bytes;}
+
+        /** Starts a new stream: the remote decoder will discard its dictionary and payloads */
+        public synchronized void reset() {
+            if(ended)
+                return;
+            deflater.reset();
+            clear(ThreadLocalRandom.current().nextLong());
+        }
+
+        /** Releases the native resources of the deflater. The encoder cannot be used afterwards */
+        public synchronized void end() {
+            if(!ended) {
+                ended=true;
+                deflater.end();
+            }
+        }
+
+        /**
+         * Encodes a batch of messages into a frame
+         * @param batch The messages
+         * @param size The (estimated) size of the messages
+         * @return A tuple of the frame and the uncompressed length of the messages
+         */
+        public synchronized Tuple<Buffer,Integer> encode(List<Message> batch, long size) throws Exception {
+            if(ended)
+                throw new IllegalStateException("encoder has been ended");
+            dedup_hits=0;
+            dedup_bytes=0;
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream((int)size + batch.size() * 8);
+            Bits.writeInt(batch.size(), out);
+            for(Message msg: batch) {
+                int idx=-1, hash=0;
+                if(msg.getLength() >= MIN_PAYLOAD_SIZE) {
+                    hash=hash(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+                    idx=indexOf(msg, hash);
+                }
+                if(idx >= 0) {
+                    out.writeByte(REF);
+                    msg.copy(false, true).writeToNoAddrs(null, out);
+                    Bits.writeInt(idx, out);
+                    dedup_hits++;
+                    dedup_bytes+=msg.getLength();
+                }
+                else {
+                    out.writeByte(FULL);
+                    msg.writeToNoAddrs(null, out);
+                    if(msg.getLength() >= MIN_PAYLOAD_SIZE)
+                        add(new Buffer(msg.getRawBuffer(), msg.getOffset(), msg.getLength()), hash);
+                }
+            }
+
+            int length=out.position();
+            ByteArrayDataOutputStream frame=new ByteArrayDataOutputStream(length / 2 + 32);
+            Bits.writeLong(stream_id, frame);
+            Bits.writeLong(seqno++, frame);
+            Bits.writeInt(length, frame);
+            deflater.setInput(out.buffer(), 0, length);
+            int num;
+            do {
+                num=deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                frame.write(output, 0, num);
+            }
+            while(num == output.length);
+            return new Tuple<>(frame.getBuffer(), length);
+        }
+
+        protected int indexOf(Message msg, int hash) {
+            byte[] buf=msg.getRawBuffer();
+            int offset=msg.getOffset(), length=msg.getLength();
+            for(int i=0; i < payloads.length; i++) {
+                Buffer p=payloads[i];
+                if(p != null && hashes[i] == hash && p.getLength() == length
+                  && equals(p.getBuf(), p.getOffset(), buf, offset, length))
+                    return i;
+            }
+            return -1;
+        }
+
+        protected static boolean equals(byte[] a, int a_off, byte[] b, int b_off, int length) {
+            for(int i=0; i < length; i++)
+                if(a[a_off + i] != b[b_off + i])
+                    return false;
+            return true;
+        }
+    }
+
+
+
+    /** Decodes frames created by an {@link Encoder}. Not thread safe: frames need to be decoded in order */
+    public static class Decoder extends BridgeCodec {
+        protected final Inflater inflater=new Inflater(false);
+
+        public Decoder() {
+            clear(0);
+        }
+
+        /** Releases the native resources of the inflater. The decoder cannot be used afterwards */
+        public synchronized void end() {
+            if(!ended) {
+                ended=true;
+                inflater.end();
+            }
+        }
+
+        /** Decodes a frame into a list of messages. Throws an exception if a frame of the stream is missing */
+        public synchronized List<Message> decode(byte[] buf, int offset, int length) throws Exception {
+            if(ended)
+                throw new IllegalStateException("decoder has been ended");
+            ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+            long id=Bits.readLong(in), frame_seqno=Bits.readLong(in);
+            int uncompressed_length=Bits.readInt(in);
+            long compressed_length=length - (in.position() - offset);
+            if(uncompressed_length < 0 || uncompressed_length > compressed_length * MAX_COMPRESSION_RATIO)
+                throw new DataFormatException(String.format("frame %d of stream %d has an invalid uncompressed length " +
+                                                              "(%d) for %d compressed bytes", frame_seqno, id,
+                                                            uncompressed_length, compressed_length));
+            if(id != stream_id) {
+                if(frame_seqno != 0)
+                    throw new IllegalStateException(String.format("frame %d of stream %d received, but the start of " +
+                                                                    "the stream is missing", frame_seqno, id));
+                inflater.reset();
+                clear(id);
+            }
+            else if(frame_seqno != seqno)
+                throw new IllegalStateException(String.format("expected frame %d of stream %d, but received frame %d",
+                                                              seqno, id, frame_seqno));
+            seqno++;
+
+            byte[] data=new byte[uncompressed_length];
+            inflater.setInput(buf, in.position(), length - (in.position() - offset));
+            int num=0;
+            while(num < uncompressed_length) {
+                int n=inflater.inflate(data, num, uncompressed_length - num);
+                if(n == 0 && inflater.needsInput())
+                    throw new DataFormatException("frame " + frame_seqno + " of stream " + id + " is truncated");
+                num+=n;
+            }
+
+            ByteArrayDataInputStream data_in=new ByteArrayDataInputStream(data);
+            int size=Bits.readInt(data_in);
+            List<Message> retval=new ArrayList<>(size);
+            for(int i=0; i < size; i++) {
+                byte type=data_in.readByte();
+                Message msg=new Message(false);
+                msg.readFrom(data_in);
+                if(type == REF) {
+                    Buffer payload=payloads[Bits.readInt(data_in)];
+                    msg.setBuffer(payload.getBuf(), payload.getOffset(), payload.getLength());
+                }
+                else if(msg.getLength() >= MIN_PAYLOAD_SIZE)
+                    add(new Buffer(msg.getRawBuffer(), msg.getOffset(), msg.getLength()), 0);
+                retval.add(msg);
+            }
+            return retval;
+        }
+    }
+}
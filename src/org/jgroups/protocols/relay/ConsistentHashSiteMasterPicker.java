@@ -0,0 +1,46 @@
+package org.jgroups.protocols.relay;
+
+import org.jgroups.Address;
+import org.jgroups.util.Util;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Picks site masters and routes by consistent (rendezvous) hashing of the original sender: every candidate is
+ * assigned a weight computed from the hashes of the candidate and the sender, and the candidate with the highest
+ * weight is picked. Messages from the same sender are therefore always relayed via the same site master (preserving
+ * per-sender FIFO order), while different senders are spread evenly over all site masters.
+ * <p>
+ * When a site master is added, only the senders for which the new site master has the highest weight move to it;
+ * when a site master is removed, only its senders are moved (evenly) to the remaining site masters. No state needs to
+ * be kept or recomputed on a view change.
+ * @author agent
+ * @since  4.0.9
+ */
+public class ConsistentHashSiteMasterPicker implements SiteMasterPicker {
+
+    public Address pickSiteMaster(List<Address> site_masters, Address original_sender) {
+        return pick(site_masters, Function.identity(), original_sender);
+    }
+
+    public Route pickRoute(String site, List<Route> routes, Address original_sender) {
+        return pick(routes, Route::siteMaster, original_sender);
+    }
+
+    /** Returns the element of list with the highest weight for sender, or null if the list is empty */
+    protected static <T> T pick(List<T> list, Function<T,Address> addr, Address sender) {
+        long sender_hash=Util.hash(sender);
+        T retval=null;
+        long max=0;
+        for(int i=0; i < list.size(); i++) {
+            T el=list.get(i);
+            long weight=Util.mix(sender_hash ^ Util.hash(addr.apply(el)));
+            if(retval == null || weight > max) {
+                retval=el;
+                max=weight;
+            }
+        }
+        return retval;
+    }
+}
@@ -15,9 +15,11 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
+import java.util.zip.Deflater;
 
 /**
  *
@@ -65,9 +67,25 @@ public class RELAY2 extends Protocol {
       "get deprecated soon")
     protected boolean                                  warn_when_ftc_missing;
 
-    @Property(description="Fully qualified name of a class implementing SiteMasterPicker")
+    @Property(description="Fully qualified name of a class implementing SiteMasterPicker. The default picks site " +
+      "masters and routes by consistent hashing of the original sender")
     protected String                                   site_master_picker_impl;
 
+    @Property(description="Max size (in bytes) of a batch of messages relayed to a remote site master as a single " +
+      "message. Messages are only batched when they queue up behind a message currently being relayed, so batching " +
+      "adds no latency. OOB messages are not batched. 0 disables batching. Site masters running a version " +
+      "without batching drop batches, so this needs to be enabled in all sites")
+    protected int                                      max_relay_batch_size;
+
+    @Property(description="If true, batches of messages relayed to a remote site master are compressed. The " +
+      "compression context is kept across batches sent over the same bridge connection, and a payload identical to " +
+      "one sent recently over the same connection is replaced with a reference. Site masters running versions " +
+      "without support for compressed batches cannot read them")
+    protected boolean                                  compress_relayed_messages;
+
+    @Property(description="Compression level (from java.util.zip.Deflater) used when compress_relayed_messages is true")
+    protected int                                      relay_compression_level=Deflater.BEST_SPEED;
+
 
     /* ---------------------------------------------    Fields    ------------------------------------------------ */
 
@@ -116,6 +134,15 @@ public class RELAY2 extends Protocol {
     /** Total time spent relaying messages from the local SiteMaster to remote SiteMasters (in ns) */
     protected final LongAdder                          relayed_time=new LongAdder();
 
+    /** Number of batches (of messages) relayed by the local SiteMaster to a remote SiteMaster */
+    protected final LongAdder                          relayed_batches=new LongAdder();
+
+    /** Number of messages and bytes forwarded to each local site master */
+    protected final Map<Address,SiteMasterStats>       forwarded_to_site_masters=new ConcurrentHashMap<>();
+
+    /** Statistics about compressed batches relayed to (and received from) remote sites, keyed by site name */
+    protected final Map<String,SiteStats>              site_stats=new ConcurrentHashMap<>();
+
     /** Number of messages (received from a remote Sitemaster and) delivered by the local SiteMaster to a local node */
     protected final LongAdder                          forward_to_local_mbr=new LongAdder();
 
@@ -137,6 +164,8 @@ public class RELAY2 extends Protocol {
     public RELAY2 relayMulticasts(boolean flag)        {relay_multicasts=flag;       return this;}
     public RELAY2 asyncRelayCreation(boolean flag)     {async_relay_creation=flag;   return this;}
     public RELAY2 siteMasterPicker(SiteMasterPicker s) {if(s != null) this.site_master_picker=s; return this;}
+    public RELAY2 setMaxRelayBatchSize(int size)       {max_relay_batch_size=size;   return this;}
+    public RELAY2 compressRelayedMessages(boolean b)   {compress_relayed_messages=b; return this;}
 
     public String  site()                              {return site;}
     public List<String> siteNames()                    {return getSites();}
@@ -149,6 +178,11 @@ public class RELAY2 extends Protocol {
     public TimeScheduler getTimer()                    {return timer;}
     public void incrementRelayed()                     {relayed.increment();}
     public void addToRelayedTime(long delta)           {relayed_time.add(delta);}
+    public void incrementRelayedBatches()              {relayed_batches.increment();}
+    public int  getMaxRelayBatchSize()                 {return max_relay_batch_size;}
+    public boolean compressRelayedMessages()           {return compress_relayed_messages;}
+    public int  getRelayCompressionLevel()             {return relay_compression_level;}
+    public SiteStats getSiteStats(String site_name)    {return site_stats.computeIfAbsent(site_name, s -> new SiteStats());}
 
 
     public RouteStatusListener getRouteStatusListener()       {return route_status_listener;}
@@ -175,6 +209,34 @@ public class RELAY2 extends Protocol {
     @ManagedAttribute(description="The average number of messages / s for relaying messages from this SiteMaster to remote SiteMasters")
     public long getAvgMsgsRelaying() {return getTimeRelaying() > 0? (long)(getNumRelayed() / (getTimeRelaying()/1000.0)) : 0;}
 
+    @ManagedAttribute(description="Number of batches of messages sent by this SiteMaster to a remote SiteMaster")
+    public long getNumRelayedBatches() {return relayed_batches.sum();}
+
+    @ManagedOperation(description="Prints the number of messages and bytes forwarded to each local site master and, " +
+      "if this member is a site master, relayed to each remote site master")
+    public String printSiteMasterStats() {
+        StringBuilder sb=new StringBuilder("local site masters:\n");
+        for(Map.Entry<Address,SiteMasterStats> entry: forwarded_to_site_masters.entrySet())
+            sb.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        Relayer tmp=relayer;
+        if(tmp != null) {
+            sb.append("remote site masters:\n");
+            for(Route route: tmp.getAllRoutes())
+                sb.append("  ").append(route).append(": ").append(route.relayStats()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    public Map<Address,SiteMasterStats> getForwardedToSiteMasters() {return forwarded_to_site_masters;}
+
+    @ManagedOperation(description="Prints compression and deduplication statistics of relayed messages per site")
+    public String printSiteStats() {
+        StringBuilder sb=new StringBuilder();
+        for(Map.Entry<String,SiteStats> entry: site_stats.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        return sb.toString();
+    }
+
 
 
     @ManagedAttribute(description="Number of messages (received from a remote Sitemaster and) delivered " +
@@ -211,6 +273,12 @@ public class RELAY2 extends Protocol {
         forward_sm_time.reset();
         relayed.reset();
         relayed_time.reset();
+        relayed_batches.reset();
+        site_stats.clear();
+        forwarded_to_site_masters.clear();
+        Relayer tmp=relayer;
+        if(tmp != null)
+            tmp.getAllRoutes().forEach(r -> r.relayStats().reset());
         forward_to_local_mbr.reset();
         forward_to_local_mbr_time.reset();
         local_deliveries.reset();
@@ -237,17 +305,8 @@ public class RELAY2 extends Protocol {
         super.init();
         configure();
 
-        if(site_master_picker == null) {
-            site_master_picker=new SiteMasterPicker() {
-                public Address pickSiteMaster(List<Address> site_masters, Address original_sender) {
-                    return Util.pickRandomElement(site_masters);
-                }
-
-                public Route pickRoute(String site, List<Route> routes, Address original_sender) {
-                    return Util.pickRandomElement(routes);
-                }
-            };
-        }
+        if(site_master_picker == null)
+            site_master_picker=new ConsistentHashSiteMasterPicker();
     }
 
     public void configure() throws Exception {
@@ -407,6 +466,7 @@ public class RELAY2 extends Protocol {
             if(stats) {
                 forward_sm_time.add(System.nanoTime() - start);
                 forward_to_site_master.increment();
+                forwarded_to_site_masters.computeIfAbsent(site_master, k -> new SiteMasterStats()).add(msg.getLength());
             }
         }
         else
@@ -510,6 +570,39 @@ public class RELAY2 extends Protocol {
 
 
 
+    /**
+     * Called to handle a batch of messages received by the relayer. Consecutive messages from the same sender to
+     * this member are passed up as a {@link MessageBatch}, other messages are handled individually, in order
+     */
+    protected void handleRelayBatch(List<Message> msgs) {
+        MessageBatch batch=null;
+        for(Message m: msgs) {
+            Relay2Header hdr=m.getHeader(id);
+            if(hdr == null) {
+                log.warn("%s: received a message without a relay header in a batch; discarding it", local_addr);
+                continue;
+            }
+            SiteAddress dest=(SiteAddress)hdr.final_dest;
+            if(hdr.type == Relay2Header.DATA && dest != null && !can_forward_local_cluster && isLocalDestination(dest)) {
+                Address sender=hdr.original_sender;
+                if(batch != null && !(Objects.equals(batch.sender(), sender) && Objects.equals(batch.dest(), dest))) {
+                    deliver(batch);
+                    batch=null;
+                }
+                if(batch == null)
+                    batch=new MessageBatch(dest, sender, getTransport().getClusterNameAscii(), false,
+                                           MessageBatch.Mode.REG, msgs.size());
+                batch.add(copy(m).dest(dest).src(sender));
+            }
+            else {
+                deliver(batch);
+                batch=null;
+                handleRelayMessage(hdr, m);
+            }
+        }
+        deliver(batch);
+    }
+
     /** Called to handle a message received by the transport */
     protected void handleMessage(Relay2Header hdr, Message msg) {
         switch(hdr.type) {
@@ -653,6 +746,30 @@ public class RELAY2 extends Protocol {
         }
     }
 
+    protected void deliver(MessageBatch batch) {
+        if(batch == null || batch.isEmpty())
+            return;
+        try {
+            if(log.isTraceEnabled())
+                log.trace(local_addr + ": delivering batch of " + batch.size() + " messages from " + batch.sender());
+            long start=stats? System.nanoTime() : 0;
+            int size=batch.size();
+            up_prot.up(batch);
+            if(stats) {
+                local_delivery_time.add(System.nanoTime() - start);
+                local_deliveries.add(size);
+            }
+        }
+        catch(Exception e) {
+            log.error(Util.getMessage("FailedDeliveringMessage"), e);
+        }
+    }
+
+    /** Returns true if a message to dest is delivered to this member */
+    protected boolean isLocalDestination(SiteAddress dest) {
+        return dest.getSite().equals(site) && (local_addr.equals(dest) || (dest instanceof SiteMaster && is_site_master));
+    }
+
     /** Copies the message, but only the headers above the current protocol (RELAY) (or RpcDispatcher related headers) */
     protected Message copy(Message msg) {
         return msg.copy(true, Global.BLOCKS_START_ID, this.prots_above);
@@ -662,6 +779,7 @@ public class RELAY2 extends Protocol {
 
     public void handleView(View view) {
         members=view.getMembers(); // First, save the members for routing received messages to local members
+        forwarded_to_site_masters.keySet().retainAll(members);
 
         List<Address> old_site_masters=site_masters;
         List<Address> new_site_masters=determineSiteMasters(view);
@@ -742,10 +860,80 @@ public class RELAY2 extends Protocol {
 
 
 
+    /** Number of messages and bytes relayed via a given site master */
+    public static class SiteMasterStats {
+        protected final LongAdder msgs=new LongAdder();
+        protected final LongAdder bytes=new LongAdder();
+
+        public long messages() {return msgs.sum();}
+        public long bytes()    {return bytes.sum();}
+
+        protected void add(int length) {
+            msgs.increment();
+            bytes.add(length);
+        }
+
+        protected void reset() {
+            msgs.reset();
+            bytes.reset();
+        }
+
+        public String toString() {
+            return String.format("%d msgs (%s)", messages(), Util.printBytes(bytes()));
+        }
+    }
+
+    /** Statistics about compressed batches of messages relayed to and received from a given site */
+    public static class SiteStats {
+        /** Size of the messages relayed to the site (before compression) */
+        protected final LongAdder relayed_bytes=new LongAdder();
+        /** Size of the (compressed) batches sent to the site */
+        protected final LongAdder sent_bytes=new LongAdder();
+        protected final LongAdder compression_time=new LongAdder();   // ns
+        protected final LongAdder decompression_time=new LongAdder(); // ns, batches received from the site
+        /** Number of payloads that were not sent, as they had been sent to the site recently */
+        protected final LongAdder dedup_hits=new LongAdder();
+        protected final LongAdder dedup_bytes=new LongAdder();
+
+        public long relayedBytes()      {return relayed_bytes.sum();}
+        public long sentBytes()         {return sent_bytes.sum();}
+        public long savedBytes()        {return relayed_bytes.sum() + dedup_bytes.sum() - sent_bytes.sum();}
+        public long compressionTime()   {return compression_time.sum();}
+        public long decompressionTime() {return decompression_time.sum();}
+        public long dedupHits()         {return dedup_hits.sum();}
+        public long dedupBytes()        {return dedup_bytes.sum();}
+
+        protected void addCompressed(int relayed, int sent, long time, int hits, long dedup_size) {
+            relayed_bytes.add(relayed);
+            sent_bytes.add(sent);
+            compression_time.add(time);
+            if(hits > 0) {
+                dedup_hits.add(hits);
+                dedup_bytes.add(dedup_size);
+            }
+        }
+
+        protected void addDecompressed(long time) {
+            decompression_time.add(time);
+        }
+
+        public String toString() {
+            long relayed=relayedBytes() + dedupBytes();
+            return String.format("relayed=%s, sent=%s (saved %.1f%%), dedup'ed payloads=%d (%s), compression time=%d ms, " +
+                                   "decompression time=%d ms", Util.printBytes(relayed), Util.printBytes(sentBytes()),
+                                 relayed > 0? savedBytes() * 100.0 / relayed : 0.0, dedupHits(), Util.printBytes(dedupBytes()),
+                                 TimeUnit.NANOSECONDS.toMillis(compressionTime()), TimeUnit.NANOSECONDS.toMillis(decompressionTime()));
+        }
+    }
+
+
     public static class Relay2Header extends Header {
         public static final byte DATA             = 1;
         public static final byte SITE_UNREACHABLE = 2; // final_dest is a SiteMaster
         public static final byte HOST_UNREACHABLE = 3; // final_dest is a SiteUUID (not currently used)
+        public static final byte BATCH            = 4; // the payload is a batch of relayed messages
+        public static final byte COMPRESSED_BATCH = 5; // the payload is a compressed batch (BridgeCodec)
+        public static final byte RESET_STREAM     = 6; // asks the sender of compressed batches to start a new stream
 
         protected byte    type;
         protected Address final_dest;
@@ -788,6 +976,9 @@ public class RELAY2 extends Protocol {
                 case DATA:             return "DATA";
                 case SITE_UNREACHABLE: return "SITE_UNREACHABLE";
                 case HOST_UNREACHABLE: return "HOST_UNREACHABLE";
+                case BATCH:            return "BATCH";
+                case COMPRESSED_BATCH: return "COMPRESSED_BATCH";
+                case RESET_STREAM:     return "RESET_STREAM";
                 default:               return "<unknown>";
             }
         }
@@ -100,6 +100,7 @@ public class Relayer {
         done=true;
         bridges.forEach(Bridge::stop);
         bridges.clear();
+        getAllRoutes().forEach(Route::close);
     }
 
 
@@ -143,6 +144,13 @@ public class Relayer {
         return retval;
     }
 
+    /** Returns all routes, including multiple routes to the same site */
+    protected synchronized List<Route> getAllRoutes() {
+        List<Route> retval=new ArrayList<>();
+        routes.values().forEach(retval::addAll);
+        return retval;
+    }
+
     protected View getBridgeView(String cluster_name) {
         if(cluster_name == null || bridges == null)
             return null;
@@ -172,6 +180,8 @@ public class Relayer {
         protected JChannel     channel;
         protected final String cluster_name;
         protected View         view;
+        /** Decoders for compressed batches, one per remote site master */
+        protected final Map<Address,BridgeCodec.Decoder> decoders=new ConcurrentHashMap<>();
 
         protected Bridge(final JChannel ch, final String cluster_name, String channel_name, AddressGenerator addr_generator) throws Exception {
             this.channel=ch;
@@ -189,6 +199,8 @@ public class Relayer {
         protected void stop() {
             log.info("%s: leaving bridge cluster '%s'", channel.getAddress(), channel.getClusterName());
             Util.close(channel);
+            decoders.values().forEach(BridgeCodec.Decoder::end);
+            decoders.clear();
         }
 
         public void receive(Message msg) {
@@ -197,7 +209,58 @@ public class Relayer {
                 log.warn("received a message without a relay header; discarding it");
                 return;
             }
-            relay.handleRelayMessage(hdr, msg);
+            switch(hdr.type) {
+                case RELAY2.Relay2Header.BATCH:
+                case RELAY2.Relay2Header.COMPRESSED_BATCH:
+                    List<Message> batch=readBatch(hdr, msg);
+                    if(batch != null)
+                        relay.handleRelayBatch(batch);
+                    break;
+                case RELAY2.Relay2Header.RESET_STREAM:
+                    List<Route> list=routes.get(((SiteAddress)msg.src()).getSite());
+                    if(list != null)
+                        list.stream().filter(r -> r.siteMaster().equals(msg.src())).forEach(Route::resetStream);
+                    break;
+                default:
+                    relay.handleRelayMessage(hdr, msg);
+                    break;
+            }
+        }
+
+        /**
+         * Reads the messages of a batch. If a compressed batch cannot be decoded (e.g. because a previous batch was
+         * lost), the sender is asked to start a new stream
+         */
+        protected List<Message> readBatch(RELAY2.Relay2Header hdr, Message msg) {
+            if(hdr.type == RELAY2.Relay2Header.BATCH) {
+                try {
+                    return Route.readBatch(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+                }
+                catch(Exception ex) {
+                    log.error("%s: failed reading batch of relayed messages from %s: %s", channel.getAddress(), msg.src(), ex);
+                    return null;
+                }
+            }
+            BridgeCodec.Decoder decoder=decoders.computeIfAbsent(msg.src(), k -> new BridgeCodec.Decoder());
+            long start=stats? System.nanoTime() : 0;
+            try {
+                List<Message> retval=decoder.decode(msg.getRawBuffer(), msg.getOffset(), msg.getLength());
+                if(stats)
+                    relay.getSiteStats(((SiteAddress)msg.src()).getSite()).addDecompressed(System.nanoTime() - start);
+                return retval;
+            }
+            catch(Exception ex) {
+                log.error("%s: failed decoding batch of relayed messages from %s; asking it to start a new stream: %s",
+                          channel.getAddress(), msg.src(), ex);
+                try {
+                    channel.send(new Message(msg.src()).setFlag(Message.Flag.OOB)
+                                   .putHeader(relay.getId(), new RELAY2.Relay2Header(RELAY2.Relay2Header.RESET_STREAM, null, null)));
+                }
+                catch(Exception e) {
+                    log.error("%s: failed sending RESET_STREAM to %s: %s", channel.getAddress(), msg.src(), e);
+                }
+                return null;
+            }
         }
 
         /** The view contains a list of SiteUUIDs. Adjust the routing table based on the SiteUUIDs UUID and site
@@ -205,6 +268,13 @@ public class Relayer {
         public void viewAccepted(View new_view) {
             this.view=new_view;
             log.trace("[Relayer " + channel.getAddress() + "] view: " + new_view);
+            for(Iterator<Map.Entry<Address,BridgeCodec.Decoder>> it=decoders.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Address,BridgeCodec.Decoder> entry=it.next();
+                if(!new_view.containsMember(entry.getKey())) {
+                    it.remove();
+                    entry.getValue().end();
+                }
+            }
 
             RouteStatusListener       listener=relay.getRouteStatusListener();
             Map<String,List<Address>> tmp=extract(new_view);
@@ -214,7 +284,14 @@ public class Relayer {
             if(listener != null)
                 down.removeAll(tmp.keySet());
 
-            routes.keySet().retainAll(tmp.keySet()); // remove all sites which are not in the view
+            // remove all sites which are not in the view
+            for(Iterator<Map.Entry<String,List<Route>>> it=routes.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String,List<Route>> entry=it.next();
+                if(!tmp.containsKey(entry.getKey())) {
+                    it.remove();
+                    entry.getValue().forEach(Route::close);
+                }
+            }
 
             for(Map.Entry<String,List<Address>> entry: tmp.entrySet()) {
                 String key=entry.getKey();
@@ -230,8 +307,10 @@ public class Relayer {
                 // Remove routes not in the view anymore:
                 for(Iterator<Route> it=list.iterator(); it.hasNext();) {
                     Route route=it.next();
-                    if(!val.contains(route.siteMaster()))
+                    if(!val.contains(route.siteMaster())) {
                         it.remove();
+                        route.close();
+                    }
                 }
 
                 // Add routes that aren't yet in the routing table:
@@ -5,11 +5,24 @@ import org.jgroups.Address;
 import org.jgroups.JChannel;
 import org.jgroups.Message;
 import org.jgroups.logging.Log;
-import org.jgroups.util.Util;
+import org.jgroups.util.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Class which maintains the destination address for sending messages to a given site, and the bridge channel to do so.
+ * <p>
+ * Regular messages which queue up while a message is being sent to the site master are sent as a single message
+ * (batch) by the thread sending the current message. Since only one thread sends at any given time, and messages are
+ * sent in the order in which they were queued, the order of messages from the same sender is preserved.
+ * <p>
+ * If {@link RELAY2#compress_relayed_messages} is true, batches (including batches of 1 message) are compressed by a
+ * {@link BridgeCodec.Encoder}, which is only used by the sending thread.
  * @author Bela Ban
  * @since  3.x
  */
@@ -20,6 +33,12 @@ public class Route implements Comparable<Route> {
     protected final RELAY2   relay;
     protected final Log      log;
     protected boolean        stats=true;
+    protected final RELAY2.SiteMasterStats relay_stats=new RELAY2.SiteMasterStats(); // msgs/bytes relayed via this route
+    protected final Queue<Message> queue=new ConcurrentLinkedQueue<>(); // messages to be sent in the next batch
+    protected final AtomicInteger  queued=new AtomicInteger();           // number of queued messages (not yet sent)
+    protected BridgeCodec.Encoder  encoder;                              // created on the first compressed batch
+    protected volatile boolean     reset_stream;                         // set when the remote site master missed a frame
+    protected boolean              closed;                               // the route was removed, or the relayer stopped
 
     public Route(Address site_master, JChannel bridge, RELAY2 relay, Log log) {
         this.site_master=site_master;
@@ -32,6 +51,7 @@ public class Route implements Comparable<Route> {
     public Address  siteMaster()     {return site_master;}
     public boolean  stats()          {return stats;}
     public Route    stats(boolean f) {stats=f; return this;}
+    public RELAY2.SiteMasterStats relayStats() {return relay_stats;}
 
     public void send(Address final_destination, Address original_sender, final Message msg) {
         if(log.isTraceEnabled())
@@ -39,10 +59,14 @@ public class Route implements Comparable<Route> {
         long start=stats? System.nanoTime() : 0;
         try {
             Message copy=createMessage(site_master, final_destination, original_sender, msg);
-            bridge.send(copy);
+            if((relay.getMaxRelayBatchSize() <= 0 && !relay.compressRelayedMessages()) || copy.isFlagSet(Message.Flag.OOB))
+                bridge.send(copy);
+            else
+                sendBatched(copy);
             if(stats) {
                 relay.addToRelayedTime(System.nanoTime() - start);
                 relay.incrementRelayed();
+                relay_stats.add(msg.getLength());
             }
         }
         catch(Exception e) {
@@ -50,6 +74,109 @@ public class Route implements Comparable<Route> {
         }
     }
 
+    /**
+     * Queues msg. If no other thread is currently sending, sends the queued messages in batches of at most
+     * max_relay_batch_size bytes, until the queue is empty
+     */
+    protected void sendBatched(Message msg) throws Exception {
+        queue.add(msg);
+        if(queued.getAndIncrement() != 0) // another thread is sending; it will also send msg
+            return;
+        List<Message> batch=new ArrayList<>();
+        int max_size=relay.getMaxRelayBatchSize();
+        do {
+            long size=0;
+            Message m;
+            while((m=queue.peek()) != null && (batch.isEmpty() || size + m.size() <= max_size)) {
+                batch.add(queue.poll());
+                size+=m.size();
+            }
+            if(batch.isEmpty()) // possible if the messages of concurrent senders were already sent
+                break;
+            try {
+                sendBatch(batch, size);
+            }
+            catch(Exception e) {
+                log.error(Util.getMessage("FailureRelayingMessage"), e);
+                if(encoder != null) // the remote site master may not have received the frame: start a new stream
+                    encoder.reset();
+            }
+            int num=batch.size();
+            batch.clear();
+            if(queued.addAndGet(-num) <= 0)
+                break;
+        }
+        while(true);
+    }
+
+    /** Releases the resources of the encoder. Called when the route is removed or the relayer is stopped */
+    protected synchronized void close() {
+        closed=true;
+        if(encoder != null)
+            encoder.end();
+    }
+
+    /** Causes the next batch to start a new compression stream */
+    protected void resetStream() {
+        reset_stream=true;
+    }
+
+    protected void sendBatch(List<Message> batch, long size) throws Exception {
+        if(relay.compressRelayedMessages()) {
+            sendCompressedBatch(batch, size);
+            return;
+        }
+        if(batch.size() == 1) {
+            bridge.send(batch.get(0));
+            return;
+        }
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream((int)size + batch.size() * 8);
+        Bits.writeInt(batch.size(), out);
+        for(Message m: batch)
+            m.writeToNoAddrs(null, out);
+        Message msg=new Message(site_master, out.buffer(), 0, out.position())
+          .putHeader(relay.getId(), new RELAY2.Relay2Header(RELAY2.Relay2Header.BATCH, null, null));
+        bridge.send(msg);
+        relay.incrementRelayedBatches();
+    }
+
+    protected void sendCompressedBatch(List<Message> batch, long size) throws Exception {
+        synchronized(this) {
+            if(closed)
+                throw new IllegalStateException("route to " + site_master + " has been closed");
+            if(encoder == null)
+                encoder=new BridgeCodec.Encoder(relay.getRelayCompressionLevel());
+        }
+        if(reset_stream) {
+            reset_stream=false;
+            encoder.reset();
+        }
+        long start=stats? System.nanoTime() : 0;
+        Tuple<Buffer,Integer> frame=encoder.encode(batch, size);
+        long time=stats? System.nanoTime() - start : 0;
+        Message msg=new Message(site_master, frame.getVal1())
+          .putHeader(relay.getId(), new RELAY2.Relay2Header(RELAY2.Relay2Header.COMPRESSED_BATCH, null, null));
+        bridge.send(msg);
+        if(batch.size() > 1)
+            relay.incrementRelayedBatches();
+        if(stats)
+            relay.getSiteStats(((SiteAddress)site_master).getSite())
+              .addCompressed(frame.getVal2(), frame.getVal1().getLength(), time, encoder.dedupHits(), encoder.dedupBytes());
+    }
+
+    /** Reads the messages of a batch created by {@link #sendBatch(List,long)} */
+    protected static List<Message> readBatch(byte[] buf, int offset, int length) throws Exception {
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(buf, offset, length);
+        int num=Bits.readInt(in);
+        List<Message> retval=new ArrayList<>(num);
+        for(int i=0; i < num; i++) {
+            Message msg=new Message(false);
+            msg.readFrom(in);
+            retval.add(msg);
+        }
+        return retval;
+    }
+
     public int compareTo(Route o) {
         return site_master.compareTo(o.siteMaster());
     }
@@ -1,51 +1,50 @@
 package org.jgroups.protocols.tom;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 
 import org.jgroups.Address;
 import org.jgroups.Message;
 import org.jgroups.View;
 import org.jgroups.annotations.GuardedBy;
+import org.jgroups.util.LongMap;
 
 /**
  * The implementation of the Delivery Manager
+ * <p/>
+ * The pending messages are kept in a binary heap ordered by sequence number, in which a message is moved when its
+ * final sequence number is known. Messages waiting for their final sequence number are looked up by the (primitive)
+ * id of their {@link MessageID}, in a map per sender. This avoids the entries of a sorted set and boxed keys when a
+ * message is added, moved or delivered; the message, its header and (for an anycast) its destinations are still
+ * allocated per message.
  *
  * @author Pedro Ruivo
  * @since 3.1
  */
 public class DeliveryManagerImpl implements DeliveryManager {
     @GuardedBy("deliverySet")
-    private final SortedSet<MessageInfo> deliverySet = new TreeSet<>();
-    private final ConcurrentMap<MessageID, MessageInfo> messageCache = new ConcurrentHashMap<>();
+    private final DeliveryQueue deliverySet = new DeliveryQueue();
+    @GuardedBy("deliverySet")
+    private final Map<Address, LongMap<MessageInfo>> messageCache = new HashMap<>();
     @GuardedBy("deliverySet")
     private final SequenceNumberManager sequenceNumberManager = new SequenceNumberManager();
     @GuardedBy("deliverySet")
     private final Set<Address> currentView = new HashSet<>();
 
     public final void handleView(View newView) {
-        List<MessageInfo> toRemove = new LinkedList<>();
         synchronized (deliverySet) {
             updateMembers(newView);
-            deliverySet.stream()
-                  .filter(this::shouldRemove)
-                  .forEach(toRemove::add);
-
-            deliverySet.removeAll(toRemove);
+            deliverySet.removeIf(this::shouldRemove);
+            // only messages which are not ready to deliver are cached, and those of leavers have just been removed
+            messageCache.keySet().retainAll(currentView);
             notifyIfNeeded();
         }
-        for (MessageInfo removed : toRemove) {
-            messageCache.remove(removed.messageID);
-        }
     }
 
     long addLocalMessageToDeliver(MessageID messageID, Message message, ToaHeader header) {
@@ -53,27 +52,31 @@ public class DeliveryManagerImpl implements DeliveryManager {
         long sequenceNumber;
         synchronized (deliverySet) {
             sequenceNumber = sequenceNumberManager.getAndIncrement();
-            messageInfo = new MessageInfo(messageID, message, sequenceNumber);
+            messageInfo = new MessageInfo(messageID, message.copy(true, true), sequenceNumber, -1);
             deliverySet.add(messageInfo);
+            addToCache(messageInfo);
         }
         header.setSequencerNumber(sequenceNumber);
-        messageCache.put(messageID, messageInfo);
         return sequenceNumber;
     }
 
-    long addRemoteMessageToDeliver(MessageID messageID, Message message, long remoteSequenceNumber) {
-        MessageInfo messageInfo;
-        long sequenceNumber;
+    /**
+     * Adds a message received from another member and returns the proposed sequence number, or -1 if the sender is
+     * not a member
+     *
+     * @param timestamp the time at which the message was received (used for statistics), or -1
+     */
+    long addRemoteMessageToDeliver(MessageID messageID, Message message, long remoteSequenceNumber, long timestamp) {
         synchronized (deliverySet) {
             if (!currentView.contains(message.getSrc())) {
                 return -1;
             }
-            sequenceNumber = sequenceNumberManager.updateAndGet(remoteSequenceNumber);
-            messageInfo = new MessageInfo(messageID, message, sequenceNumber);
+            long sequenceNumber = sequenceNumberManager.updateAndGet(remoteSequenceNumber);
+            MessageInfo messageInfo = new MessageInfo(messageID, message, sequenceNumber, timestamp);
             deliverySet.add(messageInfo);
+            addToCache(messageInfo);
+            return sequenceNumber;
         }
-        messageCache.put(messageID, messageInfo);
-        return sequenceNumber;
     }
 
     void updateSequenceNumber(long sequenceNumber) {
@@ -87,9 +90,24 @@ public class DeliveryManagerImpl implements DeliveryManager {
      *
      * @param messageID           the message ID
      * @param finalSequenceNumber the final sequence number
+     * @return the timestamp passed to {@link #addRemoteMessageToDeliver(MessageID, Message, long, long)}, or -1
      */
-    void markReadyToDeliver(MessageID messageID, long finalSequenceNumber) {
-        markReadyToDeliverV2(messageID, finalSequenceNumber);
+    long markReadyToDeliver(MessageID messageID, long finalSequenceNumber) {
+        synchronized (deliverySet) {
+            MessageInfo messageInfo = removeFromCache(messageID);
+            if (messageInfo == null) {
+                throw new IllegalStateException("Message ID not found in to deliver list. this can't happen. " +
+                        "Message ID is " + messageID);
+            }
+            boolean needsUpdatePosition = messageInfo.isUpdatePositionNeeded(finalSequenceNumber);
+            sequenceNumberManager.update(finalSequenceNumber);
+            messageInfo.updateAndMarkReadyToDeliver(finalSequenceNumber);
+            if (needsUpdatePosition) {
+                deliverySet.update(messageInfo);
+            }
+            notifyIfNeeded();
+            return messageInfo.timestamp;
+        }
     }
 
     /**
@@ -100,45 +118,23 @@ public class DeliveryManagerImpl implements DeliveryManager {
     void deliverSingleDestinationMessage(Message msg, MessageID messageID) {
         synchronized (deliverySet) {
             long sequenceNumber = sequenceNumberManager.get();
-            MessageInfo messageInfo = new MessageInfo(messageID, msg, sequenceNumber);
+            MessageInfo messageInfo = new MessageInfo(messageID, msg, sequenceNumber, -1);
             messageInfo.updateAndMarkReadyToDeliver(sequenceNumber);
             deliverySet.add(messageInfo);
             notifyIfNeeded();
         }
     }
 
-    /**
-     * It is used for testing (see the messages in JMX)
-     *
-     * @return unmodifiable set of messages
-     */
-    Set<MessageInfo> getMessageSet() {
-        synchronized (deliverySet) {
-            return Collections.unmodifiableSet(deliverySet);
-        }
+    @GuardedBy("deliverySet")
+    private void addToCache(MessageInfo messageInfo) {
+        MessageID messageID = messageInfo.messageID;
+        messageCache.computeIfAbsent(messageID.getAddress(), k -> new LongMap<>()).put(messageID.getId(), messageInfo);
     }
 
-    private void markReadyToDeliverV2(MessageID messageID, long finalSequenceNumber) {
-        MessageInfo messageInfo = messageCache.remove(messageID);
-
-        if (messageInfo == null) {
-            throw new IllegalStateException("Message ID not found in to deliver list. this can't happen. " +
-                    "Message ID is " + messageID);
-        }
-
-        boolean needsUpdatePosition = messageInfo.isUpdatePositionNeeded(finalSequenceNumber);
-
-        synchronized (deliverySet) {
-            sequenceNumberManager.update(finalSequenceNumber);
-            if (needsUpdatePosition) {
-                deliverySet.remove(messageInfo);
-                messageInfo.updateAndMarkReadyToDeliver(finalSequenceNumber);
-                deliverySet.add(messageInfo);
-            } else {
-                messageInfo.updateAndMarkReadyToDeliver(finalSequenceNumber);
-            }
-            notifyIfNeeded();
-        }
+    @GuardedBy("deliverySet")
+    private MessageInfo removeFromCache(MessageID messageID) {
+        LongMap<MessageInfo> messages = messageCache.get(messageID.getAddress());
+        return messages != null ? messages.remove(messageID.getId()) : null;
     }
 
     @GuardedBy("deliverySet")
@@ -150,30 +146,26 @@ public class DeliveryManagerImpl implements DeliveryManager {
     //see the interface javadoc
     @Override
     public List<Message> getNextMessagesToDeliver() throws InterruptedException {
-        LinkedList<Message> toDeliver = new LinkedList<>();
+        List<Message> toDeliver = new ArrayList<>();
         synchronized (deliverySet) {
-            while (deliverySet.isEmpty() || !deliverySet.first().isReadyToDeliver()) {
+            while (deliverySet.isEmpty() || !deliverySet.peek().isReadyToDeliver()) {
                 deliverySet.wait();
             }
-
-            Iterator<MessageInfo> iterator = deliverySet.iterator();
-
-            while (iterator.hasNext()) {
-                MessageInfo messageInfo = iterator.next();
-                if (messageInfo.isReadyToDeliver()) {
-                    toDeliver.add(messageInfo.getMessage());
-                    iterator.remove();
-                } else {
-                    break;
-                }
+            while (!deliverySet.isEmpty() && deliverySet.peek().isReadyToDeliver()) {
+                toDeliver.add(deliverySet.poll().getMessage());
             }
         }
         return toDeliver;
     }
 
+    /**
+     * It is used for testing (see the messages in JMX)
+     *
+     * @return the pending messages, ordered by sequence number
+     */
     public List<MessageInfo> getAllMessages() {
         synchronized (deliverySet) {
-            return new ArrayList<>(deliverySet);
+            return deliverySet.toList();
         }
     }
 
@@ -201,7 +193,7 @@ public class DeliveryManagerImpl implements DeliveryManager {
 
     @GuardedBy("deliverySet")
     private void notifyIfNeeded() {
-        if (!deliverySet.isEmpty() && deliverySet.first().isReadyToDeliver()) {
+        if (!deliverySet.isEmpty() && deliverySet.peek().isReadyToDeliver()) {
             deliverySet.notify();
         }
     }
@@ -213,16 +205,19 @@ public class DeliveryManagerImpl implements DeliveryManager {
 
         private final MessageID messageID;
         private final Message message;
+        private final long timestamp;
         private volatile long sequenceNumber;
         private volatile boolean readyToDeliver;
+        private int index = -1; // the position in the delivery queue, -1 if not in the queue
 
-        MessageInfo(MessageID messageID, Message message, long sequenceNumber) {
+        MessageInfo(MessageID messageID, Message message, long sequenceNumber, long timestamp) {
             if (messageID == null) {
                 throw new NullPointerException("Message ID can't be null");
             }
             this.messageID = messageID;
-            this.message = message.copy(true, true);
+            this.message = message;
             this.sequenceNumber = sequenceNumber;
+            this.timestamp = timestamp;
             this.readyToDeliver = false;
             this.message.setSrc(messageID.getAddress());
         }
@@ -282,7 +277,7 @@ public class DeliveryManagerImpl implements DeliveryManager {
                     '}';
         }
 
-        private void updateAndMarkReadyToDeliver(long finalSequenceNumber) {
+        void updateAndMarkReadyToDeliver(long finalSequenceNumber) {
             this.readyToDeliver = true;
             this.sequenceNumber = finalSequenceNumber;
         }
@@ -299,4 +294,123 @@ public class DeliveryManagerImpl implements DeliveryManager {
             return sequenceNumber < o.sequenceNumber ? -1 : sequenceNumber == o.sequenceNumber ? sameId : 1;
         }
     }
+
+    /**
+     * A binary min-heap of messages, ordered by {@link MessageInfo#compareTo(MessageInfo)}. Every message knows its
+     * position in the heap, so that it can be moved when its sequence number changes. Not thread safe.
+     */
+    static final class DeliveryQueue {
+        private MessageInfo[] heap = new MessageInfo[16];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        MessageInfo peek() {
+            return size == 0 ? null : heap[0];
+        }
+
+        void add(MessageInfo messageInfo) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            set(size++, messageInfo);
+            siftUp(messageInfo.index);
+        }
+
+        MessageInfo poll() {
+            if (size == 0) {
+                return null;
+            }
+            MessageInfo first = heap[0];
+            first.index = -1;
+            MessageInfo last = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                set(0, last);
+                siftDown(0);
+            }
+            return first;
+        }
+
+        /** Moves a message whose sequence number changed to its new position */
+        void update(MessageInfo messageInfo) {
+            int index = messageInfo.index;
+            if (index >= 0) {
+                siftUp(index);
+                siftDown(messageInfo.index);
+            }
+        }
+
+        void removeIf(Predicate<MessageInfo> filter) {
+            int j = 0;
+            for (int i = 0; i < size; ++i) {
+                MessageInfo messageInfo = heap[i];
+                if (filter.test(messageInfo)) {
+                    messageInfo.index = -1;
+                } else {
+                    set(j++, messageInfo);
+                }
+            }
+            if (j == size) {
+                return;
+            }
+            Arrays.fill(heap, j, size, null);
+            size = j;
+            for (int i = size / 2 - 1; i >= 0; --i) {
+                siftDown(i);
+            }
+        }
+
+        List<MessageInfo> toList() {
+            MessageInfo[] copy = Arrays.copyOf(heap, size);
+            Arrays.sort(copy);
+            return new ArrayList<>(Arrays.asList(copy));
+        }
+
+        void clear() {
+            for (int i = 0; i < size; ++i) {
+                heap[i].index = -1;
+            }
+            Arrays.fill(heap, 0, size, null);
+            size = 0;
+        }
+
+        private void set(int index, MessageInfo messageInfo) {
+            heap[index] = messageInfo;
+            messageInfo.index = index;
+        }
+
+        private void siftUp(int index) {
+            MessageInfo messageInfo = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (heap[parent].compareTo(messageInfo) <= 0) {
+                    break;
+                }
+                set(index, heap[parent]);
+                index = parent;
+            }
+            set(index, messageInfo);
+        }
+
+        private void siftDown(int index) {
+            MessageInfo messageInfo = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int child = 2 * index + 1;
+                int right = child + 1;
+                if (right < size && heap[right].compareTo(heap[child]) < 0) {
+                    child = right;
+                }
+                if (messageInfo.compareTo(heap[child]) <= 0) {
+                    break;
+                }
+                set(index, heap[child]);
+                index = child;
+            }
+            set(index, messageInfo);
+        }
+    }
 }
@@ -43,6 +43,10 @@ public class MessageID implements Comparable<MessageID>, Cloneable, SizeStreamab
         return address;
     }
 
+    public long getId() {
+        return id;
+    }
+
     @Override
     public String toString() {
         return "MessageID{" + address + ":" + id + "}";
@@ -1,13 +1,15 @@
 package org.jgroups.protocols.tom;
 
 import org.jgroups.Address;
+import org.jgroups.annotations.GuardedBy;
+import org.jgroups.util.LongMap;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Keeps track of all sent messages, until the final sequence number is known
+ * <p/>
+ * As all the messages are sent by this member, they are looked up by the (primitive) id of their {@link MessageID}.
  *
  * @author Pedro Ruivo
  * @since 3.1
@@ -16,7 +18,8 @@ public class SenderManager {
 
     public static final long NOT_READY = -1;
 
-    private final ConcurrentMap<MessageID, MessageInfo> sentMessages = new ConcurrentHashMap<>();
+    @GuardedBy("sentMessages")
+    private final LongMap<MessageInfo> sentMessages = new LongMap<>();
 
     /**
      * Add a new message sent
@@ -24,14 +27,18 @@ public class SenderManager {
      * @param destinations          the destination set
      * @param initialSequenceNumber the initial sequence number
      * @param deliverToMyself       true if *this* member is in destination sent, false otherwise
+     * @param startTime             the time at which the message was sent (used for statistics), or -1
      */
     public void addNewMessageToSend(MessageID messageID, Collection<Address> destinations, long initialSequenceNumber,
-                                    boolean deliverToMyself) {
-        MessageInfo messageInfo = new MessageInfo(destinations, initialSequenceNumber, deliverToMyself);
+                                    boolean deliverToMyself, long startTime) {
+        MessageInfo messageInfo = new MessageInfo(messageID, destinations, initialSequenceNumber, deliverToMyself,
+                                                  startTime);
         if (deliverToMyself) {
             messageInfo.setProposeReceived(messageID.getAddress());
         }
-        sentMessages.put(messageID, messageInfo);
+        synchronized (sentMessages) {
+            sentMessages.put(messageID.getId(), messageInfo);
+        }
     }
 
     /**
@@ -42,7 +49,7 @@ public class SenderManager {
      * @return NOT_READY if the final sequence number is not know, or the final sequence number
      */
     public long addPropose(MessageID messageID, Address from, long sequenceNumber) {
-        MessageInfo messageInfo = sentMessages.get(messageID);
+        MessageInfo messageInfo = get(messageID);
         if (messageInfo != null && messageInfo.addPropose(from, sequenceNumber)) {
             return messageInfo.getAndMarkFinalSent();
         }
@@ -55,60 +62,83 @@ public class SenderManager {
      * @return  return true if *this* member is in destination set
      */
     public boolean markSent(MessageID messageID) {
-        MessageInfo messageInfo =  sentMessages.remove(messageID);
+        MessageInfo messageInfo;
+        synchronized (sentMessages) {
+            messageInfo = sentMessages.remove(messageID.getId());
+        }
         return messageInfo != null && messageInfo.toSelfDeliver;
     }
 
     /**
      * obtains the destination set of a message
      * @param messageID the message ID
-     * @return the destination set
+     * @return the destination set (including this member, if it is a destination). It must not be modified
      */
-    public Set<Address> getDestination(MessageID messageID) {
-        MessageInfo messageInfo = sentMessages.get(messageID);
-        Set<Address> destination;
-        if (messageInfo != null) {
-            destination = new HashSet<>(messageInfo.destinations);
-        } else {
-            destination = Collections.emptySet();
-        }
-        return destination;
+    public List<Address> getDestination(MessageID messageID) {
+        MessageInfo messageInfo = get(messageID);
+        return messageInfo != null ? messageInfo.destinations : Collections.emptyList();
+    }
+
+    /**
+     * @return the time passed to {@link #addNewMessageToSend(MessageID, Collection, long, boolean, long)}, or -1 if
+     * the message is not pending
+     */
+    public long getStartTime(MessageID messageID) {
+        MessageInfo messageInfo = get(messageID);
+        return messageInfo != null ? messageInfo.startTime : -1;
     }
 
     /**
      * removes all pending messages
      */
     public void clear() {
-        sentMessages.clear();
+        synchronized (sentMessages) {
+            sentMessages.clear();
+        }
     }
 
     public Collection<MessageID> getPendingMessageIDs() {
-        return sentMessages.keySet();
+        List<MessageID> pending = new ArrayList<>();
+        synchronized (sentMessages) {
+            sentMessages.forEach(messageInfo -> pending.add(messageInfo.messageID));
+        }
+        return pending;
     }
 
     public long removeLeavers(MessageID messageID, Collection<Address> leavers) {
-        MessageInfo messageInfo = sentMessages.get(messageID);
+        MessageInfo messageInfo = get(messageID);
         if (messageInfo != null && messageInfo.removeLeavers(leavers)) {
             return messageInfo.getAndMarkFinalSent();
         }
         return NOT_READY;
     }
 
+    private MessageInfo get(MessageID messageID) {
+        synchronized (sentMessages) {
+            return sentMessages.get(messageID.getId());
+        }
+    }
+
     /**
      * The state of a message (destination, proposes missing, the highest sequence number proposed, etc...)
      */
     private static final class MessageInfo {
+        private final MessageID messageID;
         private final ArrayList<Address> destinations;
+        private final long startTime;
         private long highestSequenceNumberReceived;
         private BitSet receivedPropose;
         private boolean finalMessageSent = false;
         private final boolean toSelfDeliver;
 
-        private MessageInfo(Collection<Address> addresses, long sequenceNumber, boolean selfDeliver) {
+        private MessageInfo(MessageID messageID, Collection<Address> addresses, long sequenceNumber,
+                            boolean selfDeliver, long startTime) {
+            this.messageID = messageID;
             this.destinations = new ArrayList<>(addresses);
             this.highestSequenceNumberReceived = sequenceNumber;
             createNewBitSet(addresses.size());
             this.toSelfDeliver = selfDeliver;
+            this.startTime = startTime;
         }
 
         private synchronized boolean addPropose(Address from, long sequenceNumber) {
@@ -127,9 +157,7 @@ public class SenderManager {
 
         private void createNewBitSet(int maxElements) {
             receivedPropose = new BitSet(maxElements);
-            for (int i = 0; i < maxElements; ++i) {
-                receivedPropose.set(i);
-            }
+            receivedPropose.set(0, maxElements);
         }
 
         private void setProposeReceived(Address address) {
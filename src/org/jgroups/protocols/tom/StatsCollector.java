@@ -1,5 +1,6 @@
 package org.jgroups.protocols.tom;
 
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -34,6 +35,10 @@ public class StatsCollector {
     //this way is simple to add new stats and avoids create N field with atomic long or atomic integer. 
     private final EnumMap<Counter, AtomicInteger> counters;
     private final EnumMap<Duration, AtomicLong> durations;
+    //latencies of the propose phase (sender: from sending the message until the last propose is received) and of the
+    //final phase (receiver: from sending the propose until the final sequence number is received)
+    private final LatencyRecorder proposePhase = new LatencyRecorder(8192);
+    private final LatencyRecorder finalPhase = new LatencyRecorder(8192);
 
     public StatsCollector() {
         counters = new EnumMap<>(Counter.class);
@@ -78,6 +83,8 @@ public class StatsCollector {
         for (AtomicLong duration : durations.values()) {
             duration.set(0);
         }
+        proposePhase.clear();
+        finalPhase.clear();
     }
 
     public long now() {
@@ -125,6 +132,26 @@ public class StatsCollector {
         durations.get(Duration.ANYCAST_MESSAGE_SENT).addAndGet(duration);
     }
 
+    /**
+     * @param startTime the time at which the anycast was sent (see {@link #now()})
+     */
+    public void addProposePhaseLatency(long startTime) {
+        if (!shouldCollectStats(startTime)) {
+            return;
+        }
+        proposePhase.add(System.nanoTime() - startTime);
+    }
+
+    /**
+     * @param startTime the time at which the propose was sent (see {@link #now()})
+     */
+    public void addFinalPhaseLatency(long startTime) {
+        if (!shouldCollectStats(startTime)) {
+            return;
+        }
+        finalPhase.add(System.nanoTime() - startTime);
+    }
+
     public void incrementMessageDeliver() {
         if (!shouldCollectStats()) {
             return ;
@@ -212,4 +239,58 @@ public class StatsCollector {
         }
         return 0D;
     }
+
+    public String getProposePhaseLatency() {
+        return proposePhase.percentiles();
+    }
+
+    public String getFinalPhaseLatency() {
+        return finalPhase.percentiles();
+    }
+
+    /**
+     * Keeps the last N latencies (in microseconds) in a ring buffer, to compute percentiles. Adding a latency doesn't
+     * allocate any memory.
+     */
+    private static final class LatencyRecorder {
+        private final long[] samples;
+        private int next;
+        private long count;
+
+        private LatencyRecorder(int capacity) {
+            samples = new long[capacity];
+        }
+
+        private synchronized void add(long nanos) {
+            samples[next] = nanos / 1000;
+            next = (next + 1) % samples.length;
+            count++;
+        }
+
+        private synchronized void clear() {
+            next = 0;
+            count = 0;
+        }
+
+        private String percentiles() {
+            long[] sorted;
+            long total;
+            synchronized (this) {
+                total = count;
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            }
+            if (sorted.length == 0) {
+                return "n/a";
+            }
+            Arrays.sort(sorted);
+            return String.format("p50=%d p90=%d p99=%d p99.9=%d max=%d (us, last %d of %d samples)",
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 99.9),
+                    sorted[sorted.length - 1], sorted.length, total);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            int idx = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+    }
 }
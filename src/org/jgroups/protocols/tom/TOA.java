@@ -9,7 +9,6 @@ import org.jgroups.stack.Protocol;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -165,10 +164,7 @@ public class TOA extends Protocol implements DeliveryProtocol {
                 Message finalMessage = new Message().src(localAddress).putHeader(this.id, finalHeader)
                         .setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.DONT_BUNDLE);
 
-                Set<Address> destinations = senderManager.getDestination(messageID);
-                if (destinations.contains(localAddress)) {
-                    destinations.remove(localAddress);
-                }
+                List<Address> destinations = senderManager.getDestination(messageID);
 
                 if (log.isTraceEnabled()) {
                     log.trace("Message %s is ready to be delivered. Final sequencer number is %d",
@@ -204,7 +200,7 @@ public class TOA extends Protocol implements DeliveryProtocol {
             }
 
             if (deliverToMySelf) {
-                deliverManager.deliverSingleDestinationMessage(message, messageID);
+                deliverManager.deliverSingleDestinationMessage(message.copy(true, true), messageID);
             } else {
                 down_prot.down(message);
             }
@@ -225,7 +221,7 @@ public class TOA extends Protocol implements DeliveryProtocol {
                 log.trace("Sending total order anycast message %s (%s) to %s", message, message.getHeader(id), destinations);
             }
 
-            senderManager.addNewMessageToSend(messageID, destinations, sequenceNumber, deliverToMySelf);
+            senderManager.addNewMessageToSend(messageID, destinations, sequenceNumber, deliverToMySelf, startTime);
             send(destinations, message, false);
             duration = statsCollector.now() - startTime;
         } catch (Exception e) {
@@ -262,7 +258,7 @@ public class TOA extends Protocol implements DeliveryProtocol {
 
             //create the sequence number and put it in deliver manager
             long myProposeSequenceNumber = deliverManager.addRemoteMessageToDeliver(messageID, message,
-                    header.getSequencerNumber());
+                    header.getSequencerNumber(), startTime);
 
             if (log.isTraceEnabled()) {
                 log.trace("Received the message with %s. The proposed sequence number is %d",
@@ -308,16 +304,14 @@ public class TOA extends Protocol implements DeliveryProtocol {
 
             if (finalSequenceNumber != SenderManager.NOT_READY) {
                 lastProposeReceived = true;
+                statsCollector.addProposePhaseLatency(senderManager.getStartTime(messageID));
 
                 ToaHeader finalHeader = ToaHeader.newFinalMessageHeader(messageID, finalSequenceNumber);
 
                 Message finalMessage = new Message().src(localAddress).putHeader(this.id, finalHeader)
                         .setFlag(Message.Flag.OOB, Message.Flag.INTERNAL, Message.Flag.DONT_BUNDLE);
 
-                Set<Address> destinations = senderManager.getDestination(messageID);
-                if (destinations.contains(localAddress)) {
-                    destinations.remove(localAddress);
-                }
+                List<Address> destinations = senderManager.getDestination(messageID);
 
                 if (trace) {
                     log.trace("Message %s is ready to be delivered. Final sequencer number is %d",
@@ -349,7 +343,8 @@ public class TOA extends Protocol implements DeliveryProtocol {
                 log.trace("Received the final sequence number message with %s", header);
             }
 
-            deliverManager.markReadyToDeliver(messageID, header.getSequencerNumber());
+            long proposeTime = deliverManager.markReadyToDeliver(messageID, header.getSequencerNumber());
+            statsCollector.addFinalPhaseLatency(proposeTime);
             duration = statsCollector.now() - startTime;
         } catch (Exception e) {
             logException("Exception caught while processing the final sequence number for " + header.getMessageID(), e);
@@ -377,7 +372,7 @@ public class TOA extends Protocol implements DeliveryProtocol {
 
     @ManagedOperation
     public String getMessageList() {
-        return deliverManager.getMessageSet().toString();
+        return deliverManager.getAllMessages().toString();
     }
 
     public DeliveryManager getDeliverManager() {
@@ -459,6 +454,18 @@ public class TOA extends Protocol implements DeliveryProtocol {
         return statsCollector.getNumberOfProposeMessagesReceived();
     }
 
+    @ManagedAttribute(description = "Percentiles of the duration of the propose phase: from sending an anycast " +
+            "message until the last propose is received")
+    public String getProposePhaseLatency() {
+        return statsCollector.getProposePhaseLatency();
+    }
+
+    @ManagedAttribute(description = "Percentiles of the duration of the final phase: from sending a propose until " +
+            "the final sequence number is received")
+    public String getFinalPhaseLatency() {
+        return statsCollector.getFinalPhaseLatency();
+    }
+
     @ManagedAttribute(description = "The average number of unicasts messages created per anycast message")
     public double getAvgNumberOfUnicastSentPerAnycast() {
         return statsCollector.getAvgNumberOfUnicastSentPerAnycast();
@@ -0,0 +1,89 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.annotations.Immutable;
+
+/**
+ * Immutable open-addressing (linear probing) hash index, mapping the addresses of an array to their positions in
+ * the array. Used for O(1) lookups of members in large memberships, e.g. in {@link Digest}. The array must not be
+ * changed once the index has been created. If an address occurs multiple times, its first position is returned,
+ * same as with a linear scan.
+ * @author agent
+ * @since  4.0.9
+ */
+@Immutable
+public class AddressIndex {
+    /** Arrays smaller than this are scanned linearly, as this is faster than hashing */
+    public static final int   MIN_SIZE=16;
+
+    protected final Address[] addrs;
+    protected final int[]     slots; // position+1 of an address in addrs, 0 denotes an empty slot
+    protected final int       mask;
+
+    public AddressIndex(Address[] addrs) {
+        if(addrs == null) throw new IllegalArgumentException("addresses must not be null");
+        this.addrs=addrs;
+        int capacity=Util.getNextHigherPowerOfTwo(Math.max(4, addrs.length * 2)); // load factor <= 0.5
+        slots=new int[capacity];
+        mask=capacity - 1;
+        for(int i=0; i < addrs.length; i++) {
+            Address addr=addrs[i];
+            if(addr == null)
+                continue;
+            int slot=hash(addr) & mask;
+            for(;;) {
+                int pos=slots[slot];
+                if(pos == 0) {
+                    slots[slot]=i + 1;
+                    break;
+                }
+                if(addr.equals(addrs[pos - 1])) // duplicate: keep the first position
+                    break;
+                slot=(slot + 1) & mask;
+            }
+        }
+    }
+
+    /** Returns the position of addr in the array, or -1 if not found */
+    public int indexOf(Address addr) {
+        if(addr == null)
+            return -1;
+        int slot=hash(addr) & mask;
+        for(;;) {
+            int pos=slots[slot];
+            if(pos == 0)
+                return -1;
+            if(addr.equals(addrs[pos - 1]))
+                return pos - 1;
+            slot=(slot + 1) & mask;
+        }
+    }
+
+    public boolean contains(Address addr) {
+        return indexOf(addr) >= 0;
+    }
+
+    /** The array this index was created for */
+    public Address[] addresses() {
+        return addrs;
+    }
+
+    /** Returns the position of addr in addrs by scanning the array, or -1 if not found */
+    public static int indexOf(Address[] addrs, Address addr) {
+        if(addr == null || addrs == null)
+            return -1;
+        for(int i=0; i < addrs.length; i++)
+            if(addr.equals(addrs[i]))
+                return i;
+        return -1;
+    }
+
+    public String toString() {
+        return String.format("%d addresses, %d slots", addrs.length, slots.length);
+    }
+
+    protected static int hash(Address addr) {
+        int h=addr.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,119 @@
+package org.jgroups.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last N inter-arrival times of heartbeats from a member in a ring buffer, and computes the suspicion level
+ * phi (Hayashibara et al: "The phi accrual failure detector") from their mean and standard deviation. Phi is
+ * -log10 of the probability that a heartbeat arrives later than the time elapsed since the last one: a phi of 1
+ * means a 10% chance that suspecting the member is a mistake, a phi of 8 a 10<sup>-8</sup> chance.
+ * <p>
+ * Samples are kept in a long[] array and sums are maintained incrementally, so adding a sample or computing phi
+ * does not allocate any memory. All times are in nanoseconds.
+ * @author agent
+ * @since  4.0.9
+ */
+public class ArrivalWindow {
+    protected final long[] samples;            // inter-arrival times (ns)
+    protected int          index, count;
+    protected long         sum;
+    protected double       sum_of_squares;
+    protected long         last_heartbeat;     // time of the last sample
+    protected long         last_seen;          // time of the last heartbeat or message
+    protected final long   bootstrap_interval; // used as mean until the first sample has been received
+    protected final long   min_std_deviation;
+
+    /**
+     * Creates a new window
+     * @param capacity The max number of samples
+     * @param bootstrap_interval The expected heartbeat interval (ns), used until the first sample has been received
+     * @param min_std_deviation The minimum standard deviation (ns), to prevent very regular heartbeats from making
+     *                          the detector overly sensitive
+     * @param now The current time (ns)
+     */
+    public ArrivalWindow(int capacity, long bootstrap_interval, long min_std_deviation, long now) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity (" + capacity + ") needs to be positive");
+        samples=new long[capacity];
+        this.bootstrap_interval=bootstrap_interval;
+        this.min_std_deviation=min_std_deviation;
+        last_heartbeat=last_seen=now;
+    }
+
+    public int capacity() {return samples.length;}
+
+    public synchronized int size() {return count;}
+
+    /** Records a heartbeat received at time now */
+    public synchronized ArrivalWindow add(long now) {
+        long interval=now - last_heartbeat;
+        last_heartbeat=now;
+        last_seen=Math.max(last_seen, now);
+        if(interval <= 0)
+            return this;
+        if(count == samples.length) {
+            long oldest=samples[index];
+            sum-=oldest;
+            sum_of_squares-=(double)oldest * oldest;
+        }
+        else
+            count++;
+        samples[index]=interval;
+        sum+=interval;
+        sum_of_squares+=(double)interval * interval;
+        index=(index + 1) % samples.length;
+        return this;
+    }
+
+    /** Records that a member is alive (e.g. a message was received from it), without adding a sample */
+    public synchronized ArrivalWindow touch(long now) {
+        last_seen=Math.max(last_seen, now);
+        return this;
+    }
+
+    public synchronized double mean() {
+        return count == 0? bootstrap_interval : (double)sum / count;
+    }
+
+    public synchronized double stddev() {
+        double sd;
+        if(count == 0)
+            sd=bootstrap_interval / 4.0;
+        else {
+            double mean=(double)sum / count;
+            sd=Math.sqrt(Math.max(0, sum_of_squares / count - mean * mean));
+        }
+        return Math.max(sd, min_std_deviation);
+    }
+
+    /** Returns the phi value at time now */
+    public synchronized double phi(long now) {
+        return phi(now - last_seen, mean(), stddev());
+    }
+
+    /** Returns the time (ns) elapsed between the last heartbeat or message and now */
+    public synchronized long elapsed(long now) {
+        return now - last_seen;
+    }
+
+    /**
+     * Computes phi, using a logistic approximation of the cumulative distribution function of the normal
+     * distribution (error < 0.05%)
+     * @param elapsed The time since the last heartbeat
+     * @param mean The mean inter-arrival time
+     * @param stddev The standard deviation of the inter-arrival times
+     */
+    public static double phi(long elapsed, double mean, double stddev) {
+        if(stddev <= 0)
+            return elapsed > mean? Double.MAX_VALUE : 0;
+        double y=(elapsed - mean) / stddev;
+        double e=Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        double p=elapsed > mean? e / (1.0 + e) : 1.0 - 1.0 / (1.0 + e); // probability of a later arrival
+        return p <= 0? Double.MAX_VALUE : -Math.log10(p);
+    }
+
+    public synchronized String toString() {
+        return String.format("%d samples, mean=%.2f ms, stddev=%.2f ms", count,
+                             mean() / TimeUnit.MILLISECONDS.toNanos(1), stddev() / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -36,6 +36,9 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
     // so to get the HD seqno for member P at index i --> seqnos[i*2], to get the HR --> seqnos[i*2 +1]
     protected long[]    seqnos;
 
+    // Lazily created hash index of members (only for large memberships), used by find()
+    protected volatile AddressIndex index;
+
 
 
     /** Used for serialization */
@@ -92,12 +95,7 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
     }
 
     public boolean contains(Address mbr) {
-        if(mbr == null || members == null)
-            return false;
-        for(Address member: members)
-            if(Objects.equals(member, mbr))
-                return true;
-        return false;
+        return find(mbr) >= 0;
     }
 
     public boolean containsAll(Address ... members) {
@@ -156,6 +154,52 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
             Bits.writeLongSequence(seqnos[i * 2], seqnos[i * 2 +1], out);
     }
 
+    /**
+     * Writes the members as indexes into the view of index (or as full addresses if index is null, or they're not all
+     * members of the view), followed by the seqnos. Read with {@link #readFrom(DataInput,MemberIndex)}, with an index
+     * for the same view.
+     */
+    public void writeTo(DataOutput out, MemberIndex index) throws Exception {
+        MemberIndex.writeAddresses(members, index, out);
+        for(int i=0; i < capacity(); i++)
+            Bits.writeLongSequence(seqnos[i * 2], seqnos[i * 2 +1], out);
+    }
+
+    /**
+     * Writes only the entries whose seqnos differ from the ones in base, as (index, hd, hr) tuples. Both digests need
+     * to have the same members in the same order (e.g. both refer to the members of the same view). Read with
+     * {@link MutableDigest#readDeltaFrom(DataInput)} on a copy of base.
+     */
+    public void writeDeltaTo(DataOutput out, Digest base) throws Exception {
+        checkSameMembers(base);
+        Bits.writeInt(numChanged(base), out);
+        for(int i=0; i < capacity(); i++) {
+            if(changed(base, i)) {
+                Bits.writeInt(i, out);
+                Bits.writeLongSequence(seqnos[i * 2], seqnos[i * 2 +1], out);
+            }
+        }
+    }
+
+    /** Returns the size of the delta written by {@link #writeDeltaTo(DataOutput,Digest)} */
+    public int deltaSize(Digest base) {
+        checkSameMembers(base);
+        int retval=Bits.size(numChanged(base));
+        for(int i=0; i < capacity(); i++)
+            if(changed(base, i))
+                retval+=Bits.size(i) + Bits.size(seqnos[i*2], seqnos[i*2+1]);
+        return retval;
+    }
+
+    /** Returns the number of entries whose seqnos differ from the ones in base (which must have the same members) */
+    public int numChanged(Digest base) {
+        int retval=0;
+        for(int i=0; i < capacity(); i++)
+            if(changed(base, i))
+                retval++;
+        return retval;
+    }
+
     public void readFrom(DataInput in) throws Exception {
         readFrom(in, true);
     }
@@ -172,10 +216,27 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
             Bits.readLongSequence(in, seqnos, i*2);
     }
 
+    /** Reads a digest written by {@link #writeTo(DataOutput,MemberIndex)}. The index may be null if the sender's
+     * view is not known; this fails unless the members were written in full */
+    public void readFrom(DataInput in, MemberIndex index) throws Exception {
+        members=MemberIndex.readAddresses(in, index);
+        seqnos=new long[capacity() * 2];
+        for(int i=0; i < seqnos.length/2; i++)
+            Bits.readLongSequence(in, seqnos, i*2);
+    }
+
     public int serializedSize() {
         return (int)serializedSize(true);
     }
 
+    /** The size of the digest written by {@link #writeTo(DataOutput,MemberIndex)} */
+    public int serializedSize(MemberIndex index) {
+        int retval=MemberIndex.size(members, index);
+        for(int i=0; i < members.length; i++)
+            retval+=Bits.size(seqnos[i*2], seqnos[i*2+1]);
+        return retval;
+    }
+
     public long serializedSize(boolean with_members) {
         long retval=with_members? Util.size(members) : Global.SHORT_SIZE;
         for(int i=0; i < members.length; i++)
@@ -219,18 +280,38 @@ public class Digest implements SizeStreamable, Iterable<Digest.Entry>, Construct
         return sb.toString();
     }
 
+    /** Returns the index of mbr in members, or -1. Uses a hash index for large memberships */
     protected int find(Address mbr) {
         if(mbr == null || members == null)
             return -1;
-        for(int i=0; i < members.length; i++) {
-            Address member=members[i];
-            if(Objects.equals(member, mbr))
-                return i;
-        }
-        return -1;
+        if(members.length < AddressIndex.MIN_SIZE)
+            return AddressIndex.indexOf(members, mbr);
+        AddressIndex tmp=index;
+        if(tmp == null || tmp.addresses() != members) // members are set by readFrom()
+            index=tmp=new AddressIndex(members);
+        return tmp.indexOf(mbr);
+    }
+
+    /**
+     * Returns true if this digest and digest have the same members in the same order, so that their seqnos arrays are
+     * aligned. This is the case if both refer to the same members array (e.g. that of the same view), or if they are
+     * element-wise equal (e.g. a digest unmarshalled from a message created from the same view)
+     */
+    public boolean hasSameMembers(Digest digest) {
+        return digest != null && (members == digest.members || Arrays.equals(members, digest.members));
     }
 
 
+    protected boolean changed(Digest base, int index) {
+        return seqnos[index*2] != base.seqnos[index*2] || seqnos[index*2+1] != base.seqnos[index*2+1];
+    }
+
+    protected void checkSameMembers(Digest base) {
+        if(base == null || base.capacity() != capacity())
+            throw new IllegalArgumentException(String.format("base digest (capacity=%d) does not match this " +
+                                                               "digest (capacity=%d)", base != null? base.capacity() : 0, capacity()));
+    }
+
     protected void createArrays(Map<Address,long[]> map) {
         int size=map.size();
         members=new Address[size];
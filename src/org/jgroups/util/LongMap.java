@@ -0,0 +1,154 @@
+package org.jgroups.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Hashmap with primitive long keys and non-null values. Uses open addressing with linear probing, and backward
+ * shifting on removal, so that neither additions nor removals allocate memory (except when the map is resized), and
+ * keys are not boxed.<p/>
+ * Not thread safe: access needs to be synchronized by the caller.
+ * @author agent
+ * @since  4.0.9
+ */
+public class LongMap<V> {
+    protected static final double LOAD_FACTOR=0.5;
+
+    protected long[]   keys;
+    protected Object[] values;    // a null value marks an empty slot
+    protected int      size;
+    protected int      mask;      // capacity-1
+    protected int      resize_at; // max size before the capacity is doubled
+
+    public LongMap() {
+        this(16);
+    }
+
+    public LongMap(int initial_capacity) {
+        allocate(Util.getNextHigherPowerOfTwo(Math.max(4, (int)(initial_capacity / LOAD_FACTOR))));
+    }
+
+    public int     size()     {return size;}
+    public boolean isEmpty()  {return size == 0;}
+    public int     capacity() {return keys.length;}
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for(int i=slot(key);; i=(i + 1) & mask) {
+            Object val=values[i];
+            if(val == null)
+                return null;
+            if(keys[i] == key)
+                return (V)val;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /** Associates value with key. Returns the previous value associated with key, or null */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        Objects.requireNonNull(value, "value must not be null");
+        int i=slot(key);
+        for(; values[i] != null; i=(i + 1) & mask) {
+            if(keys[i] == key) {
+                V old=(V)values[i];
+                values[i]=value;
+                return old;
+            }
+        }
+        keys[i]=key;
+        values[i]=value;
+        if(++size > resize_at)
+            resize(keys.length * 2);
+        return null;
+    }
+
+    /** Removes the value associated with key and returns it, or null if key is not in the map */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i=slot(key);
+        for(; values[i] != null; i=(i + 1) & mask) {
+            if(keys[i] == key)
+                break;
+        }
+        V old=(V)values[i];
+        if(old == null)
+            return null;
+        values[i]=null;
+        size--;
+
+        // move subsequent entries of the same cluster, which can be moved, into the gap
+        int gap=i;
+        for(int j=(i + 1) & mask; values[j] != null; j=(j + 1) & mask) {
+            int home=slot(keys[j]);
+            if(((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap]=keys[j];
+                values[gap]=values[j];
+                values[j]=null;
+                gap=j;
+            }
+        }
+        return old;
+    }
+
+    public LongMap<V> clear() {
+        Arrays.fill(values, null);
+        size=0;
+        return this;
+    }
+
+    /** Calls consumer on all values. The map must not be modified by consumer */
+    @SuppressWarnings("unchecked")
+    public LongMap<V> forEach(Consumer<V> consumer) {
+        for(Object val: values)
+            if(val != null)
+                consumer.accept((V)val);
+        return this;
+    }
+
+    public String toString() {
+        StringBuilder sb=new StringBuilder("{");
+        boolean first=true;
+        for(int i=0; i < keys.length; i++) {
+            if(values[i] == null)
+                continue;
+            if(first)
+                first=false;
+            else
+                sb.append(", ");
+            sb.append(keys[i]).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    protected int slot(long key) {
+        return (int)Util.mix(key) & mask;
+    }
+
+    protected void allocate(int capacity) {
+        keys=new long[capacity];
+        values=new Object[capacity];
+        mask=capacity - 1;
+        resize_at=(int)(capacity * LOAD_FACTOR);
+    }
+
+    protected void resize(int new_capacity) {
+        long[] old_keys=keys;
+        Object[] old_values=values;
+        allocate(new_capacity);
+        for(int i=0; i < old_keys.length; i++) {
+            Object val=old_values[i];
+            if(val == null)
+                continue;
+            int j=slot(old_keys[i]);
+            while(values[j] != null)
+                j=(j + 1) & mask;
+            keys[j]=old_keys[i];
+            values[j]=val;
+        }
+    }
+}
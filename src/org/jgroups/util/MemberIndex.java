@@ -0,0 +1,150 @@
+package org.jgroups.util;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.View;
+import org.jgroups.ViewId;
+import org.jgroups.annotations.Immutable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.util.Arrays;
+
+/**
+ * View-scoped member index: serializes members of a view as varint indexes into the view's members, rather than as
+ * full addresses. This can only be used when sender and receiver have the same view, e.g. when a message carries the
+ * {@link ViewId} of the sender's view and the receiver drops messages from different views. Addresses which are not
+ * in the view are written in full.
+ * <p>
+ * Arrays of addresses (e.g. the members of a {@link Digest}) are written with one of 3 encodings: {@link #SAME} when
+ * they are the members of the view (only a byte is written), {@link #INDEXED} when all addresses are members of the
+ * view, and {@link #FULL} otherwise. Arrays written with {@link #FULL} can be read without a member index.
+ * <p>
+ * Currently only used by STABLE (use_member_index) for the digests of STABLE and STABILITY messages. GMS already
+ * omits the members of digests sent together with a view (VIEW messages, JoinRsps). MERGE3 INFO messages are sent
+ * between members of different views, so they couldn't use indexes, and FD doesn't send member lists.
+ * @author agent
+ * @since  4.0.9
+ */
+@Immutable
+public class MemberIndex {
+    public static final byte FULL=0, SAME=1, INDEXED=2;
+
+    protected final View      view;
+    protected final ViewId    view_id;
+    protected final Address[] members;
+
+    public MemberIndex(View view) {
+        this.view=view;
+        this.view_id=view.getViewId();
+        this.members=view.getMembersRaw();
+    }
+
+    public ViewId    viewId()                 {return view_id;}
+    public Address[] members()                {return members;}
+    public int       size()                   {return members.length;}
+    public boolean   matches(ViewId other)    {return view_id.equals(other);}
+
+    /** Returns the index of mbr in the view, or -1 if mbr is not a member */
+    public int indexOf(Address mbr) {
+        return view.indexOf(mbr);
+    }
+
+    /** Writes an address as varint (index+1), or 0 followed by the full address if it is not a member */
+    public void writeAddress(Address addr, DataOutput out) throws Exception {
+        int idx=indexOf(addr);
+        Bits.writeInt(idx + 1, out);
+        if(idx < 0)
+            Util.writeAddress(addr, out);
+    }
+
+    public Address readAddress(DataInput in) throws Exception {
+        int idx=Bits.readInt(in);
+        return idx == 0? Util.readAddress(in) : member(idx - 1);
+    }
+
+    public int size(Address addr) {
+        int idx=indexOf(addr);
+        return Bits.size(idx + 1) + (idx < 0? Util.size(addr) : 0);
+    }
+
+    /**
+     * Writes an array of addresses with the most compact encoding possible
+     * @param addrs The addresses
+     * @param index The index of the current view. If null, the addresses are written in full
+     * @param out The output stream
+     */
+    public static void writeAddresses(Address[] addrs, MemberIndex index, DataOutput out) throws Exception {
+        byte encoding=index != null? index.encoding(addrs) : FULL;
+        out.writeByte(encoding);
+        switch(encoding) {
+            case SAME:
+                break;
+            case INDEXED:
+                Bits.writeInt(addrs.length, out);
+                for(Address addr: addrs)
+                    Bits.writeInt(index.indexOf(addr), out);
+                break;
+            default:
+                Util.writeAddresses(addrs, out);
+                break;
+        }
+    }
+
+    /** Returns the size of addrs written by {@link #writeAddresses(Address[],MemberIndex,DataOutput)} */
+    public static int size(Address[] addrs, MemberIndex index) {
+        switch(index != null? index.encoding(addrs) : FULL) {
+            case SAME:
+                return Global.BYTE_SIZE;
+            case INDEXED:
+                int retval=Global.BYTE_SIZE + Bits.size(addrs.length);
+                for(Address addr: addrs)
+                    retval+=Bits.size(index.indexOf(addr));
+                return retval;
+            default:
+                return Global.BYTE_SIZE + (int)Util.size(addrs);
+        }
+    }
+
+    /**
+     * Reads an array of addresses written by {@link #writeAddresses(Address[],MemberIndex,DataOutput)}. The index may
+     * be null if the addresses were written in full; the caller needs to ensure that index refers to the sender's view
+     */
+    public static Address[] readAddresses(DataInput in, MemberIndex index) throws Exception {
+        byte encoding=in.readByte();
+        if(encoding == FULL)
+            return Util.readAddresses(in);
+        if(index == null)
+            throw new IllegalStateException("addresses are encoded as indexes into a view, but no view is available");
+        switch(encoding) {
+            case SAME:
+                return index.members;
+            case INDEXED:
+                Address[] retval=new Address[Bits.readInt(in)];
+                for(int i=0; i < retval.length; i++)
+                    retval[i]=index.member(Bits.readInt(in));
+                return retval;
+            default:
+                throw new IllegalStateException("encoding " + encoding + " not known");
+        }
+    }
+
+    public String toString() {
+        return String.format("%s (%d members)", view_id, members.length);
+    }
+
+    protected byte encoding(Address[] addrs) {
+        if(addrs == members || Arrays.equals(addrs, members))
+            return SAME;
+        for(Address addr: addrs)
+            if(indexOf(addr) < 0)
+                return FULL;
+        return INDEXED;
+    }
+
+    protected Address member(int idx) {
+        if(idx < 0 || idx >= members.length)
+            throw new IllegalStateException("index " + idx + " is out of range of view " + view_id);
+        return members[idx];
+    }
+}
@@ -2,6 +2,7 @@ package org.jgroups.util;
 
 import org.jgroups.Address;
 
+import java.io.DataInput;
 import java.util.Arrays;
 
 /**
@@ -56,6 +57,10 @@ public class MutableDigest extends Digest {
     public MutableDigest set(Digest digest) {
         if(digest == null)
             return this;
+        if(hasSameMembers(digest)) {
+            System.arraycopy(digest.seqnos, 0, seqnos, 0, seqnos.length);
+            return this;
+        }
         for(Entry entry: digest)
             set(entry.getMember(), entry.getHighestDeliveredSeqno(), entry.getHighestReceivedSeqno());
         return this;
@@ -68,11 +73,46 @@ public class MutableDigest extends Digest {
     public MutableDigest merge(Digest digest) {
         if(digest == null)
             return this;
+        if(hasSameMembers(digest)) { // aligned arrays: no member lookups needed
+            long[] other=digest.seqnos;
+            for(int i=0; i < seqnos.length; i++)
+                seqnos[i]=Math.max(seqnos[i], other[i]);
+            return this;
+        }
         for(Entry entry: digest)
             merge(entry.getMember(), entry.getHighestDeliveredSeqno(), entry.getHighestReceivedSeqno());
         return this;
     }
 
+    /**
+     * Merges digest into this digest for the computation of a stability vector: for each member, the highest delivered
+     * seqno is set to the min of both (an unset seqno (-1) in this digest is replaced by the other one) and the highest
+     * received seqno to the max of both. Members of digest which are not in this digest are ignored. When both digests
+     * have the same members, this is a single pass over the aligned seqno arrays.
+     */
+    public MutableDigest mergeMin(Digest digest) {
+        if(digest == null)
+            return this;
+        if(hasSameMembers(digest)) {
+            long[] other=digest.seqnos;
+            for(int i=0; i < seqnos.length; i+=2) {
+                long hd=seqnos[i];
+                seqnos[i]=hd == -1? other[i] : Math.min(hd, other[i]);
+                seqnos[i+1]=Math.max(seqnos[i+1], other[i+1]);
+            }
+            return this;
+        }
+        for(int i=0; i < digest.capacity(); i++) {
+            int index=find(digest.members[i]);
+            if(index < 0)
+                continue;
+            long hd=seqnos[index*2], other_hd=digest.seqnos[i*2];
+            seqnos[index*2]=hd == -1? other_hd : Math.min(hd, other_hd);
+            seqnos[index*2+1]=Math.max(seqnos[index*2+1], digest.seqnos[i*2+1]);
+        }
+        return this;
+    }
+
 
     /**
      * Similar to set(), but if the sender already exists, its seqnos will be modified (no new entry) as follows:
@@ -91,6 +131,22 @@ public class MutableDigest extends Digest {
     }
 
 
+    /**
+     * Reads a delta written by {@link Digest#writeDeltaTo(java.io.DataOutput,Digest)} and overwrites the seqnos of the
+     * entries contained in it. This digest has to be the base against which the delta was computed.
+     */
+    public MutableDigest readDeltaFrom(DataInput in) throws Exception {
+        int num_entries=Bits.readInt(in);
+        for(int i=0; i < num_entries; i++) {
+            int index=Bits.readInt(in);
+            if(index < 0 || index >= capacity())
+                throw new IllegalStateException(String.format("index %d of delta is out of range (capacity=%d)", index, capacity()));
+            Bits.readLongSequence(in, seqnos, index * 2);
+        }
+        return this;
+    }
+
+
     protected static long[] createEmptyArray(int size) {
         long[] retval=new long[size];
         Arrays.fill(retval, -1);
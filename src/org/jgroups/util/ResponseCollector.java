@@ -163,6 +163,18 @@ public class ResponseCollector<T> {
         return cond.waitFor(this::hasAllResponses, timeout, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Waits until at least num valid responses (or all responses) have been received, or until a timeout has elapsed
+     * @param num The number of responses to wait for
+     * @param timeout Number of milliseconds to wait max. Needs to be greater than 0, or else it is adjusted to 2000
+     * @return True if num responses (or all responses) have been received within timeout ms, else false
+     */
+    public boolean waitForResponses(int num, long timeout) {
+        if(timeout <= 0)
+            timeout=2000L;
+        return cond.waitFor(() -> hasAllResponses() || numberOfValidResponses() >= num, timeout, TimeUnit.MILLISECONDS);
+    }
+
     public void reset() {
         reset((Collection<Address>)null);
     }
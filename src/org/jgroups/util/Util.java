@@ -31,6 +31,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -317,6 +318,28 @@ public class Util {
 
 
 
+    /**
+     * Blocks until a condition is true
+     * @param timeout   How long to wait (max in ms)
+     * @param interval  Check every interval ms
+     * @param condition The condition
+     * @param message   The message of the exception thrown if the condition is not true after timeout ms
+     */
+    public static void waitUntil(long timeout, long interval, BooleanSupplier condition,
+                                 String message) throws TimeoutException {
+        long target_time=System.currentTimeMillis() + timeout;
+        while(!condition.getAsBoolean()) {
+            if(System.currentTimeMillis() > target_time)
+                throw new TimeoutException(String.format("timeout %d kicked in: %s", timeout, message));
+            Util.sleep(interval);
+        }
+    }
+
+    public static void waitUntil(long timeout, long interval, BooleanSupplier condition) throws TimeoutException {
+        waitUntil(timeout, interval, condition, "condition was not met");
+    }
+
+
     /**
      * Waits until a list has the expected number of elements. Throws an exception if not met
      * @param list          The list
@@ -4461,6 +4484,31 @@ public class Util {
     }
 
 
+    /**
+     * Returns a 64-bit hash of an address, e.g. for rendezvous hashing. The hash of a {@link UUID} (including subclasses
+     * such as {@link SiteUUID}) is computed from its bits only
+     */
+    public static long hash(Address addr) {
+        if(addr == null)
+            return 0;
+        if(addr instanceof UUID) {
+            UUID uuid=(UUID)addr;
+            return mix(uuid.getMostSignificantBits()) ^ uuid.getLeastSignificantBits();
+        }
+        return mix(addr.hashCode());
+    }
+
+    /** The finalizer of MurmurHash3 (64 bit): every bit of h affects every bit of the result */
+    public static long mix(long h) {
+        h^=h >>> 33;
+        h*=0xff51afd7ed558ccdL;
+        h^=h >>> 33;
+        h*=0xc4ceb93fe5ca2c53L;
+        h^=h >>> 33;
+        return h;
+    }
+
+
     /**
      * Converts a java.lang.String in to a MD5 hashed String
      * @param source the source String
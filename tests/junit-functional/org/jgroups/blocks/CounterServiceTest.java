@@ -0,0 +1,238 @@
+package org.jgroups.blocks;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.blocks.atomic.Counter;
+import org.jgroups.blocks.atomic.CounterService;
+import org.jgroups.blocks.atomic.LeasedCounter;
+import org.jgroups.protocols.COUNTER;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tests {@link CounterService}: combining of additions, asynchronous additions, backup updates and leased counters
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class CounterServiceTest {
+    protected static final int NUM_THREADS=10, NUM_ADDS=500; // per thread
+    protected JChannel         a, b, c;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A").connect(getClass().getSimpleName());
+        b=create("B").connect(getClass().getSimpleName());
+        c=create("C").connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(c, b, a);
+    }
+
+    /**
+     * Concurrent increments on a non-coordinator are combined (also when every thread gets its own reference to the
+     * counter), and every increment returns a different value
+     */
+    public void testCombinedIncrements() throws Exception {
+        CounterService service=new CounterService(b);
+        Counter counter=service.getOrCreateCounter("combined", 0);
+        Collection<Long> values=new ConcurrentLinkedQueue<>();
+        CountDownLatch latch=new CountDownLatch(1);
+        List<Thread> threads=new ArrayList<>();
+        for(int i=0; i < NUM_THREADS; i++) {
+            Thread t=new Thread(() -> {
+                try {
+                    Counter ctr=service.getOrCreateCounter("combined", 0);
+                    latch.await();
+                    for(int j=0; j < NUM_ADDS; j++)
+                        values.add(ctr.incrementAndGet());
+                }
+                catch(InterruptedException e) {
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        latch.countDown();
+        for(Thread t: threads)
+            t.join(30000);
+
+        int expected=NUM_THREADS * NUM_ADDS;
+        assert values.size() == expected;
+        assert new HashSet<>(values).size() == expected : "increments returned duplicate values";
+        assert Collections.max(values) == expected;
+        assert new CounterService(a).getOrCreateCounter("combined", 0).get() == expected;
+        assert service.getOrCreateCounter("combined", 0) == counter;
+
+        COUNTER prot=counter(b);
+        assert prot.getNumCombined() > 0 && prot.getNumAddRequests() < expected
+          : String.format("add requests: %d, combined: %d", prot.getNumAddRequests(), prot.getNumCombined());
+    }
+
+    public void testAsyncAdditions() throws Exception {
+        Counter counter=new CounterService(c).getOrCreateCounter("async", 10);
+        List<CompletableFuture<Long>> futures=new ArrayList<>();
+        for(int i=1; i <= 100; i++)
+            futures.add(counter.addAndGetAsync(i));
+        futures.add(counter.decrementAndGetAsync());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        // additions of the same member are applied in the order in which they were made
+        long expected=10;
+        for(int i=1; i <= 100; i++) {
+            expected+=i;
+            assert futures.get(i - 1).get() == expected;
+        }
+        assert futures.get(100).get() == expected - 1;
+        assert counter.getAsync().get(10, TimeUnit.SECONDS) == expected - 1;
+    }
+
+    public void testAsyncAdditionToMissingCounter() throws Exception {
+        Counter counter=new CounterService(b).getOrCreateCounter("deleted", 0);
+        new CounterService(a).deleteCounter("deleted"); // asynchronous
+        Util.waitUntil(10000, 100, () -> value(a, "deleted") == -1, "counter was not deleted");
+        try {
+            counter.incrementAndGetAsync().get(10, TimeUnit.SECONDS);
+            assert false : "the addition should have failed";
+        }
+        catch(ExecutionException ex) {
+            assert ex.getCause() instanceof IllegalStateException;
+        }
+    }
+
+    /** Updates of the coordinator are sent to the backup coordinator in batches, which keeps the latest values */
+    public void testBackupUpdates() throws Exception {
+        counter(a).setValue("max_update_batch_size", 500);
+        CounterService service=new CounterService(a);
+        List<Counter> list=new ArrayList<>();
+        for(int i=0; i < 10; i++)
+            list.add(service.getOrCreateCounter("counter-" + i, 0));
+        List<Thread> threads=new ArrayList<>();
+        for(Counter counter: list) {
+            Thread t=new Thread(() -> {
+                for(int j=0; j < NUM_ADDS; j++)
+                    counter.incrementAndGet();
+            });
+            threads.add(t);
+            t.start();
+        }
+        for(Thread t: threads)
+            t.join(30000);
+
+        assert counter(a).getBackupCoords().contains(b.getAddress().toString());
+        Util.waitUntil(10000, 100, () -> list.stream().allMatch(ctr -> value(b, ctr.getName()) == NUM_ADDS),
+                       counter(b).printCounters());
+        assert counter(a).getNumUpdateBatches() > 0;
+    }
+
+    /** Values handed out concurrently by leased counters of different members are unique */
+    public void testLeasedCounters() throws Exception {
+        Collection<Long> values=new ConcurrentLinkedQueue<>();
+        CountDownLatch latch=new CountDownLatch(1);
+        List<Thread> threads=new ArrayList<>();
+        for(JChannel ch: Arrays.asList(a, b, c)) {
+            LeasedCounter counter=new CounterService(ch).getOrCreateLeasedCounter("ids", 0, 100);
+            for(int i=0; i < 3; i++) {
+                Thread t=new Thread(() -> {
+                    try {
+                        latch.await();
+                        for(int j=0; j < NUM_ADDS; j++)
+                            values.add(counter.next());
+                    }
+                    catch(InterruptedException e) {
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+        }
+        latch.countDown();
+        for(Thread t: threads)
+            t.join(30000);
+
+        int expected=9 * NUM_ADDS;
+        assert values.size() == expected;
+        assert new HashSet<>(values).size() == expected : "leased counters returned duplicate values";
+        long value=new CounterService(a).getOrCreateCounter("ids", 0).get();
+        assert Collections.max(values) <= value && value % 100 == 0;
+        // every lease adds the lease size to the counter, so the counter's value is the number of leases taken * 100
+        assert value / 100 < expected / 10 : "too many leases taken: " + value / 100;
+    }
+
+    public void testPrefetchAndRelease() throws Exception {
+        LeasedCounter counter=new CounterService(c).getOrCreateLeasedCounter("prefetched", 0, 1000);
+        for(int i=1; i <= 800; i++)
+            assert counter.next() == i;
+        Counter global=new CounterService(a).getOrCreateCounter("prefetched", 0);
+        Util.waitUntil(10000, 100, () -> global.get() == 2000, "next lease should have been prefetched");
+
+        // the prefetched lease directly follows the current lease, so both can be returned
+        assert counter.release().get(10, TimeUnit.SECONDS);
+        assert global.get() == 800;
+        assert counter.next() == 801; // takes a new lease
+
+        // another member takes a lease, so ours cannot be returned anymore
+        assert new CounterService(b).getOrCreateLeasedCounter("prefetched", 0, 1000).next() == 1801;
+        assert !counter.release().get(10, TimeUnit.SECONDS);
+        assert global.get() == 2800;
+    }
+
+    /** The unused values of a lease are returned before a member leaves the cluster */
+    public void testReleaseOnDisconnect() throws Exception {
+        LeasedCounter counter=new CounterService(c).getOrCreateLeasedCounter("disconnect", 0, 100);
+        for(int i=1; i <= 10; i++)
+            assert counter.next() == i;
+        Util.close(c);
+        assert new CounterService(a).getOrCreateCounter("disconnect", 0).get() == 10;
+    }
+
+    /** The leases of members are recovered by the new coordinator (even without backups) on a coordinator failover */
+    public void testLeaseAfterCoordinatorFailover() throws Exception {
+        counter(a).setValue("num_backups", 0).setValue("backup_coords", new CopyOnWriteArrayList<>());
+        LeasedCounter lc=new CounterService(c).getOrCreateLeasedCounter("failover", 0, 100);
+        assert lc.next() == 1;
+        assert value(b, "failover") == -1 : "counter should not have been sent to B (no backups)";
+
+        Util.close(a);
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, b, c);
+        LeasedCounter lb=new CounterService(b).getOrCreateLeasedCounter("failover", 0, 100);
+        long val=lb.next();
+        assert val > 100 : "value " + val + " was already leased by C";
+        assert lc.next() == 2;
+    }
+
+    /** Returns the value of the local copy of a counter, or -1 if the member has no copy */
+    protected static long value(JChannel ch, String name) {
+        String prefix=name + ": ";
+        for(String line: counter(ch).printCounters().split("\n"))
+            if(line.startsWith(prefix))
+                return Long.parseLong(line.substring(prefix.length(), line.indexOf(' ', prefix.length())));
+        return -1;
+    }
+
+    protected static COUNTER counter(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(COUNTER.class);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(),
+                            new SHARED_LOOPBACK_PING(),
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000),
+                            new COUNTER()).name(name);
+    }
+}
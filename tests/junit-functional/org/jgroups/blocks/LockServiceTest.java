@@ -4,6 +4,7 @@ import org.jgroups.Global;
 import org.jgroups.JChannel;
 import org.jgroups.blocks.locking.LockService;
 import org.jgroups.protocols.CENTRAL_LOCK;
+import org.jgroups.protocols.Locking;
 import org.jgroups.stack.Protocol;
 import org.jgroups.util.Util;
 import org.testng.annotations.AfterClass;
@@ -11,7 +12,13 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
@@ -308,12 +315,149 @@ public class LockServiceTest {
     }
 
 
+    public void testMultiLock() throws Exception {
+        lockProt(c2).resetStats();
+        Lock multi=s2.getMultiLock(Arrays.asList("x", "y", "z"));
+        multi.lock();
+        assert lockProt(c2).getNumMultiLockRequests() == 1;
+        for(String name: Arrays.asList("x", "y", "z"))
+            assert !tryLockFromOtherThread(s3.getLock(name), 0);
+
+        // all-or-nothing: w must not be acquired, as z is held by B
+        Lock other=s3.getMultiLock(Arrays.asList("w", "z"));
+        assert !other.tryLock();
+        assert tryLockFromOtherThread(s2.getLock("w"), 0);
+
+        multi.unlock();
+        assert lockProt(c2).getNumMultiLockRequests() == 2;
+        assert other.tryLock(5, TimeUnit.SECONDS); // B's release might not yet have been processed by A
+        other.unlock();
+    }
+
+    /** A timed out tryLock() releases the locks which were granted */
+    public void testMultiLockTimeout() throws Exception {
+        Lock lock2=s2.getLock("y");
+        lock2.lock();
+        Lock multi=s3.getMultiLock(Arrays.asList("x", "y"));
+        assert !multi.tryLock(500, TimeUnit.MILLISECONDS);
+        assert tryLockFromOtherThread(s2.getLock("x"), 0) : "x should have been released by C";
+        lock2.unlock();
+        assert multi.tryLock(5, TimeUnit.SECONDS);
+        multi.unlock();
+    }
+
+    /** A multi-lock for many locks is released with a single request */
+    public void testMultiLockWithManyLocks() throws Exception {
+        List<String> names=new ArrayList<>();
+        for(int i=0; i < 10000; i++)
+            names.add("lock-" + i);
+        lockProt(c2).resetStats();
+        Lock multi=s2.getMultiLock(names);
+        multi.lock();
+        assert !tryLockFromOtherThread(s3.getLock("lock-5000"), 0);
+        multi.unlock();
+        assert lockProt(c2).getNumMultiLockRequests() == 2;
+        Lock lock=s3.getLock("lock-5000");
+        assert lock.tryLock(5, TimeUnit.SECONDS);
+        lock.unlock();
+    }
+
+    /** Multi-locks for the same locks, requested in different orders, don't deadlock */
+    public void testConcurrentMultiLocks() throws Exception {
+        List<String> names=Arrays.asList("l1", "l2", "l3", "l4"), reversed=new ArrayList<>(names);
+        Collections.reverse(reversed);
+        AtomicInteger holders=new AtomicInteger(), acquisitions=new AtomicInteger();
+        AtomicBoolean violation=new AtomicBoolean();
+        List<Thread> threads=new ArrayList<>();
+        for(LockService service: Arrays.asList(s2, s3)) {
+            for(int i=0; i < 3; i++) {
+                Lock multi=service.getMultiLock(i % 2 == 0? names : reversed);
+                Thread t=new Thread(() -> {
+                    for(int j=0; j < 50; j++) {
+                        multi.lock();
+                        try {
+                            if(holders.incrementAndGet() > 1)
+                                violation.set(true);
+                            acquisitions.incrementAndGet();
+                            holders.decrementAndGet();
+                        }
+                        finally {
+                            multi.unlock();
+                        }
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+        }
+        for(Thread t: threads)
+            t.join(30000);
+        assert acquisitions.get() == 300 : "acquisitions: " + acquisitions + " (deadlock ?)";
+        assert !violation.get() : "locks were held by more than one owner";
+    }
+
+    public void testLockAffinity() throws Exception {
+        try {
+            setProp(CENTRAL_LOCK.class, "use_lock_affinity", true, c1,c2,c3);
+            lockProt(c2).resetStats();
+            Lock lock2=s2.getLock("affinity");
+            for(int i=0; i < 100; i++) {
+                lock2.lock();
+                lock2.unlock();
+            }
+            assert lockProt(c2).getNumLocalAcquisitions() == 99;
+
+            // C requests the lock: the coordinator revokes it from B
+            Lock lock3=s3.getLock("affinity");
+            assert lock3.tryLock(5, TimeUnit.SECONDS);
+            assert lockProt(c2).getNumRevoked() > 0;
+            assert !tryLockFromOtherThread(lock2, 0);
+            lock3.unlock();
+        }
+        finally {
+            setProp(CENTRAL_LOCK.class, "use_lock_affinity", false, c1,c2,c3);
+        }
+    }
+
+    /** A held lock which is revoked is released on unlock() */
+    public void testLockAffinityWithHeldLock() throws Exception {
+        try {
+            setProp(CENTRAL_LOCK.class, "use_lock_affinity", true, c1,c2,c3);
+            lockProt(c2).resetStats();
+            Lock lock2=s2.getLock("affinity-held");
+            lock2.lock();
+            Lock multi=s3.getMultiLock(Arrays.asList("affinity-held", "other"));
+            AtomicBoolean acquired=new AtomicBoolean();
+            Thread t=new Thread(() -> {
+                try {
+                    acquired.set(multi.tryLock(10, TimeUnit.SECONDS));
+                }
+                catch(InterruptedException e) {
+                }
+            });
+            t.start();
+            Util.waitUntil(10000, 100, () -> lockProt(c2).getNumRevoked() > 0, "lock was not revoked");
+            lock2.unlock();
+            t.join(10000);
+            assert acquired.get();
+            assert lockProt(c2).getNumLocalAcquisitions() == 0;
+        }
+        finally {
+            setProp(CENTRAL_LOCK.class, "use_lock_affinity", false, c1,c2,c3);
+        }
+    }
+
+
 
     protected JChannel createChannel(String name) throws Exception {
         Protocol[] stack=Util.getTestStack(new CENTRAL_LOCK().level("trace"));
         return new JChannel(stack).name(name);
     }
 
+    protected static Locking lockProt(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(Locking.class);
+    }
+
     protected void setProp(Class<? extends Protocol> clazz, String prop_name, Object value, JChannel ... channels) {
         for(JChannel ch: channels) {
             Protocol prot=ch.getProtocolStack().findProtocol(clazz);
@@ -486,6 +630,23 @@ public class LockServiceTest {
     }
 
 
+    /** Tries to acquire a lock from a different thread, as locks are reentrant for the same thread */
+    protected static boolean tryLockFromOtherThread(Lock lock, long timeout) throws InterruptedException {
+        AtomicBoolean retval=new AtomicBoolean();
+        Thread t=new Thread(() -> {
+            try {
+                retval.set(timeout > 0? lock.tryLock(timeout, TimeUnit.MILLISECONDS) : lock.tryLock());
+                if(retval.get())
+                    lock.unlock();
+            }
+            catch(InterruptedException e) {
+            }
+        });
+        t.start();
+        t.join(10000);
+        return retval.get();
+    }
+
     protected static void lock(Lock lock, String name) {
         System.out.println("[" + Thread.currentThread().getId() + "] locking " + name);
         lock.lock();
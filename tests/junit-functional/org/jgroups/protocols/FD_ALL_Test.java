@@ -0,0 +1,78 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+/**
+ * Tests {@link FD_ALL} and {@link FD_ALL2} in phi accrual mode
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class FD_ALL_Test {
+    protected JChannel[] channels;
+
+    @AfterMethod protected void destroy() {
+        for(int i=channels.length-1; i >= 0; i--)
+            Util.close(channels[i]);
+    }
+
+
+    public void testPhiAccrual() throws Exception {
+        createChannels(3, () -> new FD_ALL().usePhiAccrual(true).setPhiThreshold(4)
+          .setValue("interval", 100L).setValue("timeout_check_interval", 100L).setValue("phi_min_std_deviation", 50L));
+        testCrash(ch -> ((FD_ALL)ch.getProtocolStack().findProtocol(FD_ALL.class)).phi(channels[0].getAddress()));
+    }
+
+    public void testPhiAccrualFD_ALL2() throws Exception {
+        createChannels(3, () -> new FD_ALL2().usePhiAccrual(true).setValue("phi_threshold", 4.0)
+          .setValue("interval", 100L).setValue("phi_min_std_deviation", 50L));
+        testCrash(ch -> ((FD_ALL2)ch.getProtocolStack().findProtocol(FD_ALL2.class)).phi(channels[0].getAddress()));
+    }
+
+
+    /** Checks that A is not suspected by B, then crashes C: A and B need to exclude it */
+    protected void testCrash(java.util.function.ToDoubleFunction<JChannel> phi_of_a) throws Exception {
+        Util.sleep(1000); // collect a few samples
+        double phi=phi_of_a.applyAsDouble(channels[1]);
+        System.out.printf("phi of A at B: %.2f\n", phi);
+        assert phi >= 0 && phi < 4;
+
+        ((DISCARD)channels[2].getProtocolStack().findProtocol(DISCARD.class)).setDiscardAll(true);
+        JChannel[] remaining=Arrays.copyOf(channels, 2);
+        Util.waitUntilAllChannelsHaveSameView(10000, 200, remaining);
+        for(JChannel ch: remaining)
+            assert ch.getView().size() == 2 && !ch.getView().containsMember(channels[2].getAddress());
+    }
+
+    protected void createChannels(int num, java.util.function.Supplier<Protocol> fd) throws Exception {
+        channels=new JChannel[num];
+        for(int i=0; i < num; i++)
+            channels[i]=create(String.valueOf((char)('A' + i)), fd.get()).connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+    }
+
+    protected static JChannel create(String name, Protocol fd) throws Exception {
+        Protocol[] protocols={
+          new SHARED_LOOPBACK(),
+          new SHARED_LOOPBACK_PING(),
+          new DISCARD(),
+          fd,
+          new VERIFY_SUSPECT().setValue("timeout", 500L),
+          new NAKACK2(),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000)
+        };
+        return new JChannel(protocols).name(name);
+    }
+}
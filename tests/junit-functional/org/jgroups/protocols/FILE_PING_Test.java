@@ -0,0 +1,145 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Responses;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the read cache of {@link FILE_PING}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class FILE_PING_Test {
+    protected JChannel a, b, c;
+    protected File     root;
+
+    @BeforeMethod protected void setup() throws Exception {
+        root=Files.createTempDirectory("file_ping").toFile();
+        a=create("A").connect(getClass().getSimpleName());
+        b=create("B").connect(getClass().getSimpleName());
+        c=create("C").connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(c, b, a);
+        File[] dirs=root.listFiles();
+        if(dirs != null)
+            for(File dir: dirs) {
+                File[] files=dir.listFiles();
+                if(files != null)
+                    for(File file: files)
+                        file.delete();
+                dir.delete();
+            }
+        root.delete();
+    }
+
+    /** Subsequent discovery requests within read_cache_ttl don't read the store */
+    public void testReadCache() {
+        FILE_PING ping=ping(c);
+        setLastModified(System.currentTimeMillis() - 10000); // files modified recently are always read again
+        ping.invalidateReadCache();
+        ping.file_cache.clear();
+        int reads=ping.getReads(), hits=ping.getReadCacheHits();
+        Responses rsps=ping.findMembers(null, false, false);
+        assert rsps.size() > 0 : rsps;
+        int reads_after_first=ping.getReads();
+        assert reads_after_first > reads;
+
+        for(int i=0; i < 10; i++)
+            ping.findMembers(null, false, false);
+        assert ping.getReads() == reads_after_first;
+        assert ping.getReadCacheHits() == hits + 10;
+
+        ping.invalidateReadCache();
+        ping.findMembers(null, false, false);
+        assert ping.getReads() == reads_after_first : "unchanged files should not be read again";
+    }
+
+    /** A file which is rewritten with the same length and modification time right after it was read is read again */
+    public void testRewrittenFile() throws Exception {
+        FILE_PING ping=ping(c);
+        long last_modified=System.currentTimeMillis();
+        setLastModified(last_modified);
+        ping.invalidateReadCache();
+        ping.file_cache.clear();
+        assert ping.findMembers(null, false, false).findResponseFrom(a.getAddress()).isCoord();
+
+        // flip the coord flag, e.g. on a coordinator change within the granularity of the modification time
+        for(File file: files()) {
+            String contents=new String(Files.readAllBytes(file.toPath())).replace("T" + System.lineSeparator(),
+                                                                                 "F" + System.lineSeparator());
+            Files.write(file.toPath(), contents.getBytes());
+        }
+        setLastModified(last_modified);
+        ping.invalidateReadCache();
+        assert !ping.findMembers(null, false, false).findResponseFrom(a.getAddress()).isCoord();
+    }
+
+    /** Concurrent discovery requests share a single read of the store */
+    public void testConcurrentReads() throws Exception {
+        FILE_PING ping=ping(c);
+        ping.invalidateReadCache();
+        ping.file_cache.clear();
+        int reads=ping.getReads(), hits=ping.getReadCacheHits();
+        CountDownLatch latch=new CountDownLatch(1);
+        Thread[] threads=new Thread[10];
+        for(int i=0; i < threads.length; i++) {
+            threads[i]=new Thread(() -> {
+                try {
+                    latch.await();
+                    ping.findMembers(null, false, false);
+                }
+                catch(InterruptedException e) {
+                }
+            });
+            threads[i].start();
+        }
+        latch.countDown();
+        for(Thread t: threads)
+            t.join(10000);
+        int num_files=new File(root, a.getClusterName()).listFiles().length;
+        System.out.printf("reads: %d, cache hits: %d, files: %d\n", ping.getReads() - reads,
+                          ping.getReadCacheHits() - hits, num_files);
+        assert ping.getReads() - reads <= num_files : "the store should have been read only once";
+        assert ping.getReadCacheHits() - hits == threads.length - 1;
+    }
+
+    protected File[] files() {
+        return new File(root, a.getClusterName()).listFiles();
+    }
+
+    protected void setLastModified(long time) {
+        for(File file: files())
+            assert file.setLastModified(time);
+    }
+
+    protected static FILE_PING ping(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(FILE_PING.class);
+    }
+
+    protected JChannel create(String name) throws Exception {
+        FILE_PING ping=new FILE_PING().setReadCacheTtl(60000);
+        ping.setValue("location", root.getAbsolutePath()).setValue("register_shutdown_hook", false);
+        return new JChannel(new TCP().setBindAddress(InetAddress.getLoopbackAddress()),
+                            ping,
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000)).name(name);
+    }
+}
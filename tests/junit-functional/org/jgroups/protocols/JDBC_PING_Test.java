@@ -0,0 +1,134 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests connection pooling, statement caching and batched writes of {@link JDBC_PING}, against an in-memory H2 database
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class JDBC_PING_Test {
+    protected static final int POOL_SIZE=2;
+    protected JChannel         a, b, c;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A").connect(getClass().getSimpleName());
+        b=create("B").connect(getClass().getSimpleName());
+        c=create("C").connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c);
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(c, b, a);
+    }
+
+    /** Connections (and their prepared statements) are reused, so no more than POOL_SIZE connections are opened */
+    public void testConnectionPooling() throws Exception {
+        for(JChannel ch: Arrays.asList(a, b, c)) {
+            PooledJDBC_PING ping=ping(ch);
+            assert ping.findMembers(null, false, false).size() == 3;
+            int statements=ping.prepared.size();
+            for(int i=0; i < 10; i++)
+                ping.findMembers(null, false, false);
+            assert ping.opened.size() <= POOL_SIZE : String.format("%s: %d connections opened", ch.getAddress(), ping.opened.size());
+            assert ping.prepared.size() == statements : "prepared statements should have been reused";
+        }
+    }
+
+    /** Statements of the same SQL with a different result set type or concurrency are cached separately */
+    public void testStatementCacheKey() throws Exception {
+        PooledJDBC_PING ping=ping(a);
+        String sql=ping.select_all_pingdata_sql;
+        Connection conn=ping.getConnection();
+        try {
+            PreparedStatement read_only=ping.prepare(conn, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            PreparedStatement updatable=ping.prepare(conn, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+            assert read_only != updatable;
+            assert read_only.getResultSetConcurrency() == ResultSet.CONCUR_READ_ONLY;
+            assert updatable.getResultSetConcurrency() == ResultSet.CONCUR_UPDATABLE;
+            assert ping.prepare(conn, sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY) == read_only;
+        }
+        finally {
+            ping.closeConnection(conn);
+        }
+    }
+
+    /** All entries are written in a single batch; an empty list doesn't access the database */
+    public void testBatchedWrites() throws Exception {
+        PooledJDBC_PING ping=ping(a);
+        int batches=ping.batch_writes;
+        ping.writeAll();
+        assert ping.batch_writes == batches + 1;
+        assert ping.findMembers(null, false, false).size() == 3;
+
+        int connections=ping.connections;
+        ping.write(Collections.emptyList(), a.getClusterName());
+        assert ping.batch_writes == batches + 1;
+        assert ping.connections == connections : "an empty list should not access the database";
+    }
+
+    protected static PooledJDBC_PING ping(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(JDBC_PING.class);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        JDBC_PING ping=new PooledJDBC_PING().setConnectionPoolSize(POOL_SIZE);
+        ping.setValue("connection_url", "jdbc:h2:mem:jdbc_ping;DB_CLOSE_DELAY=-1")
+          .setValue("connection_username", "sa").setValue("connection_password", "")
+          .setValue("connection_driver", "org.h2.Driver");
+        return new JChannel(new TCP().setBindAddress(InetAddress.getLoopbackAddress()),
+                            ping,
+                            new NAKACK2(),
+                            new UNICAST3(),
+                            new STABLE(),
+                            new GMS().joinTimeout(1000)).name(name);
+    }
+
+    /** Records the connections and statements handed out, and counts the batched writes */
+    protected static class PooledJDBC_PING extends JDBC_PING {
+        protected final Set<Connection>        opened=Collections.newSetFromMap(new ConcurrentHashMap<>());
+        protected final Set<PreparedStatement> prepared=Collections.newSetFromMap(new ConcurrentHashMap<>());
+        protected volatile int                 batch_writes, connections;
+
+        public PooledJDBC_PING() {
+            id=ClassConfigurator.getProtocolId(JDBC_PING.class);
+        }
+
+        protected Connection getConnection() {
+            Connection conn=super.getConnection();
+            connections++;
+            if(conn != null)
+                opened.add(conn);
+            return conn;
+        }
+
+        protected PreparedStatement prepare(Connection connection, String sql, int type, int concurrency) throws SQLException {
+            PreparedStatement ps=super.prepare(connection, sql, type, concurrency);
+            prepared.add(ps);
+            return ps;
+        }
+
+        protected synchronized void writeToDB(List<PingData> list, String clustername) {
+            batch_writes++;
+            super.writeToDB(list, clustername);
+        }
+    }
+}
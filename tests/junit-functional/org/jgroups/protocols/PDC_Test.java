@@ -0,0 +1,174 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Event;
+import org.jgroups.Global;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Tuple;
+import org.jgroups.util.UUID;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the disk cache (append-only log) of {@link PDC}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class PDC_Test {
+    protected File root;
+    protected PDC  pdc;
+
+    @BeforeMethod protected void setup() throws Exception {
+        root=Files.createTempDirectory("pdc").toFile();
+        pdc=create();
+    }
+
+    @AfterMethod protected void destroy() {
+        if(pdc != null)
+            pdc.destroy();
+        File[] files=root.listFiles();
+        if(files != null)
+            for(File file: files)
+                file.delete();
+        root.delete();
+    }
+
+    /** Mappings added and removed are present after a restart */
+    public void testReload() throws Exception {
+        Address[] addrs=add(pdc, 10);
+        remove(pdc, addrs[0], addrs[1]);
+        assert pdc.getNumRecords() == 12;
+        Map<Address,PhysicalAddress> expected=pdc.cache;
+        pdc.destroy();
+
+        pdc=create();
+        assert pdc.cache.equals(expected) : String.format("expected %s, but got %s", expected, pdc.cache);
+        assert !pdc.cache.containsKey(addrs[0]) && !pdc.cache.containsKey(addrs[1]);
+        assert pdc.getNumRecords() == 12 : pdc.getNumRecords();
+    }
+
+    /** An unchanged mapping is not written to the log again */
+    public void testNoAppendOfUnchangedMapping() throws Exception {
+        Address addr=add(pdc, 1)[0];
+        int appends=pdc.getNumAppends();
+        pdc.down(new Event(Event.ADD_PHYSICAL_ADDRESS, new Tuple<>(addr, pdc.cache.get(addr))));
+        assert pdc.getNumAppends() == appends;
+    }
+
+    /** Updates of the same mappings cause the log to be compacted */
+    public void testCompaction() throws Exception {
+        pdc.min_compaction_size=20;
+        Address[] addrs=add(pdc, 5);
+        for(int i=0; i < 10; i++)
+            for(int j=0; j < addrs.length; j++)
+                pdc.down(new Event(Event.ADD_PHYSICAL_ADDRESS, new Tuple<>(addrs[j], new IpAddress(7000 + i * 10 + j))));
+        assert pdc.getNumCompactions() > 0;
+        assert pdc.getNumRecords() < 20 : pdc.getNumRecords();
+        Map<Address,PhysicalAddress> expected=pdc.cache;
+        pdc.destroy();
+
+        pdc=create();
+        assert pdc.cache.equals(expected) : String.format("expected %s, but got %s", expected, pdc.cache);
+        assert pdc.getNumRecords() < 20 : pdc.getNumRecords();
+    }
+
+    /** A record which was only partially written (e.g. on a crash) is discarded, and subsequent appends succeed */
+    public void testTruncatedRecord() throws Exception {
+        add(pdc, 5);
+        pdc.destroy();
+        File log=new File(root, pdc.log_name);
+        try(RandomAccessFile raf=new RandomAccessFile(log, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        pdc=create();
+        assert pdc.cache.size() == 4 : pdc.cache;
+        add(pdc, 2);
+        pdc.destroy();
+
+        pdc=create();
+        assert pdc.cache.size() == 6 : pdc.cache;
+    }
+
+    /** A compaction by one PDC keeps the mappings added by another PDC (process) sharing the log */
+    public void testCompactionOfSharedLog() throws Exception {
+        PDC other=create();
+        try {
+            Address[] others=add(other, 5);
+            pdc.min_compaction_size=20;
+            Address[] addrs=add(pdc, 5);
+            for(int i=0; i < 10; i++)
+                for(int j=0; j < addrs.length; j++)
+                    pdc.down(new Event(Event.ADD_PHYSICAL_ADDRESS, new Tuple<>(addrs[j], new IpAddress(7000 + i * 10 + j))));
+            assert pdc.getNumCompactions() > 0;
+            add(other, 2); // appends to the compacted log
+            Map<Address,PhysicalAddress> expected=new HashMap<>(pdc.cache);
+            expected.putAll(other.cache);
+            pdc.destroy();
+
+            pdc=create();
+            assert pdc.cache.equals(expected) : String.format("expected %s, but got %s", expected, pdc.cache);
+            for(Address addr: others)
+                assert pdc.cache.containsKey(addr);
+        }
+        finally {
+            other.destroy();
+        }
+    }
+
+    /** A view change doesn't remove mappings from the log which were only read from it (e.g. of another cluster) */
+    public void testViewChangeKeepsMappingsOfOthers() throws Exception {
+        Address[] addrs=add(pdc, 3);
+        PDC other=create();
+        try {
+            assert other.cache.keySet().containsAll(Arrays.asList(addrs));
+            Address self=add(other, 1)[0], left=add(other, 1)[0];
+            other.down(new Event(Event.VIEW_CHANGE, View.create(self, 2, self)));
+            assert other.cache.keySet().equals(Collections.singleton(self)) : other.cache;
+        }
+        finally {
+            other.destroy();
+        }
+        pdc.destroy();
+
+        pdc=create();
+        assert pdc.cache.keySet().containsAll(Arrays.asList(addrs)) : pdc.cache;
+        assert pdc.cache.size() == 4 : "the mapping learned by the other PDC should have been removed: " + pdc.cache;
+    }
+
+    protected PDC create() throws Exception {
+        PDC p=new PDC().setCacheDir(root.getAbsolutePath());
+        p.setDownProtocol(new Protocol() {
+            public Object down(Event evt) {return null;}
+        });
+        p.init();
+        return p;
+    }
+
+    protected static Address[] add(PDC pdc, int num) {
+        Address[] addrs=new Address[num];
+        for(int i=0; i < num; i++) {
+            addrs[i]=UUID.randomUUID();
+            pdc.down(new Event(Event.ADD_PHYSICAL_ADDRESS, new Tuple<>(addrs[i], new IpAddress(5000 + i))));
+        }
+        return addrs;
+    }
+
+    protected static void remove(PDC pdc, Address ... addrs) {
+        for(Address addr: addrs)
+            pdc.down(new Event(Event.REMOVE_ADDRESS, addr));
+    }
+}
@@ -0,0 +1,213 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.ReceiverAdapter;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link SHARDED_SEQUENCER}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SHARDED_SEQUENCER_Test {
+    protected static final int NUM_SHARDS=8, NUM_KEYS=16, NUM_MSGS=100; // messages per key, per member
+    protected JChannel         a, b, c, d;
+    protected MyReceiver       ra, rb, rc, rd;
+
+    @BeforeMethod protected void setup() throws Exception {
+        a=create("A").connect(getClass().getSimpleName());
+        b=create("B").connect(getClass().getSimpleName());
+        c=create("C").connect(getClass().getSimpleName());
+        d=create("D").connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a, b, c, d);
+        a.setReceiver(ra=new MyReceiver());
+        b.setReceiver(rb=new MyReceiver());
+        c.setReceiver(rc=new MyReceiver());
+        d.setReceiver(rd=new MyReceiver());
+    }
+
+    @AfterMethod protected void destroy() {
+        Util.close(d, c, b, a);
+    }
+
+    /** All members pick the same sequencer for a shard, and the sequencers are spread over the members */
+    public void testSequencers() {
+        waitForSequencers(a, b, c, d);
+        Set<Address> sequencers=new HashSet<>();
+        for(int i=0; i < NUM_SHARDS; i++) {
+            Address seq=shard(a, i).getCoordinator();
+            sequencers.add(seq);
+            for(JChannel ch: Arrays.asList(b, c, d))
+                assert shard(ch, i).getCoordinator().equals(seq);
+        }
+        assert sequencers.size() > 1;
+        int sequenced=Stream.of(a, b, c, d).mapToInt(ch -> sharded(ch).getNumShardsSequenced()).sum();
+        assert sequenced == NUM_SHARDS;
+    }
+
+    /** Messages with the same key are delivered in the same order by all members */
+    public void testOrderingPerKey() throws Exception {
+        send(NUM_MSGS, a, b, c, d);
+        checkOrder(NUM_MSGS * 4, ra, rb, rc, rd);
+    }
+
+    /** When a sequencer leaves, the sequencers of its shards change and messages are still delivered in order */
+    public void testSequencerFailover() throws Exception {
+        send(NUM_MSGS / 2, a, b, c, d);
+        checkOrder(NUM_MSGS / 2 * 4, ra, rb, rc, rd);
+
+        // close the sequencer of shard 0 and send more messages
+        Address seq=shard(a, 0).getCoordinator();
+        JChannel leaving=Stream.of(a, b, c, d).filter(ch -> ch.getAddress().equals(seq)).findFirst().get();
+        List<JChannel> remaining=new ArrayList<>(Arrays.asList(a, b, c, d));
+        remaining.remove(leaving);
+        leaving.close();
+        JChannel[] channels=remaining.toArray(new JChannel[0]);
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+        waitForSequencers(channels);
+        assert !shard(channels[0], 0).getCoordinator().equals(seq);
+
+        MyReceiver[] receivers=Stream.of(channels).map(ch -> (MyReceiver)ch.getReceiver()).toArray(MyReceiver[]::new);
+        for(MyReceiver r: receivers)
+            r.clear();
+        send(NUM_MSGS / 2, channels);
+        checkOrder(NUM_MSGS / 2 * channels.length, receivers);
+    }
+
+    /** The shards have their own protocol ID, so that SHARDED_SEQUENCER can be used in a stack with SEQUENCER */
+    public void testStackWithSEQUENCER() throws Exception {
+        assert shard(a, 0).getId() != ClassConfigurator.getProtocolId(SEQUENCER.class);
+        JChannel e=null, f=null;
+        try {
+            e=create("E", true).connect("stack-with-sequencer");
+            f=create("F", true).connect("stack-with-sequencer");
+            Util.waitUntilAllChannelsHaveSameView(10000, 500, e, f);
+            MyReceiver re=new MyReceiver(), rf=new MyReceiver();
+            e.setReceiver(re);
+            f.setReceiver(rf);
+            waitForSequencers(e, f);
+            send(NUM_MSGS / 10, e, f);
+            checkOrder(NUM_MSGS / 10 * 2, re, rf);
+        }
+        finally {
+            Util.close(f, e);
+        }
+    }
+
+    protected static void send(int num_msgs, JChannel ... channels) throws Exception {
+        CountDownLatch latch=new CountDownLatch(1);
+        List<Thread> threads=new ArrayList<>();
+        for(JChannel ch: channels) {
+            for(int k=0; k < NUM_KEYS; k++) {
+                final String key="key-" + k;
+                Thread t=new Thread(() -> {
+                    try {
+                        latch.await();
+                        for(int i=1; i <= num_msgs; i++)
+                            ch.send(SHARDED_SEQUENCER.setShardKey(new Message(null, key + ":" + ch.getName() + i), key));
+                    }
+                    catch(Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+        }
+        latch.countDown();
+        for(Thread t: threads)
+            t.join(30000);
+    }
+
+    /** Checks that every receiver received expected messages per key, in the same order */
+    protected static void checkOrder(int expected, MyReceiver ... receivers) {
+        for(int i=0; i < 100; i++) {
+            if(Stream.of(receivers).allMatch(r -> r.size() == expected * NUM_KEYS))
+                break;
+            Util.sleep(200);
+        }
+        for(MyReceiver r: receivers)
+            assert r.size() == expected * NUM_KEYS : String.format("expected %d messages, got %d", expected * NUM_KEYS, r.size());
+        Map<String,List<String>> first=receivers[0].map();
+        for(int i=1; i < receivers.length; i++)
+            assert receivers[i].map().equals(first) : "messages were not delivered in the same order";
+        assert IntStream.range(0, NUM_KEYS).allMatch(k -> first.get("key-" + k).size() == expected);
+    }
+
+    /** Waits until the sequencers of all shards (installed asynchronously) are the same in all channels */
+    protected static void waitForSequencers(JChannel ... channels) {
+        for(int i=0; i < 50; i++) {
+            boolean same=IntStream.range(0, NUM_SHARDS).allMatch(idx -> {
+                Address seq=shard(channels[0], idx).getCoordinator();
+                return seq != null && Stream.of(channels).allMatch(ch -> seq.equals(shard(ch, idx).getCoordinator()));
+            });
+            if(same)
+                break;
+            Util.sleep(100);
+        }
+    }
+
+    protected static SHARDED_SEQUENCER sharded(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(SHARDED_SEQUENCER.class);
+    }
+
+    protected static SEQUENCER shard(JChannel ch, int index) {
+        return sharded(ch).getShard(index);
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return create(name, false);
+    }
+
+    protected static JChannel create(String name, boolean with_sequencer) throws Exception {
+        List<Protocol> protocols=new ArrayList<>(Arrays.asList(new SHARED_LOOPBACK(),
+                                                               new SHARED_LOOPBACK_PING(),
+                                                               new NAKACK2(),
+                                                               new UNICAST3(),
+                                                               new STABLE(),
+                                                               new GMS().joinTimeout(1000)));
+        if(with_sequencer)
+            protocols.add(new SEQUENCER());
+        protocols.add(new SHARDED_SEQUENCER().setNumShards(NUM_SHARDS));
+        protocols.add(new FRAG2());
+        return new JChannel(protocols).name(name);
+    }
+
+    /** Keeps the messages received per key, in order of delivery */
+    protected static class MyReceiver extends ReceiverAdapter {
+        protected final Map<String,List<String>> map=new HashMap<>();
+        protected int                            size;
+
+        public synchronized int size()  {return size;}
+        public synchronized void clear() {map.clear(); size=0;}
+
+        public synchronized Map<String,List<String>> map() {
+            Map<String,List<String>> retval=new HashMap<>();
+            map.forEach((k,v) -> retval.put(k, new ArrayList<>(v)));
+            return retval;
+        }
+
+        public synchronized void receive(Message msg) {
+            String s=msg.getObject();
+            map.computeIfAbsent(s.substring(0, s.indexOf(':')), k -> new ArrayList<>()).add(s);
+            size++;
+        }
+    }
+}
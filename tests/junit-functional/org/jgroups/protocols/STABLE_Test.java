@@ -0,0 +1,136 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Table;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link STABLE} with delta digests and tree aggregation
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class STABLE_Test {
+    protected JChannel[] channels;
+
+    @AfterMethod protected void destroy() {
+        for(int i=channels.length-1; i >= 0; i--)
+            Util.close(channels[i]);
+    }
+
+
+    /** Sends messages and runs a few STABLE rounds: the first round sends full digests, the others deltas */
+    public void testDeltaDigests() throws Exception {
+        createChannels(3, stable -> stable.setValue("use_delta_digests", true).setValue("full_digest_interval", 2));
+        sendAndWaitForStability(4);
+
+        for(JChannel ch: channels) {
+            STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
+            System.out.printf("%s: stable msgs sent: %d (deltas: %d)\n", ch.getAddress(), stable.getStableSent(), stable.getDeltaStableSent());
+            assert stable.getDeltaStableSent() > 0;
+        }
+        assert stable(0).getDeltaStableReceived() > 0;
+    }
+
+    /** Tests tree aggregation with a fanout of 2: A is the root, B and C its children, D and E the children of B */
+    public void testTreeAggregation() throws Exception {
+        createChannels(5, stable -> stable.setValue("tree_fanout", 2));
+        sendAndWaitForStability(3);
+        for(JChannel ch: channels) {
+            STABLE stable=ch.getProtocolStack().findProtocol(STABLE.class);
+            System.out.printf("%s: stable msgs received: %d, stability msgs sent: %d\n",
+                              ch.getAddress(), stable.getStableReceived(), stable.getStabilitySent());
+        }
+        STABLE a=stable(0), b=stable(1), c=stable(2);
+        assert a.getStabilitySent() > 0;
+        assert b.getStabilitySent() == 0 && c.getStabilitySent() == 0; // only the root sends STABILITY messages
+        assert b.getStableReceived() > c.getStableReceived(); // B merges the digests of D and E, C is a leaf
+    }
+
+    /** The digests of STABLE and STABILITY messages are marshalled with the members as indexes into the view */
+    public void testMemberIndex() throws Exception {
+        createChannels(3, stable -> stable.setValue("use_member_index", true));
+        sendAndWaitForStability(3);
+    }
+
+    /** Tests tree aggregation combined with delta digests */
+    public void testTreeAggregationWithDeltas() throws Exception {
+        createChannels(4, stable -> stable.setValue("tree_fanout", 2).setValue("use_delta_digests", true));
+        sendAndWaitForStability(4);
+        assert stable(1).getDeltaStableSent() > 0;
+    }
+
+
+    /** Every member sends 5 messages per round, then STABLE rounds are run until all messages are stable */
+    protected void sendAndWaitForStability(int rounds) throws Exception {
+        int expected_seqno=0;
+        for(int round=1; round <= rounds; round++) {
+            for(JChannel ch: channels)
+                for(int i=0; i < 5; i++)
+                    ch.send(null, i);
+            expected_seqno+=5;
+            waitForStability(expected_seqno);
+        }
+    }
+
+    /** Runs STABLE rounds until all members have purged all messages up to seqno from all senders */
+    protected void waitForStability(long seqno) throws Exception {
+        for(int i=0; i < 20; i++) {
+            Stream.of(channels).map(ch -> (STABLE)ch.getProtocolStack().findProtocol(STABLE.class)).forEach(STABLE::gc);
+            Util.sleep(100);
+            if(allStable(seqno))
+                return;
+        }
+        assert allStable(seqno) : String.format("messages up to %d are not stable", seqno);
+    }
+
+    protected boolean allStable(long seqno) {
+        for(JChannel ch: channels) {
+            NAKACK2 nak=ch.getProtocolStack().findProtocol(NAKACK2.class);
+            for(Address sender: ch.getView().getMembersRaw()) {
+                Table<?> win=nak.getWindow(sender);
+                if(win == null || win.getLow() < seqno)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    protected STABLE stable(int index) {
+        return channels[index].getProtocolStack().findProtocol(STABLE.class);
+    }
+
+    protected void createChannels(int num, Consumer<STABLE> config) throws Exception {
+        channels=new JChannel[num];
+        for(int i=0; i < num; i++) {
+            STABLE stable=new STABLE();
+            stable.setValue("desired_avg_gossip", 0L).setValue("max_bytes", 0L);
+            config.accept(stable);
+            channels[i]=create(String.valueOf((char)('A' + i)), stable).connect(getClass().getSimpleName());
+        }
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+    }
+
+    protected static JChannel create(String name, STABLE stable) throws Exception {
+        Protocol[] protocols={
+          new SHARED_LOOPBACK(),
+          new SHARED_LOOPBACK_PING(),
+          new NAKACK2(),
+          new UNICAST3(),
+          stable,
+          new GMS().joinTimeout(1000)
+        };
+        return new JChannel(protocols).name(name);
+    }
+}
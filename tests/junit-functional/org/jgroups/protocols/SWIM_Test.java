@@ -0,0 +1,97 @@
+package org.jgroups.protocols;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link SWIM}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SWIM_Test {
+    protected JChannel[] channels;
+
+    @AfterMethod protected void destroy() {
+        for(int i=channels.length-1; i >= 0; i--)
+            Util.close(channels[i]);
+    }
+
+
+    /** Crashes D: A, B and C need to suspect and exclude it */
+    public void testCrashedMemberIsExcluded() throws Exception {
+        createChannels(4, 500);
+        JChannel d=channels[3];
+        ((DISCARD)d.getProtocolStack().findProtocol(DISCARD.class)).setDiscardAll(true);
+
+        JChannel[] remaining=Arrays.copyOf(channels, 3);
+        Util.waitUntilAllChannelsHaveSameView(10000, 200, remaining);
+        for(JChannel ch: remaining) {
+            SWIM swim=swim(ch);
+            System.out.printf("%s: view=%s, suspicions=%d, suspect events=%d\n", ch.getAddress(), ch.getView(),
+                              swim.getNumSuspicions(), swim.getNumSuspectEvents());
+            assert ch.getView().size() == 3 && !ch.getView().containsMember(d.getAddress());
+        }
+        assert Stream.of(remaining).mapToInt(ch -> swim(ch).getNumSuspectEvents()).sum() > 0;
+    }
+
+    /** B wrongly suspects C: C learns about the suspicion and refutes it, so C is not excluded */
+    public void testRefutation() throws Exception {
+        createChannels(3, 60000);
+        SWIM b=swim(channels[1]), c=swim(channels[2]);
+        b.suspect(channels[2].getAddress());
+        assert b.getNumSuspicions() == 1;
+
+        for(int i=0; i < 50; i++) {
+            if(b.getNumRefutations() > 0)
+                break;
+            Util.sleep(100);
+        }
+        System.out.printf("C: incarnation=%d, self refutations=%d; B: refutations=%d, suspected=%s\n",
+                          c.getIncarnation(), c.getNumSelfRefutations(), b.getNumRefutations(), b.getSuspectedMembers());
+        assert c.getIncarnation() > 0 && c.getNumSelfRefutations() > 0;
+        assert b.getNumRefutations() > 0;
+        assert b.getSuspectedMembers().equals("[]");
+        for(JChannel ch: channels) {
+            assert ch.getView().size() == 3;
+            assert swim(ch).getNumSuspectEvents() == 0;
+        }
+    }
+
+
+    protected static SWIM swim(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(SWIM.class);
+    }
+
+    protected void createChannels(int num, long suspect_timeout) throws Exception {
+        channels=new JChannel[num];
+        for(int i=0; i < num; i++)
+            channels[i]=create(String.valueOf((char)('A' + i)), suspect_timeout).connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+    }
+
+    protected static JChannel create(String name, long suspect_timeout) throws Exception {
+        Protocol[] protocols={
+          new SHARED_LOOPBACK(),
+          new SHARED_LOOPBACK_PING(),
+          new DISCARD(),
+          new SWIM().setInterval(100).setPingTimeout(30).setSuspectTimeout(suspect_timeout),
+          new VERIFY_SUSPECT().setValue("timeout", 500L),
+          new NAKACK2(),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000)
+        };
+        return new JChannel(protocols).name(name);
+    }
+}
@@ -1,16 +1,21 @@
 package org.jgroups.protocols;
 
-import org.jgroups.Global;
-import org.jgroups.JChannel;
+import org.jgroups.*;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
 import org.jgroups.stack.IpAddress;
-import org.jgroups.util.Util;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.*;
+import org.jgroups.util.UUID;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
 
 /**
  * @author Bela Ban
@@ -18,9 +23,16 @@ import java.util.List;
  */
 @Test(groups=Global.FUNCTIONAL)
 public class TCPPING_Test {
-    protected JChannel ch;
+    protected JChannel   ch;
+    protected JChannel[] channels;
+    protected int[]      ports; // the bind ports of the channels created by create()
 
-    @AfterMethod protected void destroy() {Util.close(ch);}
+    @AfterMethod protected void destroy() {
+        Util.close(ch);
+        if(channels != null)
+            for(int i=channels.length-1; i >= 0; i--)
+                Util.close(channels[i]);
+    }
 
     /** Tests https://issues.jboss.org/browse/JGRP-2168 */
     public void testSettingInitialHostsProgrammatically() throws Exception {
@@ -36,4 +48,111 @@ public class TCPPING_Test {
         assert !ping.getInitialHosts().isEmpty() : "No initial hosts!";
         assert !gossip.getInitialHosts().isEmpty(): "no initial hosts!";
     }
+
+    /** The coord sends a snapshot of the address cache to each joiner, and the new entries to existing members */
+    public void testBulkCacheDissemination() throws Exception {
+        createChannels(4);
+        TCPPING a=ping(channels[0]);
+        waitForCacheVersion(channels);
+        assert a.getNumCacheSnapshotsSent() == 3; // to B, C and D
+        assert a.getNumCacheDeltasSent() == 2;    // to existing members when C and D joined
+        for(JChannel c: channels)
+            for(JChannel other: channels)
+                assert c.down(new Event(Event.GET_PHYSICAL_ADDRESS, other.getAddress())) != null;
+    }
+
+    /** A member which missed a delta requests the missing entries from the coord */
+    public void testMissedDelta() throws Exception {
+        createChannels(2);
+        ViewId version_before_c=ping(channels[1]).getCacheVersion();
+        channels=add(channels, create(2).connect(getClass().getSimpleName()));
+        Util.waitUntilAllChannelsHaveSameView(10000, 200, channels);
+        waitForCacheVersion(channels);
+
+        ping(channels[1]).cache_version=version_before_c; // B missed the delta sent when C joined
+        channels=add(channels, create(3).connect(getClass().getSimpleName()));
+        Util.waitUntilAllChannelsHaveSameView(10000, 200, channels);
+        waitForCacheVersion(channels);
+        TCPPING a=ping(channels[0]);
+        assert a.getNumCacheDeltasSent() == 3 : "expected 2 deltas and 1 catch-up delta for B: " + a.getNumCacheDeltasSent();
+    }
+
+    /** Cache updates for a different cluster are discarded */
+    public void testCacheUpdateOfDifferentCluster() throws Exception {
+        createChannels(2);
+        Address addr=UUID.randomUUID();
+        PingData data=new PingData(addr, true, "X", new IpAddress(InetAddress.getLoopbackAddress(), 7500));
+        Buffer update=new AddressCacheUpdate(null, null, Collections.singletonList(data)).compress();
+        for(String cluster: Arrays.asList("other-cluster", null)) {
+            Message msg=new Message(channels[1].getAddress()).src(channels[0].getAddress()).setBuffer(update)
+              .putHeader(ping(channels[1]).getId(), new PingHeader(PingHeader.CACHE_RSP).clusterName(cluster));
+            ping(channels[1]).up(msg);
+            assert channels[1].down(new Event(Event.GET_PHYSICAL_ADDRESS, addr)) == null;
+        }
+    }
+
+    /** An update with an invalid uncompressed length is rejected before the length is allocated */
+    public void testCacheUpdateWithInvalidLength() throws Exception {
+        for(int length: new int[]{-1, Integer.MAX_VALUE}) {
+            ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(16);
+            Bits.writeInt(length, out);
+            out.write(new byte[8]); // compressed data isn't read
+            try {
+                AddressCacheUpdate.uncompress(out.buffer(), 0, out.position());
+                assert false : "uncompressed length " + length + " should have been rejected";
+            }
+            catch(DataFormatException expected) {
+            }
+        }
+    }
+
+    protected static TCPPING ping(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(TCPPING.class);
+    }
+
+    protected static void waitForCacheVersion(JChannel ... channels) {
+        ViewId expected=ping(channels[0]).getCacheVersion();
+        for(int i=0; i < 50; i++) {
+            if(Stream.of(channels).allMatch(c -> Objects.equals(ping(c).getCacheVersion(), expected)))
+                break;
+            Util.sleep(100);
+        }
+        for(JChannel c: channels)
+            assert Objects.equals(ping(c).getCacheVersion(), expected)
+              : String.format("%s: cache version is %s, expected %s", c.getAddress(), ping(c).getCacheVersion(), expected);
+    }
+
+    protected static JChannel[] add(JChannel[] channels, JChannel ch) {
+        JChannel[] retval=Arrays.copyOf(channels, channels.length+1);
+        retval[channels.length]=ch;
+        return retval;
+    }
+
+    protected void createChannels(int num) throws Exception {
+        ports=ResourceManager.getNextTcpPorts(InetAddress.getLoopbackAddress(), 4).stream().mapToInt(Integer::intValue).toArray();
+        channels=new JChannel[num];
+        for(int i=0; i < num; i++)
+            channels[i]=create(i).connect(getClass().getSimpleName());
+        Util.waitUntilAllChannelsHaveSameView(10000, 200, channels);
+    }
+
+    protected JChannel create(int index) throws Exception {
+        InetAddress loopback=InetAddress.getLoopbackAddress();
+        List<InetSocketAddress> hosts=new ArrayList<>();
+        for(int port: ports)
+            hosts.add(new InetSocketAddress(loopback, port));
+        TCPPING ping=new TCPPING();
+        ping.setInitialHosts(hosts);
+        ping.setPortRange(0);
+        ping.bulkCacheDissemination(true);
+        Protocol[] protocols={
+          new TCP().setBindAddress(loopback).setBindPort(ports[index]),
+          ping,
+          new NAKACK2(),
+          new UNICAST3(),
+          new STABLE(),
+          new GMS().joinTimeout(1000)
+        };
+        return new JChannel(protocols).name(String.valueOf((char)('A' + index)));
+    }
 }
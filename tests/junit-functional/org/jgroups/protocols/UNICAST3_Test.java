@@ -10,6 +10,9 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Set;
+import java.util.stream.Stream;
+
 /**
  * @author Bela Ban
  * @since  4.0
@@ -97,11 +100,111 @@ public class UNICAST3_Test {
         assert receiver.count == 499 : String.format("received %d messages, but should only have received 499", receiver.count);
     }
 
+    /** Tests that connections without unacked or missing messages are removed from the dirty sets */
+    public void testDirtyConnectionsAreCleared() throws Exception {
+        b.getProtocolStack().removeProtocol(DropUnicastAck.class);
+        MyReceiver r=new MyReceiver();
+        b.setReceiver(r);
+        for(int i=1; i <= 10; i++)
+            a.send(b_addr, i);
+
+        for(int i=0; i < 10; i++) {
+            if(r.count >= 10)
+                break;
+            Util.sleep(50);
+        }
+        assert r.count == 10 : String.format("received %d messages, but should have received 10", r.count);
+
+        for(int i=0; i < 10; i++) {
+            uni_b.triggerXmit(); // sends the pending ACK to A
+            uni_a.triggerXmit();
+            if(uni_a.getNumDirtyConnections() == 0 && uni_b.getNumDirtyConnections() == 0)
+                break;
+            Util.sleep(100);
+        }
+        System.out.printf("dirty connections: A: %d, B: %d\n", uni_a.getNumDirtyConnections(), uni_b.getNumDirtyConnections());
+        assert uni_a.getNumDirtyConnections() == 0 && uni_b.getNumDirtyConnections() == 0;
+        assert uni_a.getNumUnackedMessages() == 0;
+    }
+
+    /** Tests that ACKs are piggybacked on responses (and on the next request) in a request/response exchange */
+    public void testPiggybackedAcks() throws Exception {
+        b.getProtocolStack().removeProtocol(DropUnicastAck.class);
+        Stream.of(uni_a, uni_b).forEach(u -> u.setValue("ack_delay", 1000L).setValue("xmit_interval", 60_000L));
+        b.setReceiver(new ReceiverAdapter() {
+            public void receive(Message msg) {
+                try {
+                    Object obj=msg.getObject();
+                    b.send(msg.src(), obj); // response
+                }
+                catch(Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        MyReceiver r=new MyReceiver();
+        a.setReceiver(r);
+        for(int i=1; i <= 10; i++) {
+            a.send(b_addr, i); // request
+            for(int j=0; j < 20 && r.count < i; j++)
+                Util.sleep(50);
+        }
+        assert r.count == 10 : String.format("received %d responses, but should have received 10", r.count);
+
+        for(int i=0; i < 30; i++) {
+            if(uni_a.getNumUnackedMessages() == 0 && uni_b.getNumUnackedMessages() == 0)
+                break;
+            Util.sleep(100);
+        }
+        System.out.printf("A: %d piggybacked ACKs sent, %d ACKs sent, B: %d piggybacked ACKs sent, %d ACKs sent\n",
+                          uni_a.piggybacked_acks_sent.sum(), uni_a.getNumAcksSent(),
+                          uni_b.piggybacked_acks_sent.sum(), uni_b.getNumAcksSent());
+        assert uni_a.getNumUnackedMessages() == 0 && uni_b.getNumUnackedMessages() == 0;
+        assert uni_b.piggybacked_acks_sent.sum() > 0 && uni_a.piggybacked_acks_sent.sum() > 0;
+        assert uni_a.piggybacked_acks_received.sum() == uni_b.piggybacked_acks_sent.sum();
+    }
+
+
+    /**
+     * Runs the retransmit task between marking the connection as dirty and flagging the ACK as pending in
+     * the receiver. The ACK must not get lost (it would only be sent on the next message from A)
+     */
+    public void testAckWithConcurrentXmit() throws Exception {
+        b.getProtocolStack().removeProtocol(DropUnicastAck.class);
+        Stream.of(uni_a, uni_b).forEach(UNICAST3::stopRetransmitTask); // A must not retransmit the message
+        ((XmitOnMarkDirty)uni_b).enabled=true;
+        a.send(b_addr, 1);
+        Util.waitUntil(5000, 100, () -> uni_a.getNumUnackedMessages() == 0, "message was not acked by B");
+    }
+
 
     protected JChannel create(String name) throws Exception {
         return new JChannel(new SHARED_LOOPBACK(),
                             new SHARED_LOOPBACK_PING(),
-                            new UNICAST3()).name(name);
+                            name.equals("B")? new XmitOnMarkDirty() : new UNICAST3()).name(name);
+    }
+
+    /** Calls {@link #triggerXmit()} when a connection is added to the dirty receiver connections (if enabled) */
+    protected static class XmitOnMarkDirty extends UNICAST3 {
+        protected final ThreadLocal<Boolean> in_xmit=ThreadLocal.withInitial(() -> false);
+        protected volatile boolean           enabled;
+
+        public XmitOnMarkDirty() {
+            id=UNICAST3_ID;
+        }
+
+        protected void markDirty(Set<Address> dirty_set, Address addr) {
+            super.markDirty(dirty_set, addr);
+            if(enabled && dirty_set == dirty_recv_conns && !in_xmit.get()) {
+                in_xmit.set(true);
+                try {
+                    triggerXmit();
+                }
+                finally {
+                    in_xmit.set(false);
+                }
+            }
+        }
     }
 
     /**
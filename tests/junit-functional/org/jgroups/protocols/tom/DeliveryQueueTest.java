@@ -0,0 +1,97 @@
+package org.jgroups.protocols.tom;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.Message;
+import org.jgroups.protocols.tom.DeliveryManagerImpl.DeliveryQueue;
+import org.jgroups.protocols.tom.DeliveryManagerImpl.MessageInfo;
+import org.jgroups.util.Util;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests the indexed binary heap ({@link DeliveryQueue}) of {@link DeliveryManagerImpl}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class DeliveryQueueTest {
+    protected static final Address A=Util.createRandomAddress("A");
+    protected static final int     NUM=20;
+
+    /** A message whose sequence number decreases is moved up, one whose sequence number increases is moved down */
+    public void testUpdate() {
+        DeliveryQueue queue=new DeliveryQueue();
+        MessageInfo[] infos=add(queue, NUM);
+        MessageInfo last=infos[NUM - 1];
+        update(queue, last, 5);
+        assert queue.peek() == last;
+
+        MessageInfo first=infos[0];
+        update(queue, first, 1000);
+        update(queue, infos[NUM / 2], 105); // between infos[9] (100) and infos[10] (110)
+        assertOrder(queue, seqnos(infos));
+    }
+
+    /** Removing messages from the middle of the heap keeps the order (and the positions) of the other messages */
+    public void testRemoveMiddle() {
+        DeliveryQueue queue=new DeliveryQueue();
+        MessageInfo[] infos=add(queue, NUM);
+        queue.removeIf(info -> info.getSequenceNumber() == 50 || info.getSequenceNumber() == 130);
+        assert queue.toList().size() == NUM - 2;
+
+        // the positions of the remaining messages must still be correct for an update to move them
+        MessageInfo info=infos[15];
+        update(queue, info, 1);
+        assert queue.peek() == info;
+
+        List<Long> expected=seqnos(infos);
+        expected.removeAll(Arrays.asList(50L, 130L));
+        assertOrder(queue, expected);
+    }
+
+    public void testRemoveAll() {
+        DeliveryQueue queue=new DeliveryQueue();
+        add(queue, NUM);
+        queue.removeIf(info -> true);
+        assert queue.isEmpty() && queue.peek() == null && queue.poll() == null;
+    }
+
+    /** Adds num messages with sequence numbers 10, 20, 30 ..., in random order */
+    protected static MessageInfo[] add(DeliveryQueue queue, int num) {
+        MessageInfo[] infos=new MessageInfo[num];
+        for(int i=0; i < num; i++)
+            infos[i]=new MessageInfo(new MessageID(A, i + 1), new Message(), (i + 1) * 10, -1);
+        List<MessageInfo> list=new ArrayList<>(Arrays.asList(infos));
+        Collections.shuffle(list);
+        list.forEach(queue::add);
+        return infos;
+    }
+
+    protected static void update(DeliveryQueue queue, MessageInfo info, long seqno) {
+        info.updateAndMarkReadyToDeliver(seqno);
+        queue.update(info);
+    }
+
+    protected static List<Long> seqnos(MessageInfo ... infos) {
+        List<Long> retval=new ArrayList<>();
+        for(MessageInfo info: infos)
+            retval.add(info.getSequenceNumber());
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /** Polls all messages and checks that they are returned in the expected order */
+    protected static void assertOrder(DeliveryQueue queue, List<Long> expected) {
+        List<Long> actual=new ArrayList<>();
+        MessageInfo info;
+        while((info=queue.poll()) != null)
+            actual.add(info.getSequenceNumber());
+        assert actual.equals(expected) : String.format("expected %s, but got %s", expected, actual);
+        assert queue.isEmpty();
+    }
+}
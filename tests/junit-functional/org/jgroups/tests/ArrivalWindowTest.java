@@ -0,0 +1,85 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.ArrivalWindow;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link ArrivalWindow}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class ArrivalWindowTest {
+    protected static final long MS=TimeUnit.MILLISECONDS.toNanos(1);
+
+    public void testBootstrap() {
+        ArrivalWindow win=new ArrivalWindow(10, 1000 * MS, 10 * MS, 0);
+        assert win.size() == 0;
+        assert win.mean() == 1000 * MS;
+        assert win.phi(500 * MS) < 1;
+        assert win.phi(3000 * MS) > 8;
+    }
+
+    public void testPhiIncreasesWithTime() {
+        ArrivalWindow win=createWindow(10, 1000, 100, 10);
+        double prev=-1;
+        for(long t=0; t <= 3000; t+=100) {
+            double phi=win.phi(win_start + t * MS);
+            assert phi >= prev : String.format("phi at %d ms (%.2f) < previous phi (%.2f)", t, phi, prev);
+            prev=phi;
+        }
+        assert win.phi(win_start + 500 * MS) < 1;
+        assert win.phi(win_start + 3000 * MS) > 8;
+    }
+
+    public void testMinStdDeviation() {
+        ArrivalWindow win=createWindow(10, 1000, 0, 500);
+        assert win.stddev() == 500 * MS;
+        assert win.phi(win_start + 1200 * MS) < 1; // perfectly regular heartbeats don't cause suspicion on a short delay
+    }
+
+    /** With FD_ALL's default interval (8s) and min deviation (interval/4), a single 4s GC pause is no suspicion */
+    public void testPauseWithRegularHeartbeats() {
+        ArrivalWindow win=createWindow(10, 8000, 0, 8000 / 4);
+        assert win.phi(win_start + 12_000 * MS) < 8;
+        win=createWindow(10, 8000, 0, 500);
+        assert win.phi(win_start + 12_000 * MS) > 8;
+    }
+
+    public void testWrapAround() {
+        ArrivalWindow win=new ArrivalWindow(5, 1000 * MS, MS, 0);
+        long now=0;
+        for(int i=0; i < 20; i++) // mean: 1000 ms
+            win.add(now+=1000 * MS);
+        assert win.size() == 5;
+        for(int i=0; i < 5; i++) // replaces all samples, mean: 200 ms
+            win.add(now+=200 * MS);
+        assert win.size() == 5;
+        assert Math.abs(win.mean() - 200 * MS) < 1;
+        assert win.stddev() == MS;
+    }
+
+    public void testTouchPostponesSuspicion() {
+        ArrivalWindow win=createWindow(10, 1000, 100, 10);
+        long now=win_start + 2000 * MS;
+        assert win.phi(now) > 8;
+        win.touch(now);
+        assert win.phi(now) < 1;
+        assert win.size() == 10; // touch() doesn't add a sample
+    }
+
+    protected long win_start;
+
+    /** Creates a window with num samples of interval ms, +/- deviation ms */
+    protected ArrivalWindow createWindow(int num, long interval, long deviation, long min_std_deviation) {
+        ArrivalWindow win=new ArrivalWindow(num, interval * MS, min_std_deviation * MS, 0);
+        long now=0;
+        for(int i=0; i < num; i++)
+            win.add(now+=(interval + (i % 2 == 0? deviation : -deviation)) * MS);
+        win_start=now;
+        return win;
+    }
+}
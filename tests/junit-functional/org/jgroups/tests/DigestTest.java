@@ -5,7 +5,11 @@ package org.jgroups.tests;
 import org.jgroups.Address;
 import org.jgroups.Global;
 import org.jgroups.View;
+import org.jgroups.util.Bits;
+import org.jgroups.util.ByteArrayDataInputStream;
+import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.Digest;
+import org.jgroups.util.MemberIndex;
 import org.jgroups.util.MutableDigest;
 import org.jgroups.util.Util;
 import org.testng.Assert;
@@ -378,6 +382,61 @@ public class DigestTest {
 
 
 
+    public void testMergeMin() {
+        MutableDigest digest=new MutableDigest(members).set(a1, 499,502).set(a3, 26,30); // a2 is not set
+        digest.mergeMin(d);
+        System.out.println("merged digest: " + digest);
+        Assert.assertEquals(digest.get(a1), new long[]{499,502});
+        Assert.assertEquals(digest.get(a2), new long[]{26,26});
+        Assert.assertEquals(digest.get(a3), new long[]{25,33});
+    }
+
+    public void testMergeMinWithDifferentMembers() {
+        Address ip1=Util.createRandomAddress("x");
+        View tmp_view=View.create(a1,1,a3,ip1,a1); // different order, a2 is missing
+        MutableDigest digest=new MutableDigest(tmp_view.getMembersRaw()).set(a1, 499,502).set(ip1, 10,10);
+        digest.mergeMin(d);
+        System.out.println("merged digest: " + digest);
+        Assert.assertEquals(digest.get(a1), new long[]{499,502});
+        Assert.assertEquals(digest.get(a3), new long[]{25,33});
+        Assert.assertEquals(digest.get(ip1), new long[]{10,10});
+        assert !digest.contains(a2);
+    }
+
+    /** Digests with the same members take the fast (aligned) path, the results have to be the same as the slow path */
+    public void testMergeLargeDigests() {
+        final int NUM=500;
+        Address[] mbrs=new Address[NUM];
+        for(int i=0; i < NUM; i++)
+            mbrs[i]=Util.createRandomAddress(String.valueOf(i));
+        Address[] copy=Arrays.copyOf(mbrs, NUM);
+        Address[] reversed=new Address[NUM];
+        for(int i=0; i < NUM; i++)
+            reversed[i]=mbrs[NUM-1-i];
+
+        MutableDigest d1=new MutableDigest(mbrs), d2=new MutableDigest(copy), d3=new MutableDigest(reversed);
+        for(int i=0; i < NUM; i++) {
+            d1.set(mbrs[i], i, i+5);
+            d2.set(mbrs[i], NUM-i, NUM-i+1);
+            d3.set(mbrs[i], NUM-i, NUM-i+1);
+        }
+        assert d1.hasSameMembers(d2) && !d1.hasSameMembers(d3);
+
+        MutableDigest fast=new MutableDigest(d1).merge(d2), slow=new MutableDigest(d1).merge(d3);
+        MutableDigest fast_min=new MutableDigest(d1).mergeMin(d2), slow_min=new MutableDigest(d1).mergeMin(d3);
+        for(int i=0; i < NUM; i++) {
+            Address mbr=mbrs[i];
+            Assert.assertEquals(fast.get(mbr), slow.get(mbr));
+            Assert.assertEquals(fast.get(mbr), new long[]{Math.max(i, NUM-i), Math.max(i+5, NUM-i+1)});
+            Assert.assertEquals(fast_min.get(mbr), slow_min.get(mbr));
+            Assert.assertEquals(fast_min.get(mbr), new long[]{Math.min(i, NUM-i), Math.max(i+5, NUM-i+1)});
+            assert d3.contains(mbr);
+        }
+        assert !d3.contains(Util.createRandomAddress("x"));
+        Assert.assertEquals(new MutableDigest(mbrs).set(d3), new MutableDigest(mbrs).set(d2)); // slow and fast path
+    }
+
+
     public void testStreamable() throws Exception {
         ByteArrayOutputStream outstream=new ByteArrayOutputStream();
         DataOutputStream dos=new DataOutputStream(outstream);
@@ -433,5 +492,107 @@ public class DigestTest {
 
     }
 
+    public void testDeltaMarshalling() throws Exception {
+        Digest base=new Digest(members, new long[]{500,501, 26,26, 25,33});
+        Digest digest=new Digest(members, new long[]{500,501, 30,32, 25,33}); // only a2 changed
+        assert digest.numChanged(base) == 1;
+
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.deltaSize(base));
+        digest.writeDeltaTo(out, base);
+        assert out.position() == digest.deltaSize(base);
+        assert out.position() < digest.serializedSize(false);
+
+        MutableDigest tmp=new MutableDigest(base);
+        tmp.readDeltaFrom(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        System.out.println("digest with delta applied = " + tmp);
+        Assert.assertEquals(tmp, digest);
+    }
+
+    public void testCompactMarshalling() throws Exception {
+        MemberIndex index=new MemberIndex(View.create(a1, 1, members));
+        Digest same=new Digest(members, new long[]{500,501, 26,26, 25,33});
+        Digest subset=new Digest(new Address[]{a3,a1}, new long[]{25,33, 500,501});
+        Digest other=new Digest(new Address[]{a1,Util.createRandomAddress("X")}, new long[]{500,501, 1,2});
+
+        Digest tmp=marshalAndUnmarshal(same, index, (int)same.serializedSize(false) - Global.SHORT_SIZE + 1);
+        assert tmp.getMembersRaw() == members; // the members of the view are used
+        Assert.assertEquals(tmp, same);
+        assert same.serializedSize(index) < same.serializedSize(true) / 4;
+
+        tmp=marshalAndUnmarshal(subset, index, (int)subset.serializedSize(false) - Global.SHORT_SIZE
+                                                 + 1 + Bits.size(2) + Bits.size(2) + Bits.size(0));
+        Assert.assertEquals(tmp, subset);
+
+        tmp=marshalAndUnmarshal(other, index, (int)other.serializedSize(true) + 1);
+        Assert.assertEquals(tmp, other);
+
+        // full addresses can be read without an index, indexes can't
+        tmp=new Digest();
+        tmp.readFrom(new ByteArrayDataInputStream(marshal(other, null)), (MemberIndex)null);
+        Assert.assertEquals(tmp, other);
+        try {
+            new Digest().readFrom(new ByteArrayDataInputStream(marshal(same, index)), (MemberIndex)null);
+            assert false : "reading a digest with indexed members should fail without an index";
+        }
+        catch(IllegalStateException ex) {
+            System.out.printf("caught exception as expected: %s\n", ex);
+        }
+    }
+
+    public void testMemberIndexLargeView() throws Exception {
+        Address[] mbrs=new Address[500];
+        for(int i=0; i < mbrs.length; i++)
+            mbrs[i]=Util.createRandomAddress(String.valueOf(i));
+        MemberIndex index=new MemberIndex(View.create(mbrs[0], 5, mbrs));
+        MutableDigest digest=new MutableDigest(mbrs);
+        for(int i=0; i < mbrs.length; i++)
+            digest.set(mbrs[i], 100000 + i, 100010 + i);
+        int full=(int)digest.serializedSize(true), compact=digest.serializedSize(index);
+        System.out.printf("digest with %d members: %d bytes (full), %d bytes (compact)\n", mbrs.length, full, compact);
+        assert compact * 3 < full;
+        Assert.assertEquals(marshalAndUnmarshal(digest, index, compact), digest);
+
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream();
+        index.writeAddress(mbrs[499], out);
+        index.writeAddress(a1, out); // not a member
+        assert out.position() == index.size(mbrs[499]) + index.size(a1);
+        ByteArrayDataInputStream in=new ByteArrayDataInputStream(out.buffer(), 0, out.position());
+        assert index.readAddress(in).equals(mbrs[499]);
+        assert index.readAddress(in).equals(a1);
+    }
+
+    protected static Digest marshalAndUnmarshal(Digest digest, MemberIndex index, int expected_size) throws Exception {
+        byte[] buf=marshal(digest, index);
+        assert buf.length == expected_size : String.format("expected %d bytes, got %d", expected_size, buf.length);
+        Digest retval=new Digest();
+        retval.readFrom(new ByteArrayDataInputStream(buf), index);
+        return retval;
+    }
+
+    protected static byte[] marshal(Digest digest, MemberIndex index) throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(digest.serializedSize(index));
+        digest.writeTo(out, index);
+        assert out.position() == digest.serializedSize(index);
+        return Arrays.copyOf(out.buffer(), out.position());
+    }
+
+    public void testEmptyDelta() throws Exception {
+        ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(d.deltaSize(d));
+        d.writeDeltaTo(out, d);
+        assert out.position() == 1;
+        MutableDigest tmp=new MutableDigest(d);
+        tmp.readDeltaFrom(new ByteArrayDataInputStream(out.buffer(), 0, out.position()));
+        Assert.assertEquals(tmp, d);
+    }
 
+    public void testDeltaWithDifferentMembership() throws Exception {
+        Digest other=new Digest(new Address[]{a1,a2}, new long[]{1,2, 3,4});
+        try {
+            d.writeDeltaTo(new ByteArrayDataOutputStream(), other);
+            assert false : "computing a delta against a digest with a different membership should fail";
+        }
+        catch(IllegalArgumentException ex) {
+            System.out.println("caught exception as expected: " + ex);
+        }
+    }
 }
@@ -5,31 +5,52 @@ import org.jgroups.JChannel;
 import org.jgroups.blocks.executor.ExecutionRunner;
 import org.jgroups.blocks.executor.ExecutionService;
 import org.jgroups.protocols.CENTRAL_EXECUTOR;
+import org.jgroups.protocols.Executing;
 import org.jgroups.util.FutureListener;
 import org.jgroups.util.NotifyingFuture;
 import org.jgroups.util.Util;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
-/** Tests https://issues.jboss.org/browse/JGRP-1696 */
+/**
+ * Tests https://issues.jboss.org/browse/JGRP-1696, and batching of requests and work-stealing consumer queues in
+ * {@link Executing} (use_batching)
+ */
 @Test(groups={Global.FUNCTIONAL,Global.EAP_EXCLUDED}, singleThreaded=true)
 public class ExecutingServiceTest2 {
 
+    protected static final int NUM_TASKS=500;
+    /** Releases the blocked tasks ({@link Square}) */
+    protected static volatile CountDownLatch release;
+
     Set<Thread>   threads=new HashSet<>();
-    Set<JChannel> channels=new HashSet<>();
+    Set<JChannel> channels=new LinkedHashSet<>();
+
+    @BeforeMethod
+    public void setUp() {
+        release=new CountDownLatch(1);
+    }
 
     @AfterMethod
-    public void tearDown() {
+    public void tearDown() throws InterruptedException {
+        release.countDown();
         threads.forEach(Thread::interrupt);
+        for(Thread t: threads)
+            t.join(5000);
+        threads.clear();
         channels.forEach(JChannel::close);
+        channels.clear();
     }
 
     @Test
@@ -118,6 +139,114 @@ public class ExecutingServiceTest2 {
         Assert.assertEquals(submittedTasks.get(),finishedTasks.get(),"Tasks not finished");
     }
 
+    public void testBatchedTasks() throws Exception {
+        JChannel a=create("A"), b=create("B"), c=create("C");
+        for(JChannel ch: Arrays.asList(a, b, c))
+            startRunners(ch, 2);
+        ExecutionService service=new ExecutionService(b);
+        List<Future<Integer>> futures=new ArrayList<>();
+        for(int i=0; i < NUM_TASKS; i++)
+            futures.add(service.submit(new Square(i, false)));
+        for(int i=0; i < NUM_TASKS; i++)
+            assert futures.get(i).get(10, TimeUnit.SECONDS) == i * i;
+
+        assert service.getNumSubmitted() == NUM_TASKS;
+        // futures are removed after their value was set
+        Util.waitUntil(10000, 10, () -> service.getNumPending() == 0, "futures were not removed");
+        assert service.getNumCompleted() == NUM_TASKS;
+        assert service.getQueueDepth() == 0;
+        long batches=0, executed=0;
+        for(JChannel ch: Arrays.asList(a, b, c)) {
+            batches+=executing(ch).getNumBatches();
+            executed+=executing(ch).getNumExecuted();
+        }
+        assert executing(b).getNumSubmitted() == NUM_TASKS && executing(b).getNumResults() == NUM_TASKS;
+        assert executed == NUM_TASKS;
+        assert batches > 0;
+    }
+
+    /** The tasks queued behind a blocked task are stolen by an idle consumer of the same member */
+    public void testWorkStealing() throws Exception {
+        JChannel a=create("A"), c=create("C");
+        startRunners(c, 1);
+        ExecutionService service=new ExecutionService(a);
+        Future<Integer> blocked=service.submit(new Square(1, true));
+        List<Future<Integer>> futures=new ArrayList<>();
+        for(int i=0; i < 20; i++)
+            futures.add(service.submit(new Square(i, false)));
+        Util.waitUntil(10000, 10, () -> executing(c).getNumQueuedTasks() > 0, "no tasks were queued");
+
+        startRunners(c, 1); // the queue of the first consumer is not empty, so the second consumer steals tasks
+        for(int i=0; i < futures.size(); i++)
+            assert futures.get(i).get(10, TimeUnit.SECONDS) == i * i;
+        assert !blocked.isDone();
+        assert executing(c).getNumStolen() > 0;
+        release.countDown();
+        assert blocked.get(10, TimeUnit.SECONDS) == 1;
+    }
+
+    /** The tasks queued for a stopped consumer are run by other consumers */
+    public void testStoppedConsumer() throws Exception {
+        JChannel a=create("A"), b=create("B"), c=create("C");
+        Thread runner=startRunners(b, 1).get(0);
+        ExecutionService service=new ExecutionService(a);
+        List<Future<Integer>> futures=new ArrayList<>();
+        for(int i=0; i < 5; i++)
+            futures.add(service.submit(new Square(i, true)));
+        Util.waitUntil(10000, 10, () -> executing(b).getNumQueuedTasks() > 0, "no tasks were queued");
+        runner.interrupt(); // stops the consumer when the running task has completed
+        runner.join(10000);
+        release.countDown();
+        Util.waitUntil(10000, 10, () -> executing(b).getNumQueuedTasks() == 0, "queued tasks were not rejected");
+
+        startRunners(c, 1);
+        for(int i=0; i < futures.size(); i++)
+            assert futures.get(i).get(10, TimeUnit.SECONDS) == i * i;
+        assert executing(b).getNumExecuted() == 1;
+    }
+
+    protected JChannel create(String name) throws Exception {
+        JChannel ch=new JChannel(Util.getTestStack(new CENTRAL_EXECUTOR().setUseBatching(true))).name(name);
+        channels.add(ch);
+        ch.connect("ExecutingServiceTest2");
+        Util.waitUntil(10000, 100, () -> ch.getView().size() == channels.size(), "channel " + name + " didn't join");
+        return ch;
+    }
+
+    protected List<Thread> startRunners(JChannel ch, int num) {
+        ExecutionRunner runner=new ExecutionRunner(ch);
+        List<Thread> retval=new ArrayList<>();
+        for(int i=0; i < num; i++) {
+            Thread t=new Thread(runner, ch.getName() + "-runner-" + i);
+            retval.add(t);
+            t.start();
+        }
+        threads.addAll(retval);
+        return retval;
+    }
+
+    protected static Executing executing(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(Executing.class);
+    }
+
+
+    /** Squares a number. Tasks created with block=true wait until {@link #release} is counted down */
+    protected static class Square implements Callable<Integer>, Serializable {
+        private static final long serialVersionUID=-1410434427318212306L;
+        protected final int     num;
+        protected final boolean block;
+
+        public Square(int num, boolean block) {
+            this.num=num;
+            this.block=block;
+        }
+
+        public Integer call() throws Exception {
+            if(block)
+                release.await();
+            return num * num;
+        }
+    }
 
     private static final class Wait implements Callable<Void>, Serializable {
         boolean wait=false;
@@ -0,0 +1,71 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.JChannel;
+import org.jgroups.protocols.SHARED_LOOPBACK;
+import org.jgroups.protocols.SHARED_LOOPBACK_PING;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.GMS;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.pbcast.STABLE;
+import org.jgroups.util.Util;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the join-storm mode of {@link GMS}: concurrent joiners are accumulated by the coordinator and handled
+ * with fewer views
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class JoinStormTest {
+    protected static final int NUM=10;
+    protected JChannel[]       channels=new JChannel[NUM];
+
+    @AfterMethod protected void destroy() {
+        for(int i=channels.length-1; i >= 0; i--)
+            Util.close(channels[i]);
+    }
+
+    public void testConcurrentJoins() throws Exception {
+        channels[0]=create("A").connect(getClass().getSimpleName());
+        GMS gms=channels[0].getProtocolStack().findProtocol(GMS.class);
+        int views_before=gms.getNumberOfViews();
+
+        CountDownLatch latch=new CountDownLatch(1);
+        Thread[] joiners=new Thread[NUM-1];
+        for(int i=1; i < NUM; i++) {
+            final int index=i;
+            channels[i]=create(String.valueOf((char)('A' + i)));
+            joiners[i-1]=new Thread(() -> {
+                try {
+                    latch.await();
+                    channels[index].connect(JoinStormTest.class.getSimpleName());
+                }
+                catch(Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            joiners[i-1].start();
+        }
+        latch.countDown();
+        for(Thread t: joiners)
+            t.join(20000);
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, channels);
+
+        int views=gms.getNumberOfViews() - views_before;
+        System.out.printf("%d joiners were added with %d views; join storms: %d, requests per storm: %s\n",
+                          NUM-1, views, gms.getNumJoinStorms(), gms.getJoinStormSize());
+        assert gms.getNumJoinStorms() > 0;
+        assert gms.getJoinStormSizes().max() > 1;
+        assert views < NUM-1;
+    }
+
+    protected static JChannel create(String name) throws Exception {
+        return new JChannel(new SHARED_LOOPBACK(), new SHARED_LOOPBACK_PING(), new NAKACK2(), new UNICAST3(), new STABLE(),
+                            new GMS().setJoinStormThreshold(1).setMaxJoinWindow(500).joinTimeout(2000)).name(name);
+    }
+}
@@ -0,0 +1,105 @@
+package org.jgroups.tests;
+
+import org.jgroups.Global;
+import org.jgroups.util.LongMap;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tests {@link LongMap}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL)
+public class LongMapTest {
+
+    public void testPutGetRemove() {
+        LongMap<String> map=new LongMap<>();
+        assert map.isEmpty() && map.get(1) == null;
+        assert map.put(1, "one") == null;
+        assert map.put(-5, "minus five") == null;
+        assert map.put(Long.MAX_VALUE, "max") == null;
+        assert map.size() == 3;
+        assert map.get(1).equals("one") && map.get(-5).equals("minus five") && map.get(Long.MAX_VALUE).equals("max");
+        assert map.put(1, "uno").equals("one");
+        assert map.size() == 3 && map.get(1).equals("uno");
+        assert map.remove(1).equals("uno");
+        assert map.remove(1) == null;
+        assert !map.containsKey(1) && map.containsKey(-5);
+        assert map.size() == 2;
+        map.clear();
+        assert map.isEmpty() && map.get(-5) == null;
+    }
+
+    public void testNullValue() {
+        LongMap<String> map=new LongMap<>();
+        try {
+            map.put(1, null);
+            assert false : "null values must be rejected";
+        }
+        catch(NullPointerException expected) {
+        }
+    }
+
+    public void testResize() {
+        LongMap<Long> map=new LongMap<>(4);
+        int old_capacity=map.capacity();
+        for(long i=0; i < 1000; i++)
+            map.put(i, i);
+        assert map.size() == 1000 && map.capacity() > old_capacity;
+        for(long i=0; i < 1000; i++)
+            assert map.get(i) == i;
+    }
+
+    /** Removes keys from the middle of clusters, to check that the remaining keys can still be found */
+    public void testRemoveWithCollisions() {
+        LongMap<Long> map=new LongMap<>(1024);
+        for(long i=0; i < 400; i++)
+            map.put(i * map.capacity(), i);
+        for(long i=0; i < 400; i+=3)
+            assert map.remove(i * map.capacity()) == i;
+        for(long i=0; i < 400; i++) {
+            Long val=map.get(i * map.capacity());
+            assert i % 3 == 0? val == null : val == i;
+        }
+    }
+
+    public void testForEach() {
+        LongMap<Long> map=new LongMap<>();
+        for(long i=1; i <= 10; i++)
+            map.put(i, i);
+        List<Long> values=new ArrayList<>();
+        map.forEach(values::add);
+        assert values.size() == 10 && values.stream().mapToLong(Long::longValue).sum() == 55;
+    }
+
+    /** Applies random operations to a LongMap and a HashMap and compares them */
+    public void testRandomOperations() {
+        LongMap<Integer> map=new LongMap<>();
+        Map<Long,Integer> expected=new HashMap<>();
+        ThreadLocalRandom rand=ThreadLocalRandom.current();
+        for(int i=0; i < 100_000; i++) {
+            long key=rand.nextLong(500);
+            switch(rand.nextInt(3)) {
+                case 0:
+                    assert Objects.equals(map.put(key, i), expected.put(key, i));
+                    break;
+                case 1:
+                    assert Objects.equals(map.remove(key), expected.remove(key));
+                    break;
+                default:
+                    assert Objects.equals(map.get(key), expected.get(key));
+                    break;
+            }
+            assert map.size() == expected.size();
+        }
+        for(Map.Entry<Long,Integer> entry: expected.entrySet())
+            assert map.get(entry.getKey()).equals(entry.getValue());
+    }
+}
@@ -174,6 +174,39 @@ public class MembershipTest {
     }
 
 
+    public void testLargeMembership() {
+        Address[] mbrs=new Address[100];
+        for(int i=0; i < mbrs.length; i++)
+            mbrs[i]=Util.createRandomAddress(String.valueOf(i));
+        m1.add(mbrs).add(mbrs[0], mbrs[50]);
+        assert m1.size() == mbrs.length;
+        for(int i=0; i < mbrs.length; i++) {
+            assert m1.indexOf(mbrs[i]) == i;
+            assert m1.elementAt(i).equals(mbrs[i]);
+        }
+
+        m1.remove(mbrs[0]).remove(Arrays.asList(mbrs[10], mbrs[11], mbrs[99]));
+        assert m1.size() == 96;
+        assert !m1.contains(mbrs[0]) && !m1.contains(mbrs[10]) && !m1.contains(mbrs[99]);
+        assert m1.indexOf(mbrs[1]) == 0 && m1.indexOf(mbrs[12]) == 9 && m1.indexOf(mbrs[98]) == 95;
+
+        m1.retainAll(Arrays.asList(mbrs).subList(80, 100));
+        assert m1.size() == 19;
+        for(int i=0; i < m1.size(); i++)
+            assert m1.indexOf(m1.elementAt(i)) == i;
+
+        m1.add(mbrs[0]);
+        assert m1.indexOf(mbrs[0]) == 19;
+        m1.sort();
+        for(int i=0; i < m1.size(); i++)
+            assert m1.indexOf(m1.elementAt(i)) == i;
+        assert m1.copy().getMembers().equals(m1.getMembers());
+
+        m1.clear();
+        assert m1.size() == 0 && !m1.contains(mbrs[80]) && m1.indexOf(mbrs[80]) == -1;
+    }
+
+
     private static String printUUIDs(Membership mbrs) {
         StringBuilder sb=new StringBuilder();
         boolean first=true;
@@ -4,6 +4,7 @@ import org.jgroups.*;
 import org.jgroups.jmx.JmxConfigurator;
 import org.jgroups.logging.Log;
 import org.jgroups.logging.LogFactory;
+import org.jgroups.protocols.DELAY;
 import org.jgroups.protocols.DISCARD;
 import org.jgroups.protocols.SHARED_LOOPBACK;
 import org.jgroups.protocols.SHARED_LOOPBACK_PING;
@@ -61,6 +62,7 @@ public class MergeTest2 {
                                        .setValue("log_discard_msgs",false).setValue("log_not_found_msgs",false),
                                      new UNICAST3(),
                                      new STABLE().setValue("max_bytes",50000),
+                                     new DELAY().setValue("constant_delay",true),
                                      new GMS().setValue("print_local_addr",false)
                                        .setValue("leave_timeout",100)
                                        .setValue("merge_timeout",3000)
@@ -141,6 +143,66 @@ public class MergeTest2 {
         }
     }
 
+    /** Same as above, but with merge_straggler_timeout: the merge doesn't wait for merge_timeout for the faulty member */
+    public void testMergeWithStraggler() {
+        JChannel merge_leader=findMergeLeader(a,b,c,d);
+        List<JChannel> tmp=new ArrayList<>(Arrays.asList(a,b,c,d));
+        tmp.remove(merge_leader);
+        JChannel faulty_member=Util.pickRandomElement(tmp);
+
+        Map<Address,View> merge_views=new HashMap<>(4);
+        for(JChannel ch: new JChannel[]{a,b,c,d}) {
+            ((GMS)ch.getProtocolStack().findProtocol(GMS.class)).setMergeStragglerTimeout(300);
+            if(ch != faulty_member)
+                ((DISCARD)ch.getProtocolStack().findProtocol(DISCARD.class)).setDiscardAll(false);
+            merge_views.put(ch.getAddress(), ch.getView());
+        }
+
+        GMS gms=merge_leader.getProtocolStack().findProtocol(GMS.class);
+        long start=System.currentTimeMillis();
+        gms.up(new Event(Event.MERGE, merge_views));
+
+        for(int i=0; i < 100; i++) {
+            if(Arrays.stream(new JChannel[]{a,b,c,d}).filter(ch -> ch != faulty_member).allMatch(ch -> ch.getView().size() == 3))
+                break;
+            Util.sleep(50);
+        }
+        long time=System.currentTimeMillis() - start;
+        System.out.printf("merge took %d ms, stragglers: %d\n", time, gms.getNumMergeStragglers());
+        for(JChannel ch: new JChannel[]{a,b,c,d})
+            assert ch.getView().size() == (ch == faulty_member? 1 : 3) : ch.getAddress() + "'s view: " + ch.getView();
+        assert gms.getNumMergeStragglers() == 1;
+        assert time < gms.getMergeTimeout() : String.format("merge took %d ms", time);
+    }
+
+    /** The straggler responds after it was excluded from the merge; its subgroup is then merged incrementally */
+    public void testIncrementalMergeOfStraggler() throws Exception {
+        JChannel merge_leader=findMergeLeader(a,b,c,d);
+        List<JChannel> tmp=new ArrayList<>(Arrays.asList(a,b,c,d));
+        tmp.remove(merge_leader);
+        JChannel straggler=Util.pickRandomElement(tmp);
+        DELAY delay=straggler.getProtocolStack().findProtocol(DELAY.class);
+        delay.setOutDelay(1000); // > merge_straggler_timeout, < merge_timeout
+
+        Map<Address,View> merge_views=new HashMap<>(4);
+        for(JChannel ch: new JChannel[]{a,b,c,d}) {
+            ((GMS)ch.getProtocolStack().findProtocol(GMS.class)).setMergeStragglerTimeout(300);
+            ((DISCARD)ch.getProtocolStack().findProtocol(DISCARD.class)).setDiscardAll(false);
+            merge_views.put(ch.getAddress(), ch.getView());
+        }
+
+        GMS gms=merge_leader.getProtocolStack().findProtocol(GMS.class);
+        gms.up(new Event(Event.MERGE, merge_views));
+        Util.waitUntil(5000, 50, () -> Arrays.stream(new JChannel[]{a,b,c,d}).filter(ch -> ch != straggler)
+                         .allMatch(ch -> ch.getView().size() == 3), "the non-straggling members should have merged");
+        assert straggler.getView().size() == 1 && gms.getNumMergeStragglers() == 1;
+        delay.setOutDelay(0);
+
+        // no new MERGE event is injected: the late merge response of the straggler triggers the merge
+        Util.waitUntil(10000, 100, () -> Arrays.stream(new JChannel[]{a,b,c,d}).allMatch(ch -> ch.getView().size() == 4),
+                       "the straggler's subgroup should have been merged");
+    }
+
     protected JChannel findMergeLeader(JChannel ... channels) {
         Set<Address> tmp=new TreeSet<>();
         for(JChannel ch: channels)
@@ -4,20 +4,25 @@ import org.jgroups.*;
 import org.jgroups.protocols.*;
 import org.jgroups.protocols.pbcast.GMS;
 import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.protocols.relay.BridgeCodec;
 import org.jgroups.protocols.relay.RELAY2;
 import org.jgroups.protocols.relay.Route;
 import org.jgroups.protocols.relay.SiteMaster;
 import org.jgroups.protocols.relay.SiteMasterPicker;
 import org.jgroups.protocols.relay.config.RelayConfig;
 import org.jgroups.stack.Protocol;
+import org.jgroups.stack.ProtocolStack;
+import org.jgroups.util.Bits;
+import org.jgroups.util.ByteArrayDataOutputStream;
 import org.jgroups.util.Util;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.DataFormatException;
 
 /**
  * Various RELAY2-related tests
@@ -302,6 +307,127 @@ public class Relay2Test {
         assert rz.getList().isEmpty();
     }
 
+    /**
+     * A, B and C in LON send messages to the site master of SFO concurrently. Since the bridge is slow, messages queue
+     * up and are relayed in batches; X needs to receive all messages, in the order in which they were sent by A, B and C
+     */
+    public void testBatchedRelaying() throws Exception {
+        final int NUM=500;
+        MySenderReceiver rx=new MySenderReceiver();
+        a=createNode(LON, "A", LON_CLUSTER, null);
+        b=createNode(LON, "B", LON_CLUSTER, null);
+        c=createNode(LON, "C", LON_CLUSTER, null);
+        Util.waitUntilAllChannelsHaveSameView(10000, 500, a,b,c);
+        x=createNode(SFO, "X", SFO_CLUSTER, rx);
+        waitForBridgeView(2, 10000, 500, a,x);
+        for(JChannel ch: Arrays.asList(a,b,c,x))
+            ((RELAY2)ch.getProtocolStack().findProtocol(RELAY2.class)).setMaxRelayBatchSize(64000);
+        JChannel bridge=((RELAY2)a.getProtocolStack().findProtocol(RELAY2.class)).getBridge(SFO);
+        bridge.getProtocolStack().insertProtocol(new SLOW(), ProtocolStack.Position.BELOW, GMS.class);
+
+        SiteMaster target_sm=new SiteMaster(SFO);
+        CountDownLatch latch=new CountDownLatch(1);
+        List<Thread> senders=new ArrayList<>();
+        for(JChannel ch: Arrays.asList(a,b,c)) {
+            Thread t=new Thread(() -> {
+                try {
+                    latch.await();
+                    for(int i=1; i <= NUM; i++)
+                        ch.send(target_sm, i);
+                }
+                catch(Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            t.start();
+            senders.add(t);
+        }
+        latch.countDown();
+        for(Thread t: senders)
+            t.join(20000);
+
+        for(int i=0; i < 30 && rx.size() < NUM * 3; i++)
+            Util.sleep(500);
+        RELAY2 relay=a.getProtocolStack().findProtocol(RELAY2.class);
+        assert rx.size() == NUM * 3;
+        assert relay.getNumRelayedBatches() > 0;
+        for(Map.Entry<Address,List<Object>> entry: rx.map.entrySet()) {
+            List<Object> list=entry.getValue();
+            assert list.size() == NUM : String.format("%s: %d messages", entry.getKey(), list.size());
+            for(int i=0; i < list.size(); i++)
+                assert list.get(i).equals(i+1) : String.format("%s: expected %d but got %d", entry.getKey(), i+1, list.get(i));
+        }
+    }
+
+    /**
+     * A in LON sends messages with identical payloads and messages with compressible payloads to X in SFO. The
+     * messages are compressed and identical payloads are sent only once
+     */
+    public void testCompressedRelaying() throws Exception {
+        final int NUM=200;
+        MySenderReceiver rx=new MySenderReceiver();
+        a=createNode(LON, "A", LON_CLUSTER, null);
+        x=createNode(SFO, "X", SFO_CLUSTER, rx);
+        waitForBridgeView(2, 10000, 500, a,x);
+        RELAY2 relay=a.getProtocolStack().findProtocol(RELAY2.class);
+        relay.compressRelayedMessages(true);
+
+        char[] tmp=new char[1000];
+        Arrays.fill(tmp, 'X');
+        String payload=new String(tmp);
+        SiteMaster target_sm=new SiteMaster(SFO);
+        for(int i=1; i <= NUM; i++) {
+            a.send(target_sm, i);
+            a.send(target_sm, payload);
+        }
+        for(int i=0; i < 20 && rx.size() < NUM * 2; i++)
+            Util.sleep(500);
+
+        RELAY2.SiteStats stats=relay.getSiteStats(SFO);
+        System.out.printf("X received %d messages, stats for %s: %s\n", rx.size(), SFO, stats);
+        assert rx.size() == NUM * 2;
+        assert rx.map.size() == 1;
+        List<Object> list=rx.map.values().iterator().next();
+        for(int i=0; i < NUM; i++) {
+            assert list.get(i * 2).equals(i + 1);
+            assert list.get(i * 2 + 1).equals(payload);
+        }
+        assert stats.dedupHits() >= NUM - 1;
+        assert stats.sentBytes() < stats.relayedBytes();
+    }
+
+    /** A frame with an invalid uncompressed length fails to decode (so that a new stream is requested) */
+    public void testInvalidUncompressedLength() throws Exception {
+        BridgeCodec.Decoder decoder=new BridgeCodec.Decoder();
+        try {
+            for(int length: new int[]{-1, 100 * BridgeCodec.MAX_COMPRESSION_RATIO + 1}) {
+                ByteArrayDataOutputStream out=new ByteArrayDataOutputStream(64);
+                Bits.writeLong(1, out);       // stream ID
+                Bits.writeLong(0, out);       // seqno
+                Bits.writeInt(length, out);   // uncompressed length
+                out.write(new byte[100]);     // compressed data
+                try {
+                    decoder.decode(out.buffer(), 0, out.position());
+                    assert false : "uncompressed length " + length + " should have been rejected";
+                }
+                catch(DataFormatException expected) {
+                    System.out.println("got expected exception: " + expected);
+                }
+            }
+        }
+        finally {
+            decoder.end();
+        }
+    }
+
+    /** Slows down sending of messages, so that they queue up in RELAY2 */
+    protected static class SLOW extends Protocol {
+        public Object down(Message msg) {
+            Util.sleep(1);
+            return down_prot.down(msg);
+        }
+    }
+
     protected static class SiteMasterPickerImpl implements SiteMasterPicker {
 
         public SiteMasterPickerImpl() {
@@ -432,6 +558,16 @@ public class Relay2Test {
     }
 
 
+    protected static class MySenderReceiver extends ReceiverAdapter {
+        protected final Map<Address,List<Object>> map=new ConcurrentHashMap<>();
+
+        public int size() {return map.values().stream().mapToInt(List::size).sum();}
+
+        public void receive(Message msg) {
+            map.computeIfAbsent(msg.src(), k -> Collections.synchronizedList(new ArrayList<>())).add(msg.getObject());
+        }
+    }
+
     protected static class MyReceiver extends ReceiverAdapter {
         protected final List<Integer> list=new ArrayList<>(512);
 
@@ -0,0 +1,84 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.Global;
+import org.jgroups.protocols.relay.ConsistentHashSiteMasterPicker;
+import org.jgroups.protocols.relay.SiteMasterPicker;
+import org.jgroups.protocols.relay.SiteUUID;
+import org.jgroups.util.UUID;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+/**
+ * Tests {@link ConsistentHashSiteMasterPicker}
+ * @author agent
+ * @since  4.0.9
+ */
+@Test(groups=Global.FUNCTIONAL,singleThreaded=true)
+public class SiteMasterPickerTest {
+    protected static final int NUM_SENDERS=10000;
+    protected final SiteMasterPicker picker=new ConsistentHashSiteMasterPicker();
+
+    /** Senders are spread evenly over the site masters, and always pick the same one */
+    public void testDistribution() {
+        List<Address> site_masters=createAddresses(4);
+        List<Address> senders=createAddresses(NUM_SENDERS);
+        Map<Address,Address> picks=pick(site_masters, senders);
+        Map<Address,Integer> counts=new HashMap<>();
+        picks.values().forEach(sm -> counts.merge(sm, 1, Integer::sum));
+        System.out.println("distribution: " + counts.values());
+        assert counts.size() == site_masters.size();
+        for(int count: counts.values())
+            assert count > NUM_SENDERS / site_masters.size() * 0.8 && count < NUM_SENDERS / site_masters.size() * 1.2 : counts;
+
+        // a SiteUUID of a sender picks the same site master as its UUID
+        for(Address sender: senders.subList(0, 100)) {
+            assert picker.pickSiteMaster(site_masters, sender).equals(picks.get(sender));
+            Address site_uuid=new SiteUUID((UUID)sender, "x", "lon");
+            assert picker.pickSiteMaster(site_masters, site_uuid).equals(picks.get(sender));
+        }
+    }
+
+    /** Adding a site master only moves senders to it; removing one only moves its senders */
+    public void testMinimalMovement() {
+        List<Address> site_masters=createAddresses(4);
+        List<Address> senders=createAddresses(NUM_SENDERS);
+        Map<Address,Address> before=pick(site_masters, senders);
+
+        Address new_sm=createAddresses(1).get(0);
+        List<Address> more=new ArrayList<>(site_masters);
+        more.add(new_sm);
+        Map<Address,Address> after=pick(more, senders);
+        int moved=0;
+        for(Address sender: senders) {
+            if(!before.get(sender).equals(after.get(sender))) {
+                assert after.get(sender).equals(new_sm);
+                moved++;
+            }
+        }
+        System.out.printf("%d senders moved to the new site master\n", moved);
+        assert moved > NUM_SENDERS / more.size() * 0.8 && moved < NUM_SENDERS / more.size() * 1.2;
+
+        Address removed=site_masters.get(0);
+        List<Address> fewer=new ArrayList<>(site_masters);
+        fewer.remove(removed);
+        after=pick(fewer, senders);
+        for(Address sender: senders)
+            assert before.get(sender).equals(removed) || before.get(sender).equals(after.get(sender));
+    }
+
+    protected Map<Address,Address> pick(List<Address> site_masters, List<Address> senders) {
+        Map<Address,Address> retval=new HashMap<>(senders.size());
+        for(Address sender: senders)
+            retval.put(sender, picker.pickSiteMaster(site_masters, sender));
+        return retval;
+    }
+
+    protected static List<Address> createAddresses(int num) {
+        List<Address> retval=new ArrayList<>(num);
+        for(int i=0; i < num; i++)
+            retval.add(UUID.randomUUID());
+        return retval;
+    }
+}
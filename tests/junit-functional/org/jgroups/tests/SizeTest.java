@@ -137,6 +137,19 @@ public class SizeTest {
     }
 
 
+    public static void testSwimHeader() throws Exception {
+        Address a=Util.createRandomAddress("A"), b=Util.createRandomAddress("B");
+        _testSize(new SWIM.SwimHeader(SWIM.SwimHeader.PING, 0, 1, null, null));
+        _testSize(new SWIM.SwimHeader(SWIM.SwimHeader.PING_REQ, 3, 322649, a, null));
+        SWIM.SwimHeader hdr=new SWIM.SwimHeader(SWIM.SwimHeader.ACK, 2, 322649, a, b)
+          .updates(new SWIM.Update[]{new SWIM.Update(a, SWIM.Update.SUSPECT, 2), new SWIM.Update(b, SWIM.Update.ALIVE, 5)});
+        _testSize(hdr);
+        SWIM.SwimHeader hdr2=Util.streamableFromByteBuffer(SWIM.SwimHeader.class, Util.streamableToByteBuffer(hdr));
+        assert hdr2.updates().length == 2;
+        assert hdr2.updates()[1].mbr().equals(b) && hdr2.updates()[1].incarnation() == 5;
+    }
+
+
     public static void testFdHeaders() throws Exception {
         FD.FdHeader hdr=new FD.FdHeader(FD.FdHeader.HEARTBEAT_ACK);
         _testSize(hdr);
@@ -217,6 +230,10 @@ public class SizeTest {
         _testSize(hdr);
         _testMarshalling(hdr);
 
+        hdr=UnicastHeader3.createDataHeader(322649, (short)127, true).piggybackAck(1234, (short)3, 500601);
+        _testSize(hdr);
+        _testMarshalling(hdr);
+
         hdr=UnicastHeader3.createXmitReqHeader();
         _testSize(hdr);
         _testMarshalling(hdr);
@@ -240,6 +257,14 @@ public class SizeTest {
         org.jgroups.protocols.SEQUENCER.SequencerHeader hdr;
         hdr=new SEQUENCER.SequencerHeader((byte)1, 1L);
         _testSize(hdr);
+        hdr=new SEQUENCER.SequencerHeader((byte)5, 322649L, 50);
+        _testSize(hdr);
+    }
+
+    public static void testShardHeader() throws Exception {
+        _testSize(new SHARDED_SEQUENCER.ShardHeader(3));
+        _testSize(new SHARDED_SEQUENCER.ShardHeader("key".hashCode()));
+        _testSize(new SHARDED_SEQUENCER.ShardHeader(-1));
     }
 
 
@@ -837,6 +862,9 @@ public class SizeTest {
         assert hdr.connId()     == hdr2.connId();
         assert hdr.first()      == hdr2.first();
         assert hdr.timestamp()  == hdr.timestamp();
+        assert hdr.hasAck()     == hdr2.hasAck();
+        assert hdr.ackSeqno()   == hdr2.ackSeqno();
+        assert hdr.ackConnId()  == hdr2.ackConnId();
     }
 
     private static void _testSize(Digest digest) throws Exception {
@@ -158,6 +158,44 @@ public class ViewHandlerTest {
         assert list.equals(Arrays.asList(1,2,3,4,5,6,7,8,9,10));
     }
 
+    /** Requests added while the first request waits in the accumulator are processed together with it */
+    public void testAccumulation() throws Exception {
+        List<List<Integer>> batches=new ArrayList<>();
+        req_handler=list -> batches.add(new ArrayList<>(list));
+        req_matcher=(a,b) -> true;
+        view_handler.accumulator(new ViewHandler.Accumulator<Integer>() {
+            public long maxWait(Integer first) {return 5000;}
+            public long quietPeriod()          {return 200;}
+        });
+        Thread first=new Thread(() -> view_handler.add(1)); // blocks until the accumulation is done
+        first.start();
+        for(int i=2; i <= 10; i++) {
+            Util.sleep(20);
+            view_handler.add(i);
+        }
+        first.join(5000);
+        System.out.printf("batches: %s\n", batches);
+        assert batches.size() == 1;
+        assert batches.get(0).equals(Arrays.asList(1,2,3,4,5,6,7,8,9,10));
+    }
+
+    /** Accumulation ends after the max wait time, even if requests keep being added */
+    public void testAccumulationMaxWait() throws Exception {
+        List<Integer> list=new ArrayList<>();
+        req_handler=list::addAll;
+        req_matcher=(a,b) -> true;
+        view_handler.accumulator(new ViewHandler.Accumulator<Integer>() {
+            public long maxWait(Integer first) {return first == 1? 300 : 0;}
+            public long quietPeriod()          {return 1000;}
+        });
+        long start=System.currentTimeMillis();
+        view_handler.add(1);
+        long time=System.currentTimeMillis() - start;
+        System.out.printf("took %d ms\n", time);
+        assert time >= 300 && time < 1000;
+        assert list.equals(Collections.singletonList(1));
+    }
+
     public void testDuplicateRequestsJoin() {
         Collection<GmsImpl.Request> reqs=new LinkedHashSet<>();
         reqs.add(new GmsImpl.Request(GmsImpl.Request.JOIN, a));
@@ -266,6 +266,23 @@ public class ViewTest {
         Assert.assertEquals(members, mbrs);
     }
 
+    public void testIndexOf() throws Exception {
+        assert view.indexOf(a) == 0 && view.indexOf(h) == 7;
+        assert view.indexOf(i) == -1 && view.indexOf(null) == -1;
+
+        Address[] mbrs=new Address[500];
+        for(int j=0; j < mbrs.length; j++)
+            mbrs[j]=Util.createRandomAddress(String.valueOf(j));
+        View large=View.create(mbrs[0], 1, mbrs);
+        for(int j=0; j < mbrs.length; j++)
+            assert large.indexOf(mbrs[j]) == j;
+        assert !large.containsMember(i) && large.containsMembers(mbrs[0], mbrs[250], mbrs[499]);
+
+        View copy=Util.streamableFromByteBuffer(View.class, Util.streamableToByteBuffer(large));
+        for(int j=0; j < mbrs.length; j++)
+            assert copy.indexOf(mbrs[j]) == j;
+    }
+
     protected static String printDiff(Address[][] diff) {
         StringBuilder sb=new StringBuilder();
         Address[] joined=diff[0], left=diff[1];
@@ -7,6 +7,7 @@ import org.jgroups.Global;
 import org.jgroups.JChannel;
 import org.jgroups.Message;
 import org.jgroups.ReceiverAdapter;
+import org.jgroups.protocols.SEQUENCER;
 import org.jgroups.protocols.SHUFFLE;
 import org.jgroups.protocols.pbcast.NAKACK2;
 import org.jgroups.stack.ProtocolStack;
@@ -15,9 +16,11 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 
 /**
@@ -96,6 +99,58 @@ public class SequencerOrderTest {
         verifySameOrder(EXPECTED_MSGS, l1, l2, l3);
     }
 
+    /** Messages sent concurrently are forwarded to the coordinator in batches, and delivered in the same order */
+    public void testBatchedForwarding() throws Exception {
+        for(JChannel ch: Arrays.asList(a,b,c))
+            sequencer(ch).setMaxBatchSize(64000);
+        for(Sender sender: senders)
+            sender.start();
+        for(Sender sender: senders)
+            sender.join(60000);
+
+        final List<String> l1=r1.getMsgs();
+        final List<String> l2=r2.getMsgs();
+        final List<String> l3=r3.getMsgs();
+        verifyNumberOfMessages(EXPECTED_MSGS, l1, l2, l3);
+        verifySameOrder(EXPECTED_MSGS, l1, l2, l3);
+
+        long batches=Stream.of(a,b,c).mapToLong(ch -> sequencer(ch).getNumForwardedBatches()).sum();
+        assert batches > 0;
+        assert sequencer(a).getNumBcastBatches() == batches;
+    }
+
+    /** Duplicate seqnos are detected; seqnos which have not been recorded are delivered */
+    public void testDelivered() {
+        SEQUENCER.Delivered d=new SEQUENCER.Delivered();
+        for(long i=5; i <= 10; i++)
+            assert d.add(i, 10);
+        assert d.base() == 5 && d.low() == 10;
+        assert !d.add(10, 10) && !d.add(5, 10);
+
+        // seqnos below the first seqno received (e.g. forwarded late to a new coordinator) are delivered once
+        assert d.add(3, 10) && !d.add(3, 10);
+        assert d.base() == 3 && d.low() == 3 : d;
+        assert d.add(4, 10);
+        assert d.base() == 3 && d.low() == 10 : d;
+
+        assert d.add(13, 10) && d.add(12, 10);
+        assert !d.add(13, 10);
+        assert d.low() == 10;
+        assert d.add(11, 10);
+        assert d.low() == 13 : d;
+
+        // a seqno beyond the window moves it up; the seqnos below it which have not been received are still delivered
+        assert d.add(15, 10) && d.add(30, 10);
+        assert d.low() == 20 && d.base() == 21 : d;
+        assert d.add(14, 10) && d.add(20, 10);
+        assert d.add(21, 10) && !d.add(21, 10);
+        assert !d.add(30, 10);
+    }
+
+    protected static SEQUENCER sequencer(JChannel ch) {
+        return ch.getProtocolStack().findProtocol(SEQUENCER.class);
+    }
+
     protected static void insertShuffle(JChannel... channels) throws Exception {
         for(JChannel ch: channels) {
             SHUFFLE shuffle=new SHUFFLE();
@@ -0,0 +1,67 @@
+package org.jgroups.tests;
+
+import org.jgroups.Address;
+import org.jgroups.util.Digest;
+import org.jgroups.util.MutableDigest;
+import org.jgroups.util.Util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the merging of digests (as done by STABLE and Merger) and lookups of members in digests, for 100, 500 and
+ * 1000 members (or the sizes passed as arguments). Digests with the same members use the aligned fast path; digests
+ * with a different member order use hashed lookups.
+ * @author agent
+ * @since  4.0.9
+ */
+public class DigestPerf {
+    protected static final int WARMUP=5_000, ITERATIONS=20_000;
+
+    public static void main(String[] args) {
+        int[] sizes={100, 500, 1000};
+        if(args.length > 0)
+            sizes=Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        for(int size: sizes)
+            run(size);
+    }
+
+    protected static void run(int size) {
+        Address[] mbrs=new Address[size], reversed=new Address[size];
+        for(int i=0; i < size; i++)
+            mbrs[i]=Util.createRandomAddress(String.valueOf(i));
+        for(int i=0; i < size; i++)
+            reversed[i]=mbrs[size-1-i];
+
+        // same members (from the same view), but a different array, as it would be after unmarshalling
+        Digest same=create(Arrays.copyOf(mbrs, size)), different=create(reversed);
+        MutableDigest target=new MutableDigest(mbrs);
+
+        System.out.printf("%d members:\n", size);
+        System.out.printf("  mergeMin (same members):      %s\n", time(() -> target.mergeMin(same)));
+        System.out.printf("  mergeMin (different order):   %s\n", time(() -> target.mergeMin(different)));
+        System.out.printf("  merge    (same members):      %s\n", time(() -> target.merge(same)));
+        System.out.printf("  merge    (different order):   %s\n", time(() -> target.merge(different)));
+        System.out.printf("  get() of all members:         %s\n", time(() -> {
+            for(Address mbr: mbrs)
+                different.get(mbr);
+        }));
+    }
+
+    protected static Digest create(Address[] mbrs) {
+        MutableDigest digest=new MutableDigest(mbrs);
+        for(int i=0; i < mbrs.length; i++)
+            digest.set(mbrs[i], (long)Util.random(1000), 1000 + (long)Util.random(1000));
+        return digest;
+    }
+
+    protected static String time(Runnable r) {
+        for(int i=0; i < WARMUP; i++)
+            r.run();
+        long start=System.nanoTime();
+        for(int i=0; i < ITERATIONS; i++)
+            r.run();
+        long avg=(System.nanoTime() - start) / ITERATIONS;
+        return String.format("%,d ns/op (%,.2f us)", avg, avg / (double)TimeUnit.MICROSECONDS.toNanos(1));
+    }
+}
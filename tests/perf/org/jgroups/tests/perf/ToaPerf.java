@@ -0,0 +1,125 @@
+package org.jgroups.tests.perf;
+
+import org.jgroups.*;
+import org.jgroups.protocols.tom.TOA;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of {@link TOA} and the memory allocated per anycast, without a network: the members are
+ * TOA instances in the same JVM, connected by a protocol which passes a message directly to the destination's TOA.
+ * The data, propose and final messages are therefore processed by the sending thread, so the bytes allocated by that
+ * thread are an approximation of those allocated by all members to send and order an anycast (excluding the delivery
+ * threads).<p/>
+ * Anycasts are sent to 3, 5 and 10 members by default (-dests 3,5,10).
+ * @author agent
+ * @since  4.0.9
+ */
+public class ToaPerf {
+    protected final Map<Address,TOA> members=new HashMap<>();
+    protected final List<Address>    addresses=new ArrayList<>();
+    protected final LongAdder        delivered=new LongAdder();
+
+    protected void init(int num_members) throws Exception {
+        for(int i=0; i < num_members; i++)
+            addresses.add(Util.createRandomAddress(String.valueOf((char)('A' + i % 26)) + (i / 26)));
+        View view=new View(addresses.get(0), 1, addresses);
+        for(Address addr: addresses) {
+            TOA toa=new TOA();
+            toa.setUpProtocol(new Protocol() {
+                public Object up(Message msg) {
+                    delivered.increment();
+                    return null;
+                }
+            });
+            toa.setDownProtocol(new Protocol() {
+                public Object down(Message msg) {
+                    Message copy=msg.copy(true, true).src(addr);
+                    members.get(msg.getDest()).up(copy);
+                    return null;
+                }
+                public Object down(Event evt) {return null;}
+            });
+            toa.start();
+            toa.down(new Event(Event.SET_LOCAL_ADDRESS, addr));
+            toa.down(new Event(Event.VIEW_CHANGE, view));
+            members.put(addr, toa);
+        }
+    }
+
+    protected void stop() {
+        members.values().forEach(TOA::stop);
+    }
+
+    /** Sends num_msgs anycasts from the first member to num_dests members (including itself) and waits for delivery */
+    protected void run(int num_dests, int num_msgs, int msg_size, boolean print) throws Exception {
+        List<Address> dests=addresses.subList(0, num_dests);
+        TOA sender=members.get(addresses.get(0));
+        byte[] payload=new byte[msg_size];
+        ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+        boolean alloc=bean instanceof com.sun.management.ThreadMXBean;
+        long tid=Thread.currentThread().getId();
+
+        delivered.reset();
+        long start_alloc=alloc? ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(tid) : 0;
+        long start=System.nanoTime();
+        for(int i=0; i < num_msgs; i++)
+            sender.down(new Message(new AnycastAddress(dests), payload));
+        long sent_alloc=alloc? ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(tid) - start_alloc : -1;
+        long expected=(long)num_msgs * num_dests;
+        while(delivered.sum() < expected)
+            Thread.sleep(1);
+        long time=System.nanoTime() - start;
+
+        if(print)
+            System.out.printf("%2d dests: %,10.0f anycasts/sec, %,8.2f us/anycast, %s\n",
+                              num_dests, num_msgs / (time / 1_000_000_000.0), time / 1000.0 / num_msgs,
+                              alloc? String.format("%,d bytes allocated/anycast (sending thread)", sent_alloc / num_msgs)
+                                : "allocations not available");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int num_msgs=100_000, warmup=20_000, msg_size=100;
+        int[] num_dests={3, 5, 10};
+        for(int i=0; i < args.length; i++) {
+            switch(args[i]) {
+                case "-num_msgs": num_msgs=Integer.parseInt(args[++i]); break;
+                case "-warmup":   warmup=Integer.parseInt(args[++i]);   break;
+                case "-size":     msg_size=Integer.parseInt(args[++i]); break;
+                case "-dests":
+                    String[] tmp=args[++i].split(",");
+                    num_dests=new int[tmp.length];
+                    for(int j=0; j < tmp.length; j++)
+                        num_dests[j]=Integer.parseInt(tmp[j].trim());
+                    break;
+                default:
+                    System.out.println("ToaPerf [-num_msgs <anycasts>] [-warmup <anycasts>] [-size <bytes>] " +
+                                         "[-dests <comma-separated list of anycast sizes>]");
+                    return;
+            }
+        }
+
+        int max=0;
+        for(int n: num_dests)
+            max=Math.max(max, n);
+        ToaPerf perf=new ToaPerf();
+        perf.init(max);
+        try {
+            for(int n: num_dests) {
+                perf.run(n, warmup, msg_size, false);
+                perf.run(n, num_msgs, msg_size, true);
+            }
+        }
+        finally {
+            perf.stop();
+        }
+    }
+}